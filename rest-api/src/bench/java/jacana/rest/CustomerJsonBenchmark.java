@@ -0,0 +1,113 @@
+package jacana.rest;
+
+import jacana.service.Customer;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.MediaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares CustomerJsonCodec with JSON-B writing a List of {size}
+ * Customers, as for GET /customers, and reading a single Customer, as
+ * for POST /customers. Run with the gc profiler to compare allocation:
+ *   mvn -Pbench test-compile exec:exec@bench -Dbench.main=org.openjdk.jmh.Main -Dbench.jvmArgs= \
+ *       -Dbench.args="CustomerJsonBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CustomerJsonBenchmark {
+
+    private static final Type CUSTOMER_LIST_TYPE = new GenericType<List<Customer>>() {}.getType();
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    @Param({"1000", "100000"})
+    int size;
+
+    private final CustomerJsonCodec codec = new CustomerJsonCodec();
+    private Jsonb jsonb;
+    private List<Customer> customers;
+    private byte[] customerJson;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setUp() {
+        jsonb = JsonbBuilder.create();
+        customers = new ArrayList<>(size);
+        for ( int i = 0; i < size; i++ ) {
+            customers.add(customer(i));
+        }
+        customerJson = jsonb.toJson(customers.get(0)).getBytes(StandardCharsets.UTF_8);
+        output = new ByteArrayOutputStream(size * 256);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        jsonb.close();
+    }
+
+    @Benchmark
+    public int writeListCodec() throws IOException {
+        output.reset();
+        codec.writeTo(customers, List.class, CUSTOMER_LIST_TYPE, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+                null, output);
+        return output.size();
+    }
+
+    @Benchmark
+    public int writeListJsonb() {
+        output.reset();
+        jsonb.toJson(customers, CUSTOMER_LIST_TYPE, output);
+        return output.size();
+    }
+
+    @Benchmark
+    public Customer readCustomerCodec() throws IOException {
+        return codec.readFrom(Customer.class, Customer.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+                null, new ByteArrayInputStream(customerJson));
+    }
+
+    @Benchmark
+    public Customer readCustomerJsonb() {
+        return jsonb.fromJson(new ByteArrayInputStream(customerJson), Customer.class);
+    }
+
+    private static Customer customer(int i) {
+        Customer customer = new Customer();
+        customer.setGuid(UUID.randomUUID().toString());
+        customer.setNamePrefix("Mr");
+        customer.setNameSuffix("Jr");
+        customer.setNameSurname("Name" + i);
+        customer.setNameMiddle("M");
+        customer.setNameFamily("Family" + i);
+        customer.setEmail("customer" + i + "@example.com");
+        customer.setPhoneNumber(String.format("+1 555 %07d", i));
+        return customer;
+    }
+}
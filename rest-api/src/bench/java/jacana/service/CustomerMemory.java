@@ -0,0 +1,72 @@
+package jacana.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the heap retained per held Customer bean and per CustomerRecord,
+ * as the difference in used heap after a full GC with and without an array
+ * of {count} of them (default 200000).
+ *
+ * Every Customer has a UUID guid, one of 4 prefixes and suffixes, short
+ * names, an email and a phone number. Each String is a separate instance,
+ * as when the Customers are read from JSON or the database, so the figures
+ * include the sharing of prefixes and suffixes done by CustomerRecord.
+ *
+ * Run with a single-threaded collector so the used heap is stable:
+ *   mvn -Pbench test-compile exec:exec@bench -Dbench.main=jacana.service.CustomerMemory
+ */
+public class CustomerMemory {
+
+    private static final String[] PREFIXES = {"Mr", "Mrs", "Ms", "Dr"};
+    private static final String[] SUFFIXES = {"Jr", "Sr", "Ph.D.", "III"};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        // Load and initialize the classes first so they are not counted.
+        measure(1000, CustomerMemory::customer);
+        measure(1000, i -> CustomerRecord.from(customer(i)));
+
+        System.out.printf("Customer bean:   %d bytes%n", measure(count, CustomerMemory::customer) / count);
+        System.out.printf("CustomerRecord:  %d bytes%n",
+                measure(count, i -> CustomerRecord.from(customer(i))) / count);
+    }
+
+    /**
+     * Returns the heap retained by {count} objects made by {factory}.
+     */
+    private static long measure(int count, IntFunction<Object> factory) {
+        long before = usedHeap();
+        Object[] held = new Object[count];
+        for ( int i = 0; i < count; i++ ) {
+            held[i] = factory.apply(i);
+        }
+        long after = usedHeap();
+        Reference.reachabilityFence(held);
+        return after - before;
+    }
+
+    private static Customer customer(int i) {
+        Customer customer = new Customer();
+        customer.setGuid(UUID.randomUUID().toString());
+        customer.setNamePrefix(new String(PREFIXES[i % PREFIXES.length]));
+        customer.setNameSuffix(new String(SUFFIXES[(i / PREFIXES.length) % SUFFIXES.length]));
+        customer.setNameSurname("Name" + i);
+        customer.setNameMiddle("M" + (i % 26));
+        customer.setNameFamily("Family" + i);
+        customer.setEmail("customer" + i + "@example.com");
+        customer.setPhoneNumber(String.format("+1 555 %07d", i));
+        return customer;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for ( int i = 0; i < 5; i++ ) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,223 @@
+package jacana.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+import java.util.stream.Stream;
+
+/**
+ * Measures CustomerServiceEmbedded: point reads by guid and email from a
+ * store of {size} Customers, updates with and without forcing the log to
+ * disk, and opening a store of {size} Customers after a clean close and
+ * after a crash, when the indexes are rebuilt from the whole log. The
+ * stores are written under java.io.tmpdir, which must be on the kind of
+ * disk being measured for the writes and recovery to mean anything:
+ *   mvn -Pbench test-compile exec:exec@bench -Dbench.main=org.openjdk.jmh.Main \
+ *       -Dbench.jvmArgs=-Djava.io.tmpdir=/var/lib/jacana-bench -Dbench.args="CustomerServiceEmbeddedBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CustomerServiceEmbeddedBenchmark {
+
+    static {
+        // Every write and open is logged, which would be measured as well.
+        LogManager.getLogManager().reset();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Reads {
+
+        @Param({"1000", "100000"})
+        int size;
+
+        Path directory;
+        CustomerServiceEmbedded customers;
+        List<String> guids;
+
+        @Setup
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("customers-bench");
+            customers = open(directory, false);
+            guids = fill(customers, size);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            customers.close();
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Writes {
+
+        @Param({"true", "false"})
+        boolean syncWrites;
+
+        Path directory;
+        CustomerServiceEmbedded customers;
+        List<String> guids;
+
+        @Setup
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("customers-bench");
+            customers = open(directory, syncWrites);
+            guids = fill(customers, 1000);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            customers.close();
+            delete(directory);
+        }
+    }
+
+    /**
+     * A store closed cleanly, opened once per invocation.
+     */
+    @State(Scope.Benchmark)
+    public static class Closed {
+
+        @Param({"1000", "100000"})
+        int size;
+
+        Path directory;
+        CustomerServiceEmbedded opened;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("customers-bench");
+            CustomerServiceEmbedded customers = open(directory, false);
+            fill(customers, size);
+            customers.close();
+        }
+
+        @TearDown(Level.Invocation)
+        public void closeOpened() {
+            opened.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+
+    /**
+     * A store whose indexes were lost in a crash before each invocation.
+     */
+    @State(Scope.Benchmark)
+    public static class Crashed extends Closed {
+
+        @Setup(Level.Invocation)
+        public void crash() throws IOException {
+            Files.delete(directory.resolve(CustomerServiceEmbedded.GUID_INDEX_FILE));
+            Files.delete(directory.resolve(CustomerServiceEmbedded.EMAIL_INDEX_FILE));
+        }
+    }
+
+    @Benchmark
+    public Customer getByGuid(Reads reads) throws CustomerServiceException {
+        return reads.customers.getByGuid(random(reads.guids)).orElseThrow();
+    }
+
+    @Benchmark
+    public Customer getByEmail(Reads reads) throws CustomerServiceException {
+        return reads.customers.getByEmail(email(random(reads.guids))).orElseThrow();
+    }
+
+    @Benchmark
+    public Customer update(Writes writes) throws CustomerServiceException {
+        String guid = random(writes.guids);
+        return writes.customers.update(guid, customer(email(guid)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public long openClosed(Closed closed) throws CustomerServiceException {
+        closed.opened = open(closed.directory, false);
+        return closed.opened.getRecoveryMillis();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public long openCrashed(Crashed crashed) throws CustomerServiceException {
+        crashed.opened = open(crashed.directory, false);
+        return crashed.opened.getRecoveryMillis();
+    }
+
+    private static CustomerServiceEmbedded open(Path directory, boolean syncWrites) throws CustomerServiceException {
+        return new CustomerServiceEmbedded(directory, syncWrites, 0.5, 50000, "1", 30, 1000, 10000, event -> {});
+    }
+
+    /**
+     * Inserts {size} Customers and returns their guids. Each is forced to
+     * disk if the store syncs writes.
+     */
+    private static List<String> fill(CustomerServiceEmbedded customers, int size) throws CustomerServiceException {
+        List<String> guids = new ArrayList<>(size);
+        for ( int i = 0; i < size; i++ ) {
+            String guid = UUID.randomUUID().toString();
+            Customer customer = customer(email(guid));
+            customer.setGuid(guid);
+            guids.add(customers.insert(customer).getGuid());
+        }
+        return guids;
+    }
+
+    private static Customer customer(String email) {
+        Customer customer = new Customer();
+        customer.setNamePrefix("Mr");
+        customer.setNameSurname("Name");
+        customer.setNameFamily("Family");
+        customer.setEmail(email);
+        customer.setPhoneNumber("+1 555 555 1212");
+        return customer;
+    }
+
+    private static String random(List<String> guids) {
+        return guids.get(ThreadLocalRandom.current().nextInt(guids.size()));
+    }
+
+    private static String email(String guid) {
+        return guid + "@example.com";
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for ( Path file : files.sorted(Comparator.reverseOrder()).toList() ) {
+                Files.delete(file);
+            }
+        }
+    }
+}
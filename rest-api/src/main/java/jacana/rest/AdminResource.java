@@ -0,0 +1,134 @@
+package jacana.rest;
+
+import jacana.service.CustomerField;
+import jacana.service.CustomerServiceException;
+import jacana.service.CustomerServiceUnavailableException;
+import jacana.service.SlowQuery;
+import jacana.service.SlowQueryLog;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.GenericEntity;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Operational endpoints that are not part of the Customer API.
+ *
+ * They are served on the same port as the Customer API and are not
+ * authenticated, so they answer 404 unless admin.enabled is set, which
+ * should only be done where that port is not reachable by clients.
+ */
+@ApplicationScoped
+@Path("/admin")
+public class AdminResource {
+
+    private static final Logger LOGGER = Logger.getLogger(AdminResource.class.getName());
+
+    private final SlowQueryLog slowQueryLog;
+    private final CustomerExport customerExport;
+    private final boolean enabled;
+
+    @Inject
+    public AdminResource(SlowQueryLog slowQueryLog,
+                         CustomerExport customerExport,
+                         @ConfigProperty(name = "admin.enabled", defaultValue = "false") boolean enabled) {
+        this.slowQueryLog = slowQueryLog;
+        this.customerExport = customerExport;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns a JSON array of the most recent database statements that
+     * took longer than database.slow_query.threshold_ms, newest first.
+     * Each has its SQL with ? placeholders, the type and size of the bound
+     * values, the duration, the number of rows, and for a sample of them
+     * the EXPLAIN plan. No Customer data is included.
+     *
+     * @return {@link Response}
+     */
+    @Path("/slow-queries")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSlowQueries() {
+        if ( !enabled ) {
+            return disabled();
+        }
+        return Response
+                .status(Response.Status.OK)
+                .entity(new GenericEntity<List<SlowQuery>>(slowQueryLog.getRecent()) {})
+                .build();
+    }
+
+    /**
+     * Exports all Customers as for GET /customers/export, but to a new
+     * file in customers.export.directory on the server, and returns the
+     * name of the file, the number of Customers and the time taken once
+     * it is complete.
+     *
+     * @param ordered whether to write the Customers in guid order
+     * @param fields Customer properties to be exported
+     * @return {@link Response}
+     */
+    @Path("/export")
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exportCustomers(
+            @QueryParam("ordered") @DefaultValue("true") boolean ordered,
+            @QueryParam("fields") String fields
+    ) {
+        if ( !enabled ) {
+            return disabled();
+        }
+        Set<CustomerField> selectedFields;
+        try {
+            selectedFields = CustomerField.parse(fields);
+        } catch (CustomerServiceException customerServiceException) {
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+        try {
+            return Response
+                    .status(Response.Status.OK)
+                    .entity(customerExport.writeToFile(selectedFields, ordered))
+                    .build();
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            LOGGER.info("Customer database is unavailable: " + customerServiceUnavailableException.getMessage());
+            return Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(new ExceptionMessage(customerServiceUnavailableException))
+                    .build();
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Error exporting customers: " + customerServiceException.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        } catch (IOException ex) {
+            LOGGER.info("Error writing customer export: " + ex.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(new ExceptionMessage(ex))
+                    .build();
+        }
+    }
+
+    private Response disabled() {
+        return Response
+                .status(Response.Status.NOT_FOUND)
+                .build();
+    }
+}
@@ -0,0 +1,319 @@
+package jacana.rest;
+
+import jacana.service.Customer;
+import jacana.service.CustomerBackend;
+import jacana.service.CustomerField;
+import jacana.service.CustomerService;
+import jacana.service.CustomerServiceException;
+import jacana.service.Deadline;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Export of all Customers as a JSON array, read in parallel.
+ *
+ * The guid keyspace is split into {parallelism} ranges on the leading hex
+ * digits of the guid, and each range is read on a virtual thread with its
+ * own connection, {pageSize} Customers at a time. The range bounds only
+ * decide which thread reads a Customer, so guids that are not UUIDs are
+ * exported as well, just not evenly spread.
+ *
+ * The pages are written by the calling thread as they arrive. Ordered, the
+ * ranges are written one after another, so the Customers are in guid
+ * order, and a range that is ahead waits once it has two pages queued.
+ * Unordered, pages of all ranges are written as soon as they are read.
+ *
+ * An export is not a snapshot: a Customer written while it runs may or may
+ * not be included, in its old or new form.
+ */
+@ApplicationScoped
+public class CustomerExport {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerExport.class.getName());
+
+    /**
+     * Pages a range may have queued before its reader waits for the writer.
+     */
+    private static final int QUEUED_PAGES_PER_RANGE = 2;
+
+    /**
+     * Reads at most {limit} Customers in guid order, see
+     * CustomerService.getRange().
+     */
+    interface RangeReader {
+        List<Customer> read(String from, String after, String to, int limit,
+                            Set<CustomerField> fields) throws CustomerServiceException;
+    }
+
+    /**
+     * Outcome of an export to a file.
+     */
+    public record ExportResult(String file, long customers, long millis) {
+    }
+
+    private record Page(List<Customer> customers, boolean last, Exception error) {
+    }
+
+    private final RangeReader reader;
+    private final int parallelism;
+    private final int pageSize;
+    private final Path directory;
+    private final int keepFiles;
+    private final JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(Map.of());
+
+    private final AtomicLong exported = new AtomicLong();
+    private volatile long lastThroughput = 0;
+
+    @Inject
+    public CustomerExport(@CustomerBackend CustomerService<Customer> customerService,
+                          @ConfigProperty(name = "customers.export.parallelism", defaultValue = "4") int parallelism,
+                          @ConfigProperty(name = "customers.export.page_size", defaultValue = "5000") int pageSize,
+                          @ConfigProperty(name = "customers.export.directory", defaultValue = "/tmp/jacana-exports") String directory,
+                          @ConfigProperty(name = "customers.export.keep_files", defaultValue = "5") int keepFiles) {
+        this(customerService::getRange, parallelism, pageSize, Path.of(directory), keepFiles);
+    }
+
+    /**
+     * @param reader reads one page of a range of guids
+     * @param parallelism number of ranges read concurrently, at most 4096
+     * @param pageSize Customers read per query
+     * @param directory where exports to a file are written
+     * @param keepFiles exports to a file kept in {directory}, the newest
+     */
+    CustomerExport(RangeReader reader, int parallelism, int pageSize, Path directory, int keepFiles) {
+        this.reader = reader;
+        this.parallelism = Math.min(Math.max(1, parallelism), 4096);
+        this.pageSize = Math.max(1, pageSize);
+        this.directory = directory;
+        this.keepFiles = Math.max(1, keepFiles);
+    }
+
+    @Gauge(name = "customerExportThroughput",
+            unit = MetricUnits.PER_SECOND,
+            absolute = true,
+            description = "Customers per second written by the last completed export")
+    public long getThroughput() {
+        return lastThroughput;
+    }
+
+    @Gauge(name = "customerExportedCustomers",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of Customers written by all exports")
+    public long getExported() {
+        return exported.get();
+    }
+
+    /**
+     * Writes all Customers, with only the given {fields}, as a JSON array
+     * to {out}, in guid order if {ordered}. Returns the number written.
+     *
+     * If the database fails part way, {out} is left with an incomplete
+     * array and a CustomerServiceException is thrown.
+     */
+    public long write(Set<CustomerField> fields, boolean ordered, OutputStream out)
+            throws CustomerServiceException, IOException {
+        long start = System.currentTimeMillis();
+        long count;
+        try (JsonGenerator generator = generatorFactory.createGenerator(out, StandardCharsets.UTF_8)) {
+            generator.writeStartArray();
+            count = export(fields, ordered, customer -> CustomerJsonCodec.write(generator, customer));
+            generator.writeEnd();
+        } catch (JsonException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        long millis = System.currentTimeMillis() - start;
+        lastThroughput = count * 1000 / Math.max(1, millis);
+        LOGGER.info("Exported " + count + " customers in " + millis + " ms on " + parallelism
+                + (ordered ? " ordered" : " unordered") + " ranges.");
+        return count;
+    }
+
+    /**
+     * Same as write(), but to a new file in customers.export.directory. The
+     * file only appears once it is complete, after which all but the newest
+     * customers.export.keep_files exports are removed.
+     */
+    public ExportResult writeToFile(Set<CustomerField> fields, boolean ordered)
+            throws CustomerServiceException, IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        Path file = directory.resolve("customers-" + start + ".json");
+        Path partial = directory.resolve(file.getFileName() + ".partial");
+        long count;
+        try (OutputStream out = Files.newOutputStream(partial)) {
+            count = write(fields, ordered, out);
+        } catch (CustomerServiceException | IOException | RuntimeException ex) {
+            Files.deleteIfExists(partial);
+            throw ex;
+        }
+        Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+        removeOldFiles();
+        return new ExportResult(file.toString(), count, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Removes the exports in {directory} other than the newest {keepFiles},
+     * going by the time in their names.
+     */
+    void removeOldFiles() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> exports = Files.newDirectoryStream(directory, "customers-*.json")) {
+            exports.forEach(files::add);
+        } catch (IOException ex) {
+            LOGGER.info("Exception listing customer exports in " + directory + ": " + ex.getMessage());
+            return;
+        }
+        files.sort(Comparator.comparingLong(CustomerExport::exportedAtMillis).reversed());
+        for ( Path old : files.subList(Math.min(keepFiles, files.size()), files.size()) ) {
+            try {
+                Files.deleteIfExists(old);
+                LOGGER.info("Removed old customer export " + old);
+            } catch (IOException ex) {
+                LOGGER.info("Exception removing customer export " + old + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private static long exportedAtMillis(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring("customers-".length(), name.length() - ".json".length()));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads all Customers, with only the given {fields}, and hands them
+     * to {writer} on the calling thread, in guid order if {ordered}.
+     *
+     * The ranges are read within the Deadline of the calling thread. If
+     * the export fails, e.g. because {writer} failed as the client went
+     * away, the queries still running are cancelled.
+     */
+    long export(Set<CustomerField> fields, boolean ordered, Consumer<Customer> writer)
+            throws CustomerServiceException {
+        List<String> bounds = bounds(parallelism);
+        int ranges = bounds.size() + 1;
+        List<BlockingQueue<Page>> queues = new ArrayList<>(ranges);
+        BlockingQueue<Page> shared = new ArrayBlockingQueue<>(QUEUED_PAGES_PER_RANGE * ranges);
+        for ( int i = 0; i < ranges; i++ ) {
+            queues.add(ordered ? new ArrayBlockingQueue<>(QUEUED_PAGES_PER_RANGE) : shared);
+        }
+        boolean withGuid = fields.contains(CustomerField.GUID);
+        Deadline deadline = Deadline.current().orElseGet(Deadline::none);
+        boolean completed = false;
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for ( int i = 0; i < ranges; i++ ) {
+                String from = i == 0 ? "" : bounds.get(i - 1);
+                String to = i == ranges - 1 ? null : bounds.get(i);
+                BlockingQueue<Page> queue = queues.get(i);
+                executor.execute(() -> {
+                    Deadline.set(deadline);
+                    read(from, to, fields, queue);
+                });
+            }
+            long count = 0;
+            int range = 0;
+            int finished = 0;
+            while ( finished < ranges ) {
+                Page page = queues.get(range).take();
+                if ( page.error() instanceof CustomerServiceException customerServiceException ) {
+                    throw customerServiceException;
+                }
+                if ( page.error() instanceof RuntimeException runtimeException ) {
+                    throw runtimeException;
+                }
+                for ( Customer customer : page.customers() ) {
+                    if ( !withGuid ) {
+                        customer.setGuid(null);
+                    }
+                    writer.accept(customer);
+                }
+                count += page.customers().size();
+                exported.addAndGet(page.customers().size());
+                if ( page.last() ) {
+                    finished++;
+                    if ( ordered ) {
+                        range++;
+                    }
+                }
+            }
+            completed = true;
+            return count;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CustomerServiceException("Export was interrupted.");
+        } finally {
+            if ( !completed ) {
+                deadline.cancel();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the guids from {from} up to {to} page by page into {queue}.
+     * A failure, unexpected ones included, is queued as the last page, so
+     * that the writer waiting for the range is never left waiting.
+     */
+    private void read(String from, String to, Set<CustomerField> fields, BlockingQueue<Page> queue) {
+        try {
+            String after = null;
+            boolean last = false;
+            while ( !last ) {
+                List<Customer> customers;
+                try {
+                    customers = reader.read(from, after, to, pageSize, fields);
+                } catch (CustomerServiceException | RuntimeException ex) {
+                    queue.put(new Page(List.of(), true, ex));
+                    return;
+                }
+                last = customers.size() < pageSize;
+                if ( !last ) {
+                    after = customers.get(customers.size() - 1).getGuid();
+                }
+                queue.put(new Page(customers, last, null));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the {ranges} - 1 guids splitting the hex guid keyspace into
+     * {ranges} ranges of equal size, in ascending order.
+     */
+    static List<String> bounds(int ranges) {
+        List<String> bounds = new ArrayList<>(ranges - 1);
+        for ( int i = 1; i < ranges; i++ ) {
+            bounds.add(String.format("%03x", i * 0x1000 / ranges));
+        }
+        return bounds;
+    }
+}
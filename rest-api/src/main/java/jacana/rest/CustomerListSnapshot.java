@@ -0,0 +1,239 @@
+package jacana.rest;
+
+import jacana.service.Customer;
+import jacana.service.CustomerBackend;
+import jacana.service.CustomerChangeEvent;
+import jacana.service.CustomerField;
+import jacana.service.CustomerService;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Optional in-memory snapshot of the complete, serialized response of an
+ * unfiltered GET /customers, so that clients polling the full listing are
+ * answered without a database query or any JSON serialization.
+ *
+ * The snapshot is loaded at startup with a streaming scan of the Customers
+ * table and reloaded every reload_interval_minutes. In between, writes made
+ * through the CustomerService are picked up from CustomerChangeEvents: each
+ * Customer is kept as its own serialized JSON object, so a change only
+ * re-serializes the Customers it touches, and the listing is re-assembled
+ * in the background at most every refresh_delay_ms. A published snapshot is
+ * never modified, and each has a new version that is used as its ETag.
+ *
+ * Writes made by other replicas are only seen through the CustomerChangeBus,
+ * or else at the next reload.
+ */
+@ApplicationScoped
+public class CustomerListSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerListSnapshot.class.getName());
+
+    /**
+     * An immutable, serialized customer listing. {json} must not be modified.
+     */
+    public record Snapshot(String version, byte[] json, int size, long builtAtMillis) {
+    }
+
+    private final CustomerService<Customer> customerService;
+    private final boolean enabled;
+    private final long refreshDelayMillis;
+    private final long reloadIntervalMinutes;
+
+    /**
+     * Distinguishes the versions of this process from those of other
+     * processes, e.g. another replica or before a restart.
+     */
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(Map.of());
+
+    private final Queue<CustomerChangeEvent> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicLong dirtySinceMillis = new AtomicLong();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = null;
+    private ScheduledExecutorService scheduler;
+
+    /*
+     * Only used on the snapshot thread.
+     */
+    private LinkedHashMap<String, byte[]> rows = null;
+
+    @Inject
+    public CustomerListSnapshot(@CustomerBackend CustomerService<Customer> customerService,
+                                @ConfigProperty(name = "customers.snapshot.enabled", defaultValue = "false") boolean enabled,
+                                @ConfigProperty(name = "customers.snapshot.refresh_delay_ms", defaultValue = "1000") long refreshDelayMillis,
+                                @ConfigProperty(name = "customers.snapshot.reload_interval_minutes", defaultValue = "60") long reloadIntervalMinutes) {
+        this.customerService = customerService;
+        this.enabled = enabled;
+        this.refreshDelayMillis = refreshDelayMillis;
+        this.reloadIntervalMinutes = reloadIntervalMinutes;
+    }
+
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if ( !enabled ) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "customer-list-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reload, 0, reloadIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if ( Objects.nonNull(scheduler) ) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the current snapshot, or nothing if snapshots are disabled or
+     * the first load has not completed.
+     */
+    public Optional<Snapshot> current() {
+        return Optional.ofNullable(snapshot);
+    }
+
+    @Gauge(name = "customerSnapshotVersion",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of customer list snapshots built by this process")
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Gauge(name = "customerSnapshotStaleness",
+            unit = MetricUnits.MILLISECONDS,
+            absolute = true,
+            description = "Time since the oldest write not yet in the customer list snapshot, or 0")
+    public long getStalenessMillis() {
+        long dirtySince = dirtySinceMillis.get();
+        return dirtySince == 0 ? 0 : System.currentTimeMillis() - dirtySince;
+    }
+
+    @Gauge(name = "customerSnapshotSize",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of customers in the customer list snapshot")
+    public int getSize() {
+        Snapshot current = snapshot;
+        return Objects.isNull(current) ? 0 : current.size();
+    }
+
+    void onCustomerChange(@Observes CustomerChangeEvent event) {
+        if ( !enabled ) {
+            return;
+        }
+        pendingChanges.add(event);
+        dirtySinceMillis.compareAndSet(0, System.currentTimeMillis());
+        if ( Objects.nonNull(scheduler) && refreshScheduled.compareAndSet(false, true) ) {
+            scheduler.schedule(() -> refresh(false), refreshDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Replaces the rows with a streaming scan of the Customers table, then
+     * applies any changes that arrived meanwhile. Replaying a change the
+     * scan already saw is harmless, since it only sets a row to its
+     * current value.
+     */
+    private void reload() {
+        long start = System.currentTimeMillis();
+        try {
+            LinkedHashMap<String, byte[]> loaded = new LinkedHashMap<>();
+            customerService.scanAll(CustomerField.ALL, customer -> loaded.put(customer.getGuid(), serialize(customer)));
+            rows = loaded;
+            refresh(true);
+            LOGGER.info("Loaded customer list snapshot of " + loaded.size() + " customers in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        } catch (Exception ex) {
+            LOGGER.info("Exception loading customer list snapshot: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Applies the pending changes to the rows and publishes a new snapshot
+     * if anything changed, or if {reloaded}. Changes stay pending until the
+     * first load.
+     */
+    private void refresh(boolean reloaded) {
+        refreshScheduled.set(false);
+        if ( Objects.isNull(rows) ) {
+            return;
+        }
+        dirtySinceMillis.set(0);
+        int applied = 0;
+        CustomerChangeEvent event;
+        while ( Objects.nonNull(event = pendingChanges.poll()) ) {
+            apply(event);
+            applied++;
+        }
+        if ( applied > 0 || reloaded ) {
+            publish();
+        }
+    }
+
+    private void apply(CustomerChangeEvent event) {
+        if ( Objects.nonNull(event.getBefore()) ) {
+            rows.remove(event.getBefore().getGuid());
+        }
+        if ( Objects.nonNull(event.getAfter()) ) {
+            rows.put(event.getAfter().getGuid(), serialize(event.getAfter()));
+        }
+    }
+
+    private void publish() {
+        int length = 2;
+        for ( byte[] row : rows.values() ) {
+            length += row.length + 1;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        out.write('[');
+        boolean first = true;
+        for ( byte[] row : rows.values() ) {
+            if ( !first ) {
+                out.write(',');
+            }
+            out.write(row, 0, row.length);
+            first = false;
+        }
+        out.write(']');
+        snapshot = new Snapshot(epoch + "-" + version.incrementAndGet(), out.toByteArray(), rows.size(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Serializes {customer} exactly as CustomerJsonCodec does.
+     */
+    private byte[] serialize(Customer customer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = generatorFactory.createGenerator(out, StandardCharsets.UTF_8)) {
+            CustomerJsonCodec.write(generator, customer);
+        }
+        return out.toByteArray();
+    }
+}
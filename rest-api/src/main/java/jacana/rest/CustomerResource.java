@@ -4,8 +4,13 @@ import jacana.service.*;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.GenericEntity;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.eclipse.microprofile.metrics.MetricUnits;
 import org.eclipse.microprofile.metrics.annotation.Counted;
 import org.eclipse.microprofile.metrics.annotation.Metric;
@@ -17,6 +22,8 @@ import org.eclipse.microprofile.metrics.Counter;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -25,21 +32,56 @@ import java.util.logging.Logger;
  * getAll
  * curl -X GET http://localhost:8080/customers
  *
+ * getAll, only if changed since the listing with the given ETag (needs
+ * customers.snapshot.enabled, otherwise the full listing is returned)
+ * curl -X GET -H 'If-None-Match: "{etag}"' http://localhost:8080/customers
+ *
  * getByGuid by email
  * curl -X GET http://localhost:8080/customers?email={email}
  *
  * getByGuid by guid
  * curl -X GET http://localhost:8080/customers?guid={guid}
  *
+ * getByPhone, in any format, e.g. for caller-ID lookup
+ * curl -X GET http://localhost:8080/customers?phone={phone}
+ *
+ * changes since the given token, or from the start with changedSince=
+ * curl -X GET http://localhost:8080/customers?changedSince={token}&limit={limit}
+ *
+ * any of the above limited to some fields, e.g. guid and email
+ * curl -X GET http://localhost:8080/customers?fields=guid,email
+ *
+ * search Customers by partial name or email
+ * curl -X GET http://localhost:8080/customers/search?q={text}&limit={limit}
+ *
+ * count Customers and their most common email domains, without a table scan
+ * curl -X GET http://localhost:8080/customers/stats?limit={limit}
+ *
+ * export all Customers, read in parallel, in guid order unless ordered=false
+ * curl -X GET http://localhost:8080/customers/export?ordered=false&fields=guid,email
+ *
  * create Customer
  * curl -X POST -H "Content-Type: application/json" -d '{"email":"foo@example.com"}' http://localhost:8080/customers
  *
  * update Customer
  * curl -X PUT -H "Content-Type: application/json" -d '{"email":"foo@example.com"}' http://localhost:8080/customers/{guid}
  *
+ * upsert Customer by email (201 if created, 200 if updated)
+ * curl -X PUT -H "Content-Type: application/json" -d '{"nameSurname":"Foo"}' http://localhost:8080/customers?email=foo@example.com
+ *
  * delete Customer
  * curl -X DELETE -H "Content-Type: application/json" http://localhost:8080/customers/{guid}
  *
+ * bulk delete Customers by guid
+ * curl -X POST -H "Content-Type: application/json" -d '["{guid}","{guid}"]' http://localhost:8080/customers/bulk-delete
+ *
+ * bulk update Customers, changing only the fields present in each patch
+ * curl -X POST -H "Content-Type: application/json" -d '[{"guid":"{guid}","phoneNumber":"555-555-1212"}]' http://localhost:8080/customers/bulk-update
+ *
+ * If the database is unavailable, reads are answered from the last known
+ * Customers with a Warning and an Age header, and everything else is a
+ * 503 error.
+ *
  * The full body of the Customer object is
  * {
  *     "guid": "{UUID}",
@@ -58,13 +100,33 @@ public class CustomerResource {
 
     private static final Logger LOGGER = Logger.getLogger(CustomerResource.class.getName());
 
-    private final CustomerServiceMySQL customerMySQL;
+    private final CustomerService<Customer> customerService;
+    private final CustomerSearchIndex customerSearchIndex;
+    private final CustomerCache customerCache;
+    private final CustomerListSnapshot customerListSnapshot;
+    private final CustomerExport customerExport;
+    private final CustomerStats customerStats;
 
     @Inject
-    public CustomerResource(CustomerServiceMySQL customerMySQL) {
-        this.customerMySQL = customerMySQL;
+    public CustomerResource(@CustomerBackend CustomerService<Customer> customerService,
+                            CustomerSearchIndex customerSearchIndex,
+                            CustomerCache customerCache,
+                            CustomerListSnapshot customerListSnapshot,
+                            CustomerExport customerExport,
+                            CustomerStats customerStats) {
+        this.customerService = customerService;
+        this.customerSearchIndex = customerSearchIndex;
+        this.customerCache = customerCache;
+        this.customerListSnapshot = customerListSnapshot;
+        this.customerExport = customerExport;
+        this.customerStats = customerStats;
     }
 
+    /**
+     * RFC 7234 warning attached to responses served from the CustomerCache.
+     */
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
     private static final String INSERT_COUNTER_NAME = "insertCustomer";
     private static final String INSERT_COUNTER_DESCRIPTION = "Counts insert Customer operations";
     private static final String INSERT_TIMER_NAME = "insertCustomerTimer";
@@ -77,6 +139,30 @@ public class CustomerResource {
     private static final String DELETE_COUNTER_DESCRIPTION = "Counts delete Customer operations";
     private static final String DELETE_TIMER_NAME = "deleteCustomerTimer";
     private static final String DELETE_TIMER_DESCRIPTION = "Times all delete Customer operations";
+    private static final String UPSERT_COUNTER_NAME = "upsertCustomer";
+    private static final String UPSERT_COUNTER_DESCRIPTION = "Counts upsert Customer operations";
+    private static final String UPSERT_TIMER_NAME = "upsertCustomerTimer";
+    private static final String UPSERT_TIMER_DESCRIPTION = "Times all upsert Customer operations";
+    private static final String SEARCH_COUNTER_NAME = "searchCustomer";
+    private static final String SEARCH_COUNTER_DESCRIPTION = "Counts search Customer operations";
+    private static final String SEARCH_TIMER_NAME = "searchCustomerTimer";
+    private static final String SEARCH_TIMER_DESCRIPTION = "Times all search Customer operations";
+    private static final String BULK_DELETE_COUNTER_NAME = "bulkDeleteCustomer";
+    private static final String BULK_DELETE_COUNTER_DESCRIPTION = "Counts bulk delete Customer operations";
+    private static final String BULK_DELETE_TIMER_NAME = "bulkDeleteCustomerTimer";
+    private static final String BULK_DELETE_TIMER_DESCRIPTION = "Times all bulk delete Customer operations";
+    private static final String BULK_UPDATE_COUNTER_NAME = "bulkUpdateCustomer";
+    private static final String BULK_UPDATE_COUNTER_DESCRIPTION = "Counts bulk update Customer operations";
+    private static final String BULK_UPDATE_TIMER_NAME = "bulkUpdateCustomerTimer";
+    private static final String BULK_UPDATE_TIMER_DESCRIPTION = "Times all bulk update Customer operations";
+    private static final String STATS_COUNTER_NAME = "statsCustomers";
+    private static final String STATS_COUNTER_DESCRIPTION = "Counts Customer stats operations";
+    private static final String STATS_TIMER_NAME = "statsCustomersTimer";
+    private static final String STATS_TIMER_DESCRIPTION = "Times all Customer stats operations";
+    private static final String EXPORT_COUNTER_NAME = "exportCustomers";
+    private static final String EXPORT_COUNTER_DESCRIPTION = "Counts export Customers operations";
+    private static final String EXPORT_TIMER_NAME = "exportCustomersTimer";
+    private static final String EXPORT_TIMER_DESCRIPTION = "Times all export Customers operations";
 
     @Inject
     @Metric(name = "insertCustomerErrors", absolute = true)
@@ -87,34 +173,372 @@ public class CustomerResource {
     @Inject
     @Metric(name = "deleteCustomerErrors", absolute = true)
     private Counter deleteCustomerErrors;
+    @Inject
+    @Metric(name = "upsertCustomerErrors", absolute = true)
+    private Counter upsertCustomerErrors;
+    @Inject
+    @Metric(name = "bulkDeleteCustomerErrors", absolute = true)
+    private Counter bulkDeleteCustomerErrors;
+    @Inject
+    @Metric(name = "bulkUpdateCustomerErrors", absolute = true)
+    private Counter bulkUpdateCustomerErrors;
+    @Inject
+    @Metric(name = "staleCustomerResponses", absolute = true,
+            description = "Counts reads answered from the last known Customers while the database is unavailable")
+    private Counter staleCustomerResponses;
 
     /**
      * Returns a JSON array of all customers in the database with
      * support for optional filtering by either a specific
-     * Customer guid or Customer email. If no Customers are in the
-     * database or if no Customer is found with a matching guid or
-     * email, then an empty JSON array is returned.
+     * Customer guid, Customer email or phone number. If no Customers
+     * are in the database or if no Customer is found with a matching
+     * guid, email or phone, then an empty JSON array is returned.
+     * A phone number matches however it is formatted, and several
+     * Customers may share one.
+     *
+     * The optional {fields} parameter is a comma separated list of
+     * Customer properties, e.g. "guid,email". Only those columns are
+     * read from the database and only those properties are present
+     * in the returned Customers. An unknown property name results in
+     * a 400 error.
+     *
+     * If the database is unavailable, then the last known Customers are
+     * returned with a Warning header and an Age header giving their age
+     * in seconds. If they are not known either, then a 503 error is
+     * returned.
+     *
+     * With customers.snapshot.enabled an unfiltered request is answered
+     * from the CustomerListSnapshot without querying the database. The
+     * response then has an ETag, and a request whose If-None-Match header
+     * matches it gets a 304 response without a body.
+     *
+     * With {changedSince}, only the changes after that position are
+     * returned, see getChangedSince().
      *
      * @param email Customer email address to be searched for
      * @param guid Customer guid to be searched for
-     * @return List<Customer>
+     * @param phone Customer phone number to be searched for
+     * @param fields Customer properties to be returned
+     * @param changedSince token of the position to return the changes after
+     * @param limit maximum number of changes to be returned
+     * @param request request, for evaluating If-None-Match
+     * @return {@link Response}
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Customer> getAll(
+    public Response getAll(
             @QueryParam("email") String email,
-            @QueryParam("guid") String guid
+            @QueryParam("guid") String guid,
+            @QueryParam("phone") String phone,
+            @QueryParam("fields") String fields,
+            @QueryParam("changedSince") String changedSince,
+            @QueryParam("limit") Integer limit,
+            @Context Request request
     ) {
+        if ( Objects.nonNull(changedSince) ) {
+            return getChangedSince(changedSince, limit);
+        }
+        if ( Objects.isNull(guid) && Objects.isNull(email) && Objects.isNull(phone) && Objects.isNull(fields) ) {
+            Optional<CustomerListSnapshot.Snapshot> snapshot = customerListSnapshot.current();
+            if ( snapshot.isPresent() ) {
+                EntityTag entityTag = new EntityTag(snapshot.get().version());
+                Response.ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+                if ( Objects.nonNull(notModified) ) {
+                    return notModified.build();
+                }
+                return Response
+                        .status(Response.Status.OK)
+                        .entity(snapshot.get().json())
+                        .tag(entityTag)
+                        .build();
+            }
+        }
+        Set<CustomerField> selectedFields;
+        try {
+            selectedFields = CustomerField.parse(fields);
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Rejected request for unknown customer fields '"+fields+"'");
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+        List<Customer> customers;
+        try {
+            if ( Objects.nonNull(guid) ) {
+                LOGGER.info("Getting customer by guid '"+guid+"'");
+                customers = customerService.getByGuid(guid, selectedFields).stream().toList();
+            } else if ( Objects.nonNull(email) ) {
+                LOGGER.info("Getting customer by email '"+email+"'");
+                customers = customerService.getByEmail(email, selectedFields).stream().toList();
+            } else if ( Objects.nonNull(phone) ) {
+                LOGGER.info("Getting customers by phone");
+                customers = customerService.getByPhone(phone, selectedFields);
+            } else {
+                LOGGER.info("Getting all customers from the database.");
+                customers = customerService.getAll(selectedFields);
+            }
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            if ( Objects.nonNull(phone) && Objects.isNull(guid) && Objects.isNull(email) ) {
+                return unavailable(customerServiceUnavailableException);
+            }
+            return getStale(guid, email, selectedFields, customerServiceUnavailableException);
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Error getting customers");
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+        return Response
+                .status(Response.Status.OK)
+                .entity(new GenericEntity<List<Customer>>(customers) {})
+                .build();
+    }
+
+    /**
+     * Returns the changes to Customers after the position {changedSince},
+     * where an empty token is the start of history, as a JSON object:
+     * "changed" holds the Customers created or updated since, as they are
+     * now, and "deleted" the guids of the Customers deleted since. Its
+     * "next" token is passed as {changedSince} to get the following
+     * changes, straight away if "more" is true, or else at the next sync.
+     *
+     * A client keeps a copy of all Customers by starting from an empty
+     * token and then applying each page of changes in turn. A token that
+     * is not one results in a 400 error, and one older than deletions are
+     * kept for in a 410 error, after which a client starts over.
+     */
+    private Response getChangedSince(String changedSince, Integer limit) {
+        try {
+            LOGGER.info("Getting customers changed since '"+changedSince+"'");
+            ChangeSet<Customer> changes = customerService.getChangedSince(changedSince,
+                    Objects.isNull(limit) ? 0 : Math.max(1, limit));
+            return Response
+                    .status(Response.Status.OK)
+                    .entity(changes)
+                    .build();
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            return unavailable(customerServiceUnavailableException);
+        } catch (CustomerChangesExpiredException customerChangesExpiredException) {
+            LOGGER.info("Rejected expired changedSince token '"+changedSince+"'");
+            return Response
+                    .status(Response.Status.GONE)
+                    .entity(new ExceptionMessage(customerChangesExpiredException))
+                    .build();
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Error getting changed customers: " + customerServiceException.getMessage());
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+    }
+
+    /**
+     * Answers a GET /customers request from the CustomerCache while the
+     * database is unavailable, or returns a 503 error if the cache does
+     * not hold the requested Customers.
+     */
+    private Response getStale(String guid, String email, Set<CustomerField> fields,
+                              CustomerServiceUnavailableException customerServiceUnavailableException) {
+        Optional<CachedValue<List<Customer>>> cached;
         if ( Objects.nonNull(guid) ) {
-            LOGGER.info("Getting customer by guid '"+guid+"'");
-            return customerMySQL.getByGuid(guid).stream().toList();
+            cached = customerCache.getByGuid(guid, fields)
+                    .map(c -> new CachedValue<>(List.of(c.getValue()), c.getCachedAtMillis()));
+        } else if ( Objects.nonNull(email) ) {
+            cached = customerCache.getByEmail(email, fields)
+                    .map(c -> new CachedValue<>(List.of(c.getValue()), c.getCachedAtMillis()));
+        } else {
+            cached = customerCache.getAll(fields);
+        }
+        if ( cached.isEmpty() ) {
+            return unavailable(customerServiceUnavailableException);
+        }
+        LOGGER.info("Database unavailable, returning customers cached " + cached.get().getAgeSeconds() + " seconds ago");
+        staleCustomerResponses.inc();
+        return Response
+                .status(Response.Status.OK)
+                .entity(new GenericEntity<List<Customer>>(cached.get().getValue()) {})
+                .header("Warning", STALE_WARNING)
+                .header("Age", cached.get().getAgeSeconds())
+                .build();
+    }
+
+    private Response unavailable(CustomerServiceUnavailableException customerServiceUnavailableException) {
+        LOGGER.info("Customer database is unavailable: " + customerServiceUnavailableException.getMessage());
+        return Response
+                .status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity(new ExceptionMessage(customerServiceUnavailableException))
+                .build();
+    }
+
+    /**
+     * Returns a JSON array of Customers whose nameSurname, nameFamily
+     * or email contains the text {q}, ignoring case. The best matches
+     * are returned first: exact matches, then prefix matches, then
+     * matches at the start of a word, then other substring matches.
+     * At most {limit} Customers are returned.
+     *
+     * Searches are answered from an in-memory index and never query
+     * the database. If {q} is missing or blank a 400 error is returned.
+     *
+     * @param q text to be searched for
+     * @param limit maximum number of Customers to return
+     * @return {@link Response}
+     */
+    @Path("/search")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Counted(name = SEARCH_COUNTER_NAME,
+            absolute = true,
+            description = SEARCH_COUNTER_DESCRIPTION
+    )
+    @Timed(name = SEARCH_TIMER_NAME,
+            description = SEARCH_TIMER_DESCRIPTION,
+            unit = MetricUnits.SECONDS,
+            absolute = true
+    )
+    public Response searchCustomers(
+            @QueryParam("q") String q,
+            @QueryParam("limit") Integer limit
+    ) {
+        if ( Objects.isNull(q) || q.isBlank() ) {
+            LOGGER.info("Rejected customer search without a query");
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(new ExceptionMessage(new CustomerServiceException("Query parameter 'q' must not be empty.")))
+                    .build();
         }
-        if ( Objects.nonNull(email) ) {
-            LOGGER.info("Getting customer by email '"+email+"'");
-            return customerMySQL.getByEmail(email).stream().toList();
+        List<Customer> customers;
+        try {
+            customers = customerSearchIndex.search(q, limit);
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            return unavailable(customerServiceUnavailableException);
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Error loading the customer search index");
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+        LOGGER.info("Search for customers returned " + customers.size() + " results");
+        return Response
+                .status(Response.Status.OK)
+                .entity(new GenericEntity<List<Customer>>(customers) {})
+                .build();
+    }
+
+    /**
+     * Returns a JSON object with the number of Customers and the {limit}
+     * most common email domains, each with its number of Customers, most
+     * Customers first.
+     *
+     * The counts are kept in memory by CustomerStats and never query the
+     * database, except to load them on the first request if the load at
+     * startup has not completed. They are reconciled with the database
+     * every customers.stats.reconcile_interval_minutes, and
+     * reconciledAtMillis tells when that last happened.
+     *
+     * @param limit maximum number of email domains to return
+     * @return {@link Response}
+     */
+    @Path("/stats")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Counted(name = STATS_COUNTER_NAME,
+            absolute = true,
+            description = STATS_COUNTER_DESCRIPTION
+    )
+    @Timed(name = STATS_TIMER_NAME,
+            description = STATS_TIMER_DESCRIPTION,
+            unit = MetricUnits.SECONDS,
+            absolute = true
+    )
+    public Response getStats(@QueryParam("limit") Integer limit) {
+        CustomerStats.Stats stats;
+        try {
+            stats = customerStats.get(limit);
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            return unavailable(customerServiceUnavailableException);
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Error loading the customer stats");
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+        return Response
+                .status(Response.Status.OK)
+                .entity(stats)
+                .build();
+    }
+
+    /**
+     * Streams a JSON array of all Customers, read from the database on
+     * customers.export.parallelism connections at once, see CustomerExport.
+     * The Customers are in guid order unless {ordered} is false, which
+     * lets every range be written as soon as it is read.
+     *
+     * The optional {fields} parameter works as for GET /customers. If the
+     * database fails after the array was started, the response is cut
+     * short and the array left incomplete.
+     *
+     * @param ordered whether to write the Customers in guid order
+     * @param fields Customer properties to be returned
+     * @return {@link Response}
+     */
+    @Path("/export")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Counted(name = EXPORT_COUNTER_NAME,
+            absolute = true,
+            description = EXPORT_COUNTER_DESCRIPTION
+    )
+    @Timed(name = EXPORT_TIMER_NAME,
+            description = EXPORT_TIMER_DESCRIPTION,
+            unit = MetricUnits.SECONDS,
+            absolute = true
+    )
+    public Response exportCustomers(
+            @QueryParam("ordered") @DefaultValue("true") boolean ordered,
+            @QueryParam("fields") String fields
+    ) {
+        Set<CustomerField> selectedFields;
+        try {
+            selectedFields = CustomerField.parse(fields);
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Rejected export of unknown customer fields '"+fields+"'");
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
         }
-        LOGGER.info("Getting all customers from the database.");
-        return customerMySQL.getAll();
+        Deadline deadline = Deadline.current().orElse(null);
+        StreamingOutput output = out -> {
+            /*
+             * The entity is written after the response filters have run,
+             * so the RequestDeadline is carried over explicitly.
+             */
+            Deadline.set(deadline);
+            try {
+                customerExport.write(selectedFields, ordered, out);
+            } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+                throw new WebApplicationException(unavailable(customerServiceUnavailableException));
+            } catch (CustomerServiceException customerServiceException) {
+                LOGGER.info("Error exporting customers: " + customerServiceException.getMessage());
+                throw new WebApplicationException(Response
+                        .status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity(new ExceptionMessage(customerServiceException))
+                        .build());
+            } finally {
+                Deadline.set(null);
+            }
+        };
+        return Response
+                .status(Response.Status.OK)
+                .entity(output)
+                .build();
     }
 
     /**
@@ -149,12 +573,15 @@ public class CustomerResource {
     )
     public Response insertCustomer(Customer customer) {
         try {
-            Customer newCustomer = customerMySQL.insert(customer);
+            Customer newCustomer = customerService.insert(customer);
             LOGGER.info("Inserted customer with guid '"+newCustomer.getGuid()+"'");
             return Response
                     .status(Response.Status.OK)
                     .entity(newCustomer)
                     .build();
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            insertCustomerErrors.inc();
+            return unavailable(customerServiceUnavailableException);
         } catch (CustomerServiceException customerServiceException) {
             insertCustomerErrors.inc();
             LOGGER.info("Error inserting new customer");
@@ -208,12 +635,15 @@ public class CustomerResource {
             Customer customer
     ) {
         try {
-            Customer newCustomer = customerMySQL.update(guid, customer);
+            Customer newCustomer = customerService.update(guid, customer);
             LOGGER.info("Updated customer with guid '"+guid+"'");
             return Response
                     .status(Response.Status.OK)
                     .entity(newCustomer)
                     .build();
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            updateCustomerErrors.inc();
+            return unavailable(customerServiceUnavailableException);
         } catch (CustomerNotFoundException customerNotFoundException) {
             LOGGER.info("Could not update customer with guid '"+guid+"', because no customer has that guid");
             return Response
@@ -230,6 +660,65 @@ public class CustomerResource {
         }
     }
 
+    /**
+     * Inserts or updates the Customer with the given {email} in a single
+     * database operation. If no Customer has that email a new Customer is
+     * created and a 201 response code is returned, otherwise the existing
+     * Customer is overwritten (as with PUT /customers/{guid}) and a 200
+     * response code is returned. Either way the body is the stored Customer.
+     *
+     * The email in the body may be omitted, but if present it must match
+     * {email}. Any guid in the body is ignored. If {email} is missing or
+     * invalid, then a 400 error is returned.
+     *
+     * @param email email of the Customer to be inserted or updated
+     * @param customer Customer object to be stored
+     * @return {@link Response}
+     */
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequestBody(
+            name = "customer",
+            required = true,
+            content = @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = Customer.class)
+            )
+    )
+    @Counted(name = UPSERT_COUNTER_NAME,
+            absolute = true,
+            description = UPSERT_COUNTER_DESCRIPTION
+    )
+    @Timed(name = UPSERT_TIMER_NAME,
+            description = UPSERT_TIMER_DESCRIPTION,
+            unit = MetricUnits.SECONDS,
+            absolute = true
+    )
+    public Response upsertCustomer(
+            @QueryParam("email") String email,
+            Customer customer
+    ) {
+        try {
+            UpsertResult<Customer> result = customerService.upsert(email, customer);
+            LOGGER.info((result.isCreated() ? "Inserted" : "Updated") + " customer with guid '"+result.getValue().getGuid()+"' by upsert");
+            return Response
+                    .status(result.isCreated() ? Response.Status.CREATED : Response.Status.OK)
+                    .entity(result.getValue())
+                    .build();
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            upsertCustomerErrors.inc();
+            return unavailable(customerServiceUnavailableException);
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Error upserting customer");
+            upsertCustomerErrors.inc();
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+    }
+
     /**
      * Deletes the customer with the given {guid} from the database.
      * If the customer with {guid} is not found in the database, then
@@ -253,12 +742,15 @@ public class CustomerResource {
             @PathParam("guid") String guid
     ) {
         try {
-            Customer oldCustomer = customerMySQL.delete(guid);
+            Customer oldCustomer = customerService.delete(guid);
             LOGGER.info("Deleted customer with guid '"+guid+"'");
             return Response
                     .status(Response.Status.OK)
                     .entity(oldCustomer)
                     .build();
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            deleteCustomerErrors.inc();
+            return unavailable(customerServiceUnavailableException);
         } catch (CustomerNotFoundException customerNotFoundException) {
             LOGGER.info("Could not delete customer with guid '"+guid+"', because no customer has that guid");
             return Response
@@ -274,4 +766,101 @@ public class CustomerResource {
                     .build();
         }
     }
+
+    /**
+     * Deletes the Customers with the given guids. The body is a JSON array
+     * of guids. The response is a JSON array with one result per guid, in
+     * the same order, whose status is DELETED, NOT_FOUND, INVALID or FAILED.
+     * A DELETED result holds the Customer that was deleted.
+     *
+     * The guids are deleted in chunks, each in its own transaction, so a
+     * failed chunk does not undo the chunks before it. If the body is
+     * missing or holds too many guids, then a 400 error is returned and
+     * nothing is deleted.
+     *
+     * @param guids guids of the Customers to be deleted
+     * @return {@link Response}
+     */
+    @Path("/bulk-delete")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Counted(name = BULK_DELETE_COUNTER_NAME,
+            absolute = true,
+            description = BULK_DELETE_COUNTER_DESCRIPTION
+    )
+    @Timed(name = BULK_DELETE_TIMER_NAME,
+            description = BULK_DELETE_TIMER_DESCRIPTION,
+            unit = MetricUnits.SECONDS,
+            absolute = true
+    )
+    public Response bulkDeleteCustomers(List<String> guids) {
+        try {
+            List<BulkItemResult<Customer>> results = customerService.bulkDelete(guids);
+            LOGGER.info("Bulk delete of " + results.size() + " customers");
+            return Response
+                    .status(Response.Status.OK)
+                    .entity(new GenericEntity<List<BulkItemResult<Customer>>>(results) {})
+                    .build();
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            bulkDeleteCustomerErrors.inc();
+            return unavailable(customerServiceUnavailableException);
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Error bulk deleting customers");
+            bulkDeleteCustomerErrors.inc();
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+    }
+
+    /**
+     * Applies a JSON array of Customer patches. Each patch must have the
+     * guid of the Customer it changes, and only the fields present in the
+     * patch are changed, unlike PUT /customers/{guid} which overwrites the
+     * whole Customer. The response is a JSON array with one result per
+     * patch, in the same order, whose status is UPDATED, NOT_FOUND, INVALID
+     * or FAILED. An UPDATED result holds the Customer as it is now stored.
+     *
+     * Patches are applied in chunks as with bulk delete. If the body is
+     * missing or holds too many patches, then a 400 error is returned and
+     * nothing is updated.
+     *
+     * @param patches Customer patches to be applied
+     * @return {@link Response}
+     */
+    @Path("/bulk-update")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Counted(name = BULK_UPDATE_COUNTER_NAME,
+            absolute = true,
+            description = BULK_UPDATE_COUNTER_DESCRIPTION
+    )
+    @Timed(name = BULK_UPDATE_TIMER_NAME,
+            description = BULK_UPDATE_TIMER_DESCRIPTION,
+            unit = MetricUnits.SECONDS,
+            absolute = true
+    )
+    public Response bulkUpdateCustomers(List<Customer> patches) {
+        try {
+            List<BulkItemResult<Customer>> results = customerService.bulkUpdate(patches);
+            LOGGER.info("Bulk update of " + results.size() + " customers");
+            return Response
+                    .status(Response.Status.OK)
+                    .entity(new GenericEntity<List<BulkItemResult<Customer>>>(results) {})
+                    .build();
+        } catch (CustomerServiceUnavailableException customerServiceUnavailableException) {
+            bulkUpdateCustomerErrors.inc();
+            return unavailable(customerServiceUnavailableException);
+        } catch (CustomerServiceException customerServiceException) {
+            LOGGER.info("Error bulk updating customers");
+            bulkUpdateCustomerErrors.inc();
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(new ExceptionMessage(customerServiceException))
+                    .build();
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package jacana.rest;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.ext.Provider;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Records the time from process start until the first JAX-RS response is
+ * sent, so the startup of the plain JVM, AppCDS and native images can be
+ * compared (see the Dockerfiles). Health and metrics are served outside
+ * JAX-RS and are not seen here. The time is logged once and exposed as
+ * the timeToFirstRequest gauge.
+ */
+@Provider
+@ApplicationScoped
+public class FirstRequestTimer implements ContainerResponseFilter {
+
+    private static final Logger LOGGER = Logger.getLogger(FirstRequestTimer.class.getName());
+
+    private final AtomicLong timeToFirstRequest = new AtomicLong(-1);
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if ( timeToFirstRequest.get() >= 0 ) {
+            return;
+        }
+        long millis = System.currentTimeMillis() - processStartMillis();
+        if ( timeToFirstRequest.compareAndSet(-1, millis) ) {
+            LOGGER.info("First request " + requestContext.getUriInfo().getPath()
+                    + " served " + millis + " ms after process start.");
+        }
+    }
+
+    @Gauge(name = "timeToFirstRequest",
+            unit = MetricUnits.MILLISECONDS,
+            absolute = true,
+            description = "Time from process start until the first response was sent, or -1 before that")
+    public long getTimeToFirstRequest() {
+        return timeToFirstRequest.get();
+    }
+
+    /**
+     * Process start time as reported by the operating system, falling back
+     * to the JVM start time where that is not available.
+     */
+    private static long processStartMillis() {
+        return ProcessHandle.current().info().startInstant()
+                .map(Instant::toEpochMilli)
+                .orElseGet(() -> ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+}
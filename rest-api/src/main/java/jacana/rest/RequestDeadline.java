@@ -0,0 +1,98 @@
+package jacana.rest;
+
+import jacana.service.CustomerServiceException;
+import jacana.service.Deadline;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Gives every request a Deadline, which CustomerServiceMySQL applies to
+ * its queries, so that the database stops working on a request once its
+ * client has stopped waiting.
+ *
+ * The deadline is taken from the X-Request-Timeout-Ms header, in
+ * milliseconds from when the request arrived. Without the header it is
+ * customers.deadline.{method}_ms for the resource method, e.g.
+ * customers.deadline.getAll_ms, or else customers.deadline.default_ms.
+ * A value of 0 means no deadline.
+ */
+@Provider
+@ApplicationScoped
+public class RequestDeadline implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final Logger LOGGER = Logger.getLogger(RequestDeadline.class.getName());
+
+    static final String HEADER = "X-Request-Timeout-Ms";
+
+    private final Config config;
+    private final long defaultMillis;
+    private final Map<Method, Long> endpointMillis = new ConcurrentHashMap<>();
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Inject
+    public RequestDeadline(Config config,
+                           @ConfigProperty(name = "customers.deadline.default_ms", defaultValue = "0") long defaultMillis) {
+        this.config = config;
+        this.defaultMillis = defaultMillis;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        long millis;
+        String header = requestContext.getHeaderString(HEADER);
+        if ( Objects.nonNull(header) ) {
+            try {
+                millis = Long.parseLong(header.strip());
+                if ( millis < 0 ) {
+                    throw new NumberFormatException();
+                }
+            } catch (NumberFormatException ex) {
+                LOGGER.info("Rejected request with invalid " + HEADER + " '" + header + "'");
+                requestContext.abortWith(Response
+                        .status(Response.Status.BAD_REQUEST)
+                        .type(MediaType.APPLICATION_JSON)
+                        .entity(new ExceptionMessage(new CustomerServiceException(
+                                HEADER + " must be a number of milliseconds.")))
+                        .build());
+                return;
+            }
+        } else {
+            millis = endpointMillis();
+        }
+        Deadline.set(millis > 0 ? Deadline.after(millis) : null);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Deadline.set(null);
+    }
+
+    private long endpointMillis() {
+        Method method = Objects.isNull(resourceInfo) ? null : resourceInfo.getResourceMethod();
+        if ( Objects.isNull(method) ) {
+            return defaultMillis;
+        }
+        return endpointMillis.computeIfAbsent(method, m -> config
+                .getOptionalValue("customers.deadline." + m.getName() + "_ms", Long.class)
+                .orElse(defaultMillis));
+    }
+}
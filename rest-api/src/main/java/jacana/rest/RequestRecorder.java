@@ -0,0 +1,65 @@
+package jacana.rest;
+
+import jacana.service.CustomerOperationEvent;
+import jacana.service.CustomerOperationRecorder;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.GenericEntity;
+import jakarta.ws.rs.ext.Provider;
+
+import java.lang.reflect.Method;
+import java.util.Objects;
+
+/**
+ * Records every request as a CustomerOperationEvent in JDK Flight
+ * Recorder, named after its resource method, e.g. CustomerResource.getAll,
+ * with the HTTP status as outcome. The service calls made for the request
+ * are recorded within it on the same thread.
+ *
+ * A streamed response, such as an export, is recorded up to the start of
+ * its body.
+ */
+@Provider
+@ApplicationScoped
+public class RequestRecorder implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String PROPERTY = RequestRecorder.class.getName();
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        CustomerOperationEvent event = new CustomerOperationEvent();
+        if ( event.isEnabled() ) {
+            event.begin();
+            requestContext.setProperty(PROPERTY, event);
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if ( !(requestContext.getProperty(PROPERTY) instanceof CustomerOperationEvent event) ) {
+            return;
+        }
+        event.end();
+        if ( event.shouldCommit() ) {
+            Method method = Objects.isNull(resourceInfo) ? null : resourceInfo.getResourceMethod();
+            event.operation = Objects.isNull(method)
+                    ? requestContext.getMethod() + " " + requestContext.getUriInfo().getPath()
+                    : method.getDeclaringClass().getSimpleName() + "." + method.getName();
+            event.sqlKey = "";
+            Object entity = responseContext.getStatus() >= 400 ? null : responseContext.getEntity();
+            event.rows = CustomerOperationRecorder.rows(entity instanceof GenericEntity<?> generic
+                    ? generic.getEntity()
+                    : entity);
+            event.outcome = String.valueOf(responseContext.getStatus());
+            event.commit();
+        }
+    }
+}
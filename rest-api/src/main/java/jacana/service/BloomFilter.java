@@ -0,0 +1,106 @@
+package jacana.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size Bloom filter of Strings. mightContain() never returns
+ * false for a String that was put() into the filter, but may return true
+ * for a String that was not, with a probability that grows as more
+ * Strings are added. Strings cannot be removed.
+ *
+ * The filter is safe for concurrent use. Bits are set with atomic
+ * operations so concurrent put() calls never lose each other's bits.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long numBits;
+    private final int numHashes;
+
+    /**
+     * Creates a filter sized to hold {expectedInsertions} Strings with a
+     * false positive probability of about {falsePositiveRate}.
+     *
+     * @param expectedInsertions
+     * @param falsePositiveRate
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long bits = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + 63) / 64));
+        this.words = new AtomicLongArray(words);
+        this.numBits = (long) words * 64;
+        this.numHashes = (int) Math.max(1, Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    public void put(String value) {
+        long hash1 = hash(value);
+        long hash2 = mix(hash1) | 1L;
+        for ( int i = 0; i < numHashes; i++ ) {
+            long bit = Math.floorMod(hash1 + i * hash2, numBits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ( (current & mask) == 0 && !words.compareAndSet(word, current, current | mask) ) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash1 = hash(value);
+        long hash2 = mix(hash1) | 1L;
+        for ( int i = 0; i < numHashes; i++ ) {
+            long bit = Math.floorMod(hash1 + i * hash2, numBits);
+            if ( (words.get((int) (bit >>> 6)) & (1L << bit)) == 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimates the current false positive probability from the fraction
+     * of bits that are set.
+     */
+    public double expectedFalsePositiveRate() {
+        long setBits = 0;
+        for ( int i = 0; i < words.length(); i++ ) {
+            setBits += Long.bitCount(words.get(i));
+        }
+        return Math.pow((double) setBits / numBits, numHashes);
+    }
+
+    public long bitSize() {
+        return numBits;
+    }
+
+    public int hashCount() {
+        return numHashes;
+    }
+
+    /**
+     * 64 bit FNV-1a over the UTF-8 bytes of {value}, finished with a
+     * mixing step so that similar Strings spread over the whole range.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for ( byte b : value.getBytes(StandardCharsets.UTF_8) ) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * splitmix64 finalizer. Also used to derive the second hash from the
+     * first, which is then forced to be odd so that it is never zero.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
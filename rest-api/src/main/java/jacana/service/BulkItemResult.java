@@ -0,0 +1,51 @@
+package jacana.service;
+
+/**
+ * Outcome of one item of a bulk operation. Holds the guid the item
+ * referred to, what happened to it, a message explaining any failure,
+ * and the object as it was deleted or as it is stored after an update.
+ */
+public class BulkItemResult<T> {
+
+    public enum Status {
+        DELETED,
+        UPDATED,
+        NOT_FOUND,
+        INVALID,
+        FAILED
+    }
+
+    private final String guid;
+    private final Status status;
+    private final String message;
+    private final T value;
+
+    public BulkItemResult(String guid, Status status, String message, T value) {
+        this.guid = guid;
+        this.status = status;
+        this.message = message;
+        this.value = value;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Reason the item was not applied, or null if it was.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * The deleted or updated object, or null if the item was not applied.
+     */
+    public T getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,121 @@
+package jacana.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulkhead around one kind of use of a shared resource such as the
+ * database, so that a flood of one kind cannot take all of the resource
+ * from the others.
+ *
+ * At most {maxConcurrent} callers hold a permit at a time. When none is
+ * free, up to {maxQueued} further callers wait for one, in arrival order,
+ * and any caller beyond that is rejected straight away. A waiting caller
+ * that gets no permit in time is rejected as well. Rejections are a
+ * CustomerServiceUnavailableException, as the resource is unavailable to
+ * that caller for now.
+ *
+ * Every permit acquired must be released, either with release() or by
+ * closing the Connection returned by wrap().
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public Bulkhead(String name, int maxConcurrent, int maxQueued) {
+        this.name = name;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * Takes a permit, waiting at most {waitMillis} for one.
+     */
+    public void acquire(long waitMillis) throws CustomerServiceUnavailableException {
+        try {
+            /*
+             * Unlike tryAcquire(), this does not take a permit ahead of
+             * callers already waiting for one.
+             */
+            if ( permits.tryAcquire(0, TimeUnit.MILLISECONDS) ) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw rejected("wait was interrupted");
+        }
+        if ( queued.incrementAndGet() > maxQueued ) {
+            queued.decrementAndGet();
+            throw rejected("is full");
+        }
+        try {
+            if ( !permits.tryAcquire(Math.max(0, waitMillis), TimeUnit.MILLISECONDS) ) {
+                throw rejected("had no connection free in time");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw rejected("wait was interrupted");
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Returns {connection}, which must have been opened with a permit of
+     * this bulkhead, releasing the permit when it is first closed.
+     */
+    public Connection wrap(Connection connection) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    } finally {
+                        if ( method.getName().equals("close") && released.compareAndSet(false, true) ) {
+                            release();
+                        }
+                    }
+                });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getInUse() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private CustomerServiceUnavailableException rejected(String reason) {
+        rejected.incrementAndGet();
+        return new CustomerServiceUnavailableException("Customer database " + name + " lane " + reason
+                + ", retry later.");
+    }
+}
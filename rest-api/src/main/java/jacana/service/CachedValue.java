@@ -0,0 +1,35 @@
+package jacana.service;
+
+/**
+ * A value served from a cache instead of the data source, together with
+ * the time it was last known to match the data source.
+ */
+public class CachedValue<T> {
+
+    private final T value;
+    private final long cachedAtMillis;
+
+    public CachedValue(T value, long cachedAtMillis) {
+        this.value = value;
+        this.cachedAtMillis = cachedAtMillis;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * Epoch milliseconds at which the value was last read from, or
+     * written to, the data source.
+     */
+    public long getCachedAtMillis() {
+        return cachedAtMillis;
+    }
+
+    /**
+     * Whole seconds since the value was last known to be current.
+     */
+    public long getAgeSeconds() {
+        return Math.max(0, (System.currentTimeMillis() - cachedAtMillis) / 1000);
+    }
+}
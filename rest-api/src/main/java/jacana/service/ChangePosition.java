@@ -0,0 +1,46 @@
+package jacana.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the history of changes to Customers: the time of a change
+ * in microseconds since the epoch, on the database clock, and the guid it
+ * changed, which orders changes made in the same microsecond. Handed to
+ * clients as an opaque token.
+ */
+record ChangePosition(long micros, String guid) implements Comparable<ChangePosition> {
+
+    static final ChangePosition START = new ChangePosition(0, "");
+
+    private static final String VERSION = "1";
+
+    String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((VERSION + ":" + micros + ":" + guid).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes {token}, where an empty token is the start of history.
+     */
+    static ChangePosition decode(String token) throws CustomerServiceException {
+        if ( token.isEmpty() ) {
+            return START;
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":", 3);
+            if ( parts.length == 3 && VERSION.equals(parts[0]) ) {
+                return new ChangePosition(Long.parseLong(parts[1]), parts[2]);
+            }
+        } catch (IllegalArgumentException ex) {
+            // reported below
+        }
+        throw new CustomerServiceException("'" + token + "' is not a changedSince token.");
+    }
+
+    @Override
+    public int compareTo(ChangePosition other) {
+        int byTime = Long.compare(micros, other.micros);
+        return byTime != 0 ? byTime : guid.compareTo(other.guid);
+    }
+}
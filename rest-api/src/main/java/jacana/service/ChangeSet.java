@@ -0,0 +1,47 @@
+package jacana.service;
+
+import java.util.List;
+
+/**
+ * One page of the changes made to the data source after a position in its
+ * history. Holds the objects created or updated since, as they are now,
+ * the guids of the objects deleted since, and the position to ask for the
+ * following changes from.
+ */
+public class ChangeSet<T> {
+
+    private final List<T> changed;
+    private final List<String> deleted;
+    private final String next;
+    private final boolean more;
+
+    public ChangeSet(List<T> changed, List<String> deleted, String next, boolean more) {
+        this.changed = changed;
+        this.deleted = deleted;
+        this.next = next;
+        this.more = more;
+    }
+
+    public List<T> getChanged() {
+        return changed;
+    }
+
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Opaque token of the position after these changes.
+     */
+    public String getNext() {
+        return next;
+    }
+
+    /**
+     * Returns true if there were more changes than fit in this page, so
+     * that they should be asked for again straight away from getNext().
+     */
+    public boolean isMore() {
+        return more;
+    }
+}
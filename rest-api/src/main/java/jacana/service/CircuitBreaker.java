@@ -0,0 +1,129 @@
+package jacana.service;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker in front of a remote resource such as the database.
+ *
+ * CLOSED: every request is allowed. After {failureThreshold} consecutive
+ * failures the breaker opens.
+ *
+ * OPEN: every request is rejected without trying, so callers fail fast
+ * instead of each waiting out a connect timeout. After {openMillis} the
+ * breaker becomes half-open.
+ *
+ * HALF_OPEN: a single probe request is allowed while all others are
+ * still rejected. If the probe succeeds the breaker closes, otherwise it
+ * opens again for another {openMillis}.
+ *
+ * Every caller that is allowed a request must report its outcome with
+ * recordSuccess() or recordFailure(), otherwise a half-open breaker
+ * waits on the probe forever.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final LongSupplier clock;
+    private final BiConsumer<State, State> onTransition;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAtMillis = 0;
+    private boolean probeInFlight = false;
+
+    /**
+     * @param failureThreshold consecutive failures that open the breaker
+     * @param openMillis how long the breaker stays open before a probe
+     * @param clock source of the current time in milliseconds
+     * @param onTransition called with the old and new state on every
+     *                     state change, while holding the breaker's lock
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock,
+                          BiConsumer<State, State> onTransition) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.clock = clock;
+        this.onTransition = onTransition;
+    }
+
+    /**
+     * Returns true if a request may be attempted now.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case OPEN -> {
+                if ( clock.getAsLong() - openedAtMillis < openMillis ) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                probeInFlight = true;
+                return true;
+            }
+            case HALF_OPEN -> {
+                if ( probeInFlight ) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+            }
+            default -> {
+                return true;
+            }
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if ( state != State.CLOSED ) {
+            transition(State.CLOSED);
+        }
+    }
+
+    public synchronized void recordFailure() {
+        probeInFlight = false;
+        if ( state == State.HALF_OPEN ) {
+            open();
+        } else if ( state == State.CLOSED && ++consecutiveFailures >= failureThreshold ) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Milliseconds until an open breaker allows a probe, or 0 if it is
+     * not open.
+     */
+    public synchronized long getRetryAfterMillis() {
+        if ( state != State.OPEN ) {
+            return 0;
+        }
+        return Math.max(0, openedAtMillis + openMillis - clock.getAsLong());
+    }
+
+    private void open() {
+        openedAtMillis = clock.getAsLong();
+        consecutiveFailures = 0;
+        transition(State.OPEN);
+    }
+
+    private void transition(State newState) {
+        State oldState = state;
+        state = newState;
+        if ( Objects.nonNull(onTransition) ) {
+            onTransition.accept(oldState, newState);
+        }
+    }
+}
@@ -169,6 +169,23 @@ public class Customer {
                 nullCompare(getNameSuffix(), customer.getNameSuffix());
     }
 
+    /**
+     * Hash code consistent with equals(). Since equals() may consider two
+     * Customers equal when their guids differ (one of them being null), the
+     * guid is not part of the hash code.
+     *
+     * Note that equals() is not transitive when guids are null, so Customer
+     * objects still make poor keys for a Map or Set. Use CustomerRecord for
+     * that instead.
+     *
+     * @return
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(getEmail(), getNamePrefix(), getNameSurname(), getNameMiddle(),
+                getNameFamily(), getPhoneNumber(), getNameSuffix());
+    }
+
     /**
      * Returns true if both s1 and s2 are null, or have equal non-null
      * values. Returns false if their non-null values do not match
@@ -0,0 +1,44 @@
+package jacana.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.logging.Logger;
+
+/**
+ * Produces the @CustomerBackend CustomerService selected by
+ * customers.backend: "mysql", the default, for CustomerServiceMySQL, or
+ * "embedded" for CustomerServiceEmbedded. Only the selected one is ever
+ * created, so the other needs neither its database nor its files.
+ */
+@ApplicationScoped
+public class CustomerBackendProducer {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerBackendProducer.class.getName());
+
+    public static final String MYSQL = "mysql";
+    public static final String EMBEDDED = "embedded";
+
+    private final String backend;
+
+    @Inject
+    public CustomerBackendProducer(@ConfigProperty(name = "customers.backend", defaultValue = MYSQL) String backend) {
+        this.backend = backend;
+    }
+
+    @Produces
+    @CustomerBackend
+    CustomerService<Customer> customerService(Instance<CustomerServiceMySQL> customerMySQL,
+                                              Instance<CustomerServiceEmbedded> customerEmbedded) {
+        LOGGER.info("Using the " + backend + " Customer backend.");
+        return switch (backend) {
+            case MYSQL -> customerMySQL.get();
+            case EMBEDDED -> customerEmbedded.get();
+            default -> throw new IllegalArgumentException("Unknown customers.backend '" + backend
+                    + "', expected '" + MYSQL + "' or '" + EMBEDDED + "'.");
+        };
+    }
+}
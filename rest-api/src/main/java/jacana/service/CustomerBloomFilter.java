@@ -0,0 +1,313 @@
+package jacana.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Optional Bloom filters over the guids and emails of all Customers, used
+ * to answer lookups of unknown guids and emails without a database query.
+ *
+ * The filters are built in the background at startup from a streaming scan
+ * of the Customers table and are rebuilt periodically. Inserts and updates
+ * are added as they happen by observing CustomerChangeEvents. A Bloom filter
+ * cannot remove values, so the guid and email of a deleted Customer keep
+ * answering "maybe" (costing one database query) until the next rebuild.
+ *
+ * Until the first build completes, or if the filter is disabled, every
+ * lookup answers "maybe" and goes to the database.
+ *
+ * A Customer inserted by another replica only reaches the filters through
+ * the CustomerChangeBus, so the filters are only enabled together with a
+ * change bus, and a lookup may find nothing for up to the poll interval of
+ * the bus after such an insert. Writes through this process add their guid
+ * and email before the write is made, so they are never answered "absent"
+ * here. Reads made for a write never consult the filters.
+ *
+ * Keys are lower-cased because the Customers columns use a case-insensitive
+ * collation. That collation is also accent-insensitive, so lookups of keys
+ * containing non-ASCII characters are never answered from a filter, and a
+ * filter that has seen a stored non-ASCII value stops answering at all.
+ */
+@ApplicationScoped
+public class CustomerBloomFilter {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerBloomFilter.class.getName());
+
+    /**
+     * What a filter answered for a lookup: the key is certainly ABSENT, it
+     * MAYBE exists, or the filter was NOT_CONSULTED, e.g. because it is not
+     * built yet.
+     */
+    public enum Answer {
+        ABSENT,
+        MAYBE,
+        NOT_CONSULTED
+    }
+
+    private final CustomerService<Customer> customerService;
+    private final boolean requested;
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final long rebuildIntervalMinutes;
+
+    private volatile Filters filters = null;
+    private volatile Filters building = null;
+    private final AtomicLong lastCount = new AtomicLong();
+    private final AtomicLong definiteMisses = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    private final Counter negativesCounter;
+    private final Counter falsePositivesCounter;
+
+    @Inject
+    public CustomerBloomFilter(CustomerServiceMySQL customerMySQL,
+                               @ConfigProperty(name = "customers.bloom_filter.enabled", defaultValue = "false") boolean enabled,
+                               @ConfigProperty(name = "customers.bloom_filter.expected_insertions", defaultValue = "1000000") long expectedInsertions,
+                               @ConfigProperty(name = "customers.bloom_filter.false_positive_rate", defaultValue = "0.01") double falsePositiveRate,
+                               @ConfigProperty(name = "customers.bloom_filter.rebuild_interval_minutes", defaultValue = "60") long rebuildIntervalMinutes,
+                               @ConfigProperty(name = "customers.change_bus.transport", defaultValue = "none") String changeBusTransport,
+                               @Metric(name = "customerBloomFilterNegatives", absolute = true,
+                                       description = "Counts guid and email lookups answered by the Bloom filter without a database query")
+                               Counter negativesCounter,
+                               @Metric(name = "customerBloomFilterFalsePositives", absolute = true,
+                                       description = "Counts guid and email lookups the Bloom filter passed to the database that found nothing")
+                               Counter falsePositivesCounter) {
+        this(customerMySQL, enabled && !"none".equals(changeBusTransport), expectedInsertions, falsePositiveRate,
+                rebuildIntervalMinutes, negativesCounter, falsePositivesCounter, enabled);
+    }
+
+    /**
+     * For tests, {enabled} is used as given and the Customers are read from
+     * {customerService}.
+     */
+    CustomerBloomFilter(CustomerService<Customer> customerService, boolean enabled, long expectedInsertions,
+                        double falsePositiveRate, long rebuildIntervalMinutes,
+                        Counter negativesCounter, Counter falsePositivesCounter, boolean requested) {
+        this.customerService = customerService;
+        this.requested = requested;
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.rebuildIntervalMinutes = rebuildIntervalMinutes;
+        this.negativesCounter = negativesCounter;
+        this.falsePositivesCounter = falsePositivesCounter;
+    }
+
+    /**
+     * Starts building the filters in the background once the application
+     * has started, and schedules the periodic rebuild.
+     */
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if ( requested && !enabled ) {
+            LOGGER.info("customers.bloom_filter.enabled is ignored without a change bus, as the filters would"
+                    + " not learn of Customers inserted by other replicas.");
+        }
+        if ( !enabled ) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "customer-bloom-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rebuild, 0, rebuildIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if ( Objects.nonNull(scheduler) ) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Answers ABSENT only if no Customer has the given {guid}.
+     */
+    public Answer checkGuid(String guid) {
+        Filters current = filters;
+        if ( Objects.isNull(current) || !current.guidsUsable ) {
+            return Answer.NOT_CONSULTED;
+        }
+        return check(current.guids, guid);
+    }
+
+    /**
+     * Answers ABSENT only if no Customer has the given {email}.
+     */
+    public Answer checkEmail(String email) {
+        Filters current = filters;
+        if ( Objects.isNull(current) || !current.emailsUsable ) {
+            return Answer.NOT_CONSULTED;
+        }
+        return check(current.emails, email);
+    }
+
+    /**
+     * Records that a lookup found nothing in the database after the filter
+     * gave {answer}, which is a false positive if it was MAYBE.
+     */
+    public void recordFalsePositive(Answer answer) {
+        if ( answer == Answer.MAYBE ) {
+            falsePositives.incrementAndGet();
+            falsePositivesCounter.inc();
+        }
+    }
+
+    /**
+     * Adds {guid} and {email}, either of which may be null, to the filters
+     * before they are written, so that they are never answered ABSENT
+     * once the write has been made. A write that then fails only costs a
+     * false positive.
+     */
+    public void add(String guid, String email) {
+        if ( !enabled ) {
+            return;
+        }
+        Customer customer = new Customer();
+        customer.setGuid(guid);
+        customer.setEmail(email);
+        Filters current = filters;
+        if ( Objects.nonNull(current) ) {
+            current.put(customer);
+        }
+        Filters next = building;
+        if ( Objects.nonNull(next) ) {
+            next.put(customer);
+        }
+    }
+
+    @Gauge(name = "customerBloomFilterExpectedFalsePositiveRate",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "False positive rate of the email Bloom filter estimated from the bits that are set")
+    public double getExpectedFalsePositiveRate() {
+        Filters current = filters;
+        return Objects.isNull(current) ? 0 : current.emails.expectedFalsePositiveRate();
+    }
+
+    @Gauge(name = "customerBloomFilterObservedFalsePositiveRate",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Fraction of lookups for unknown guids and emails that the Bloom filter passed to the database")
+    public double getObservedFalsePositiveRate() {
+        long positives = falsePositives.get();
+        long total = positives + definiteMisses.get();
+        return total == 0 ? 0 : (double) positives / total;
+    }
+
+    void onCustomerChange(@Observes CustomerChangeEvent event) {
+        if ( !enabled || Objects.isNull(event.getAfter()) ) {
+            return;
+        }
+        Filters current = filters;
+        if ( Objects.nonNull(current) ) {
+            current.put(event.getAfter());
+        }
+        Filters next = building;
+        if ( Objects.nonNull(next) ) {
+            next.put(event.getAfter());
+        }
+    }
+
+    /**
+     * Builds new filters from a streaming scan of the Customers table and
+     * then swaps them in. Changes that happen during the scan are added to
+     * the new filters as well. The filters are sized for at least twice the
+     * number of Customers found by the previous build.
+     */
+    void rebuild() {
+        long start = System.currentTimeMillis();
+        Filters next = new Filters(Math.max(expectedInsertions, lastCount.get() * 2), falsePositiveRate);
+        building = next;
+        try {
+            AtomicLong count = new AtomicLong();
+            customerService.scanAll(EnumSet.of(CustomerField.GUID, CustomerField.EMAIL), customer -> {
+                next.put(customer);
+                count.incrementAndGet();
+            });
+            filters = next;
+            lastCount.set(count.get());
+            LOGGER.info("Built customer Bloom filters over " + count.get() + " customers in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        } catch (Exception ex) {
+            LOGGER.info("Exception building customer Bloom filters: " + ex.getMessage());
+        } finally {
+            building = null;
+        }
+    }
+
+    private Answer check(BloomFilter filter, String value) {
+        String key = key(value);
+        if ( Objects.isNull(key) ) {
+            return Answer.NOT_CONSULTED;
+        }
+        if ( filter.mightContain(key) ) {
+            return Answer.MAYBE;
+        }
+        definiteMisses.incrementAndGet();
+        negativesCounter.inc();
+        return Answer.ABSENT;
+    }
+
+    /**
+     * Returns the filter key for {value}, or null if the value must not be
+     * answered from the filter.
+     */
+    private static String key(String value) {
+        if ( Objects.isNull(value) ) {
+            return null;
+        }
+        for ( int i = 0; i < value.length(); i++ ) {
+            if ( value.charAt(i) > 127 ) {
+                return null;
+            }
+        }
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Filters {
+        private final BloomFilter guids;
+        private final BloomFilter emails;
+        private volatile boolean guidsUsable = true;
+        private volatile boolean emailsUsable = true;
+
+        private Filters(long expectedInsertions, double falsePositiveRate) {
+            this.guids = new BloomFilter(expectedInsertions, falsePositiveRate);
+            this.emails = new BloomFilter(expectedInsertions, falsePositiveRate);
+        }
+
+        private void put(Customer customer) {
+            String guid = key(customer.getGuid());
+            if ( Objects.nonNull(guid) ) {
+                guids.put(guid);
+            } else if ( Objects.nonNull(customer.getGuid()) ) {
+                guidsUsable = false;
+            }
+            String email = key(customer.getEmail());
+            if ( Objects.nonNull(email) ) {
+                emails.put(email);
+            } else if ( Objects.nonNull(customer.getEmail()) ) {
+                emailsUsable = false;
+            }
+        }
+    }
+}
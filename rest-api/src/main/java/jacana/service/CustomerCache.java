@@ -0,0 +1,314 @@
+package jacana.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.*;
+
+/**
+ * Bounded last-known-good copy of the Customers most recently read from
+ * the database, used to keep answering reads while the database is
+ * unavailable. While the database is healthy it is only consulted if
+ * customers.cache.ttl_seconds is set, see CustomerServiceMySQL.getByGuid().
+ *
+ * Customers are kept by guid, least recently used first out, up to
+ * {maxEntries}. The result of the last getAll() is kept as well, but only
+ * if it holds no more than {maxEntries} Customers. Writes made through the
+ * CustomerService are applied by observing CustomerChangeEvents, so a
+ * deleted or updated Customer is not served in its old form. Writes made
+ * by other replicas arrive the same way, through the CustomerChangeBus.
+ *
+ * A read that was running while its Customer changed may return the
+ * Customer as it was before. To keep such a read from replacing the newer
+ * value, every change takes the next generation and records it against
+ * the guids it changed, and a read is only cached if its Customer has not
+ * changed since the generation() taken before the read began.
+ *
+ * Only complete Customers are cached. A request for some fields is served
+ * from the complete Customer with the other fields left null.
+ *
+ * The Customers cached by a previous run of the process may be restored
+ * from a CustomerCacheSnapshot. They keep the time they were cached at
+ * until verify() has checked them against the changes made since.
+ */
+@ApplicationScoped
+public class CustomerCache {
+
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, CachedValue<CustomerRecord>> byGuid;
+    private final Map<String, String> guidByEmail = new HashMap<>();
+    private LinkedHashMap<String, CustomerRecord> all = null;
+    private long allCachedAtMillis = 0;
+    /*
+     * Customers put by restore() that are not yet verified, with the value
+     * restored, so that one replaced since is recognised.
+     */
+    private final Map<String, CachedValue<CustomerRecord>> unverified = new HashMap<>();
+    /*
+     * Generation of the last change of each recently changed guid. Older
+     * ones are forgotten, and count as changed at evictedGeneration.
+     */
+    private final LinkedHashMap<String, Long> changedAt;
+    private long generation = 0;
+    private long evictedGeneration = 0;
+
+    @Inject
+    public CustomerCache(@ConfigProperty(name = "customers.stale_cache.max_entries", defaultValue = "10000") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.byGuid = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedValue<CustomerRecord>> eldest) {
+                if ( size() > CustomerCache.this.maxEntries ) {
+                    guidByEmail.remove(emailKey(eldest.getValue().getValue().email()), eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.changedAt = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if ( size() > CustomerCache.this.maxEntries ) {
+                    evictedGeneration = Math.max(evictedGeneration, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The current generation, to be taken before reading Customers that
+     * are to be put.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Remembers the result of a successful getAll() of complete Customers
+     * that began at {readGeneration}. The result is only kept if nothing
+     * changed since, and each Customer only if it did not change since.
+     */
+    public synchronized void putAll(List<Customer> customers, long readGeneration) {
+        long now = System.currentTimeMillis();
+        if ( customers.size() > maxEntries || generation != readGeneration ) {
+            all = null;
+        } else {
+            all = new LinkedHashMap<>();
+            allCachedAtMillis = now;
+        }
+        for ( Customer customer : customers ) {
+            CustomerRecord record = CustomerRecord.from(customer);
+            if ( Objects.nonNull(all) ) {
+                all.put(record.guid(), record);
+            }
+            if ( !changedSince(record.guid(), readGeneration) ) {
+                put(record, now);
+            }
+        }
+    }
+
+    /**
+     * Remembers a complete Customer successfully read from the database by
+     * a read that began at {readGeneration}, unless it changed since.
+     * Returns whether it was put.
+     */
+    public synchronized boolean put(Customer customer, long readGeneration) {
+        if ( changedSince(customer.getGuid(), readGeneration) ) {
+            return false;
+        }
+        put(CustomerRecord.from(customer), System.currentTimeMillis());
+        return true;
+    }
+
+    public synchronized Optional<CachedValue<List<Customer>>> getAll(Set<CustomerField> fields) {
+        if ( Objects.isNull(all) ) {
+            return Optional.empty();
+        }
+        List<Customer> customers = new ArrayList<>(all.size());
+        for ( CustomerRecord record : all.values() ) {
+            customers.add(project(record, fields));
+        }
+        return Optional.of(new CachedValue<>(customers, allCachedAtMillis));
+    }
+
+    public synchronized Optional<CachedValue<Customer>> getByGuid(String guid, Set<CustomerField> fields) {
+        CachedValue<CustomerRecord> cached = byGuid.get(guid);
+        if ( Objects.isNull(cached) ) {
+            return Optional.empty();
+        }
+        return Optional.of(new CachedValue<>(project(cached.getValue(), fields), cached.getCachedAtMillis()));
+    }
+
+    public synchronized Optional<CachedValue<Customer>> getByEmail(String email, Set<CustomerField> fields) {
+        String guid = guidByEmail.get(emailKey(email));
+        return Objects.isNull(guid) ? Optional.empty() : getByGuid(guid, fields);
+    }
+
+    /**
+     * Forgets the Customer with {guid}, e.g. because it was changed by
+     * another process and could not be re-read. The result of the last
+     * getAll() is forgotten as well, as it may be missing the Customer.
+     */
+    public synchronized void invalidate(String guid) {
+        changed(guid);
+        remove(guid);
+        all = null;
+    }
+
+    public synchronized int size() {
+        return byGuid.size();
+    }
+
+    /**
+     * Returns the cached Customers, least recently used first.
+     */
+    synchronized List<CachedValue<CustomerRecord>> entries() {
+        return new ArrayList<>(byGuid.values());
+    }
+
+    /**
+     * Puts the {entries} of a CustomerCacheSnapshot, least recently used
+     * first, each with the time it was cached at. An entry is skipped if
+     * its guid or email is already cached, as that Customer was read or
+     * written since. The entries stay unverified until verified().
+     */
+    synchronized void restore(List<CachedValue<CustomerRecord>> entries) {
+        for ( CachedValue<CustomerRecord> entry : entries ) {
+            CustomerRecord record = entry.getValue();
+            if ( byGuid.containsKey(record.guid()) || guidByEmail.containsKey(emailKey(record.email())) ) {
+                continue;
+            }
+            byGuid.put(record.guid(), entry);
+            guidByEmail.put(emailKey(record.email()), record.guid());
+            unverified.put(record.guid(), entry);
+        }
+    }
+
+    /**
+     * Applies a page of the changes made since the unverified Customers
+     * were cached: a Customer still as restored is replaced by its
+     * {changed} value, or removed if {deleted}.
+     */
+    synchronized void verify(List<Customer> changed, List<String> deleted) {
+        long now = System.currentTimeMillis();
+        for ( Customer customer : changed ) {
+            CachedValue<CustomerRecord> restored = unverified.remove(customer.getGuid());
+            if ( Objects.nonNull(restored) && byGuid.get(customer.getGuid()) == restored ) {
+                put(CustomerRecord.from(customer), now);
+                /*
+                 * A later page may change the Customer again.
+                 */
+                unverified.put(customer.getGuid(), byGuid.get(customer.getGuid()));
+            }
+        }
+        for ( String guid : deleted ) {
+            CachedValue<CustomerRecord> restored = unverified.remove(guid);
+            if ( Objects.nonNull(restored) && byGuid.get(guid) == restored ) {
+                remove(guid);
+            }
+        }
+    }
+
+    /**
+     * Marks the unverified Customers still as restored as cached at
+     * {verifiedAtMillis}, once verify() has been given every change made
+     * before then.
+     */
+    synchronized void verified(long verifiedAtMillis) {
+        for ( Map.Entry<String, CachedValue<CustomerRecord>> entry : byGuid.entrySet() ) {
+            if ( unverified.get(entry.getKey()) == entry.getValue() ) {
+                entry.setValue(new CachedValue<>(entry.getValue().getValue(), verifiedAtMillis));
+            }
+        }
+        unverified.clear();
+    }
+
+    /**
+     * Removes the unverified Customers still as restored, e.g. because the
+     * changes since they were cached are no longer known.
+     */
+    synchronized void discardUnverified() {
+        for ( Map.Entry<String, CachedValue<CustomerRecord>> entry : unverified.entrySet() ) {
+            if ( byGuid.get(entry.getKey()) == entry.getValue() ) {
+                remove(entry.getKey());
+            }
+        }
+        unverified.clear();
+    }
+
+    void onCustomerChange(@Observes CustomerChangeEvent event) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if ( Objects.nonNull(event.getBefore()) ) {
+                changed(event.getBefore().getGuid());
+                remove(event.getBefore().getGuid());
+                if ( Objects.nonNull(all) ) {
+                    all.remove(event.getBefore().getGuid());
+                }
+            }
+            if ( Objects.nonNull(event.getAfter()) ) {
+                CustomerRecord record = CustomerRecord.from(event.getAfter());
+                changed(record.guid());
+                put(record, now);
+                if ( Objects.nonNull(all) ) {
+                    all.put(record.guid(), record);
+                    if ( all.size() > maxEntries ) {
+                        all = null;
+                    }
+                }
+            }
+        }
+    }
+
+    private void changed(String guid) {
+        generation++;
+        changedAt.remove(guid);
+        changedAt.put(guid, generation);
+    }
+
+    private boolean changedSince(String guid, long readGeneration) {
+        return changedAt.getOrDefault(guid, evictedGeneration) > readGeneration;
+    }
+
+    private void put(CustomerRecord record, long cachedAtMillis) {
+        remove(record.guid());
+        byGuid.put(record.guid(), new CachedValue<>(record, cachedAtMillis));
+        guidByEmail.put(emailKey(record.email()), record.guid());
+    }
+
+    private void remove(String guid) {
+        CachedValue<CustomerRecord> removed = byGuid.remove(guid);
+        if ( Objects.nonNull(removed) ) {
+            guidByEmail.remove(emailKey(removed.getValue().email()), guid);
+        }
+    }
+
+    /**
+     * Emails are matched ignoring case, as the database does.
+     */
+    private static String emailKey(String email) {
+        return Objects.isNull(email) ? "" : email.toLowerCase(Locale.ROOT);
+    }
+
+    private static Customer project(CustomerRecord record, Set<CustomerField> fields) {
+        Customer customer = new Customer();
+        for ( CustomerField field : fields ) {
+            switch (field) {
+                case GUID -> customer.setGuid(record.guid());
+                case NAME_PREFIX -> customer.setNamePrefix(record.namePrefix());
+                case NAME_SUFFIX -> customer.setNameSuffix(record.nameSuffix());
+                case NAME_SURNAME -> customer.setNameSurname(record.nameSurname());
+                case NAME_MIDDLE -> customer.setNameMiddle(record.nameMiddle());
+                case NAME_FAMILY -> customer.setNameFamily(record.nameFamily());
+                case EMAIL -> customer.setEmail(record.email());
+                case PHONE_NUMBER -> customer.setPhoneNumber(record.phoneNumber());
+            }
+        }
+        return customer;
+    }
+}
@@ -0,0 +1,300 @@
+package jacana.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.BeforeDestroyed;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Optional snapshot of the CustomerCache in a file, so that a restarted
+ * process, e.g. a new pod of a rolling deploy, starts with the Customers
+ * its predecessor was serving instead of reading them all from the
+ * database again.
+ *
+ * The cached Customers are written to customers.cache.snapshot.file when
+ * the application shuts down, and read back into the CustomerCache while
+ * it starts, before the server takes requests. The file is removed once
+ * read, so it is only ever used by the next start.
+ *
+ * A restored Customer keeps the time it was cached at, so it is served as
+ * before the restart until it is verified. After settle_seconds, so that
+ * every change made before the start can be read, the Customers changed
+ * or deleted since the oldest restored one was cached are read with
+ * getChangedSince() and applied to the cache, and the others are marked as
+ * current. If those changes are no longer kept, the restored Customers are
+ * removed instead.
+ *
+ * The file is
+ *
+ *   int   magic
+ *   int   version
+ *   long  time it was written, epoch milliseconds
+ *   int   number of Customers
+ *   for each Customer, least recently used first, the epoch milliseconds
+ *         it was cached at, then its fields in CustomerRecord order, each
+ *         as an int length (-1 for null) and UTF-8 bytes
+ *   int   CRC32 of all of the above
+ */
+@ApplicationScoped
+public class CustomerCacheSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerCacheSnapshot.class.getName());
+
+    private static final int MAGIC = 0x4a434353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    private final CustomerCache customerCache;
+    private final CustomerService<Customer> customerService;
+    private final boolean enabled;
+    private final Path file;
+    private final long settleSeconds;
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public CustomerCacheSnapshot(CustomerCache customerCache,
+                                 @CustomerBackend CustomerService<Customer> customerService,
+                                 @ConfigProperty(name = "customers.cache.snapshot.enabled", defaultValue = "false") boolean enabled,
+                                 @ConfigProperty(name = "customers.cache.snapshot.file", defaultValue = "/var/lib/jacana/customer-cache.snapshot") String file,
+                                 @ConfigProperty(name = "customers.changed_since.settle_seconds", defaultValue = "5") long settleSeconds) {
+        this.customerCache = customerCache;
+        this.customerService = customerService;
+        this.enabled = enabled;
+        this.file = Paths.get(file);
+        this.settleSeconds = Math.max(0, settleSeconds);
+    }
+
+    /**
+     * Restores the snapshot, if there is one, and schedules its
+     * verification.
+     */
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if ( !enabled ) {
+            return;
+        }
+        long oldestCachedAtMillis = restore();
+        if ( oldestCachedAtMillis == 0 ) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "customer-cache-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.schedule(() -> verify(oldestCachedAtMillis), settleSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the snapshot while the CustomerCache is still there.
+     */
+    void onShutdown(@Observes @BeforeDestroyed(ApplicationScoped.class) Object event) {
+        if ( !enabled ) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            int written = write(file, customerCache.entries());
+            LOGGER.info("Wrote " + written + " cached customers to " + file + " in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        } catch (IOException ex) {
+            LOGGER.info("Exception writing customer cache snapshot " + file + ": " + ex.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if ( Objects.nonNull(scheduler) ) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the snapshot into the CustomerCache and removes it. Returns the
+     * time the oldest restored Customer was cached at, or 0 if none was.
+     */
+    long restore() {
+        if ( !Files.exists(file) ) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        List<CachedValue<CustomerRecord>> entries;
+        try {
+            entries = read(file);
+        } catch (IOException ex) {
+            LOGGER.info("Exception reading customer cache snapshot " + file + ": " + ex.getMessage());
+            entries = List.of();
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            LOGGER.info("Exception removing customer cache snapshot " + file + ": " + ex.getMessage());
+        }
+        if ( entries.isEmpty() ) {
+            return 0;
+        }
+        customerCache.restore(entries);
+        LOGGER.info("Restored " + entries.size() + " cached customers from " + file + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        return entries.stream().mapToLong(CachedValue::getCachedAtMillis).min().getAsLong();
+    }
+
+    /**
+     * Applies the changes made since {sinceMillis}, less settle_seconds to
+     * allow for the difference between the clocks, to the restored
+     * Customers. Tried again after settle_seconds while the data source is
+     * unavailable.
+     */
+    void verify(long sinceMillis) {
+        long start = System.currentTimeMillis();
+        String token = new ChangePosition((sinceMillis - settleSeconds * 1000) * 1000, "").encode();
+        long changes = 0;
+        try {
+            ChangeSet<Customer> changeSet;
+            do {
+                changeSet = customerService.getChangedSince(token, 0);
+                customerCache.verify(changeSet.getChanged(), changeSet.getDeleted());
+                changes += changeSet.getChanged().size() + changeSet.getDeleted().size();
+                token = changeSet.getNext();
+            } while ( changeSet.isMore() );
+        } catch (CustomerChangesExpiredException ex) {
+            LOGGER.info("Discarding restored customers, the changes since they were cached are not kept.");
+            customerCache.discardUnverified();
+            return;
+        } catch (CustomerServiceUnavailableException ex) {
+            LOGGER.info("Customer database is unavailable, verifying restored customers later: " + ex.getMessage());
+            if ( Objects.nonNull(scheduler) ) {
+                scheduler.schedule(() -> verify(sinceMillis), settleSeconds, TimeUnit.SECONDS);
+            }
+            return;
+        } catch (CustomerServiceException ex) {
+            LOGGER.info("Exception verifying restored customers, discarding them: " + ex.getMessage());
+            customerCache.discardUnverified();
+            return;
+        }
+        customerCache.verified(start - settleSeconds * 1000);
+        LOGGER.info("Verified restored customers against " + changes + " changes in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Writes {entries} to {file}, through a new file that is moved over it
+     * once complete. Returns the number written.
+     */
+    static int write(Path file, List<CachedValue<CustomerRecord>> entries) throws IOException {
+        Path written = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileStream = new FileOutputStream(written.toFile())) {
+            DataOutputStream data = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(fileStream, 1 << 16), crc));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(System.currentTimeMillis());
+            data.writeInt(entries.size());
+            for ( CachedValue<CustomerRecord> entry : entries ) {
+                CustomerRecord record = entry.getValue();
+                data.writeLong(entry.getCachedAtMillis());
+                writeString(data, record.guid());
+                writeString(data, record.namePrefix());
+                writeString(data, record.nameSuffix());
+                writeString(data, record.nameSurname());
+                writeString(data, record.nameMiddle());
+                writeString(data, record.nameFamily());
+                writeString(data, record.email());
+                writeString(data, record.phoneNumber());
+            }
+            data.flush();
+            int checksum = (int) crc.getValue();
+            data.writeInt(checksum);
+            data.flush();
+            fileStream.getFD().sync();
+        }
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return entries.size();
+    }
+
+    /**
+     * Reads the entries of the snapshot {file}, memory-mapped.
+     */
+    static List<CachedValue<CustomerRecord>> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if ( size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE ) {
+                throw new IOException("Not a customer cache snapshot.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, (int) size - 4));
+            if ( buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt((int) size - 4) != (int) crc.getValue() ) {
+                throw new IOException("Not a customer cache snapshot, or incomplete.");
+            }
+            buffer.position(16);
+            int count = buffer.getInt();
+            List<CachedValue<CustomerRecord>> entries = new ArrayList<>(count);
+            try {
+                for ( int i = 0; i < count; i++ ) {
+                    long cachedAtMillis = buffer.getLong();
+                    Customer customer = new Customer();
+                    customer.setGuid(readString(buffer));
+                    customer.setNamePrefix(readString(buffer));
+                    customer.setNameSuffix(readString(buffer));
+                    customer.setNameSurname(readString(buffer));
+                    customer.setNameMiddle(readString(buffer));
+                    customer.setNameFamily(readString(buffer));
+                    customer.setEmail(readString(buffer));
+                    customer.setPhoneNumber(readString(buffer));
+                    entries.add(new CachedValue<>(CustomerRecord.from(customer), cachedAtMillis));
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Malformed customer cache snapshot: " + ex.getMessage());
+            }
+            return entries;
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if ( Objects.isNull(value) ) {
+            data.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
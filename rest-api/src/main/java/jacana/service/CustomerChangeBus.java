@@ -0,0 +1,243 @@
+package jacana.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the in-process copies of Customers, i.e. the CustomerCache, the
+ * search index, the Bloom filters and the list snapshot, current with
+ * writes made by the other replicas sharing the Customers table.
+ *
+ * Every local CustomerChangeEvent is published on a CustomerChangeTransport.
+ * For the notices of other processes, the Customers are re-read from the
+ * database and remote CustomerChangeEvents are fired, which the in-process
+ * copies observe like any other change. Customers that cannot be re-read
+ * are at least dropped from the CustomerCache.
+ *
+ * customers.change_bus.transport selects the transport: none for a single
+ * replica, local for the in-process LocalCustomerChangeTransport, or mysql
+ * for the MySQLCustomerChangeTransport.
+ */
+@ApplicationScoped
+public class CustomerChangeBus {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerChangeBus.class.getName());
+
+    private static final long MAX_LAG_WINDOW_MILLIS = 60_000;
+
+    /**
+     * Reads the current Customers of {guids} from the database, by guid.
+     */
+    interface Reader {
+        Map<String, Customer> read(List<String> guids) throws CustomerServiceException;
+    }
+
+    private final String origin = UUID.randomUUID().toString();
+    private final CustomerChangeTransport transport;
+    private final Reader reader;
+    private final Consumer<CustomerChangeEvent> fire;
+    private final Consumer<String> invalidate;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private long lastLagMillis = 0;
+    private long maxLagWindowStart = 0;
+    private long maxLagCurrent = 0;
+    private long maxLagPrevious = 0;
+
+    @Inject
+    public CustomerChangeBus(CustomerServiceMySQL customerMySQL,
+                             CustomerCache customerCache,
+                             Event<CustomerChangeEvent> changeEvents,
+                             @ConfigProperty(name = "customers.change_bus.transport", defaultValue = "none") String transport,
+                             @ConfigProperty(name = "customers.change_bus.poll_interval_ms", defaultValue = "500") long pollIntervalMillis,
+                             @ConfigProperty(name = "customers.change_bus.gap_timeout_seconds", defaultValue = "10") long gapTimeoutSeconds,
+                             @ConfigProperty(name = "customers.change_bus.retention_minutes", defaultValue = "60") long retentionMinutes,
+                             @ConfigProperty(name = "database.create_customer_changes_table") String createCustomerChangesTableSql,
+                             @ConfigProperty(name = "database.insert_customer_change") String insertCustomerChangeSql,
+                             @ConfigProperty(name = "database.select_customer_changes_high_water") String selectCustomerChangesHighWaterSql,
+                             @ConfigProperty(name = "database.select_customer_changes") String selectCustomerChangesSql,
+                             @ConfigProperty(name = "database.purge_customer_changes") String purgeCustomerChangesSql) {
+        this(switch (transport) {
+                    case "none" -> null;
+                    case "local" -> new LocalCustomerChangeTransport();
+                    case "mysql" -> new MySQLCustomerChangeTransport(
+                            () -> customerMySQL.getConnection(CustomerServiceMySQL.Lane.POINT_READ),
+                            createCustomerChangesTableSql,
+                            insertCustomerChangeSql,
+                            selectCustomerChangesHighWaterSql,
+                            selectCustomerChangesSql,
+                            purgeCustomerChangesSql,
+                            pollIntervalMillis,
+                            gapTimeoutSeconds,
+                            retentionMinutes);
+                    default -> throw new IllegalArgumentException(
+                            "customers.change_bus.transport must be none, local or mysql, not '" + transport + "'.");
+                },
+                customerMySQL::getByGuidsFromDatabase,
+                changeEvents::fire,
+                customerCache::invalidate);
+    }
+
+    /**
+     * @param transport carries the notices, or null to publish nothing
+     * @param reader re-reads changed Customers from the database
+     * @param fire fires a remote CustomerChangeEvent to the in-process copies
+     * @param invalidate drops a Customer from the CustomerCache
+     */
+    CustomerChangeBus(CustomerChangeTransport transport, Reader reader,
+                      Consumer<CustomerChangeEvent> fire, Consumer<String> invalidate) {
+        this.transport = transport;
+        this.reader = reader;
+        this.fire = fire;
+        this.invalidate = invalidate;
+    }
+
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        start();
+    }
+
+    void start() {
+        if ( Objects.nonNull(transport) ) {
+            transport.subscribe(this::onInvalidations);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if ( Objects.nonNull(transport) ) {
+            transport.close();
+        }
+    }
+
+    /**
+     * Returns the id of this process on the transport.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    void onCustomerChange(@Observes CustomerChangeEvent event) {
+        if ( Objects.isNull(transport) || event.isRemote() ) {
+            return;
+        }
+        transport.publish(origin, event.getGuid());
+        published.incrementAndGet();
+    }
+
+    /**
+     * Applies the notices of other processes. Each changed Customer is
+     * re-read once per batch, however many notices name it.
+     */
+    void onInvalidations(List<CustomerInvalidation> invalidations) {
+        long start = System.currentTimeMillis();
+        Set<String> guids = new LinkedHashSet<>();
+        long lagMillis = 0;
+        for ( CustomerInvalidation invalidation : invalidations ) {
+            if ( !origin.equals(invalidation.origin()) ) {
+                guids.add(invalidation.guid());
+                lagMillis = Math.max(lagMillis, invalidation.lagMillis());
+            }
+        }
+        if ( guids.isEmpty() ) {
+            return;
+        }
+        received.addAndGet(guids.size());
+        List<String> keys = new ArrayList<>(guids);
+        Map<String, Customer> customers;
+        try {
+            customers = reader.read(keys);
+        } catch (CustomerServiceException ex) {
+            LOGGER.info("Exception re-reading " + keys.size() + " Customers changed by other processes: " + ex.getMessage());
+            failures.addAndGet(keys.size());
+            keys.forEach(invalidate);
+            return;
+        }
+        for ( String guid : keys ) {
+            Customer customer = customers.get(guid);
+            CustomerChangeEvent event = Objects.nonNull(customer)
+                    ? CustomerChangeEvent.remoteUpdated(customer)
+                    : CustomerChangeEvent.remoteDeleted(guid);
+            try {
+                fire.accept(event);
+            } catch (Exception ex) {
+                LOGGER.info("Exception notifying observers of " + event + ": " + ex.getMessage());
+                failures.incrementAndGet();
+            }
+        }
+        recordLag(lagMillis + System.currentTimeMillis() - start);
+    }
+
+    @Gauge(name = "customerChangesPublished",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of changes by this process published to the other replicas")
+    public long getPublished() {
+        return published.get();
+    }
+
+    @Gauge(name = "customerChangesReceived",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of changes by other replicas applied to the in-process copies of Customers")
+    public long getReceived() {
+        return received.get();
+    }
+
+    @Gauge(name = "customerChangeFailures",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of changes by other replicas that could not be re-read or applied")
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Gauge(name = "customerInvalidationLag",
+            unit = MetricUnits.MILLISECONDS,
+            absolute = true,
+            description = "Time from a change by another replica until it was applied here, for the latest batch")
+    public synchronized long getLagMillis() {
+        return lastLagMillis;
+    }
+
+    @Gauge(name = "customerInvalidationMaxLag",
+            unit = MetricUnits.MILLISECONDS,
+            absolute = true,
+            description = "Longest time from a change by another replica until it was applied here, over the last one to two minutes")
+    public synchronized long getMaxLagMillis() {
+        rotateMaxLag(System.currentTimeMillis());
+        return Math.max(maxLagCurrent, maxLagPrevious);
+    }
+
+    private synchronized void recordLag(long lagMillis) {
+        lastLagMillis = lagMillis;
+        rotateMaxLag(System.currentTimeMillis());
+        maxLagCurrent = Math.max(maxLagCurrent, lagMillis);
+    }
+
+    /**
+     * The maximum lag is kept for the current and the previous window of
+     * MAX_LAG_WINDOW_MILLIS, so it is never reset just before a scrape.
+     */
+    private void rotateMaxLag(long now) {
+        if ( now - maxLagWindowStart < MAX_LAG_WINDOW_MILLIS ) {
+            return;
+        }
+        maxLagPrevious = now - maxLagWindowStart < 2 * MAX_LAG_WINDOW_MILLIS ? maxLagCurrent : 0;
+        maxLagCurrent = 0;
+        maxLagWindowStart = now;
+    }
+}
@@ -0,0 +1,102 @@
+package jacana.service;
+
+/**
+ * CDI event fired by a CustomerService after a write has been
+ * applied to the data source. In-process structures that mirror
+ * the Customers table (e.g. the search index) observe these events
+ * to stay current without re-reading the database.
+ *
+ * For an insert {before} is null, and for a delete {after} is null.
+ * An update made by an upsert does not know the previous values of the
+ * Customer, so {before} is null for that update as well. An update never
+ * changes the guid of a Customer.
+ *
+ * A remote event reports a change made by another process, as learned
+ * from the CustomerChangeBus. Its Customer is re-read from the database,
+ * so it is an update with {before} null if the Customer exists, and a
+ * delete whose {before} only has the guid set if it does not.
+ */
+public class CustomerChangeEvent {
+
+    public enum Type {
+        INSERTED,
+        UPDATED,
+        DELETED
+    }
+
+    private final Type type;
+    private final Customer before;
+    private final Customer after;
+    private final boolean remote;
+
+    public CustomerChangeEvent(Type type, Customer before, Customer after) {
+        this(type, before, after, false);
+    }
+
+    public CustomerChangeEvent(Type type, Customer before, Customer after, boolean remote) {
+        this.type = type;
+        this.before = before;
+        this.after = after;
+        this.remote = remote;
+    }
+
+    public static CustomerChangeEvent inserted(Customer after) {
+        return new CustomerChangeEvent(Type.INSERTED, null, after);
+    }
+
+    public static CustomerChangeEvent updated(Customer before, Customer after) {
+        return new CustomerChangeEvent(Type.UPDATED, before, after);
+    }
+
+    public static CustomerChangeEvent deleted(Customer before) {
+        return new CustomerChangeEvent(Type.DELETED, before, null);
+    }
+
+    /**
+     * A change by another process to the Customer with the guid of {after},
+     * which is now stored as {after}.
+     */
+    public static CustomerChangeEvent remoteUpdated(Customer after) {
+        return new CustomerChangeEvent(Type.UPDATED, null, after, true);
+    }
+
+    /**
+     * A change by another process to the Customer with {guid}, which no
+     * longer exists.
+     */
+    public static CustomerChangeEvent remoteDeleted(String guid) {
+        Customer before = new Customer();
+        before.setGuid(guid);
+        return new CustomerChangeEvent(Type.DELETED, before, null, true);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Customer getBefore() {
+        return before;
+    }
+
+    public Customer getAfter() {
+        return after;
+    }
+
+    /**
+     * Returns true if the change was made by another process.
+     */
+    public boolean isRemote() {
+        return remote;
+    }
+
+    /**
+     * Returns the guid of the Customer affected by this change.
+     */
+    public String getGuid() {
+        return after != null ? after.getGuid() : before.getGuid();
+    }
+
+    public String toString() {
+        return "CustomerChangeEvent." + type + "(guid='" + getGuid() + "'" + (remote ? ", remote" : "") + ")";
+    }
+}
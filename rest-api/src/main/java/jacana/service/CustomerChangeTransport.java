@@ -0,0 +1,33 @@
+package jacana.service;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Carries CustomerInvalidations between the processes that share the
+ * Customers table, see CustomerChangeBus.
+ *
+ * Delivery is at least once and unordered: a receiver re-reads the current
+ * state of each Customer it is told about, so a repeated or late notice is
+ * harmless. Notices are also delivered back to the process that published
+ * them, the receiver ignores its own {origin}.
+ */
+public interface CustomerChangeTransport {
+
+    /**
+     * Queues a notice that the Customer with {guid} was changed by
+     * {origin}. Must not block the caller on the transport.
+     */
+    void publish(String origin, String guid);
+
+    /**
+     * Starts delivering notices published from now on to {listener}, in
+     * batches, on a thread of the transport.
+     */
+    void subscribe(Consumer<List<CustomerInvalidation>> listener);
+
+    /**
+     * Stops delivering notices and releases any threads of the transport.
+     */
+    void close();
+}
@@ -0,0 +1,11 @@
+package jacana.service;
+
+/**
+ * The changes asked for go back further than deletions are remembered, so
+ * they cannot be given completely and a full copy must be taken instead.
+ */
+public class CustomerChangesExpiredException extends CustomerServiceException {
+    public CustomerChangesExpiredException(String errorMessage) {
+        super(errorMessage);
+    }
+}
@@ -0,0 +1,28 @@
+package jacana.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event of getting a database connection, including
+ * the wait for a free connection in its lane.
+ */
+@Name("jacana.CustomerConnection")
+@Label("Customer Database Connection")
+@Category({"Jacana", "Customers"})
+@Description("Getting a connection to the Customer database")
+@StackTrace(false)
+public class CustomerConnectionEvent extends Event {
+
+    @Label("Lane")
+    @Description("Bulkhead lane of the connection")
+    public String lane;
+
+    @Label("Outcome")
+    @Description("OK or the exception thrown")
+    public String outcome;
+}
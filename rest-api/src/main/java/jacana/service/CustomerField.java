@@ -0,0 +1,73 @@
+package jacana.service;
+
+import java.util.*;
+
+/**
+ * The fields of a Customer that can be individually selected, e.g. by the
+ * fields= query parameter. Each field maps the JSON property name of the
+ * Customer to its column in the Customers table.
+ */
+public enum CustomerField {
+    GUID("guid", "guid"),
+    NAME_PREFIX("namePrefix", "namePrefix"),
+    NAME_SUFFIX("nameSuffix", "nameSuffix"),
+    NAME_SURNAME("nameSurname", "nameSurname"),
+    NAME_MIDDLE("nameMiddle", "nameMiddle"),
+    NAME_FAMILY("nameFamily", "nameFamily"),
+    EMAIL("email", "email"),
+    PHONE_NUMBER("phoneNumber", "phone");
+
+    public static final Set<CustomerField> ALL = Collections.unmodifiableSet(EnumSet.allOf(CustomerField.class));
+
+    private final String propertyName;
+    private final String columnName;
+
+    CustomerField(String propertyName, String columnName) {
+        this.propertyName = propertyName;
+        this.columnName = columnName;
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Parses a comma separated list of Customer JSON property names, e.g.
+     * "guid,email". A null or blank value selects all fields. Unknown
+     * property names result in a CustomerServiceException.
+     *
+     * @param fields
+     * @return
+     * @throws CustomerServiceException
+     */
+    public static Set<CustomerField> parse(String fields) throws CustomerServiceException {
+        if ( Objects.isNull(fields) || fields.isBlank() ) {
+            return ALL;
+        }
+        EnumSet<CustomerField> selected = EnumSet.noneOf(CustomerField.class);
+        for ( String name : fields.split(",") ) {
+            String trimmed = name.trim();
+            if ( trimmed.isEmpty() ) {
+                continue;
+            }
+            selected.add(fromPropertyName(trimmed));
+        }
+        if ( selected.isEmpty() ) {
+            return ALL;
+        }
+        return Collections.unmodifiableSet(selected);
+    }
+
+    private static CustomerField fromPropertyName(String propertyName) throws CustomerServiceException {
+        for ( CustomerField field : values() ) {
+            if ( field.propertyName.equals(propertyName) ) {
+                return field;
+            }
+        }
+        throw new CustomerServiceException("Unknown Customer field '" + propertyName + "'.");
+    }
+}
@@ -0,0 +1,10 @@
+package jacana.service;
+
+/**
+ * Notice, received from a CustomerChangeTransport, that the Customer with
+ * {guid} was changed by the process identified by {origin}. The notice
+ * does not say what changed, the receiver re-reads the Customer.
+ * {lagMillis} is the time from publishing the notice until it was received.
+ */
+public record CustomerInvalidation(String origin, String guid, long lagMillis) {
+}
@@ -0,0 +1,350 @@
+package jacana.service;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of Customer writes, the data file of the
+ * CustomerServiceEmbedded.
+ *
+ * The file starts with a header holding a generation number, which is new
+ * for every log, so an index built for another log is recognised. Then
+ * come the entries, each as
+ *
+ *   int   length of the body
+ *   int   CRC32 of the body
+ *   body  byte type, long micros, and for a PUT the Customer fields in
+ *         CustomerField order, for a DELETE the guid, each as an int length
+ *         (-1 for null) and UTF-8 bytes
+ *
+ * An entry is only ever appended, so after a crash the log is intact up to
+ * a torn or partly written entry at its end. replay() stops there and cuts
+ * the log back to the last whole entry.
+ */
+final class CustomerLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerLog.class.getName());
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    /**
+     * Written first by a compaction, its micros are the time before which
+     * DELETE entries were dropped.
+     */
+    static final byte PURGE = 3;
+
+    static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x4a434c47;
+    private static final int VERSION = 1;
+    private static final int ENTRY_HEADER_SIZE = 8;
+    /**
+     * Larger bodies are taken for a torn length field.
+     */
+    private static final int MAX_BODY_SIZE = 1 << 20;
+
+    /**
+     * One entry of the log. {customer} is set for a PUT only, and {size}
+     * is the number of bytes the entry takes in the log.
+     */
+    record Entry(byte type, long micros, String guid, Customer customer, int size) {
+
+        static Entry put(long micros, Customer customer) {
+            return new Entry(PUT, micros, customer.getGuid(), customer, 0);
+        }
+
+        static Entry delete(long micros, String guid) {
+            return new Entry(DELETE, micros, guid, null, 0);
+        }
+
+        static Entry purge(long micros) {
+            return new Entry(PURGE, micros, null, null, 0);
+        }
+    }
+
+    interface EntryHandler {
+        void accept(long offset, Entry entry) throws IOException;
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long generation;
+    private volatile long size;
+
+    private CustomerLog(Path path, FileChannel channel, long generation, long size) {
+        this.path = path;
+        this.channel = channel;
+        this.generation = generation;
+        this.size = size;
+    }
+
+    /**
+     * Opens the log at {path}, or creates an empty one with a new
+     * generation if there is none. The entries are not read, see replay().
+     */
+    static CustomerLog open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if ( channel.size() < HEADER_SIZE ) {
+                long generation = ThreadLocalRandom.current().nextLong();
+                header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.force(true);
+                return new CustomerLog(path, channel, generation, HEADER_SIZE);
+            }
+            readFully(channel, header, 0);
+            header.flip();
+            if ( header.getInt() != MAGIC || header.getInt() != VERSION ) {
+                throw new IOException(path + " is not a Customer log.");
+            }
+            return new CustomerLog(path, channel, header.getLong(), channel.size());
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Bytes in the log, header included, which is also the offset of the
+     * next entry.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Appends {entry} and returns its offset. The entry is only durable
+     * once force() has been called. Appends must not run concurrently.
+     */
+    long append(Entry entry) throws IOException {
+        ByteBuffer body = encode(entry);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER_SIZE + body.remaining());
+        buffer.putInt(body.remaining()).putInt((int) crc.getValue()).put(body).flip();
+        long offset = size;
+        try {
+            while ( buffer.hasRemaining() ) {
+                channel.write(buffer, offset + buffer.position());
+            }
+        } catch (IOException ex) {
+            /*
+             * Entries appended later must not follow a partly written one,
+             * replay() would drop them with it.
+             */
+            channel.truncate(offset);
+            throw ex;
+        }
+        size = offset + buffer.limit();
+        return offset;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Reads the entry at {offset}, which must have been returned by
+     * append() or passed to an EntryHandler. May run concurrently with
+     * other reads and with append().
+     */
+    Entry read(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        readFully(channel, header, offset);
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if ( length < 0 || length > MAX_BODY_SIZE ) {
+            throw new IOException("Corrupt entry at " + offset + " of " + path);
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(channel, body, offset + ENTRY_HEADER_SIZE);
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ( (int) crc.getValue() != checksum ) {
+            throw new IOException("Corrupt entry at " + offset + " of " + path);
+        }
+        return decode(body, ENTRY_HEADER_SIZE + length);
+    }
+
+    /**
+     * Passes every entry from {offset} on to {handler}, in log order. An
+     * entry that is cut short or fails its checksum ends the log: it and
+     * anything after it are removed. Returns the number of entries read.
+     */
+    long replay(long offset, EntryHandler handler) throws IOException {
+        long[] count = new long[1];
+        long end = channel.size();
+        long position = scan(offset, end, (entryOffset, entry) -> {
+            handler.accept(entryOffset, entry);
+            count[0]++;
+        });
+        if ( position < end ) {
+            LOGGER.info("Customer log " + path + " ends in an incomplete entry at " + position
+                    + ", removing the last " + (end - position) + " bytes.");
+            channel.truncate(position);
+            channel.force(true);
+        }
+        size = position;
+        return count[0];
+    }
+
+    /**
+     * Passes every entry appended so far to {handler}, in log order. May
+     * run concurrently with reads, other scans and append().
+     */
+    void forEach(EntryHandler handler) throws IOException {
+        long end = size;
+        if ( scan(HEADER_SIZE, end, handler) < end ) {
+            throw new IOException("Corrupt entry in " + path);
+        }
+    }
+
+    /**
+     * Reads the entries between {offset} and {end} sequentially, on a
+     * channel of its own, and returns the offset after the last whole
+     * entry.
+     */
+    private long scan(long offset, long end, EntryHandler handler) throws IOException {
+        long position = Math.max(offset, HEADER_SIZE);
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream data = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(reader.position(position)), 1 << 16));
+            while ( position < end ) {
+                Entry entry;
+                try {
+                    int length = data.readInt();
+                    int checksum = data.readInt();
+                    if ( length < 0 || length > MAX_BODY_SIZE || position + ENTRY_HEADER_SIZE + length > end ) {
+                        break;
+                    }
+                    byte[] body = new byte[length];
+                    data.readFully(body);
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    if ( (int) crc.getValue() != checksum ) {
+                        break;
+                    }
+                    entry = decode(ByteBuffer.wrap(body), ENTRY_HEADER_SIZE + length);
+                } catch (EOFException ex) {
+                    break;
+                }
+                handler.accept(position, entry);
+                position += entry.size();
+            }
+        }
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static ByteBuffer encode(Entry entry) {
+        byte[][] strings;
+        if ( entry.type() == PUT ) {
+            Customer customer = entry.customer();
+            strings = new byte[][] {
+                    bytes(customer.getGuid()),
+                    bytes(customer.getNamePrefix()),
+                    bytes(customer.getNameSuffix()),
+                    bytes(customer.getNameSurname()),
+                    bytes(customer.getNameMiddle()),
+                    bytes(customer.getNameFamily()),
+                    bytes(customer.getEmail()),
+                    bytes(customer.getPhoneNumber())
+            };
+        } else if ( entry.type() == DELETE ) {
+            strings = new byte[][] {bytes(entry.guid())};
+        } else {
+            strings = new byte[0][];
+        }
+        int length = 1 + 8;
+        for ( byte[] string : strings ) {
+            length += 4 + (Objects.isNull(string) ? 0 : string.length);
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.put(entry.type()).putLong(entry.micros());
+        for ( byte[] string : strings ) {
+            if ( Objects.isNull(string) ) {
+                body.putInt(-1);
+            } else {
+                body.putInt(string.length).put(string);
+            }
+        }
+        return body.flip();
+    }
+
+    private static Entry decode(ByteBuffer body, int size) throws IOException {
+        try {
+            byte type = body.get();
+            long micros = body.getLong();
+            if ( type == PUT ) {
+                Customer customer = new Customer();
+                customer.setGuid(string(body));
+                customer.setNamePrefix(string(body));
+                customer.setNameSuffix(string(body));
+                customer.setNameSurname(string(body));
+                customer.setNameMiddle(string(body));
+                customer.setNameFamily(string(body));
+                customer.setEmail(string(body));
+                customer.setPhoneNumber(string(body));
+                return new Entry(PUT, micros, customer.getGuid(), customer, size);
+            } else if ( type == DELETE ) {
+                return new Entry(DELETE, micros, string(body), null, size);
+            } else if ( type == PURGE ) {
+                return new Entry(PURGE, micros, null, null, size);
+            }
+            throw new IOException("Unknown Customer log entry type " + type + ".");
+        } catch (RuntimeException ex) {
+            throw new IOException("Malformed Customer log entry: " + ex.getMessage());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return Objects.isNull(value) ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer body) {
+        int length = body.getInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            if ( channel.read(buffer, offset + buffer.position()) < 0 ) {
+                throw new EOFException("Unexpected end of Customer log at " + offset + ".");
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package jacana.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event of one Customer operation, either a call of
+ * a @Recorded service method or a request to a resource. Costs next to
+ * nothing unless a recording enables it, see jacana.jfc.
+ */
+@Name("jacana.CustomerOperation")
+@Label("Customer Operation")
+@Category({"Jacana", "Customers"})
+@Description("A Customer service call or REST request")
+@StackTrace(false)
+public class CustomerOperationEvent extends Event {
+
+    @Label("Operation")
+    @Description("Class and method, e.g. CustomerServiceMySQL.getByGuid")
+    public String operation;
+
+    @Label("SQL Key")
+    @Description("Configuration key of the main statement, e.g. database.select_customer_by_guid")
+    public String sqlKey;
+
+    @Label("Rows")
+    @Description("Customers returned or written")
+    public long rows;
+
+    @Label("Outcome")
+    @Description("OK, the exception thrown, or the HTTP status of a request")
+    public String outcome;
+}
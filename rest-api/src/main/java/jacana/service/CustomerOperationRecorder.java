@@ -0,0 +1,64 @@
+package jacana.service;
+
+import jakarta.annotation.Priority;
+import jakarta.interceptor.AroundInvoke;
+import jakarta.interceptor.Interceptor;
+import jakarta.interceptor.InvocationContext;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Records the calls of @Recorded methods as CustomerOperationEvents. When
+ * no recording has the event enabled, the call is only passed on.
+ */
+@Recorded
+@Interceptor
+@Priority(Interceptor.Priority.APPLICATION)
+public class CustomerOperationRecorder {
+
+    @AroundInvoke
+    public Object record(InvocationContext context) throws Exception {
+        CustomerOperationEvent event = new CustomerOperationEvent();
+        if ( !event.isEnabled() ) {
+            return context.proceed();
+        }
+        event.begin();
+        Object result = null;
+        String outcome = "OK";
+        try {
+            result = context.proceed();
+            return result;
+        } catch (Exception ex) {
+            outcome = ex.getClass().getSimpleName();
+            throw ex;
+        } finally {
+            event.end();
+            if ( event.shouldCommit() ) {
+                Method method = context.getMethod();
+                Recorded recorded = method.getAnnotation(Recorded.class);
+                event.operation = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+                event.sqlKey = Objects.isNull(recorded) ? "" : recorded.sqlKey();
+                event.rows = rows(result);
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Number of Customers in the result {value} of an operation.
+     */
+    public static long rows(Object value) {
+        if ( value instanceof Collection<?> collection ) {
+            return collection.size();
+        } else if ( value instanceof Optional<?> optional ) {
+            return optional.isPresent() ? 1 : 0;
+        } else if ( value instanceof ChangeSet<?> changes ) {
+            return changes.getChanged().size() + changes.getDeleted().size();
+        }
+        return Objects.isNull(value) ? 0 : 1;
+    }
+}
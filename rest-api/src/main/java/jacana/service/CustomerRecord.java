@@ -0,0 +1,81 @@
+package jacana.service;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable representation of a Customer for use inside the service layer,
+ * e.g. as a value held by an in-memory index or cache, or as a key in a Map
+ * or Set.
+ *
+ * Unlike Customer, equality compares every field including the guid, and
+ * hashCode() is consistent with equals(). Customer remains the mutable bean
+ * used for JSON binding, and toCustomer() / from() convert between the two.
+ *
+ * namePrefix and nameSuffix take very few distinct values (Mr, Mrs, Dr,
+ * Ph.D., ...), so from() replaces them with a single shared instance per
+ * distinct value rather than keeping one String per Customer.
+ */
+public record CustomerRecord(
+        String guid,
+        String namePrefix,
+        String nameSuffix,
+        String nameSurname,
+        String nameMiddle,
+        String nameFamily,
+        String email,
+        String phoneNumber
+) {
+
+    /**
+     * Upper bound on the number of distinct name affixes that are shared,
+     * so unusual values cannot grow the pool without limit.
+     */
+    private static final int MAX_SHARED_AFFIXES = 1024;
+    private static final ConcurrentMap<String, String> SHARED_AFFIXES = new ConcurrentHashMap<>();
+
+    public static CustomerRecord from(Customer customer) {
+        return new CustomerRecord(
+                customer.getGuid(),
+                share(customer.getNamePrefix()),
+                share(customer.getNameSuffix()),
+                customer.getNameSurname(),
+                customer.getNameMiddle(),
+                customer.getNameFamily(),
+                customer.getEmail(),
+                customer.getPhoneNumber()
+        );
+    }
+
+    public Customer toCustomer() {
+        Customer customer = new Customer();
+        customer.setGuid(guid);
+        customer.setNamePrefix(namePrefix);
+        customer.setNameSuffix(nameSuffix);
+        customer.setNameSurname(nameSurname);
+        customer.setNameMiddle(nameMiddle);
+        customer.setNameFamily(nameFamily);
+        customer.setEmail(email);
+        customer.setPhoneNumber(phoneNumber);
+        return customer;
+    }
+
+    /**
+     * Returns a shared instance equal to {value}.
+     */
+    private static String share(String value) {
+        if ( Objects.isNull(value) ) {
+            return null;
+        }
+        String shared = SHARED_AFFIXES.get(value);
+        if ( Objects.nonNull(shared) ) {
+            return shared;
+        }
+        if ( SHARED_AFFIXES.size() >= MAX_SHARED_AFFIXES ) {
+            return value;
+        }
+        shared = SHARED_AFFIXES.putIfAbsent(value, value);
+        return Objects.isNull(shared) ? value : shared;
+    }
+}
@@ -0,0 +1,28 @@
+package jacana.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event of reading the rows of one query, from its
+ * first to its last row. This includes fetching the rows from the
+ * database, which for a streamed query is most of the time.
+ */
+@Name("jacana.CustomerRowMapping")
+@Label("Customer Row Mapping")
+@Category({"Jacana", "Customers"})
+@Description("Reading and mapping the rows of a Customer query")
+@StackTrace(false)
+public class CustomerRowMappingEvent extends Event {
+
+    @Label("SQL Key")
+    @Description("Configuration key of the statement")
+    public String sqlKey;
+
+    @Label("Rows")
+    public long rows;
+}
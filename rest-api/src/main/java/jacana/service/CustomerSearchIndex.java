@@ -0,0 +1,321 @@
+package jacana.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * In-memory n-gram index over the nameSurname, nameFamily and email
+ * fields of every Customer, used to answer prefix and substring
+ * searches without touching the database.
+ *
+ * Each field value is lower-cased and broken into trigrams. In addition
+ * the first one and two characters of a value are indexed as boundary
+ * grams (e.g. "^j" and "^jo") so that short queries can still be
+ * answered as prefix matches. A query of three or more characters is
+ * answered by intersecting the posting sets of its trigrams and then
+ * verifying each candidate against the actual field values.
+ *
+ * The index is loaded once from the CustomerService on first use and is
+ * then kept current by observing CustomerChangeEvents, so a search never
+ * results in a scan of the Customers table.
+ */
+@ApplicationScoped
+public class CustomerSearchIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerSearchIndex.class.getName());
+
+    private static final int GRAM_LENGTH = 3;
+    private static final String BOUNDARY = "^";
+
+    private final CustomerService<Customer> customerService;
+    private final int defaultLimit;
+    private final int maxLimit;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, CustomerRecord> customersByGuid = new HashMap<>();
+    private final Map<String, Set<String>> postings = new HashMap<>();
+    private volatile boolean loaded = false;
+    private List<CustomerChangeEvent> changesDuringLoad = null;
+
+    @Inject
+    public CustomerSearchIndex(@CustomerBackend CustomerService<Customer> customerService,
+                               @ConfigProperty(name = "customers.search.default_limit", defaultValue = "20") int defaultLimit,
+                               @ConfigProperty(name = "customers.search.max_limit", defaultValue = "100") int maxLimit) {
+        this.customerService = customerService;
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Returns up to {limit} Customers whose nameSurname, nameFamily or
+     * email contains {query}, ignoring case. Results are ranked with exact
+     * field matches first, then prefix matches, then matches at the start
+     * of a word, then any other substring match. A null {limit} uses the
+     * configured default, and any limit is capped at the configured maximum.
+     *
+     * Queries shorter than three characters only match field prefixes.
+     *
+     * If the index has not been loaded yet and the Customers cannot be
+     * read, then the CustomerServiceException is passed on and the load is
+     * tried again by the next search.
+     *
+     * @param query
+     * @param limit
+     * @return
+     * @throws CustomerServiceException
+     */
+    public List<Customer> search(String query, Integer limit) throws CustomerServiceException {
+        ensureLoaded();
+        String normalizedQuery = normalize(query);
+        if ( normalizedQuery.isEmpty() ) {
+            return List.of();
+        }
+        int effectiveLimit = Objects.isNull(limit) ? defaultLimit : Math.max(1, Math.min(limit, maxLimit));
+        List<Match> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for ( String guid : candidates(normalizedQuery) ) {
+                CustomerRecord customer = customersByGuid.get(guid);
+                if ( Objects.isNull(customer) ) {
+                    continue;
+                }
+                Match match = score(customer, normalizedQuery);
+                if ( Objects.nonNull(match) ) {
+                    matches.add(match);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort(Comparator.<Match>comparingInt(m -> -m.score)
+                .thenComparingInt(m -> m.matchedLength)
+                .thenComparing(m -> m.customer.guid()));
+        List<Customer> results = new ArrayList<>(Math.min(effectiveLimit, matches.size()));
+        for ( Match match : matches ) {
+            if ( results.size() >= effectiveLimit ) {
+                break;
+            }
+            results.add(match.customer.toCustomer());
+        }
+        return results;
+    }
+
+    /**
+     * Number of Customers currently held in the index.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return customersByGuid.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a write performed by the CustomerService to the index.
+     */
+    void onCustomerChange(@Observes CustomerChangeEvent event) {
+        lock.writeLock().lock();
+        try {
+            if ( Objects.nonNull(changesDuringLoad) ) {
+                changesDuringLoad.add(event);
+            }
+            apply(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads every Customer into the index the first time it is needed.
+     * Changes observed while the load is running are replayed on top of
+     * the loaded rows so that a concurrent update or delete is not lost.
+     */
+    private void ensureLoaded() throws CustomerServiceException {
+        if ( loaded ) {
+            return;
+        }
+        synchronized (this) {
+            if ( loaded ) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                changesDuringLoad = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            List<Customer> customers;
+            try {
+                customers = customerService.getAll();
+            } catch (CustomerServiceException ex) {
+                lock.writeLock().lock();
+                try {
+                    changesDuringLoad = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw ex;
+            }
+            lock.writeLock().lock();
+            try {
+                for ( Customer customer : customers ) {
+                    if ( !customersByGuid.containsKey(customer.getGuid()) ) {
+                        add(customer);
+                    }
+                }
+                for ( CustomerChangeEvent event : changesDuringLoad ) {
+                    apply(event);
+                }
+                changesDuringLoad = null;
+                loaded = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            LOGGER.info("Loaded " + customers.size() + " customers into the search index.");
+        }
+    }
+
+    private void apply(CustomerChangeEvent event) {
+        if ( Objects.nonNull(event.getBefore()) ) {
+            remove(event.getBefore().getGuid());
+        }
+        if ( Objects.nonNull(event.getAfter()) ) {
+            remove(event.getAfter().getGuid());
+            add(event.getAfter());
+        }
+    }
+
+    private void add(Customer customer) {
+        CustomerRecord indexed = CustomerRecord.from(customer);
+        customersByGuid.put(indexed.guid(), indexed);
+        for ( String gram : grams(indexed) ) {
+            postings.computeIfAbsent(gram, g -> new HashSet<>()).add(indexed.guid());
+        }
+    }
+
+    private void remove(String guid) {
+        CustomerRecord indexed = customersByGuid.remove(guid);
+        if ( Objects.isNull(indexed) ) {
+            return;
+        }
+        for ( String gram : grams(indexed) ) {
+            Set<String> guids = postings.get(gram);
+            if ( Objects.nonNull(guids) ) {
+                guids.remove(guid);
+                if ( guids.isEmpty() ) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the guids that may match {query}. Must be called while
+     * holding the read lock.
+     */
+    private Collection<String> candidates(String query) {
+        if ( query.length() < GRAM_LENGTH ) {
+            return postings.getOrDefault(BOUNDARY + query, Set.of());
+        }
+        List<Set<String>> sets = new ArrayList<>();
+        for ( int i = 0; i + GRAM_LENGTH <= query.length(); i++ ) {
+            Set<String> guids = postings.get(query.substring(i, i + GRAM_LENGTH));
+            if ( Objects.isNull(guids) ) {
+                return Set.of();
+            }
+            sets.add(guids);
+        }
+        sets.sort(Comparator.comparingInt(Set::size));
+        Set<String> result = new HashSet<>(sets.get(0));
+        for ( int i = 1; i < sets.size() && !result.isEmpty(); i++ ) {
+            result.retainAll(sets.get(i));
+        }
+        return result;
+    }
+
+    private static Set<String> grams(CustomerRecord customer) {
+        Set<String> grams = new HashSet<>();
+        for ( String value : searchableValues(customer) ) {
+            if ( value.isEmpty() ) {
+                continue;
+            }
+            grams.add(BOUNDARY + value.substring(0, 1));
+            if ( value.length() >= 2 ) {
+                grams.add(BOUNDARY + value.substring(0, 2));
+            }
+            for ( int i = 0; i + GRAM_LENGTH <= value.length(); i++ ) {
+                grams.add(value.substring(i, i + GRAM_LENGTH));
+            }
+        }
+        return grams;
+    }
+
+    private static List<String> searchableValues(CustomerRecord customer) {
+        return List.of(
+                normalize(customer.nameSurname()),
+                normalize(customer.nameFamily()),
+                normalize(customer.email())
+        );
+    }
+
+    /**
+     * Returns the best match of {query} against any searchable field of
+     * {customer}, or null if no field contains the query.
+     */
+    private static Match score(CustomerRecord customer, String query) {
+        Match best = null;
+        for ( String value : searchableValues(customer) ) {
+            int index = value.indexOf(query);
+            if ( index < 0 ) {
+                continue;
+            }
+            int score;
+            if ( value.equals(query) ) {
+                score = 4;
+            } else if ( index == 0 ) {
+                score = 3;
+            } else if ( isWordStart(value, index) ) {
+                score = 2;
+            } else if ( query.length() >= GRAM_LENGTH ) {
+                score = 1;
+            } else {
+                continue;
+            }
+            if ( Objects.isNull(best) || score > best.score
+                    || (score == best.score && value.length() < best.matchedLength) ) {
+                best = new Match(customer, score, value.length());
+            }
+        }
+        return best;
+    }
+
+    private static boolean isWordStart(String value, int index) {
+        char previous = value.charAt(index - 1);
+        return !Character.isLetterOrDigit(previous);
+    }
+
+    private static String normalize(String value) {
+        return Objects.isNull(value) ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Match {
+        private final CustomerRecord customer;
+        private final int score;
+        private final int matchedLength;
+
+        private Match(CustomerRecord customer, int score, int matchedLength) {
+            this.customer = customer;
+            this.score = score;
+            this.matchedLength = matchedLength;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package jacana.service;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface CustomerService<T> {
 
@@ -9,29 +11,152 @@ public interface CustomerService<T> {
      * Get a List of all objects, T, from the data source.
      * The returned List may be empty if nothing is found.
      *
+     * If the data source cannot be reached, then a
+     * CustomerServiceUnavailableException is thrown. Any other error
+     * reading the data source is a CustomerServiceException.
+     *
      * @return
+     * @throws CustomerServiceException
      */
-    List<T> getAll();
+    List<T> getAll() throws CustomerServiceException;
 
     /**
      * Gets an object T from the data source with the corresponding
      * {guid}. If no object is found, then the returned Optional.isEmpty()
-     * will be true.
+     * will be true. Errors are reported as for getAll().
      *
      * @param guid
      * @return
+     * @throws CustomerServiceException
      */
-    Optional<T> getByGuid(String guid);
+    Optional<T> getByGuid(String guid) throws CustomerServiceException;
 
     /**
      * Gets an object T from the data source with the corresponding
      * {email}. If no object is found, then the returned Optional.isEmpty()
-     * will be true.
+     * will be true. Errors are reported as for getAll().
+     *
+     * @param email
+     * @return
+     * @throws CustomerServiceException
+     */
+    Optional<T> getByEmail(String email) throws CustomerServiceException;
+
+    /**
+     * Gets the objects T from the data source whose phone number is
+     * {phone}, however either is formatted. Several objects may share a
+     * phone number, and the returned List is empty if none has it.
+     * Errors are reported as for getAll().
+     *
+     * @param phone
+     * @return
+     * @throws CustomerServiceException
+     */
+    List<T> getByPhone(String phone) throws CustomerServiceException;
+
+    /**
+     * Same as getAll(), but only the given {fields} are needed on the
+     * returned objects. A data source that cannot read fewer fields may
+     * return them all, which is what this default does.
+     *
+     * @param fields
+     * @return
+     * @throws CustomerServiceException
+     */
+    default List<T> getAll(Set<CustomerField> fields) throws CustomerServiceException {
+        return getAll();
+    }
+
+    /**
+     * Same as getByGuid(guid), but only the given {fields} are needed, see
+     * getAll(fields).
+     *
+     * @param guid
+     * @param fields
+     * @return
+     * @throws CustomerServiceException
+     */
+    default Optional<T> getByGuid(String guid, Set<CustomerField> fields) throws CustomerServiceException {
+        return getByGuid(guid);
+    }
+
+    /**
+     * Same as getByEmail(email), but only the given {fields} are needed,
+     * see getAll(fields).
      *
      * @param email
+     * @param fields
+     * @return
+     * @throws CustomerServiceException
+     */
+    default Optional<T> getByEmail(String email, Set<CustomerField> fields) throws CustomerServiceException {
+        return getByEmail(email);
+    }
+
+    /**
+     * Same as getByPhone(phone), but only the given {fields} are needed,
+     * see getAll(fields).
+     *
+     * @param phone
+     * @param fields
+     * @return
+     * @throws CustomerServiceException
+     */
+    default List<T> getByPhone(String phone, Set<CustomerField> fields) throws CustomerServiceException {
+        return getByPhone(phone);
+    }
+
+    /**
+     * Passes every object T in the data source, with at least the given
+     * {fields}, to {consumer}. Unlike getAll() a data source may stream
+     * them rather than hold them all in memory at once, which this default
+     * does not.
+     *
+     * @param fields
+     * @param consumer
+     * @throws CustomerServiceException
+     */
+    default void scanAll(Set<CustomerField> fields, Consumer<T> consumer) throws CustomerServiceException {
+        getAll(fields).forEach(consumer);
+    }
+
+    /**
+     * Returns at most {limit} objects T in guid order whose guid is at
+     * least {from}, greater than {after} unless it is null, and less than
+     * {to} unless it is null, with at least the given {fields} and the
+     * guid. A range is read page by page by passing the guid of the last
+     * object of a page as {after}. Errors are reported as for getAll().
+     *
+     * @param from
+     * @param after
+     * @param to
+     * @param limit
+     * @param fields
      * @return
+     * @throws CustomerServiceException
      */
-    Optional<T> getByEmail(String email);
+    List<T> getRange(String from, String after, String to, int limit,
+                     Set<CustomerField> fields) throws CustomerServiceException;
+
+    /**
+     * Gets the changes made to the data source after the position {token}
+     * in its history, where an empty token is the start of history: the
+     * objects created or updated since, as they are now, and the guids of
+     * the objects deleted since. At most {limit} changes are returned, or
+     * a default number if {limit} is 0, and the returned ChangeSet holds
+     * the token to ask for the following changes with.
+     *
+     * A token that was not handed out by this method is a
+     * CustomerServiceException. Deletions are only remembered for a while,
+     * and a token older than that is a CustomerChangesExpiredException.
+     * Other errors are reported as for getAll().
+     *
+     * @param token
+     * @param limit
+     * @return
+     * @throws CustomerServiceException
+     */
+    ChangeSet<T> getChangedSince(String token, int limit) throws CustomerServiceException;
 
     /**
      * Inserts object T into the data source. If there are errors with
@@ -64,6 +189,23 @@ public interface CustomerService<T> {
      */
     T update(String guid, T t) throws CustomerServiceException, CustomerNotFoundException;
 
+    /**
+     * Inserts object T if no object with {email} exists in the data source,
+     * otherwise updates the existing object with the contents of T. This is
+     * done as a single atomic operation, so concurrent upserts of the same
+     * {email} cannot both insert. The returned UpsertResult says whether the
+     * object was created or updated.
+     *
+     * The email of T must be null or equal to {email}. Errors with the upsert
+     * are a CustomerServiceException.
+     *
+     * @param email
+     * @param t
+     * @return
+     * @throws CustomerServiceException
+     */
+    UpsertResult<T> upsert(String email, T t) throws CustomerServiceException;
+
     /**
      * Deletes object T with {guid} from the data source. If no object
      * belonging to {guid} is found, then CustomerNotFoundException is thrown.
@@ -75,4 +217,32 @@ public interface CustomerService<T> {
      * @throws CustomerNotFoundException
      */
     T delete(String guid) throws CustomerServiceException, CustomerNotFoundException;
+
+    /**
+     * Deletes the objects with the given {guids}. The guids are processed
+     * in chunks, each chunk in its own transaction, and the result has one
+     * BulkItemResult per guid, in order, saying whether it was deleted, not
+     * found, or failed. A failed chunk does not undo earlier chunks.
+     *
+     * A CustomerServiceException is thrown, and nothing is deleted, if the
+     * request as a whole is invalid, e.g. too many guids, or if the data
+     * source cannot be reached.
+     *
+     * @param guids
+     * @return
+     * @throws CustomerServiceException
+     */
+    List<BulkItemResult<T>> bulkDelete(List<String> guids) throws CustomerServiceException;
+
+    /**
+     * Applies the given {patches}, each identifying an object by its guid.
+     * Unlike update(), only the non-null fields of a patch are changed, and
+     * the rest of the object is kept. The patched object must still be
+     * valid. Patches are processed and reported on as for bulkDelete().
+     *
+     * @param patches
+     * @return
+     * @throws CustomerServiceException
+     */
+    List<BulkItemResult<T>> bulkUpdate(List<T> patches) throws CustomerServiceException;
 }
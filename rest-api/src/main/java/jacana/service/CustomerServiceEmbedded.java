@@ -0,0 +1,854 @@
+package jacana.service;
+
+import io.opentelemetry.instrumentation.annotations.WithSpan;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * CustomerService kept in files of its own, for sites that cannot run
+ * MySQL. Selected with customers.backend=embedded, see
+ * CustomerBackendProducer.
+ *
+ * Every write is appended to a CustomerLog in customers.embedded.directory
+ * and, with customers.embedded.sync_writes, forced to disk before it
+ * returns. The current entry of each guid and email is found through a
+ * MappedIndex of each. Lookups by phone, listings, ranges and changes
+ * read through all current entries, which suits the few thousand
+ * Customers of a site but not a central database.
+ *
+ * On start the indexes are reopened if they were closed cleanly along
+ * with the log, and only entries appended after that are replayed.
+ * Otherwise, e.g. after a crash, the indexes are rebuilt from the whole
+ * log, after cutting off any entry the crash left incomplete.
+ *
+ * Replaced and deleted entries stay in the log until it is compacted:
+ * every customers.embedded.compaction_interval_minutes the log is
+ * rewritten with only the current entries, once at least
+ * customers.embedded.compaction_garbage_ratio of it is garbage. Deletions
+ * are kept for customers.changed_since.tombstone_retention_days, as for
+ * the MySQL backend.
+ *
+ * Reads run concurrently, and writes and compaction one at a time.
+ */
+@ApplicationScoped
+public class CustomerServiceEmbedded implements CustomerService<Customer> {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerServiceEmbedded.class.getName());
+
+    static final String LOG_FILE = "customers.log";
+    static final String GUID_INDEX_FILE = "customers-guid.idx";
+    static final String EMAIL_INDEX_FILE = "customers-email.idx";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+
+    /**
+     * Logs with less garbage than this are not worth compacting.
+     */
+    private static final long MIN_COMPACTION_GARBAGE_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final boolean syncWrites;
+    private final double compactionGarbageRatio;
+    private final int bulkMaxItems;
+    private final String phoneCountryCode;
+    private final long tombstoneRetentionDays;
+    private final int changesDefaultLimit;
+    private final int changesMaxLimit;
+    private final Consumer<CustomerChangeEvent> onChange;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private CustomerLog log;
+    private MappedIndex guidIndex;
+    private MappedIndex emailIndex;
+    private long liveBytes;
+    private long lastMicros;
+    private long purgedBeforeMicros;
+    private volatile long recoveryMillis;
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public CustomerServiceEmbedded(@ConfigProperty(name = "customers.embedded.directory", defaultValue = "/var/lib/jacana") String directory,
+                                   @ConfigProperty(name = "customers.embedded.sync_writes", defaultValue = "true") boolean syncWrites,
+                                   @ConfigProperty(name = "customers.embedded.compaction_interval_minutes", defaultValue = "10") long compactionIntervalMinutes,
+                                   @ConfigProperty(name = "customers.embedded.compaction_garbage_ratio", defaultValue = "0.5") double compactionGarbageRatio,
+                                   @ConfigProperty(name = "customers.bulk.max_items", defaultValue = "50000") int bulkMaxItems,
+                                   @ConfigProperty(name = "customers.phone.default_country_code", defaultValue = "1") String phoneCountryCode,
+                                   @ConfigProperty(name = "customers.changed_since.tombstone_retention_days", defaultValue = "30") long tombstoneRetentionDays,
+                                   @ConfigProperty(name = "customers.changed_since.default_limit", defaultValue = "1000") int changesDefaultLimit,
+                                   @ConfigProperty(name = "customers.changed_since.max_limit", defaultValue = "10000") int changesMaxLimit,
+                                   Event<CustomerChangeEvent> changeEvents) throws CustomerServiceException {
+        this(Path.of(directory), syncWrites, compactionGarbageRatio, bulkMaxItems, phoneCountryCode,
+                tombstoneRetentionDays, changesDefaultLimit, changesMaxLimit, changeEvents::fire);
+        if ( compactionIntervalMinutes > 0 ) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "customer-log-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::compactIfWorthwhile,
+                    compactionIntervalMinutes, compactionIntervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Opens, or creates, the store in {directory}. Compaction is only run
+     * by calling compact().
+     */
+    CustomerServiceEmbedded(Path directory, boolean syncWrites, double compactionGarbageRatio, int bulkMaxItems,
+                            String phoneCountryCode, long tombstoneRetentionDays, int changesDefaultLimit,
+                            int changesMaxLimit, Consumer<CustomerChangeEvent> onChange) throws CustomerServiceException {
+        this.directory = directory;
+        this.syncWrites = syncWrites;
+        this.compactionGarbageRatio = compactionGarbageRatio;
+        this.bulkMaxItems = bulkMaxItems;
+        this.phoneCountryCode = phoneCountryCode;
+        this.tombstoneRetentionDays = Math.max(1, tombstoneRetentionDays);
+        this.changesDefaultLimit = Math.max(1, changesDefaultLimit);
+        this.changesMaxLimit = Math.max(this.changesDefaultLimit, changesMaxLimit);
+        this.onChange = onChange;
+        try {
+            open();
+        } catch (IOException ex) {
+            LOGGER.info("Exception opening Customer store in " + directory + ": " + ex.getMessage());
+            throw new CustomerServiceUnavailableException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Opens the log and its indexes and replays the entries the indexes do
+     * not cover yet.
+     */
+    private void open() throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(LOG_FILE + COMPACTING_SUFFIX));
+        log = CustomerLog.open(directory.resolve(LOG_FILE));
+        guidIndex = MappedIndex.open(directory.resolve(GUID_INDEX_FILE), log.getGeneration());
+        emailIndex = MappedIndex.open(directory.resolve(EMAIL_INDEX_FILE), log.getGeneration());
+        MappedIndex.Covered covered = guidIndex.getCovered();
+        long from = CustomerLog.HEADER_SIZE;
+        liveBytes = 0;
+        purgedBeforeMicros = 0;
+        if ( Objects.nonNull(covered)
+                && covered.equals(emailIndex.getCovered())
+                && covered.logSize() <= log.size() ) {
+            from = covered.logSize();
+            liveBytes = covered.liveBytes();
+            lastMicros = Math.max(lastMicros, covered.lastMicros());
+            if ( from > CustomerLog.HEADER_SIZE ) {
+                CustomerLog.Entry first = log.read(CustomerLog.HEADER_SIZE);
+                if ( first.type() == CustomerLog.PURGE ) {
+                    purgedBeforeMicros = first.micros();
+                }
+            }
+        } else {
+            guidIndex.clear();
+            emailIndex.clear();
+        }
+        long replayed = log.replay(from, this::apply);
+        recoveryMillis = System.currentTimeMillis() - start;
+        LOGGER.info("Opened Customer store in " + directory + " with " + guidIndex.size() + " Customers, replayed "
+                + replayed + " log entries in " + recoveryMillis + " ms.");
+    }
+
+    /**
+     * Closes the store, writing the indexes so the next start need not
+     * rebuild them.
+     */
+    @PreDestroy
+    public void close() {
+        if ( Objects.nonNull(scheduler) ) {
+            scheduler.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            closeFiles();
+        } catch (IOException ex) {
+            LOGGER.info("Exception closing Customer store in " + directory + ": " + ex.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        log.force();
+        MappedIndex.Covered covered = new MappedIndex.Covered(log.size(), liveBytes, lastMicros);
+        guidIndex.close(covered);
+        emailIndex.close(covered);
+        log.close();
+    }
+
+    /**
+     * Milliseconds the last open took, replay included.
+     */
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    @Override
+    @WithSpan
+    public List<Customer> getAll() throws CustomerServiceException {
+        return getAll(CustomerField.ALL);
+    }
+
+    /**
+     * Same as getAll(), in guid order, with only the given {fields} set on
+     * the returned Customers.
+     */
+    @Override
+    @WithSpan
+    @Recorded
+    public List<Customer> getAll(Set<CustomerField> fields) throws CustomerServiceException {
+        List<Customer> customers = new ArrayList<>();
+        scanAll(fields, customers::add);
+        customers.sort(Comparator.comparing(Customer::getGuid));
+        return customers;
+    }
+
+    @Override
+    @WithSpan
+    public Optional<Customer> getByGuid(String guid) throws CustomerServiceException {
+        return getByGuid(guid, CustomerField.ALL);
+    }
+
+    @Override
+    @WithSpan
+    @Recorded
+    public Optional<Customer> getByGuid(String guid, Set<CustomerField> fields) throws CustomerServiceException {
+        lock.readLock().lock();
+        try {
+            return find(guid).map(customer -> project(customer, fields));
+        } catch (IOException ex) {
+            throw failed("reading Customer with guid='" + guid + "'", ex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @WithSpan
+    public Optional<Customer> getByEmail(String email) throws CustomerServiceException {
+        return getByEmail(email, CustomerField.ALL);
+    }
+
+    /**
+     * Same as getByEmail(email), with only the given {fields} set on the
+     * returned Customer. Emails match regardless of case, as they do in
+     * MySQL.
+     */
+    @Override
+    @WithSpan
+    @Recorded
+    public Optional<Customer> getByEmail(String email, Set<CustomerField> fields) throws CustomerServiceException {
+        if ( Objects.isNull(email) ) {
+            return Optional.empty();
+        }
+        lock.readLock().lock();
+        try {
+            return findByEmail(email).map(customer -> project(customer, fields));
+        } catch (IOException ex) {
+            throw failed("reading Customer by email", ex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @WithSpan
+    public List<Customer> getByPhone(String phone) throws CustomerServiceException {
+        return getByPhone(phone, CustomerField.ALL);
+    }
+
+    /**
+     * Same as getByPhone(phone), with only the given {fields} set on the
+     * returned Customers. Phone numbers are compared in E.164, see
+     * PhoneNumbers, by reading through all Customers.
+     */
+    @Override
+    @WithSpan
+    @Recorded
+    public List<Customer> getByPhone(String phone, Set<CustomerField> fields) throws CustomerServiceException {
+        String phoneKey = PhoneNumbers.normalize(phone, phoneCountryCode);
+        if ( Objects.isNull(phoneKey) ) {
+            return List.of();
+        }
+        List<Customer> customers = new ArrayList<>();
+        scanAll(CustomerField.ALL, customer -> {
+            if ( phoneKey.equals(PhoneNumbers.normalize(customer.getPhoneNumber(), phoneCountryCode)) ) {
+                customers.add(project(customer, fields));
+            }
+        });
+        return customers;
+    }
+
+    /**
+     * Passes every Customer to {consumer}, in no particular order, with
+     * only the given {fields} set. Writes wait until the scan is done.
+     */
+    @Override
+    @Recorded
+    public void scanAll(Set<CustomerField> fields, Consumer<Customer> consumer) throws CustomerServiceException {
+        lock.readLock().lock();
+        try {
+            for ( long offset : currentOffsets() ) {
+                consumer.accept(project(log.read(offset).customer(), fields));
+            }
+        } catch (IOException ex) {
+            throw failed("scanning Customers", ex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same as CustomerServiceMySQL.getRange(). Every page reads the guids
+     * of all Customers, so an export is quadratic in their number, which
+     * is fine for the Customers of a site.
+     */
+    @Override
+    @WithSpan
+    @Recorded
+    public List<Customer> getRange(String from, String after, String to, int limit,
+                                   Set<CustomerField> fields) throws CustomerServiceException {
+        Set<CustomerField> selected = EnumSet.of(CustomerField.GUID);
+        selected.addAll(fields);
+        TreeMap<String, Customer> range = new TreeMap<>();
+        scanAll(selected, customer -> {
+            String guid = customer.getGuid();
+            if ( (Objects.isNull(from) || guid.compareTo(from) >= 0)
+                    && (Objects.isNull(after) || guid.compareTo(after) > 0)
+                    && (Objects.isNull(to) || guid.compareTo(to) < 0) ) {
+                range.put(guid, customer);
+                if ( range.size() > limit ) {
+                    range.pollLastEntry();
+                }
+            }
+        });
+        return new ArrayList<>(range.values());
+    }
+
+    /**
+     * Same as CustomerServiceMySQL.getChangedSince(token, limit). The log
+     * is read through to find the last entry of every guid, and those
+     * after {token} are returned in (micros, guid) order. Writes are
+     * appended one at a time with increasing micros, so no settle time is
+     * needed.
+     */
+    @Override
+    @WithSpan
+    @Recorded
+    public ChangeSet<Customer> getChangedSince(String token, int limit) throws CustomerServiceException {
+        ChangePosition since = ChangePosition.decode(Objects.isNull(token) ? "" : token);
+        int pageSize = limit <= 0 ? changesDefaultLimit : Math.min(limit, changesMaxLimit);
+        Map<String, CustomerLog.Entry> latest = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            if ( since.micros() > 0 && since.micros() < purgedBeforeMicros ) {
+                throw new CustomerChangesExpiredException("Changes are only kept for " + tombstoneRetentionDays
+                        + " days, get all Customers and ask for the changes since then instead.");
+            }
+            log.forEach((offset, entry) -> {
+                if ( entry.type() != CustomerLog.PURGE ) {
+                    latest.put(entry.guid(), entry);
+                }
+            });
+        } catch (IOException ex) {
+            throw failed("reading changed Customers", ex);
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<CustomerLog.Entry> changes = latest.values().stream()
+                .filter(entry -> position(entry).compareTo(since) > 0)
+                .sorted(Comparator.comparing(CustomerServiceEmbedded::position))
+                .toList();
+        List<CustomerLog.Entry> page = changes.subList(0, Math.min(changes.size(), pageSize));
+        List<Customer> changed = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for ( CustomerLog.Entry entry : page ) {
+            if ( entry.type() == CustomerLog.PUT ) {
+                changed.add(entry.customer());
+            } else {
+                deleted.add(entry.guid());
+            }
+        }
+        ChangePosition next = page.isEmpty() ? since : position(page.get(page.size() - 1));
+        return new ChangeSet<>(changed, deleted, next.encode(), changes.size() > pageSize);
+    }
+
+    private static ChangePosition position(CustomerLog.Entry entry) {
+        return new ChangePosition(entry.micros(), entry.guid());
+    }
+
+    @Override
+    @WithSpan
+    @Recorded
+    public Customer insert(Customer customer) throws CustomerServiceException {
+        if ( Objects.isNull(customer) ) {
+            throw new CustomerServiceException("Customer object may not be null.");
+        }
+        validate(customer);
+        if ( Objects.isNull(customer.getGuid()) ) {
+            customer.setGuid(UUID.randomUUID().toString());
+        }
+        lock.writeLock().lock();
+        try {
+            if ( find(customer.getGuid()).isPresent() ) {
+                throw new CustomerServiceException("Customer with guid '" + customer.getGuid() + "' already exists.");
+            }
+            checkEmailFree(customer.getEmail(), customer.getGuid());
+            append(CustomerLog.Entry.put(nextMicros(), customer));
+            sync();
+            LOGGER.info("Inserted Customer with guid='"+customer.getGuid()+"'");
+        } catch (IOException ex) {
+            throw failed("inserting Customer", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        fireChange(CustomerChangeEvent.inserted(customer));
+        return customer;
+    }
+
+    @Override
+    @WithSpan
+    @Recorded
+    public Customer update(String guid, Customer customer) throws CustomerServiceException, CustomerNotFoundException {
+        if ( Objects.isNull(guid) ) {
+            throw new CustomerServiceException("guid of Customer to update may not be null.");
+        }
+        if ( Objects.isNull(customer) ) {
+            throw new CustomerServiceException("New Customer may not be null.");
+        }
+        validate(customer);
+        Customer oldCustomer;
+        Customer updatedCustomer = CustomerServiceMySQL.patch(customer, customer);
+        updatedCustomer.setGuid(guid);
+        lock.writeLock().lock();
+        try {
+            Optional<Customer> existing = find(guid);
+            if ( existing.isEmpty() ) {
+                throw new CustomerNotFoundException("Customer with guid '"+guid+"' cannot be found and therefore cannot be updated.");
+            }
+            oldCustomer = existing.get();
+            checkEmailFree(updatedCustomer.getEmail(), guid);
+            append(CustomerLog.Entry.put(nextMicros(), updatedCustomer));
+            sync();
+            LOGGER.info("Updated Customer with guid='"+guid+"'");
+        } catch (IOException ex) {
+            throw failed("updating Customer with guid='" + guid + "'", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        fireChange(CustomerChangeEvent.updated(oldCustomer, updatedCustomer));
+        return updatedCustomer;
+    }
+
+    /**
+     * Inserts or updates the Customer with {email}, as one write under the
+     * write lock. A new guid is generated for the insert case, so any guid
+     * supplied on {customer} is ignored.
+     */
+    @Override
+    @WithSpan
+    @Recorded
+    public UpsertResult<Customer> upsert(String email, Customer customer) throws CustomerServiceException {
+        if ( Objects.isNull(email) ) {
+            throw new CustomerServiceException("email of Customer to upsert may not be null.");
+        }
+        if ( Objects.isNull(customer) ) {
+            throw new CustomerServiceException("Customer object may not be null.");
+        }
+        if ( Objects.isNull(customer.getEmail()) ) {
+            customer.setEmail(email);
+        }
+        if ( !email.equalsIgnoreCase(customer.getEmail()) ) {
+            throw new CustomerServiceException("Customer email must match the email of the Customer to upsert.");
+        }
+        validate(customer);
+        Customer storedCustomer = CustomerServiceMySQL.patch(customer, customer);
+        boolean created;
+        lock.writeLock().lock();
+        try {
+            Optional<Customer> existing = findByEmail(email);
+            created = existing.isEmpty();
+            storedCustomer.setGuid(created ? UUID.randomUUID().toString() : existing.get().getGuid());
+            append(CustomerLog.Entry.put(nextMicros(), storedCustomer));
+            sync();
+        } catch (IOException ex) {
+            throw failed("upserting Customer", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if ( created ) {
+            LOGGER.info("Upsert inserted Customer with guid='"+storedCustomer.getGuid()+"'");
+            fireChange(CustomerChangeEvent.inserted(storedCustomer));
+        } else {
+            LOGGER.info("Upsert updated Customer with guid='"+storedCustomer.getGuid()+"'");
+            fireChange(CustomerChangeEvent.updated(null, storedCustomer));
+        }
+        return new UpsertResult<>(storedCustomer, created);
+    }
+
+    @Override
+    @WithSpan
+    @Recorded
+    public Customer delete(String guid) throws CustomerServiceException, CustomerNotFoundException {
+        if ( Objects.isNull(guid) ) {
+            throw new CustomerServiceException("guid of Customer to delete may not be null.");
+        }
+        Customer oldCustomer;
+        lock.writeLock().lock();
+        try {
+            Optional<Customer> existing = find(guid);
+            if ( existing.isEmpty() ) {
+                throw new CustomerNotFoundException("Customer with guid '"+guid+"' cannot be found and therefore cannot be deleted.");
+            }
+            oldCustomer = existing.get();
+            append(CustomerLog.Entry.delete(nextMicros(), guid));
+            sync();
+            LOGGER.info("Deleted Customer with guid='"+guid+"'");
+        } catch (IOException ex) {
+            throw failed("deleting Customer with guid='" + guid + "'", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        fireChange(CustomerChangeEvent.deleted(oldCustomer));
+        return oldCustomer;
+    }
+
+    /**
+     * Deletes the Customers with the given {guids}, reporting on each as
+     * CustomerServiceMySQL.bulkDelete() does. Each delete is appended on
+     * its own, so a failed item does not affect the others, and all are
+     * forced to disk together at the end.
+     */
+    @Override
+    @WithSpan
+    @Recorded
+    public List<BulkItemResult<Customer>> bulkDelete(List<String> guids) throws CustomerServiceException {
+        checkBulkSize(guids);
+        List<BulkItemResult<Customer>> results = new ArrayList<>(guids.size());
+        List<CustomerChangeEvent> events = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for ( String guid : guids ) {
+                if ( Objects.isNull(guid) ) {
+                    results.add(new BulkItemResult<>(null, BulkItemResult.Status.INVALID, "guid may not be null.", null));
+                    continue;
+                }
+                try {
+                    Optional<Customer> existing = find(guid);
+                    if ( existing.isEmpty() ) {
+                        results.add(new BulkItemResult<>(guid, BulkItemResult.Status.NOT_FOUND,
+                                "Customer with guid '"+guid+"' cannot be found.", null));
+                        continue;
+                    }
+                    append(CustomerLog.Entry.delete(nextMicros(), guid));
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.DELETED, null, existing.get()));
+                    events.add(CustomerChangeEvent.deleted(existing.get()));
+                } catch (IOException ex) {
+                    LOGGER.info("Exception deleting Customer with guid='" + guid + "': " + ex.getMessage());
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.FAILED, ex.getMessage(), null));
+                }
+            }
+            sync();
+        } catch (IOException ex) {
+            throw failed("bulk deleting Customers", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        events.forEach(this::fireChange);
+        LOGGER.info("Bulk deleted " + events.size() + " of " + guids.size() + " Customers");
+        return results;
+    }
+
+    /**
+     * Applies the given {patches}, reporting on each as
+     * CustomerServiceMySQL.bulkUpdate() does. A patch that would give a
+     * Customer the email of another is FAILED, as the unique index fails
+     * it in MySQL.
+     */
+    @Override
+    @WithSpan
+    @Recorded
+    public List<BulkItemResult<Customer>> bulkUpdate(List<Customer> patches) throws CustomerServiceException {
+        checkBulkSize(patches);
+        List<BulkItemResult<Customer>> results = new ArrayList<>(patches.size());
+        List<CustomerChangeEvent> events = new ArrayList<>();
+        Set<String> patchedGuids = new HashSet<>();
+        lock.writeLock().lock();
+        try {
+            for ( Customer patch : patches ) {
+                String guid = Objects.isNull(patch) ? null : patch.getGuid();
+                if ( Objects.isNull(guid) ) {
+                    results.add(new BulkItemResult<>(null, BulkItemResult.Status.INVALID, "guid may not be null.", null));
+                    continue;
+                }
+                if ( !patchedGuids.add(guid) ) {
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.INVALID,
+                            "Customer with guid '"+guid+"' may only be patched once per request.", null));
+                    continue;
+                }
+                try {
+                    Optional<Customer> existing = find(guid);
+                    if ( existing.isEmpty() ) {
+                        results.add(new BulkItemResult<>(guid, BulkItemResult.Status.NOT_FOUND,
+                                "Customer with guid '"+guid+"' cannot be found.", null));
+                        continue;
+                    }
+                    Customer newCustomer = CustomerServiceMySQL.patch(existing.get(), patch);
+                    try {
+                        newCustomer.validate();
+                    } catch (Exception ex) {
+                        results.add(new BulkItemResult<>(guid, BulkItemResult.Status.INVALID, ex.getMessage(), null));
+                        continue;
+                    }
+                    checkEmailFree(newCustomer.getEmail(), guid);
+                    append(CustomerLog.Entry.put(nextMicros(), newCustomer));
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.UPDATED, null, newCustomer));
+                    events.add(CustomerChangeEvent.updated(existing.get(), newCustomer));
+                } catch (CustomerServiceException | IOException ex) {
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.FAILED, ex.getMessage(), null));
+                }
+            }
+            sync();
+        } catch (IOException ex) {
+            throw failed("bulk updating Customers", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        events.forEach(this::fireChange);
+        LOGGER.info("Bulk updated " + events.size() + " of " + patches.size() + " Customers");
+        return results;
+    }
+
+    /**
+     * Rewrites the log with only the current Customers and the deletions
+     * of the last customers.changed_since.tombstone_retention_days, and
+     * rebuilds the indexes from it. The new log is written next to the old
+     * one and moved over it, so a crash leaves one or the other. Reads and
+     * writes wait until it is done.
+     */
+    void compact() throws CustomerServiceException {
+        lock.writeLock().lock();
+        try {
+            long start = System.currentTimeMillis();
+            long oldSize = log.size();
+            long purgeBefore = (System.currentTimeMillis() - tombstoneRetentionDays * 24 * 60 * 60 * 1000) * 1000;
+            Map<String, CustomerLog.Entry> latest = new HashMap<>();
+            log.forEach((offset, entry) -> {
+                if ( entry.type() != CustomerLog.PURGE ) {
+                    latest.put(entry.guid(), entry);
+                }
+            });
+            List<CustomerLog.Entry> kept = latest.values().stream()
+                    .filter(entry -> entry.type() == CustomerLog.PUT || entry.micros() >= purgeBefore)
+                    .sorted(Comparator.comparing(CustomerServiceEmbedded::position))
+                    .toList();
+            Path compacting = directory.resolve(LOG_FILE + COMPACTING_SUFFIX);
+            Files.deleteIfExists(compacting);
+            try (CustomerLog compacted = CustomerLog.open(compacting)) {
+                compacted.append(CustomerLog.Entry.purge(Math.max(purgedBeforeMicros, purgeBefore)));
+                for ( CustomerLog.Entry entry : kept ) {
+                    compacted.append(entry);
+                }
+                compacted.force();
+            }
+            closeFiles();
+            try {
+                Files.move(compacting, directory.resolve(LOG_FILE),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                open();
+            }
+            LOGGER.info("Compacted Customer log from " + oldSize + " to " + log.size() + " bytes in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        } catch (IOException ex) {
+            throw failed("compacting Customer log", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compactIfWorthwhile() {
+        try {
+            long garbage;
+            long entries;
+            lock.readLock().lock();
+            try {
+                entries = log.size() - CustomerLog.HEADER_SIZE;
+                garbage = entries - liveBytes;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if ( garbage >= MIN_COMPACTION_GARBAGE_BYTES && garbage >= compactionGarbageRatio * entries ) {
+                compact();
+            }
+        } catch (Exception ex) {
+            LOGGER.info("Exception compacting Customer log: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Appends {entry} and applies it to the indexes.
+     */
+    private void append(CustomerLog.Entry entry) throws IOException {
+        long offset = log.append(entry);
+        apply(offset, new CustomerLog.Entry(entry.type(), entry.micros(), entry.guid(), entry.customer(),
+                (int) (log.size() - offset)));
+    }
+
+    /**
+     * Applies the entry at {offset} to the indexes, whether just appended
+     * or replayed.
+     */
+    private void apply(long offset, CustomerLog.Entry entry) throws IOException {
+        lastMicros = Math.max(lastMicros, entry.micros());
+        if ( entry.type() == CustomerLog.PURGE ) {
+            purgedBeforeMicros = Math.max(purgedBeforeMicros, entry.micros());
+            return;
+        }
+        long previous = guidIndex.get(entry.guid(), guidCheck(entry.guid()));
+        if ( previous >= 0 ) {
+            CustomerLog.Entry old = log.read(previous);
+            liveBytes -= old.size();
+            emailIndex.remove(emailKey(old.customer().getEmail()), candidate -> candidate == previous);
+        }
+        if ( entry.type() == CustomerLog.PUT ) {
+            String emailKey = emailKey(entry.customer().getEmail());
+            guidIndex.put(entry.guid(), offset, guidCheck(entry.guid()));
+            emailIndex.put(emailKey, offset, emailCheck(emailKey));
+            liveBytes += entry.size();
+        } else if ( previous >= 0 ) {
+            guidIndex.remove(entry.guid(), candidate -> candidate == previous);
+        }
+    }
+
+    private Optional<Customer> find(String guid) throws IOException {
+        long offset = guidIndex.get(guid, guidCheck(guid));
+        return offset < 0 ? Optional.empty() : Optional.of(log.read(offset).customer());
+    }
+
+    private Optional<Customer> findByEmail(String email) throws IOException {
+        String emailKey = emailKey(email);
+        long offset = emailIndex.get(emailKey, emailCheck(emailKey));
+        return offset < 0 ? Optional.empty() : Optional.of(log.read(offset).customer());
+    }
+
+    private MappedIndex.KeyCheck guidCheck(String guid) {
+        return offset -> guid.equals(log.read(offset).guid());
+    }
+
+    private MappedIndex.KeyCheck emailCheck(String emailKey) {
+        return offset -> emailKey.equals(emailKey(log.read(offset).customer().getEmail()));
+    }
+
+    /**
+     * Emails are unique regardless of case, as for the emailKey column in
+     * MySQL.
+     */
+    private static String emailKey(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    private void checkEmailFree(String email, String guid) throws IOException, CustomerServiceException {
+        Optional<Customer> owner = findByEmail(email);
+        if ( owner.isPresent() && !owner.get().getGuid().equals(guid) ) {
+            throw new CustomerServiceException("Customer with email '" + email + "' already exists.");
+        }
+    }
+
+    private long[] currentOffsets() {
+        long[] offsets = new long[(int) guidIndex.size()];
+        int[] next = new int[1];
+        guidIndex.forEach(offset -> offsets[next[0]++] = offset);
+        Arrays.sort(offsets);
+        return offsets;
+    }
+
+    /**
+     * Micros of the next write, after those of all earlier writes even if
+     * the clock went back.
+     */
+    private long nextMicros() {
+        lastMicros = Math.max(System.currentTimeMillis() * 1000, lastMicros + 1);
+        return lastMicros;
+    }
+
+    private void sync() throws IOException {
+        if ( syncWrites ) {
+            log.force();
+        }
+    }
+
+    private static void validate(Customer customer) throws CustomerServiceException {
+        try {
+            customer.validate();
+        } catch (Exception ex) {
+            throw new CustomerServiceException(ex.getMessage());
+        }
+    }
+
+    private void checkBulkSize(List<?> items) throws CustomerServiceException {
+        if ( Objects.isNull(items) ) {
+            throw new CustomerServiceException("List of Customers may not be null.");
+        }
+        if ( items.size() > bulkMaxItems ) {
+            throw new CustomerServiceException("At most " + bulkMaxItems + " Customers may be changed per request.");
+        }
+    }
+
+    /**
+     * Returns {customer} with only the given {fields} set.
+     */
+    private static Customer project(Customer customer, Set<CustomerField> fields) {
+        if ( fields.containsAll(CustomerField.ALL) ) {
+            return customer;
+        }
+        Customer projected = new Customer();
+        for ( CustomerField field : fields ) {
+            switch (field) {
+                case GUID -> projected.setGuid(customer.getGuid());
+                case NAME_PREFIX -> projected.setNamePrefix(customer.getNamePrefix());
+                case NAME_SUFFIX -> projected.setNameSuffix(customer.getNameSuffix());
+                case NAME_SURNAME -> projected.setNameSurname(customer.getNameSurname());
+                case NAME_MIDDLE -> projected.setNameMiddle(customer.getNameMiddle());
+                case NAME_FAMILY -> projected.setNameFamily(customer.getNameFamily());
+                case EMAIL -> projected.setEmail(customer.getEmail());
+                case PHONE_NUMBER -> projected.setPhoneNumber(customer.getPhoneNumber());
+            }
+        }
+        return projected;
+    }
+
+    private CustomerServiceException failed(String operation, IOException ex) {
+        LOGGER.info("Exception " + operation + ": " + ex.getMessage());
+        return new CustomerServiceUnavailableException(ex.getMessage());
+    }
+
+    /**
+     * Notifies observers, e.g. the search index, of a change that has
+     * already been written. A failing observer must not turn a successful
+     * write into an error for the caller.
+     */
+    private void fireChange(CustomerChangeEvent event) {
+        try {
+            onChange.accept(event);
+        } catch (Exception ex) {
+            LOGGER.info("Exception notifying observers of " + event + ": " + ex.getMessage());
+        }
+    }
+}
@@ -1,11 +1,25 @@
 package jacana.service;
 
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.instrumentation.annotations.WithSpan;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 @ApplicationScoped
@@ -20,12 +34,155 @@ public class CustomerServiceMySQL implements CustomerService<Customer> {
     private String createCustomersTableSql;
     private String createCustomersGuidIndexSql;
     private String createCustomersEmailIndexSql;
+    private String addCustomersEmailKeySql;
+    private String createCustomersEmailKeyIndexSql;
+    private String addCustomersPhoneKeySql;
+    private String createCustomersPhoneKeyIndexSql;
+    private String addCustomersCreatedAtSql;
+    private String addCustomersUpdatedAtSql;
+    private String createCustomersUpdatedAtIndexSql;
+    private String createCustomerTombstonesTableSql;
+    private String insertCustomerTombstoneSql;
+    private String selectCustomersChangedSinceSql;
+    private String selectCustomerTombstonesSinceSql;
+    private String purgeCustomerTombstonesSql;
     private String selectAllCustomersSql;
     private String selectCustomerByGuidSql;
     private String selectCustomerByEmailSql;
+    private String selectAllCustomersProjectionSql;
+    private String selectCustomerByGuidProjectionSql;
+    private String selectCustomerByEmailProjectionSql;
+    private String selectCustomersByPhoneSql;
+    private String selectCustomersByPhoneProjectionSql;
+    private final Map<String, String> projectionSqlCache = new ConcurrentHashMap<>();
     private String insertCustomerSql;
     private String updateCustomerSql;
+    private String upsertCustomerSql;
     private String deleteCustomerSql;
+    private String selectCustomersByGuidsForUpdateSql;
+    private String selectCustomersByGuidsSql;
+    private String selectCustomersRangeSql;
+    private String selectCustomersRangeProjectionSql;
+    private final int bulkChunkSize;
+    private final int bulkMaxItems;
+    private final CircuitBreaker circuitBreaker;
+    private final Map<Lane, Bulkhead> bulkheads = new EnumMap<>(Lane.class);
+    private final long bulkheadQueueTimeoutMillis;
+    private final List<ReadEndpoint> readEndpoints;
+    private final Hedge hedge;
+    private final long cacheTtlMillis;
+    private final String phoneCountryCode;
+    private final long changesSettleSeconds;
+    private final long tombstoneRetentionDays;
+    private final int changesDefaultLimit;
+    private final int changesMaxLimit;
+    private volatile long tombstonesPurgedAtMillis = 0;
+
+    /**
+     * Kinds of database work, each given its own Bulkhead of connections
+     * by getConnection(lane), so that one kind cannot starve the others.
+     */
+    public enum Lane {
+        /**
+         * Short indexed statements on a few rows: lookups by guid, email
+         * or phone, and the change bus.
+         */
+        POINT_READ,
+        /**
+         * Statements reading many rows: all Customers, exports, changes,
+         * index loads and backfills, and the EXPLAINs of the SlowQueryLog.
+         */
+        SCAN,
+        /**
+         * Inserts, updates, upserts and deletes, single or bulk.
+         */
+        WRITE
+    }
+
+    /**
+     * A database that lookups by guid or email may be read from, see
+     * database.read_endpoints.
+     */
+    private record ReadEndpoint(String url, CircuitBreaker circuitBreaker) {
+    }
+
+    /**
+     * Key of a read by guid or email, see getByGuid(guid, fields).
+     */
+    private record ReadKey(CustomerField by, String value, Set<CustomerField> fields) {
+    }
+
+    /**
+     * Customers read by a read that began at the CustomerCache {generation}.
+     */
+    private record Read(List<Customer> customers, long generation) {
+    }
+
+    /**
+     * A Customer changed, or with a null customer deleted, at {position},
+     * see getChangedSince(token, limit).
+     */
+    private record Change(ChangePosition position, String guid, Customer customer) {
+    }
+
+    private final SingleFlight<ReadKey, Read> readFlights = new SingleFlight<>(
+            read -> new Read(copy(read.customers()), read.generation()), () -> this.coalescedReadCounter.inc());
+
+    @Inject
+    private Event<CustomerChangeEvent> changeEvents;
+
+    @Inject
+    private CustomerBloomFilter customerBloomFilter;
+
+    @Inject
+    private CustomerCache customerCache;
+
+    @Inject
+    private Tracer tracer;
+
+    @Inject
+    private SlowQueryLog slowQueryLog;
+
+    @Inject
+    @Metric(name = "customerDatabaseCircuitOpened", absolute = true,
+            description = "Counts transitions of the database circuit breaker to open")
+    private Counter circuitOpenedCounter;
+    @Inject
+    @Metric(name = "customerDatabaseCircuitHalfOpened", absolute = true,
+            description = "Counts transitions of the database circuit breaker to half-open")
+    private Counter circuitHalfOpenedCounter;
+    @Inject
+    @Metric(name = "customerDatabaseCircuitClosed", absolute = true,
+            description = "Counts transitions of the database circuit breaker to closed")
+    private Counter circuitClosedCounter;
+    @Inject
+    @Metric(name = "customerDatabaseRejected", absolute = true,
+            description = "Counts database requests rejected without trying because the circuit breaker is open")
+    private Counter rejectedCounter;
+    @Inject
+    @Metric(name = "customerCacheHits", absolute = true,
+            description = "Counts lookups answered from the CustomerCache within customers.cache.ttl_seconds")
+    private Counter cacheHitCounter;
+    @Inject
+    @Metric(name = "customerReadsCoalesced", absolute = true,
+            description = "Counts lookups by guid or email that shared the database query of an identical concurrent lookup")
+    private Counter coalescedReadCounter;
+    @Inject
+    @Metric(name = "customerDeadlineExceeded", absolute = true,
+            description = "Counts queries cancelled, finished late or not started because the request deadline passed")
+    private Counter deadlineExceededCounter;
+    @Inject
+    @Metric(name = "customerDatabaseWastedMillis", absolute = true,
+            description = "Milliseconds the database spent on queries whose request deadline passed before they finished")
+    private Counter wastedMillisCounter;
+    @Inject
+    @Metric(name = "customerReadsHedged", absolute = true,
+            description = "Counts lookups by guid or email sent to a second read endpoint because the first was slow")
+    private Counter hedgedReadCounter;
+    @Inject
+    @Metric(name = "customerHedgesWon", absolute = true,
+            description = "Counts hedged lookups answered first by the second read endpoint")
+    private Counter hedgeWonCounter;
 
     @Inject
     public CustomerServiceMySQL(@ConfigProperty(name = "database.user") String user,
@@ -36,42 +193,194 @@ public class CustomerServiceMySQL implements CustomerService<Customer> {
                                 @ConfigProperty(name = "database.create_customers_table") String createCustomersTableSql,
                                 @ConfigProperty(name = "database.create_customers_guid_index") String createCustomersGuidIndexSql,
                                 @ConfigProperty(name = "database.create_customers_email_index") String createCustomersEmailIndexSql,
+                                @ConfigProperty(name = "database.add_customers_email_key") String addCustomersEmailKeySql,
+                                @ConfigProperty(name = "database.create_customers_email_key_index") String createCustomersEmailKeyIndexSql,
+                                @ConfigProperty(name = "database.add_customers_phone_key") String addCustomersPhoneKeySql,
+                                @ConfigProperty(name = "database.create_customers_phone_key_index") String createCustomersPhoneKeyIndexSql,
+                                @ConfigProperty(name = "database.add_customers_created_at") String addCustomersCreatedAtSql,
+                                @ConfigProperty(name = "database.add_customers_updated_at") String addCustomersUpdatedAtSql,
+                                @ConfigProperty(name = "database.create_customers_updated_at_index") String createCustomersUpdatedAtIndexSql,
+                                @ConfigProperty(name = "database.create_customer_tombstones_table") String createCustomerTombstonesTableSql,
+                                @ConfigProperty(name = "database.insert_customer_tombstone") String insertCustomerTombstoneSql,
+                                @ConfigProperty(name = "database.select_customers_changed_since") String selectCustomersChangedSinceSql,
+                                @ConfigProperty(name = "database.select_customer_tombstones_since") String selectCustomerTombstonesSinceSql,
+                                @ConfigProperty(name = "database.purge_customer_tombstones") String purgeCustomerTombstonesSql,
                                 @ConfigProperty(name = "database.select_all_customers") String selectAllCustomersSql,
                                 @ConfigProperty(name = "database.select_customer_by_guid") String selectCustomerByGuidSql,
                                 @ConfigProperty(name = "database.select_customer_by_email") String selectCustomerByEmailSql,
+                                @ConfigProperty(name = "database.select_all_customers_projection") String selectAllCustomersProjectionSql,
+                                @ConfigProperty(name = "database.select_customer_by_guid_projection") String selectCustomerByGuidProjectionSql,
+                                @ConfigProperty(name = "database.select_customer_by_email_projection") String selectCustomerByEmailProjectionSql,
+                                @ConfigProperty(name = "database.select_customers_by_phone") String selectCustomersByPhoneSql,
+                                @ConfigProperty(name = "database.select_customers_by_phone_projection") String selectCustomersByPhoneProjectionSql,
                                 @ConfigProperty(name = "database.insert_customer") String insertCustomerSql,
                                 @ConfigProperty(name = "database.update_customer") String updateCustomerSql,
-                                @ConfigProperty(name = "database.delete_customer") String deleteCustomerSql) throws Exception {
+                                @ConfigProperty(name = "database.upsert_customer") String upsertCustomerSql,
+                                @ConfigProperty(name = "database.delete_customer") String deleteCustomerSql,
+                                @ConfigProperty(name = "database.select_customers_by_guids_for_update") String selectCustomersByGuidsForUpdateSql,
+                                @ConfigProperty(name = "database.select_customers_by_guids") String selectCustomersByGuidsSql,
+                                @ConfigProperty(name = "database.select_customers_range") String selectCustomersRangeSql,
+                                @ConfigProperty(name = "database.select_customers_range_projection") String selectCustomersRangeProjectionSql,
+                                @ConfigProperty(name = "database.bulk.chunk_size", defaultValue = "500") int bulkChunkSize,
+                                @ConfigProperty(name = "customers.bulk.max_items", defaultValue = "50000") int bulkMaxItems,
+                                @ConfigProperty(name = "database.circuit_breaker.failure_threshold", defaultValue = "5") int circuitBreakerFailureThreshold,
+                                @ConfigProperty(name = "database.circuit_breaker.open_seconds", defaultValue = "30") long circuitBreakerOpenSeconds,
+                                @ConfigProperty(name = "database.bulkhead.point_read.max_connections", defaultValue = "32") int pointReadMaxConnections,
+                                @ConfigProperty(name = "database.bulkhead.point_read.max_queued", defaultValue = "256") int pointReadMaxQueued,
+                                @ConfigProperty(name = "database.bulkhead.scan.max_connections", defaultValue = "8") int scanMaxConnections,
+                                @ConfigProperty(name = "database.bulkhead.scan.max_queued", defaultValue = "32") int scanMaxQueued,
+                                @ConfigProperty(name = "database.bulkhead.write.max_connections", defaultValue = "16") int writeMaxConnections,
+                                @ConfigProperty(name = "database.bulkhead.write.max_queued", defaultValue = "256") int writeMaxQueued,
+                                @ConfigProperty(name = "database.bulkhead.queue_timeout_ms", defaultValue = "1000") long bulkheadQueueTimeoutMillis,
+                                @ConfigProperty(name = "database.read_endpoints") Optional<String> readEndpoints,
+                                @ConfigProperty(name = "customers.hedge.percentile", defaultValue = "0.95") double hedgePercentile,
+                                @ConfigProperty(name = "customers.hedge.min_delay_ms", defaultValue = "2") long hedgeMinDelayMillis,
+                                @ConfigProperty(name = "customers.hedge.max_delay_ms", defaultValue = "100") long hedgeMaxDelayMillis,
+                                @ConfigProperty(name = "customers.hedge.max_rate", defaultValue = "0.05") double hedgeMaxRate,
+                                @ConfigProperty(name = "customers.cache.ttl_seconds", defaultValue = "0") long cacheTtlSeconds,
+                                @ConfigProperty(name = "customers.phone.default_country_code", defaultValue = "1") String phoneCountryCode,
+                                @ConfigProperty(name = "customers.changed_since.settle_seconds", defaultValue = "5") long changesSettleSeconds,
+                                @ConfigProperty(name = "customers.changed_since.tombstone_retention_days", defaultValue = "30") long tombstoneRetentionDays,
+                                @ConfigProperty(name = "customers.changed_since.default_limit", defaultValue = "1000") int changesDefaultLimit,
+                                @ConfigProperty(name = "customers.changed_since.max_limit", defaultValue = "10000") int changesMaxLimit) throws Exception {
         this.url = "jdbc:mysql://"+host+":"+port+"/"+schema;
         this.user = user;
         this.password = password;
         this.createCustomersTableSql = createCustomersTableSql;
         this.createCustomersGuidIndexSql = createCustomersGuidIndexSql;
         this.createCustomersEmailIndexSql = createCustomersEmailIndexSql;
+        this.addCustomersEmailKeySql = addCustomersEmailKeySql;
+        this.createCustomersEmailKeyIndexSql = createCustomersEmailKeyIndexSql;
+        this.addCustomersPhoneKeySql = addCustomersPhoneKeySql;
+        this.createCustomersPhoneKeyIndexSql = createCustomersPhoneKeyIndexSql;
+        this.addCustomersCreatedAtSql = addCustomersCreatedAtSql;
+        this.addCustomersUpdatedAtSql = addCustomersUpdatedAtSql;
+        this.createCustomersUpdatedAtIndexSql = createCustomersUpdatedAtIndexSql;
+        this.createCustomerTombstonesTableSql = createCustomerTombstonesTableSql;
+        this.insertCustomerTombstoneSql = insertCustomerTombstoneSql;
+        this.selectCustomersChangedSinceSql = selectCustomersChangedSinceSql;
+        this.selectCustomerTombstonesSinceSql = selectCustomerTombstonesSinceSql;
+        this.purgeCustomerTombstonesSql = purgeCustomerTombstonesSql;
         this.selectAllCustomersSql = selectAllCustomersSql;
         this.selectCustomerByGuidSql = selectCustomerByGuidSql;
         this.selectCustomerByEmailSql = selectCustomerByEmailSql;
+        this.selectAllCustomersProjectionSql = selectAllCustomersProjectionSql;
+        this.selectCustomerByGuidProjectionSql = selectCustomerByGuidProjectionSql;
+        this.selectCustomerByEmailProjectionSql = selectCustomerByEmailProjectionSql;
+        this.selectCustomersByPhoneSql = selectCustomersByPhoneSql;
+        this.selectCustomersByPhoneProjectionSql = selectCustomersByPhoneProjectionSql;
         this.insertCustomerSql = insertCustomerSql;
         this.updateCustomerSql = updateCustomerSql;
+        this.upsertCustomerSql = upsertCustomerSql;
         this.deleteCustomerSql = deleteCustomerSql;
+        this.selectCustomersByGuidsForUpdateSql = selectCustomersByGuidsForUpdateSql;
+        this.selectCustomersByGuidsSql = selectCustomersByGuidsSql;
+        this.selectCustomersRangeSql = selectCustomersRangeSql;
+        this.selectCustomersRangeProjectionSql = selectCustomersRangeProjectionSql;
+        this.bulkChunkSize = Math.max(1, bulkChunkSize);
+        this.bulkMaxItems = bulkMaxItems;
+        this.circuitBreaker = new CircuitBreaker(circuitBreakerFailureThreshold,
+                circuitBreakerOpenSeconds * 1000,
+                System::currentTimeMillis,
+                this::onCircuitTransition);
+        this.bulkheads.put(Lane.POINT_READ, new Bulkhead("point read", pointReadMaxConnections, pointReadMaxQueued));
+        this.bulkheads.put(Lane.SCAN, new Bulkhead("scan", scanMaxConnections, scanMaxQueued));
+        this.bulkheads.put(Lane.WRITE, new Bulkhead("write", writeMaxConnections, writeMaxQueued));
+        this.bulkheadQueueTimeoutMillis = bulkheadQueueTimeoutMillis;
+        this.readEndpoints = readEndpoints.stream()
+                .flatMap(endpoints -> Arrays.stream(endpoints.split(",")))
+                .map(String::strip)
+                .filter(endpoint -> !endpoint.isEmpty())
+                .map(endpoint -> new ReadEndpoint("jdbc:mysql://" + endpoint + "/" + schema,
+                        new CircuitBreaker(circuitBreakerFailureThreshold,
+                                circuitBreakerOpenSeconds * 1000,
+                                System::currentTimeMillis,
+                                (from, to) -> LOGGER.info("Circuit breaker of read endpoint " + endpoint
+                                        + " changed from " + from + " to " + to))))
+                .toList();
+        this.hedge = new Hedge(this.readEndpoints.size(), hedgePercentile, hedgeMinDelayMillis, hedgeMaxDelayMillis,
+                hedgeMaxRate, () -> this.hedgedReadCounter.inc(), () -> this.hedgeWonCounter.inc());
+        this.cacheTtlMillis = cacheTtlSeconds * 1000;
+        this.phoneCountryCode = phoneCountryCode;
+        this.changesSettleSeconds = Math.max(0, changesSettleSeconds);
+        this.tombstoneRetentionDays = Math.max(1, tombstoneRetentionDays);
+        this.changesDefaultLimit = Math.max(1, changesDefaultLimit);
+        this.changesMaxLimit = Math.max(this.changesDefaultLimit, changesMaxLimit);
     }
 
     /**
-     * Return a Customer object from a database ResultSet of the Customers table.
+     * Return a Customer object from a database ResultSet of the Customers table
+     * that only selected the columns of the given {fields}. All other fields
+     * of the returned Customer are null.
      */
-    private Customer fromResultSet(ResultSet resultSet) throws Exception {
+    private Customer fromResultSet(ResultSet resultSet, Set<CustomerField> fields) throws Exception {
         Customer customer = new Customer();
-        customer.setGuid(resultSet.getString("guid"));
-        customer.setNamePrefix(resultSet.getString("namePrefix"));
-        customer.setNameSurname(resultSet.getString("nameSurname"));
-        customer.setNameMiddle(resultSet.getString("nameMiddle"));
-        customer.setNameFamily(resultSet.getString("nameFamily"));
-        customer.setNameSuffix(resultSet.getString("nameSuffix"));
-        customer.setEmail(resultSet.getString("email"));
-        customer.setPhoneNumber(resultSet.getString("phone"));
+        for ( CustomerField field : fields ) {
+            String value = resultSet.getString(field.getColumnName());
+            switch (field) {
+                case GUID -> customer.setGuid(value);
+                case NAME_PREFIX -> customer.setNamePrefix(value);
+                case NAME_SUFFIX -> customer.setNameSuffix(value);
+                case NAME_SURNAME -> customer.setNameSurname(value);
+                case NAME_MIDDLE -> customer.setNameMiddle(value);
+                case NAME_FAMILY -> customer.setNameFamily(value);
+                case EMAIL -> customer.setEmail(value);
+                case PHONE_NUMBER -> customer.setPhoneNumber(value);
+            }
+        }
         return customer;
     }
 
+    /**
+     * Handles one row of a ResultSet, see mapRows().
+     */
+    private interface RowHandler {
+        void accept(ResultSet row) throws Exception;
+    }
+
+    /**
+     * Passes every row of {resultSet}, the result of the statement with the
+     * configuration key {sqlKey}, to {handler}, recorded as a
+     * CustomerRowMappingEvent.
+     */
+    private static void mapRows(ResultSet resultSet, String sqlKey, RowHandler handler) throws Exception {
+        CustomerRowMappingEvent event = new CustomerRowMappingEvent();
+        event.begin();
+        long rows = 0;
+        try {
+            while (resultSet.next()) {
+                handler.accept(resultSet);
+                rows++;
+            }
+        } finally {
+            event.end();
+            if ( event.shouldCommit() ) {
+                event.sqlKey = sqlKey;
+                event.rows = rows;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns {sql} if all fields are selected, otherwise {projectionSql}
+     * with its {columns} placeholder replaced by the columns of {fields}.
+     * Generated statements are cached since only a handful of distinct
+     * projections are ever requested.
+     */
+    private String selectSql(String sql, String projectionSql, Set<CustomerField> fields) {
+        if ( fields.containsAll(CustomerField.ALL) ) {
+            return sql;
+        }
+        StringJoiner columns = new StringJoiner(", ");
+        for ( CustomerField field : fields ) {
+            columns.add(field.getColumnName());
+        }
+        String columnList = columns.toString();
+        return projectionSqlCache.computeIfAbsent(columnList + " " + projectionSql,
+                key -> projectionSql.replace("{columns}", columnList));
+    }
+
     /**
      * Queries the database for Customer records based on whether the
      * given {guid} or {email} have been supplied a value.
@@ -85,33 +394,60 @@ public class CustomerServiceMySQL implements CustomerService<Customer> {
      * If either {guid} and {email} are null (or not null) then use
      * the generic SQL to return all Customer records from the database.
      *
+     * Only the columns of the given {fields} are selected, and all other
+     * fields of the returned Customers are null.
+     *
+     * If the database cannot be reached a CustomerServiceUnavailableException
+     * is thrown, and any other failure is a CustomerServiceException.
+     *
      * @param guid
      * @param email
+     * @param fields
      * @return
+     * @throws CustomerServiceException
+     */
+    private List<Customer> getCustomers(String guid, String email, Set<CustomerField> fields) throws CustomerServiceException {
+        return getCustomers(guid, email, fields, this::connect);
+    }
+
+    /**
+     * Same as getCustomers(guid, email, fields), on a connection opened
+     * by {opener}.
      */
-    private List<Customer> getCustomers(String guid, String email) {
+    private List<Customer> getCustomers(String guid, String email, Set<CustomerField> fields,
+                                        Callable<Connection> opener) throws CustomerServiceException {
         List<Customer> listOfCustomers = new ArrayList<>();
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         try {
-            connection = getConnection();
+            connection = getConnection(Objects.isNull(guid) != Objects.isNull(email) ? Lane.POINT_READ : Lane.SCAN, opener);
+            String sqlKey = "database.select_all_customers";
             if ( Objects.nonNull(guid) && Objects.isNull(email) ) {
-                preparedStatement = connection.prepareStatement(this.selectCustomerByGuidSql);
+                sqlKey = "database.select_customer_by_guid";
+                preparedStatement = connection.prepareStatement(
+                        selectSql(this.selectCustomerByGuidSql, this.selectCustomerByGuidProjectionSql, fields));
                 preparedStatement.setString(1, guid);
             }
             if ( Objects.isNull(guid) && Objects.nonNull(email) ) {
-                preparedStatement = connection.prepareStatement(this.selectCustomerByEmailSql);
+                sqlKey = "database.select_customer_by_email";
+                preparedStatement = connection.prepareStatement(
+                        selectSql(this.selectCustomerByEmailSql, this.selectCustomerByEmailProjectionSql, fields));
                 preparedStatement.setString(1, email);
             }
             if ( Objects.isNull(preparedStatement) ) {
-                preparedStatement = connection.prepareStatement(this.selectAllCustomersSql);
+                preparedStatement = connection.prepareStatement(
+                        selectSql(this.selectAllCustomersSql, this.selectAllCustomersProjectionSql, fields));
             }
             ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                listOfCustomers.add(fromResultSet(resultSet));
-            }
+            mapRows(resultSet, sqlKey, row -> listOfCustomers.add(fromResultSet(row, fields)));
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (SQLRecoverableException | SQLTransientException | SQLNonTransientConnectionException ex) {
+            LOGGER.info("Exception reading Customers: " + ex.getMessage());
+            throw new CustomerServiceUnavailableException(ex.getMessage());
         } catch (Exception ex) {
-            LOGGER.info("Exception: " + ex.getMessage());
+            LOGGER.info("Exception reading Customers: " + ex.getMessage());
+            throw new CustomerServiceException(ex.getMessage());
         } finally {
             try {
                 if (Objects.nonNull(preparedStatement) ) {
@@ -131,68 +467,199 @@ public class CustomerServiceMySQL implements CustomerService<Customer> {
         return listOfCustomers;
     }
 
+    /**
+     * Reads as readCustomers(guid, email, fields) does, along with the
+     * CustomerCache generation taken before, so that a Customer changed
+     * while the read ran is not cached in its old form. The generation is
+     * taken here, by the read shared through readFlights, rather than by
+     * each caller, as the read may have begun before a caller arrived.
+     */
+    private Read read(String guid, String email, Set<CustomerField> fields) throws CustomerServiceException {
+        long generation = customerCache.generation();
+        return new Read(readCustomers(guid, email, fields), generation);
+    }
+
+    /**
+     * Reads as getCustomers(guid, email, fields) does, but from the
+     * database.read_endpoints if there are any. A read that one endpoint
+     * is slow to answer is hedged on the next (see Hedge), and the first
+     * answer is returned. The answer may lag the latest writes by the
+     * replication delay, so it must not be cached.
+     */
+    private List<Customer> readCustomers(String guid, String email, Set<CustomerField> fields) throws CustomerServiceException {
+        if ( readEndpoints.isEmpty() ) {
+            return getCustomers(guid, email, fields);
+        }
+        Span span = Span.current();
+        try {
+            return hedge.execute(endpoint -> {
+                ReadEndpoint readEndpoint = readEndpoints.get(endpoint);
+                try (Scope ignored = span.makeCurrent()) {
+                    return getCustomers(guid, email, fields,
+                            () -> open(readEndpoint.url(), readEndpoint.circuitBreaker()));
+                }
+            });
+        } catch (CustomerServiceException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new CustomerServiceException(ex.getMessage());
+        }
+    }
+
+    @Override
+    @WithSpan
+    public List<Customer> getAll() throws CustomerServiceException {
+        return getAll(CustomerField.ALL);
+    }
+
+    /**
+     * Same as getAll(), but only the given {fields} are read from the
+     * database and set on the returned Customers.
+     */
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.select_all_customers")
+    public List<Customer> getAll(Set<CustomerField> fields) throws CustomerServiceException {
+        long readGeneration = customerCache.generation();
+        List<Customer> customers = getCustomers(null, null, fields);
+        if ( fields.containsAll(CustomerField.ALL) ) {
+            customerCache.putAll(customers, readGeneration);
+        }
+        return customers;
+    }
+
     @Override
-    public List<Customer> getAll() {
-        return getCustomers(null, null);
+    @WithSpan
+    public Optional<Customer> getByGuid(String guid) throws CustomerServiceException {
+        return getByGuid(guid, CustomerField.ALL);
     }
 
+    /**
+     * Same as getByGuid(guid), but only the given {fields} are read from
+     * the database and set on the returned Customer.
+     *
+     * If customers.cache.ttl_seconds is set, a Customer last read or
+     * written less than that long ago is answered from the CustomerCache.
+     * Writes by other replicas only reach the cache through the
+     * CustomerChangeBus, so without one the TTL bounds how stale a read is.
+     * A read is not cached if its Customer changed while it ran, see
+     * CustomerCache, nor if it was answered by a database.read_endpoints,
+     * as a replica may not have applied the latest write yet.
+     *
+     * Concurrent lookups of the same guid and {fields} share a single
+     * database query and its result, so a hot Customer is read by at most
+     * one query at a time.
+     */
     @Override
-    public Optional<Customer> getByGuid(String guid) {
-        List<Customer> customers = getCustomers(guid, null);
+    @WithSpan
+    @Recorded(sqlKey = "database.select_customer_by_guid")
+    public Optional<Customer> getByGuid(String guid, Set<CustomerField> fields) throws CustomerServiceException {
+        CustomerBloomFilter.Answer filtered = customerBloomFilter.checkGuid(guid);
+        if ( filtered == CustomerBloomFilter.Answer.ABSENT ) {
+            return Optional.empty();
+        }
+        if ( cacheTtlMillis > 0 ) {
+            Optional<CachedValue<Customer>> cached = customerCache.getByGuid(guid, fields);
+            if ( isFresh(cached) ) {
+                return Optional.of(cached.get().getValue());
+            }
+        }
+        Read read = readFlights.execute(new ReadKey(CustomerField.GUID, guid, fields),
+                () -> read(guid, null, fields));
+        List<Customer> customers = read.customers();
         if ( customers.isEmpty() ) {
+            customerBloomFilter.recordFalsePositive(filtered);
             return Optional.empty();
         } else {
+            if ( fields.containsAll(CustomerField.ALL) && readEndpoints.isEmpty() ) {
+                customerCache.put(customers.get(0), read.generation());
+            }
             return Optional.ofNullable(customers.get(0));
         }
     }
 
     @Override
-    public Optional<Customer> getByEmail(String email) {
-        List<Customer> customers = getCustomers(null, email);
+    @WithSpan
+    public Optional<Customer> getByEmail(String email) throws CustomerServiceException {
+        return getByEmail(email, CustomerField.ALL);
+    }
+
+    /**
+     * Same as getByEmail(email), but only the given {fields} are read from
+     * the database and set on the returned Customer. Answered from the
+     * CustomerCache, and coalesced with identical concurrent lookups, as
+     * getByGuid(guid, fields) is. Emails are matched ignoring case, on the
+     * indexed emailKey column that the database keeps as LOWER(email).
+     */
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.select_customer_by_email")
+    public Optional<Customer> getByEmail(String email, Set<CustomerField> fields) throws CustomerServiceException {
+        CustomerBloomFilter.Answer filtered = customerBloomFilter.checkEmail(email);
+        if ( filtered == CustomerBloomFilter.Answer.ABSENT ) {
+            return Optional.empty();
+        }
+        if ( cacheTtlMillis > 0 ) {
+            Optional<CachedValue<Customer>> cached = customerCache.getByEmail(email, fields);
+            if ( isFresh(cached) ) {
+                return Optional.of(cached.get().getValue());
+            }
+        }
+        Read read = readFlights.execute(
+                new ReadKey(CustomerField.EMAIL, Objects.isNull(email) ? null : email.toLowerCase(Locale.ROOT), fields),
+                () -> read(null, email, fields));
+        List<Customer> customers = read.customers();
         if ( customers.isEmpty() ) {
+            customerBloomFilter.recordFalsePositive(filtered);
             return Optional.empty();
         } else {
+            if ( fields.containsAll(CustomerField.ALL) && readEndpoints.isEmpty() ) {
+                customerCache.put(customers.get(0), read.generation());
+            }
             return Optional.ofNullable(customers.get(0));
         }
     }
 
     @Override
-    public Customer insert(Customer customer) throws CustomerServiceException {
-        /*
-         * Simple validations.
-         */
-        if ( Objects.isNull(customer) ) {
-            throw new CustomerServiceException("Customer object may not be null.");
-        }
-        try {
-            customer.validate();
-        } catch (Exception ex) {
-            throw new CustomerServiceException(ex.getMessage());
-        }
-        if ( Objects.isNull(customer.getGuid()) ) {
-            customer.setGuid(UUID.randomUUID().toString());
+    @WithSpan
+    public List<Customer> getByPhone(String phone) throws CustomerServiceException {
+        return getByPhone(phone, CustomerField.ALL);
+    }
+
+    /**
+     * Same as getByPhone(phone), but only the given {fields} are read from
+     * the database and set on the returned Customers.
+     *
+     * {phone} and the stored numbers are compared in E.164 (see
+     * PhoneNumbers) on the indexed phoneKey column, so the number matches
+     * however either was formatted. A {phone} that is not a phone number
+     * matches nothing.
+     */
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.select_customers_by_phone")
+    public List<Customer> getByPhone(String phone, Set<CustomerField> fields) throws CustomerServiceException {
+        String phoneKey = PhoneNumbers.normalize(phone, phoneCountryCode);
+        if ( Objects.isNull(phoneKey) ) {
+            return List.of();
         }
-        /*
-         * Execute the insert operation.
-         */
+        List<Customer> listOfCustomers = new ArrayList<>();
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         try {
-            connection = getConnection();
-            preparedStatement = connection.prepareStatement(this.insertCustomerSql);
-            preparedStatement.setString(1, customer.getGuid());
-            preparedStatement.setString(2, customer.getNamePrefix());
-            preparedStatement.setString(3, customer.getNameSurname());
-            preparedStatement.setString(4, customer.getNameMiddle());
-            preparedStatement.setString(5, customer.getNameFamily());
-            preparedStatement.setString(6, customer.getNameSuffix());
-            preparedStatement.setString(7, customer.getEmail());
-            preparedStatement.setString(8, customer.getPhoneNumber());
-            preparedStatement.execute();
-            connection.close();
-            LOGGER.info("Inserted Customer with guid='"+customer.getGuid()+"'");
+            connection = getConnection(Lane.POINT_READ);
+            preparedStatement = connection.prepareStatement(
+                    selectSql(this.selectCustomersByPhoneSql, this.selectCustomersByPhoneProjectionSql, fields));
+            preparedStatement.setString(1, phoneKey);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            mapRows(resultSet, "database.select_customers_by_phone", row -> listOfCustomers.add(fromResultSet(row, fields)));
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (SQLRecoverableException | SQLTransientException | SQLNonTransientConnectionException ex) {
+            LOGGER.info("Exception reading Customers by phone: " + ex.getMessage());
+            throw new CustomerServiceUnavailableException(ex.getMessage());
         } catch (Exception ex) {
-            LOGGER.info("Exception inserting Customer: " + ex.getMessage());
+            LOGGER.info("Exception reading Customers by phone: " + ex.getMessage());
             throw new CustomerServiceException(ex.getMessage());
         } finally {
             try {
@@ -210,53 +677,113 @@ public class CustomerServiceMySQL implements CustomerService<Customer> {
                 LOGGER.info("Exception closing database connection: " + ex.getMessage());
             }
         }
-        /*
-         * Return the inserted customer.
-         */
-        return customer;
+        return listOfCustomers;
     }
 
-    @Override
-    public Customer update(String guid, Customer customer) throws CustomerServiceException, CustomerNotFoundException {
-        /*
-         * Simple validations.
-         */
-        if ( Objects.isNull(guid) ) {
-            throw new CustomerServiceException("guid of Customer to update may not be null.");
-        }
-        if ( Objects.isNull(customer) ) {
-            throw new CustomerServiceException("New Customer may not be null.");
+    /**
+     * The phoneKey column of {customer}, see PhoneNumbers.
+     */
+    private String phoneKey(Customer customer) {
+        return PhoneNumbers.normalize(customer.getPhoneNumber(), phoneCountryCode);
+    }
+
+    /**
+     * Default country code of phone numbers stored without one.
+     */
+    public String getPhoneCountryCode() {
+        return phoneCountryCode;
+    }
+
+    /**
+     * Reads the complete Customer with {guid} straight from the database,
+     * for use by a write. The CustomerCache may still hold the Customer as
+     * it was before the write, and the Bloom filters may not know yet of a
+     * Customer just inserted by another replica, so neither is consulted.
+     */
+    private Optional<Customer> getForWrite(String guid) throws CustomerServiceException {
+        List<Customer> customers = getCustomers(guid, null, CustomerField.ALL);
+        return customers.isEmpty() ? Optional.empty() : Optional.of(customers.get(0));
+    }
+
+    private boolean isFresh(Optional<CachedValue<Customer>> cached) {
+        if ( cached.isPresent() && System.currentTimeMillis() - cached.get().getCachedAtMillis() < cacheTtlMillis ) {
+            cacheHitCounter.inc();
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Reads the current complete Customers of {guids} straight from the
+     * database, bypassing the Bloom filters and the CustomerCache, and
+     * returns them by guid. Guids that do not exist are left out. Used by
+     * the CustomerChangeBus to re-read Customers changed by other replicas.
+     *
+     * @param guids
+     * @return
+     * @throws CustomerServiceException
+     */
+    @Recorded(sqlKey = "database.select_customers_by_guids")
+    public Map<String, Customer> getByGuidsFromDatabase(List<String> guids) throws CustomerServiceException {
+        Map<String, Customer> customers = new HashMap<>();
+        Connection connection = null;
         try {
-            customer.validate();
+            connection = getConnection(Lane.POINT_READ);
+            for ( int start = 0; start < guids.size(); start += bulkChunkSize ) {
+                List<String> chunk = guids.subList(start, Math.min(start + bulkChunkSize, guids.size()));
+                customers.putAll(selectByGuids(connection, this.selectCustomersByGuidsSql, chunk));
+            }
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (SQLRecoverableException | SQLTransientException | SQLNonTransientConnectionException ex) {
+            LOGGER.info("Exception reading Customers: " + ex.getMessage());
+            throw new CustomerServiceUnavailableException(ex.getMessage());
         } catch (Exception ex) {
+            LOGGER.info("Exception reading Customers: " + ex.getMessage());
             throw new CustomerServiceException(ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception: " + ex.getMessage());
+            }
         }
-        Optional<Customer> oldCustomer = getByGuid(guid);
-        if ( oldCustomer.isEmpty() ) {
-            throw new CustomerNotFoundException("Customer with guid '"+guid+"' cannot be found and therefore cannot be updated.");
-        }
-        /*
-         * Execute the update operation.
-         */
+        return customers;
+    }
+
+    /**
+     * Passes every Customer in the database to {consumer}, reading only the
+     * columns of the given {fields}. Rows are streamed from the database one
+     * at a time rather than loaded into a List, so memory use does not grow
+     * with the size of the Customers table.
+     *
+     * @param fields
+     * @param consumer
+     * @throws CustomerServiceException
+     */
+    @Override
+    @Recorded(sqlKey = "database.select_all_customers")
+    public void scanAll(Set<CustomerField> fields, Consumer<Customer> consumer) throws CustomerServiceException {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         try {
-            connection = getConnection();
-            preparedStatement = connection.prepareStatement(this.updateCustomerSql);
-            preparedStatement.setString(1, customer.getNamePrefix());
-            preparedStatement.setString(2, customer.getNameSurname());
-            preparedStatement.setString(3, customer.getNameMiddle());
-            preparedStatement.setString(4, customer.getNameFamily());
-            preparedStatement.setString(5, customer.getNameSuffix());
-            preparedStatement.setString(6, customer.getEmail());
-            preparedStatement.setString(7, customer.getPhoneNumber());
-            preparedStatement.setString(8, guid);
-            preparedStatement.execute();
-            connection.close();
-            LOGGER.info("Updated Customer with guid='"+guid+"'");
+            connection = getConnection(Lane.SCAN);
+            preparedStatement = connection.prepareStatement(
+                    selectSql(this.selectAllCustomersSql, this.selectAllCustomersProjectionSql, fields),
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            /*
+             * Integer.MIN_VALUE tells MySQL Connector/J to stream the result set.
+             */
+            preparedStatement.setFetchSize(Integer.MIN_VALUE);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            mapRows(resultSet, "database.select_all_customers", row -> consumer.accept(fromResultSet(row, fields)));
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
         } catch (Exception ex) {
-            LOGGER.info("Exception updating Customer with guid='"+guid+"': " + ex.getMessage());
+            LOGGER.info("Exception scanning Customers: " + ex.getMessage());
             throw new CustomerServiceException(ex.getMessage());
         } finally {
             try {
@@ -274,38 +801,47 @@ public class CustomerServiceMySQL implements CustomerService<Customer> {
                 LOGGER.info("Exception closing database connection: " + ex.getMessage());
             }
         }
-        /*
-         * Return the updated customer.
-         */
-        return getByGuid(guid).get();
     }
 
+    /**
+     * Returns at most {limit} Customers in guid order whose guid is at
+     * least {from}, greater than {after} unless it is null, and less than
+     * {to} unless it is null. A range of guids is read page by page by
+     * passing the guid of the last Customer of a page as {after}, which
+     * keeps no cursor open on the database between pages.
+     *
+     * Only the given {fields} are read, but the guid always is, so that
+     * the next page can be requested.
+     */
     @Override
-    public Customer delete(String guid) throws CustomerServiceException, CustomerNotFoundException {
-        /*
-         * Simple validations.
-         */
-        if ( Objects.isNull(guid) ) {
-            throw new CustomerServiceException("guid of Customer to delete may not be null.");
-        }
-        Optional<Customer> oldCustomer = getByGuid(guid);
-        if ( oldCustomer.isEmpty() ) {
-            throw new CustomerNotFoundException("Customer with guid '"+guid+"' cannot be found and therefore cannot be deleted.");
-        }
-        /*
-         * Execute the delete operation.
-         */
+    @WithSpan
+    @Recorded(sqlKey = "database.select_customers_range")
+    public List<Customer> getRange(String from, String after, String to, int limit,
+                                   Set<CustomerField> fields) throws CustomerServiceException {
+        Set<CustomerField> selected = EnumSet.of(CustomerField.GUID);
+        selected.addAll(fields);
+        List<Customer> listOfCustomers = new ArrayList<>();
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         try {
-            connection = getConnection();
-            preparedStatement = connection.prepareStatement(this.deleteCustomerSql);
-            preparedStatement.setString(1, guid);
-            preparedStatement.execute();
-            connection.close();
-            LOGGER.info("Deleted Customer with guid='"+guid+"'");
+            connection = getConnection(Lane.SCAN);
+            preparedStatement = connection.prepareStatement(
+                    selectSql(this.selectCustomersRangeSql, this.selectCustomersRangeProjectionSql, selected));
+            preparedStatement.setString(1, from);
+            preparedStatement.setString(2, after);
+            preparedStatement.setString(3, after);
+            preparedStatement.setString(4, to);
+            preparedStatement.setString(5, to);
+            preparedStatement.setInt(6, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            mapRows(resultSet, "database.select_customers_range", row -> listOfCustomers.add(fromResultSet(row, selected)));
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (SQLRecoverableException | SQLTransientException | SQLNonTransientConnectionException ex) {
+            LOGGER.info("Exception reading range of Customers: " + ex.getMessage());
+            throw new CustomerServiceUnavailableException(ex.getMessage());
         } catch (Exception ex) {
-            LOGGER.info("Exception deleting Customer with guid='"+guid+"': " + ex.getMessage());
+            LOGGER.info("Exception reading range of Customers: " + ex.getMessage());
             throw new CustomerServiceException(ex.getMessage());
         } finally {
             try {
@@ -323,27 +859,1079 @@ public class CustomerServiceMySQL implements CustomerService<Customer> {
                 LOGGER.info("Exception closing database connection: " + ex.getMessage());
             }
         }
-        /*
-         * Return deleted customer.
-         */
-        return oldCustomer.get();
+        return listOfCustomers;
+    }
+
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.select_customers_changed_since")
+    public ChangeSet<Customer> getChangedSince(String token, int limit) throws CustomerServiceException {
+        return getChangedSince(ChangePosition.decode(Objects.isNull(token) ? "" : token), limit);
+    }
+
+    /**
+     * Same as getChangedSince(token, limit), from the decoded {since}.
+     *
+     * Customers are read in (updatedAt, guid) order from the
+     * CustomersUpdatedAt index, and deletions in (deletedAt, guid) order
+     * from the CustomerTombstones table, {limit} + 1 rows of each. Merged
+     * in that order, their first {limit} are the first {limit} changes of
+     * both, and any rows left over mean there are more.
+     *
+     * updatedAt is the time of the write, not of its commit, so a write
+     * still committing could otherwise appear behind a position already
+     * handed out. Only changes at least customers.changed_since.settle_seconds
+     * old are returned, which covers any transaction shorter than that.
+     */
+    private ChangeSet<Customer> getChangedSince(ChangePosition since, int limit) throws CustomerServiceException {
+        int pageSize = limit <= 0 ? changesDefaultLimit : Math.min(limit, changesMaxLimit);
+        long retainedMicros = (System.currentTimeMillis() - tombstoneRetentionDays * 24 * 60 * 60 * 1000) * 1000;
+        if ( since.micros() > 0 && since.micros() < retainedMicros ) {
+            throw new CustomerChangesExpiredException("Changes are only kept for " + tombstoneRetentionDays
+                    + " days, get all Customers and ask for the changes since then instead.");
+        }
+        List<Change> changes = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = getConnection(Lane.SCAN);
+            purgeTombstones(connection);
+            preparedStatement = connection.prepareStatement(this.selectCustomersChangedSinceSql);
+            bindChangedSince(preparedStatement, since, pageSize + 1);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            mapRows(resultSet, "database.select_customers_changed_since", row -> {
+                Customer customer = fromResultSet(row, CustomerField.ALL);
+                changes.add(new Change(changePosition(row), customer.getGuid(), customer));
+            });
+            preparedStatement.close();
+            preparedStatement = connection.prepareStatement(this.selectCustomerTombstonesSinceSql);
+            bindChangedSince(preparedStatement, since, pageSize + 1);
+            resultSet = preparedStatement.executeQuery();
+            mapRows(resultSet, "database.select_customer_tombstones_since",
+                    row -> changes.add(new Change(changePosition(row), row.getString("guid"), null)));
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (SQLRecoverableException | SQLTransientException | SQLNonTransientConnectionException ex) {
+            LOGGER.info("Exception reading changed Customers: " + ex.getMessage());
+            throw new CustomerServiceUnavailableException(ex.getMessage());
+        } catch (Exception ex) {
+            LOGGER.info("Exception reading changed Customers: " + ex.getMessage());
+            throw new CustomerServiceException(ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing prepared statement: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing database connection: " + ex.getMessage());
+            }
+        }
+        changes.sort(Comparator.comparing(Change::position));
+        boolean more = changes.size() > pageSize;
+        List<Change> page = changes.subList(0, Math.min(changes.size(), pageSize));
+        /*
+         * A guid deleted and inserted again, or changed twice, is only
+         * reported as it was last.
+         */
+        Map<String, Change> latest = new LinkedHashMap<>();
+        for ( Change change : page ) {
+            latest.remove(change.guid());
+            latest.put(change.guid(), change);
+        }
+        List<Customer> changed = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for ( Change change : latest.values() ) {
+            if ( Objects.isNull(change.customer()) ) {
+                deleted.add(change.guid());
+            } else {
+                changed.add(change.customer());
+            }
+        }
+        ChangePosition next = page.isEmpty() ? since : page.get(page.size() - 1).position();
+        return new ChangeSet<>(changed, deleted, next.encode(), more);
+    }
+
+    private void bindChangedSince(PreparedStatement preparedStatement, ChangePosition since, int limit) throws SQLException {
+        BigDecimal seconds = BigDecimal.valueOf(since.micros(), 6);
+        preparedStatement.setBigDecimal(1, seconds);
+        preparedStatement.setBigDecimal(2, seconds);
+        preparedStatement.setString(3, since.guid());
+        preparedStatement.setLong(4, changesSettleSeconds);
+        preparedStatement.setInt(5, limit);
+    }
+
+    private static ChangePosition changePosition(ResultSet resultSet) throws SQLException {
+        return new ChangePosition(resultSet.getBigDecimal("changedAt").movePointRight(6).longValue(),
+                resultSet.getString("guid"));
+    }
+
+    /**
+     * Deletes the tombstones older than
+     * customers.changed_since.tombstone_retention_days, at most once an hour.
+     */
+    private void purgeTombstones(Connection connection) {
+        long now = System.currentTimeMillis();
+        if ( now - tombstonesPurgedAtMillis < 60 * 60 * 1000 ) {
+            return;
+        }
+        tombstonesPurgedAtMillis = now;
+        try (PreparedStatement preparedStatement = connection.prepareStatement(this.purgeCustomerTombstonesSql)) {
+            preparedStatement.setLong(1, tombstoneRetentionDays);
+            int purged = preparedStatement.executeUpdate();
+            LOGGER.info("Purged " + purged + " Customer tombstones.");
+        } catch (Exception ex) {
+            LOGGER.info("Exception purging Customer tombstones: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.insert_customer")
+    public Customer insert(Customer customer) throws CustomerServiceException {
+        /*
+         * Simple validations.
+         */
+        if ( Objects.isNull(customer) ) {
+            throw new CustomerServiceException("Customer object may not be null.");
+        }
+        try {
+            validate(customer);
+        } catch (Exception ex) {
+            throw new CustomerServiceException(ex.getMessage());
+        }
+        if ( Objects.isNull(customer.getGuid()) ) {
+            customer.setGuid(UUID.randomUUID().toString());
+        }
+        customerBloomFilter.add(customer.getGuid(), customer.getEmail());
+        /*
+         * Execute the insert operation.
+         */
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = getConnection(Lane.WRITE);
+            preparedStatement = connection.prepareStatement(this.insertCustomerSql);
+            preparedStatement.setString(1, customer.getGuid());
+            preparedStatement.setString(2, customer.getNamePrefix());
+            preparedStatement.setString(3, customer.getNameSurname());
+            preparedStatement.setString(4, customer.getNameMiddle());
+            preparedStatement.setString(5, customer.getNameFamily());
+            preparedStatement.setString(6, customer.getNameSuffix());
+            preparedStatement.setString(7, customer.getEmail());
+            preparedStatement.setString(8, customer.getPhoneNumber());
+            preparedStatement.setString(9, phoneKey(customer));
+            preparedStatement.execute();
+            connection.close();
+            LOGGER.info("Inserted Customer with guid='"+customer.getGuid()+"'");
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOGGER.info("Exception inserting Customer: " + ex.getMessage());
+            throw new CustomerServiceException(ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing prepared statement: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing database connection: " + ex.getMessage());
+            }
+        }
+        fireChange(CustomerChangeEvent.inserted(customer));
+        /*
+         * Return the inserted customer.
+         */
+        return customer;
+    }
+
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.update_customer")
+    public Customer update(String guid, Customer customer) throws CustomerServiceException, CustomerNotFoundException {
+        /*
+         * Simple validations.
+         */
+        if ( Objects.isNull(guid) ) {
+            throw new CustomerServiceException("guid of Customer to update may not be null.");
+        }
+        if ( Objects.isNull(customer) ) {
+            throw new CustomerServiceException("New Customer may not be null.");
+        }
+        try {
+            validate(customer);
+        } catch (Exception ex) {
+            throw new CustomerServiceException(ex.getMessage());
+        }
+        Optional<Customer> oldCustomer = getForWrite(guid);
+        if ( oldCustomer.isEmpty() ) {
+            throw new CustomerNotFoundException("Customer with guid '"+guid+"' cannot be found and therefore cannot be updated.");
+        }
+        customerBloomFilter.add(guid, customer.getEmail());
+        /*
+         * Execute the update operation.
+         */
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = getConnection(Lane.WRITE);
+            preparedStatement = connection.prepareStatement(this.updateCustomerSql);
+            preparedStatement.setString(1, customer.getNamePrefix());
+            preparedStatement.setString(2, customer.getNameSurname());
+            preparedStatement.setString(3, customer.getNameMiddle());
+            preparedStatement.setString(4, customer.getNameFamily());
+            preparedStatement.setString(5, customer.getNameSuffix());
+            preparedStatement.setString(6, customer.getEmail());
+            preparedStatement.setString(7, customer.getPhoneNumber());
+            preparedStatement.setString(8, phoneKey(customer));
+            preparedStatement.setString(9, guid);
+            preparedStatement.execute();
+            connection.close();
+            LOGGER.info("Updated Customer with guid='"+guid+"'");
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOGGER.info("Exception updating Customer with guid='"+guid+"': " + ex.getMessage());
+            throw new CustomerServiceException(ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing prepared statement: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing database connection: " + ex.getMessage());
+            }
+        }
+        /*
+         * Return the updated customer.
+         */
+        Customer updatedCustomer = getForWrite(guid).get();
+        fireChange(CustomerChangeEvent.updated(oldCustomer.get(), updatedCustomer));
+        return updatedCustomer;
+    }
+
+    /**
+     * Inserts or updates the Customer with {email} using a single
+     * INSERT ... ON DUPLICATE KEY UPDATE on the CustomersEmail unique index.
+     * A new guid is always generated for the insert case, so any guid
+     * supplied on {customer} is ignored. The stored Customer is then read
+     * back on the same connection, and its guid tells whether the row was
+     * created (it has the generated guid) or updated (it kept its own).
+     */
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.upsert_customer")
+    public UpsertResult<Customer> upsert(String email, Customer customer) throws CustomerServiceException {
+        /*
+         * Simple validations.
+         */
+        if ( Objects.isNull(email) ) {
+            throw new CustomerServiceException("email of Customer to upsert may not be null.");
+        }
+        if ( Objects.isNull(customer) ) {
+            throw new CustomerServiceException("Customer object may not be null.");
+        }
+        if ( Objects.isNull(customer.getEmail()) ) {
+            customer.setEmail(email);
+        }
+        if ( !email.equalsIgnoreCase(customer.getEmail()) ) {
+            throw new CustomerServiceException("Customer email must match the email of the Customer to upsert.");
+        }
+        try {
+            validate(customer);
+        } catch (Exception ex) {
+            throw new CustomerServiceException(ex.getMessage());
+        }
+        String newGuid = UUID.randomUUID().toString();
+        customerBloomFilter.add(newGuid, email);
+        /*
+         * Execute the upsert operation and read back the stored customer.
+         */
+        Customer storedCustomer = null;
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = getConnection(Lane.WRITE);
+            preparedStatement = connection.prepareStatement(this.upsertCustomerSql);
+            preparedStatement.setString(1, newGuid);
+            preparedStatement.setString(2, customer.getNamePrefix());
+            preparedStatement.setString(3, customer.getNameSurname());
+            preparedStatement.setString(4, customer.getNameMiddle());
+            preparedStatement.setString(5, customer.getNameFamily());
+            preparedStatement.setString(6, customer.getNameSuffix());
+            preparedStatement.setString(7, customer.getEmail());
+            preparedStatement.setString(8, customer.getPhoneNumber());
+            preparedStatement.setString(9, phoneKey(customer));
+            preparedStatement.execute();
+            preparedStatement.close();
+            preparedStatement = connection.prepareStatement(this.selectCustomerByEmailSql);
+            preparedStatement.setString(1, email);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            if ( resultSet.next() ) {
+                storedCustomer = fromResultSet(resultSet, CustomerField.ALL);
+            }
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOGGER.info("Exception upserting Customer: " + ex.getMessage());
+            throw new CustomerServiceException(ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing prepared statement: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing database connection: " + ex.getMessage());
+            }
+        }
+        if ( Objects.isNull(storedCustomer) ) {
+            throw new CustomerServiceException("Customer with email '"+email+"' could not be read after upsert.");
+        }
+        boolean created = newGuid.equals(storedCustomer.getGuid());
+        if ( created ) {
+            LOGGER.info("Upsert inserted Customer with guid='"+storedCustomer.getGuid()+"'");
+            fireChange(CustomerChangeEvent.inserted(storedCustomer));
+        } else {
+            LOGGER.info("Upsert updated Customer with guid='"+storedCustomer.getGuid()+"'");
+            fireChange(CustomerChangeEvent.updated(null, storedCustomer));
+        }
+        /*
+         * Return the stored customer.
+         */
+        return new UpsertResult<>(storedCustomer, created);
+    }
+
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.delete_customer")
+    public Customer delete(String guid) throws CustomerServiceException, CustomerNotFoundException {
+        /*
+         * Simple validations.
+         */
+        if ( Objects.isNull(guid) ) {
+            throw new CustomerServiceException("guid of Customer to delete may not be null.");
+        }
+        Optional<Customer> oldCustomer = getForWrite(guid);
+        if ( oldCustomer.isEmpty() ) {
+            throw new CustomerNotFoundException("Customer with guid '"+guid+"' cannot be found and therefore cannot be deleted.");
+        }
+        /*
+         * Execute the delete operation.
+         */
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = getConnection(Lane.WRITE);
+            connection.setAutoCommit(false);
+            preparedStatement = connection.prepareStatement(this.deleteCustomerSql);
+            preparedStatement.setString(1, guid);
+            if ( preparedStatement.executeUpdate() > 0 ) {
+                insertTombstones(connection, List.of(guid));
+            }
+            connection.commit();
+            connection.close();
+            LOGGER.info("Deleted Customer with guid='"+guid+"'");
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            if ( Objects.nonNull(connection) ) {
+                rollback(connection);
+            }
+            LOGGER.info("Exception deleting Customer with guid='"+guid+"': " + ex.getMessage());
+            throw new CustomerServiceException(ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing prepared statement: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing database connection: " + ex.getMessage());
+            }
+        }
+        fireChange(CustomerChangeEvent.deleted(oldCustomer.get()));
+        /*
+         * Return deleted customer.
+         */
+        return oldCustomer.get();
+    }
+
+    /**
+     * Deletes the Customers with the given {guids} in chunks of
+     * database.bulk.chunk_size. Each chunk is one transaction on a single
+     * connection: the rows are locked and read with one SELECT ... FOR UPDATE
+     * (their contents are needed for the results and change events), then
+     * deleted with one batch of DELETE statements and committed. If a chunk
+     * fails it is rolled back and all of its items are reported as FAILED,
+     * and the next chunk is still tried.
+     */
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.delete_customer")
+    public List<BulkItemResult<Customer>> bulkDelete(List<String> guids) throws CustomerServiceException {
+        checkBulkSize(guids);
+        List<BulkItemResult<Customer>> results = new ArrayList<>(guids.size());
+        Connection connection = null;
+        try {
+            connection = getConnection(Lane.WRITE);
+            connection.setAutoCommit(false);
+            for ( int start = 0; start < guids.size(); start += bulkChunkSize ) {
+                List<String> chunk = guids.subList(start, Math.min(start + bulkChunkSize, guids.size()));
+                results.addAll(deleteChunk(connection, chunk));
+            }
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOGGER.info("Exception bulk deleting Customers: " + ex.getMessage());
+            throw new CustomerServiceException(ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing database connection: " + ex.getMessage());
+            }
+        }
+        LOGGER.info("Bulk deleted " + count(results, BulkItemResult.Status.DELETED) + " of " + guids.size() + " Customers");
+        return results;
+    }
+
+    private List<BulkItemResult<Customer>> deleteChunk(Connection connection, List<String> guids) {
+        List<BulkItemResult<Customer>> results = new ArrayList<>(guids.size());
+        PreparedStatement preparedStatement = null;
+        try {
+            Map<String, Customer> existing = selectForUpdate(connection, guids);
+            preparedStatement = connection.prepareStatement(this.deleteCustomerSql);
+            List<Integer> batched = new ArrayList<>();
+            for ( int i = 0; i < guids.size(); i++ ) {
+                String guid = guids.get(i);
+                if ( Objects.isNull(guid) ) {
+                    results.add(new BulkItemResult<>(null, BulkItemResult.Status.INVALID, "guid may not be null.", null));
+                } else if ( !existing.containsKey(guid) ) {
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.NOT_FOUND,
+                            "Customer with guid '"+guid+"' cannot be found.", null));
+                } else {
+                    preparedStatement.setString(1, guid);
+                    preparedStatement.addBatch();
+                    batched.add(i);
+                    results.add(null);
+                }
+            }
+            String[] errors = executeBatch(preparedStatement, batched.size());
+            Set<String> tombstones = new LinkedHashSet<>();
+            for ( int b = 0; b < batched.size(); b++ ) {
+                if ( Objects.isNull(errors[b]) ) {
+                    tombstones.add(guids.get(batched.get(b)));
+                }
+            }
+            insertTombstones(connection, tombstones);
+            connection.commit();
+            List<CustomerChangeEvent> events = new ArrayList<>();
+            for ( int b = 0; b < batched.size(); b++ ) {
+                int i = batched.get(b);
+                String guid = guids.get(i);
+                if ( Objects.nonNull(errors[b]) ) {
+                    results.set(i, new BulkItemResult<>(guid, BulkItemResult.Status.FAILED, errors[b], null));
+                } else {
+                    /*
+                     * A guid listed twice is only deleted once.
+                     */
+                    Customer deleted = existing.remove(guid);
+                    if ( Objects.isNull(deleted) ) {
+                        results.set(i, new BulkItemResult<>(guid, BulkItemResult.Status.NOT_FOUND,
+                                "Customer with guid '"+guid+"' cannot be found.", null));
+                    } else {
+                        results.set(i, new BulkItemResult<>(guid, BulkItemResult.Status.DELETED, null, deleted));
+                        events.add(CustomerChangeEvent.deleted(deleted));
+                    }
+                }
+            }
+            events.forEach(this::fireChange);
+        } catch (Exception ex) {
+            LOGGER.info("Exception bulk deleting chunk of " + guids.size() + " Customers: " + ex.getMessage());
+            rollback(connection);
+            return failed(guids, ex);
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing prepared statement: " + ex.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Applies the given {patches} in chunks, in the same way as bulkDelete().
+     * Each patch is merged into the locked row it refers to, using only the
+     * non-null fields of the patch, the merged Customer is validated, and all
+     * valid Customers of the chunk are written with one batch of UPDATE
+     * statements. An item that breaks a constraint, e.g. a duplicate email,
+     * is reported as FAILED without failing the rest of the chunk. A guid
+     * may only be patched once per request, later patches of the same guid
+     * are INVALID.
+     */
+    @Override
+    @WithSpan
+    @Recorded(sqlKey = "database.update_customer")
+    public List<BulkItemResult<Customer>> bulkUpdate(List<Customer> patches) throws CustomerServiceException {
+        checkBulkSize(patches);
+        List<BulkItemResult<Customer>> results = new ArrayList<>(patches.size());
+        Set<String> patchedGuids = new HashSet<>();
+        Connection connection = null;
+        try {
+            connection = getConnection(Lane.WRITE);
+            connection.setAutoCommit(false);
+            for ( int start = 0; start < patches.size(); start += bulkChunkSize ) {
+                List<Customer> chunk = patches.subList(start, Math.min(start + bulkChunkSize, patches.size()));
+                results.addAll(updateChunk(connection, chunk, patchedGuids));
+            }
+        } catch (CustomerServiceUnavailableException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOGGER.info("Exception bulk updating Customers: " + ex.getMessage());
+            throw new CustomerServiceException(ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing database connection: " + ex.getMessage());
+            }
+        }
+        LOGGER.info("Bulk updated " + count(results, BulkItemResult.Status.UPDATED) + " of " + patches.size() + " Customers");
+        return results;
+    }
+
+    private List<BulkItemResult<Customer>> updateChunk(Connection connection, List<Customer> patches, Set<String> patchedGuids) {
+        List<BulkItemResult<Customer>> results = new ArrayList<>(patches.size());
+        List<String> guids = new ArrayList<>(patches.size());
+        for ( Customer patch : patches ) {
+            guids.add(Objects.isNull(patch) ? null : patch.getGuid());
+        }
+        PreparedStatement preparedStatement = null;
+        try {
+            Map<String, Customer> existing = selectForUpdate(connection, guids);
+            preparedStatement = connection.prepareStatement(this.updateCustomerSql);
+            List<Integer> batched = new ArrayList<>();
+            List<Customer> merged = new ArrayList<>();
+            for ( int i = 0; i < patches.size(); i++ ) {
+                String guid = guids.get(i);
+                if ( Objects.isNull(guid) ) {
+                    results.add(new BulkItemResult<>(null, BulkItemResult.Status.INVALID, "guid may not be null.", null));
+                    continue;
+                }
+                if ( !patchedGuids.add(guid) ) {
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.INVALID,
+                            "Customer with guid '"+guid+"' may only be patched once per request.", null));
+                    continue;
+                }
+                Customer oldCustomer = existing.get(guid);
+                if ( Objects.isNull(oldCustomer) ) {
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.NOT_FOUND,
+                            "Customer with guid '"+guid+"' cannot be found.", null));
+                    continue;
+                }
+                Customer newCustomer = patch(oldCustomer, patches.get(i));
+                try {
+                    newCustomer.validate();
+                } catch (Exception ex) {
+                    results.add(new BulkItemResult<>(guid, BulkItemResult.Status.INVALID, ex.getMessage(), null));
+                    continue;
+                }
+                preparedStatement.setString(1, newCustomer.getNamePrefix());
+                preparedStatement.setString(2, newCustomer.getNameSurname());
+                preparedStatement.setString(3, newCustomer.getNameMiddle());
+                preparedStatement.setString(4, newCustomer.getNameFamily());
+                preparedStatement.setString(5, newCustomer.getNameSuffix());
+                preparedStatement.setString(6, newCustomer.getEmail());
+                preparedStatement.setString(7, newCustomer.getPhoneNumber());
+                preparedStatement.setString(8, phoneKey(newCustomer));
+                preparedStatement.setString(9, guid);
+                preparedStatement.addBatch();
+                customerBloomFilter.add(guid, newCustomer.getEmail());
+                batched.add(i);
+                merged.add(newCustomer);
+                results.add(null);
+            }
+            String[] errors = executeBatch(preparedStatement, batched.size());
+            connection.commit();
+            List<CustomerChangeEvent> events = new ArrayList<>();
+            for ( int b = 0; b < batched.size(); b++ ) {
+                int i = batched.get(b);
+                String guid = guids.get(i);
+                if ( Objects.nonNull(errors[b]) ) {
+                    results.set(i, new BulkItemResult<>(guid, BulkItemResult.Status.FAILED, errors[b], null));
+                } else {
+                    results.set(i, new BulkItemResult<>(guid, BulkItemResult.Status.UPDATED, null, merged.get(b)));
+                    events.add(CustomerChangeEvent.updated(existing.get(guid), merged.get(b)));
+                }
+            }
+            events.forEach(this::fireChange);
+        } catch (Exception ex) {
+            LOGGER.info("Exception bulk updating chunk of " + patches.size() + " Customers: " + ex.getMessage());
+            rollback(connection);
+            return failed(guids, ex);
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing prepared statement: " + ex.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Checks that a bulk request is not null and within customers.bulk.max_items.
+     */
+    private void checkBulkSize(List<?> items) throws CustomerServiceException {
+        if ( Objects.isNull(items) ) {
+            throw new CustomerServiceException("List of Customers may not be null.");
+        }
+        if ( items.size() > bulkMaxItems ) {
+            throw new CustomerServiceException("At most " + bulkMaxItems + " Customers may be changed per request.");
+        }
+    }
+
+    /**
+     * Locks and reads the rows of the given non-null {guids} with a single
+     * SELECT ... FOR UPDATE, returning them by guid.
+     */
+    private Map<String, Customer> selectForUpdate(Connection connection, List<String> guids) throws Exception {
+        return selectByGuids(connection, this.selectCustomersByGuidsForUpdateSql, guids);
+    }
+
+    /**
+     * Reads the rows of the given non-null {guids} with a single SELECT,
+     * {sql} with {guids} replaced by one ? per guid, returning them by guid.
+     */
+    private Map<String, Customer> selectByGuids(Connection connection, String sql, List<String> guids) throws Exception {
+        Map<String, Customer> customers = new HashMap<>();
+        List<String> keys = guids.stream().filter(Objects::nonNull).distinct().toList();
+        if ( keys.isEmpty() ) {
+            return customers;
+        }
+        String expandedSql = sql
+                .replace("{guids}", String.join(", ", Collections.nCopies(keys.size(), "?")));
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(expandedSql);
+            for ( int i = 0; i < keys.size(); i++ ) {
+                preparedStatement.setString(i + 1, keys.get(i));
+            }
+            ResultSet resultSet = preparedStatement.executeQuery();
+            mapRows(resultSet, "database.select_customers_by_guids", row -> {
+                Customer customer = fromResultSet(row, CustomerField.ALL);
+                customers.put(customer.getGuid(), customer);
+            });
+        } finally {
+            if (Objects.nonNull(preparedStatement) ) {
+                preparedStatement.close();
+            }
+        }
+        return customers;
+    }
+
+    /**
+     * Records the deletion of the Customers with {guids} for
+     * getChangedSince(token, limit), in the transaction of {connection}.
+     */
+    private void insertTombstones(Connection connection, Collection<String> guids) throws SQLException {
+        if ( guids.isEmpty() ) {
+            return;
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(this.insertCustomerTombstoneSql)) {
+            for ( String guid : guids ) {
+                preparedStatement.setString(1, guid);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Executes the batch of {size} statements. Returns one entry per
+     * statement, null if it succeeded or the error message if it failed.
+     * Connector/J continues a batch after a failed statement by default,
+     * so one bad item does not fail the others.
+     */
+    private static String[] executeBatch(PreparedStatement preparedStatement, int size) throws SQLException {
+        String[] errors = new String[size];
+        if ( size == 0 ) {
+            return errors;
+        }
+        try {
+            preparedStatement.executeBatch();
+        } catch (BatchUpdateException ex) {
+            int[] counts = ex.getUpdateCounts();
+            for ( int i = 0; i < size; i++ ) {
+                if ( i >= counts.length || counts[i] == Statement.EXECUTE_FAILED ) {
+                    errors[i] = ex.getMessage();
+                }
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Returns {customer} with every non-null field of {patch} applied.
+     * The guid is never changed.
+     */
+    static Customer patch(Customer customer, Customer patch) {
+        Customer patched = new Customer();
+        patched.setGuid(customer.getGuid());
+        patched.setNamePrefix(orElse(patch.getNamePrefix(), customer.getNamePrefix()));
+        patched.setNameSuffix(orElse(patch.getNameSuffix(), customer.getNameSuffix()));
+        patched.setNameSurname(orElse(patch.getNameSurname(), customer.getNameSurname()));
+        patched.setNameMiddle(orElse(patch.getNameMiddle(), customer.getNameMiddle()));
+        patched.setNameFamily(orElse(patch.getNameFamily(), customer.getNameFamily()));
+        patched.setEmail(orElse(patch.getEmail(), customer.getEmail()));
+        patched.setPhoneNumber(orElse(patch.getPhoneNumber(), customer.getPhoneNumber()));
+        return patched;
+    }
+
+    /**
+     * Copies {customers}, for a lookup that shares the result of another.
+     */
+    private static List<Customer> copy(List<Customer> customers) {
+        List<Customer> copies = new ArrayList<>(customers.size());
+        for ( Customer customer : customers ) {
+            copies.add(CustomerRecord.from(customer).toCustomer());
+        }
+        return copies;
+    }
+
+    /**
+     * {value} if it is not null, otherwise {other}, which may be null.
+     */
+    private static String orElse(String value, String other) {
+        return Objects.nonNull(value) ? value : other;
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (Exception ex) {
+            LOGGER.info("Exception rolling back transaction: " + ex.getMessage());
+        }
+    }
+
+    private static List<BulkItemResult<Customer>> failed(List<String> guids, Exception ex) {
+        List<BulkItemResult<Customer>> results = new ArrayList<>(guids.size());
+        for ( String guid : guids ) {
+            results.add(new BulkItemResult<>(guid, BulkItemResult.Status.FAILED, ex.getMessage(), null));
+        }
+        return results;
+    }
+
+    private static long count(List<BulkItemResult<Customer>> results, BulkItemResult.Status status) {
+        return results.stream().filter(r -> r.getStatus() == status).count();
+    }
+
+    /**
+     * Runs customer.validate() in a span of its own.
+     */
+    private void validate(Customer customer) throws Exception {
+        Span span = tracer.spanBuilder("Customer.validate").startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            customer.validate();
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Notifies observers, e.g. the search index, of a change that has
+     * already been applied to the database. A failing observer must not
+     * turn a successful write into an error for the caller.
+     */
+    private void fireChange(CustomerChangeEvent event) {
+        try {
+            changeEvents.fire(event);
+        } catch (Exception ex) {
+            LOGGER.info("Exception notifying observers of " + event + ": " + ex.getMessage());
+        }
     }
 
     /**
      * Returns a database Connection and also performs any lazy initialization
      * of the database.
      *
+     * Connections are taken through the circuit breaker. While it is open a
+     * CustomerServiceUnavailableException is thrown straight away rather than
+     * waiting for the connection attempt to time out, and a failed connection
+     * attempt is reported as a CustomerServiceUnavailableException as well.
+     *
+     * Within a trace, getting the connection is traced as a span of its
+     * own, and so is every statement executed on it (see TracedConnection).
+     * Slow statements are recorded by the SlowQueryLog, which runs its
+     * EXPLAINs on connections of the scan lane.
+     *
+     * If the current request has a Deadline, its queries are bound by it
+     * (see DeadlineConnection), and once it has passed no connection is
+     * made and a CustomerServiceUnavailableException is thrown instead.
+     *
+     * The connection counts against the Bulkhead of {lane} until it is
+     * closed. When the lane has no connection free, this waits for one
+     * for at most database.bulkhead.queue_timeout_ms, or until the
+     * Deadline, and a CustomerServiceUnavailableException is thrown if
+     * none is free in time or too many are waiting already.
+     *
+     * @param lane
      * @return
      * @throws Exception
      */
-    public Connection getConnection() throws Exception {
+    public Connection getConnection(Lane lane) throws Exception {
+        return getConnection(lane, this::connect);
+    }
+
+    /**
+     * Same as getConnection(lane), with the connection opened by {opener}.
+     */
+    private Connection getConnection(Lane lane, Callable<Connection> opener) throws Exception {
+        CustomerConnectionEvent event = new CustomerConnectionEvent();
+        event.begin();
+        String outcome = "OK";
+        try {
+            return openConnection(lane, opener);
+        } catch (Exception ex) {
+            outcome = ex.getClass().getSimpleName();
+            throw ex;
+        } finally {
+            event.end();
+            if ( event.shouldCommit() ) {
+                event.lane = lane.name();
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    private Connection openConnection(Lane lane, Callable<Connection> opener) throws Exception {
+        Optional<Deadline> deadline = Deadline.current();
+        if ( deadline.isPresent() && deadline.get().isExpired() ) {
+            deadlineExceededCounter.inc();
+            throw new CustomerServiceUnavailableException("Request deadline exceeded.");
+        }
+        if ( !Span.current().getSpanContext().isValid() ) {
+            return bind(slowQueryLog.wrap(connect(lane, deadline, opener), this::explainConnection), deadline);
+        }
+        Span span = tracer.spanBuilder("CustomerServiceMySQL.getConnection").startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            return TracedConnection.wrap(bind(slowQueryLog.wrap(connect(lane, deadline, opener), this::explainConnection), deadline), tracer);
+        } catch (Exception ex) {
+            span.setStatus(StatusCode.ERROR, ex.getMessage());
+            throw ex;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Connection on which the SlowQueryLog runs an EXPLAIN. It is taken
+     * from the scan lane, so that EXPLAINs, which run while the database
+     * is already slow, wait their turn with the other background reads
+     * rather than open connections past the bulkheads.
+     */
+    private Connection explainConnection() throws Exception {
+        return getConnection(Lane.SCAN);
+    }
+
+    private Connection bind(Connection connection, Optional<Deadline> deadline) {
+        if ( deadline.isEmpty() ) {
+            return connection;
+        }
+        return DeadlineConnection.wrap(connection, deadline.get(), millis -> {
+            deadlineExceededCounter.inc();
+            wastedMillisCounter.inc(millis);
+        });
+    }
+
+    /**
+     * Opens a connection with {opener} and a permit of the Bulkhead of
+     * {lane}, which is released when the connection is closed.
+     */
+    private Connection connect(Lane lane, Optional<Deadline> deadline, Callable<Connection> opener) throws Exception {
+        Bulkhead bulkhead = bulkheads.get(lane);
+        bulkhead.acquire(Math.min(bulkheadQueueTimeoutMillis,
+                deadline.map(Deadline::remainingMillis).orElse(Long.MAX_VALUE)));
+        try {
+            return bulkhead.wrap(opener.call());
+        } catch (Exception ex) {
+            bulkhead.release();
+            throw ex;
+        }
+    }
+
+    private Connection connect() throws Exception {
+        Connection connection = open(url, circuitBreaker);
+        initializeDatabase(connection);
+        return connection;
+    }
+
+    /**
+     * Opens a connection to {url} through {circuitBreaker}.
+     */
+    private Connection open(String url, CircuitBreaker circuitBreaker) throws Exception {
         // below two lines are used for connectivity.
         Class.forName("com.mysql.cj.jdbc.Driver");
-        Connection connection = DriverManager.getConnection(url, user, password);
-        initializeDatabase(connection);
+        if ( !circuitBreaker.allowRequest() ) {
+            rejectedCounter.inc();
+            throw new CustomerServiceUnavailableException("Customer database is unavailable, retry in "
+                    + (circuitBreaker.getRetryAfterMillis() / 1000 + 1) + " seconds.");
+        }
+        Connection connection;
+        try {
+            connection = DriverManager.getConnection(url, user, password);
+        } catch (SQLException ex) {
+            circuitBreaker.recordFailure();
+            LOGGER.info("Exception connecting to database: " + ex.getMessage());
+            throw new CustomerServiceUnavailableException("Customer database is unavailable: " + ex.getMessage());
+        }
+        circuitBreaker.recordSuccess();
         return connection;
     }
 
+    @Gauge(name = "customerHedgeDelay",
+            unit = MetricUnits.MILLISECONDS,
+            absolute = true,
+            description = "Time a lookup by guid or email waits for its read endpoint before it is hedged")
+    public long getHedgeDelay() {
+        return hedge.getDelayMillis();
+    }
+
+    /**
+     * State of the database circuit breaker: 0 closed, 1 open, 2 half-open.
+     */
+    @Gauge(name = "customerDatabaseCircuitState",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "State of the database circuit breaker: 0 closed, 1 open, 2 half-open")
+    public int getCircuitState() {
+        return circuitBreaker.getState().ordinal();
+    }
+
+    @Gauge(name = "customerDatabasePointReadInUse",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Connections of the point read lane in use")
+    public int getPointReadInUse() {
+        return bulkheads.get(Lane.POINT_READ).getInUse();
+    }
+
+    @Gauge(name = "customerDatabasePointReadQueued",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Requests waiting for a connection of the point read lane")
+    public int getPointReadQueued() {
+        return bulkheads.get(Lane.POINT_READ).getQueued();
+    }
+
+    @Gauge(name = "customerDatabasePointReadRejected",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Requests rejected since startup because the point read lane was full")
+    public long getPointReadRejected() {
+        return bulkheads.get(Lane.POINT_READ).getRejected();
+    }
+
+    @Gauge(name = "customerDatabaseScanInUse",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Connections of the scan lane in use")
+    public int getScanInUse() {
+        return bulkheads.get(Lane.SCAN).getInUse();
+    }
+
+    @Gauge(name = "customerDatabaseScanQueued",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Requests waiting for a connection of the scan lane")
+    public int getScanQueued() {
+        return bulkheads.get(Lane.SCAN).getQueued();
+    }
+
+    @Gauge(name = "customerDatabaseScanRejected",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Requests rejected since startup because the scan lane was full")
+    public long getScanRejected() {
+        return bulkheads.get(Lane.SCAN).getRejected();
+    }
+
+    @Gauge(name = "customerDatabaseWriteInUse",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Connections of the write lane in use")
+    public int getWriteInUse() {
+        return bulkheads.get(Lane.WRITE).getInUse();
+    }
+
+    @Gauge(name = "customerDatabaseWriteQueued",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Requests waiting for a connection of the write lane")
+    public int getWriteQueued() {
+        return bulkheads.get(Lane.WRITE).getQueued();
+    }
+
+    @Gauge(name = "customerDatabaseWriteRejected",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Requests rejected since startup because the write lane was full")
+    public long getWriteRejected() {
+        return bulkheads.get(Lane.WRITE).getRejected();
+    }
+
+    private void onCircuitTransition(CircuitBreaker.State from, CircuitBreaker.State to) {
+        LOGGER.info("Database circuit breaker changed from " + from + " to " + to);
+        switch (to) {
+            case OPEN -> circuitOpenedCounter.inc();
+            case HALF_OPEN -> circuitHalfOpenedCounter.inc();
+            case CLOSED -> circuitClosedCounter.inc();
+        }
+    }
+
     /**
      * Lazy database initialization. Only executes once and permits
      * failures if the tables and indices already exist. This method
@@ -380,6 +1968,54 @@ public class CustomerServiceMySQL implements CustomerService<Customer> {
                 } catch (Exception ex) {
                     LOGGER.info("Exception creating Customers.email index: " + ex.getMessage());
                 }
+                try {
+                    statement.execute(this.addCustomersEmailKeySql);
+                    LOGGER.info("Added Customers.emailKey column.");
+                } catch (Exception ex) {
+                    LOGGER.info("Exception adding Customers.emailKey column: " + ex.getMessage());
+                }
+                try {
+                    statement.execute(this.createCustomersEmailKeyIndexSql);
+                    LOGGER.info("Created Customers.emailKey index.");
+                } catch (Exception ex) {
+                    LOGGER.info("Exception creating Customers.emailKey index: " + ex.getMessage());
+                }
+                try {
+                    statement.execute(this.addCustomersPhoneKeySql);
+                    LOGGER.info("Added Customers.phoneKey column.");
+                } catch (Exception ex) {
+                    LOGGER.info("Exception adding Customers.phoneKey column: " + ex.getMessage());
+                }
+                try {
+                    statement.execute(this.createCustomersPhoneKeyIndexSql);
+                    LOGGER.info("Created Customers.phoneKey index.");
+                } catch (Exception ex) {
+                    LOGGER.info("Exception creating Customers.phoneKey index: " + ex.getMessage());
+                }
+                try {
+                    statement.execute(this.addCustomersCreatedAtSql);
+                    LOGGER.info("Added Customers.createdAt column.");
+                } catch (Exception ex) {
+                    LOGGER.info("Exception adding Customers.createdAt column: " + ex.getMessage());
+                }
+                try {
+                    statement.execute(this.addCustomersUpdatedAtSql);
+                    LOGGER.info("Added Customers.updatedAt column.");
+                } catch (Exception ex) {
+                    LOGGER.info("Exception adding Customers.updatedAt column: " + ex.getMessage());
+                }
+                try {
+                    statement.execute(this.createCustomersUpdatedAtIndexSql);
+                    LOGGER.info("Created Customers.updatedAt index.");
+                } catch (Exception ex) {
+                    LOGGER.info("Exception creating Customers.updatedAt index: " + ex.getMessage());
+                }
+                try {
+                    statement.execute(this.createCustomerTombstonesTableSql);
+                    LOGGER.info("Created CustomerTombstones table.");
+                } catch (Exception ex) {
+                    LOGGER.info("Exception creating CustomerTombstones table: " + ex.getMessage());
+                }
             } catch (Exception ex) {
                 LOGGER.info("Exception initializing database: " + ex.getMessage());
             } finally {
@@ -0,0 +1,13 @@
+package jacana.service;
+
+/**
+ * Thrown when the data source cannot be reached, or when the circuit
+ * breaker in front of it is open and the request was rejected without
+ * trying. Unlike other CustomerServiceExceptions the request itself may
+ * be fine and can be retried later.
+ */
+public class CustomerServiceUnavailableException extends CustomerServiceException {
+    public CustomerServiceUnavailableException(String errorMessage) {
+        super(errorMessage);
+    }
+}
@@ -0,0 +1,286 @@
+package jacana.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * In-memory counts of the Customers and of their email domains, so that
+ * the number of Customers and the most common domains are answered
+ * without a COUNT(*) or GROUP BY over the Customers table.
+ *
+ * The counts are loaded with a streaming scan of the guid and email of
+ * every Customer and then kept current by observing CustomerChangeEvents.
+ * The domain of each guid is kept as well, since the event of an upsert
+ * or of a remote change does not tell what the email was before.
+ *
+ * Every reconcile_interval_minutes the counts are loaded again in the
+ * background and replace the current ones, correcting any drift, e.g.
+ * from writes made by other replicas while the change bus was down.
+ * Changes observed during a scan are replayed on top of it.
+ */
+@ApplicationScoped
+public class CustomerStats {
+
+    private static final Logger LOGGER = Logger.getLogger(CustomerStats.class.getName());
+
+    private static final Set<CustomerField> FIELDS = EnumSet.of(CustomerField.GUID, CustomerField.EMAIL);
+
+    /**
+     * Number of Customers with an email in {domain}.
+     */
+    public record DomainCount(String domain, long customers) {
+    }
+
+    /**
+     * The number of {customers}, the most common email domains, most
+     * Customers first, and when the counts were last reconciled with the
+     * data source.
+     */
+    public record Stats(long customers, List<DomainCount> topDomains, long reconciledAtMillis) {
+    }
+
+    private final CustomerService<Customer> customerService;
+    private final long reconcileIntervalMinutes;
+    private final int defaultLimit;
+    private final int maxLimit;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Counts counts = new Counts();
+    private List<CustomerChangeEvent> changesDuringLoad = null;
+    private volatile boolean loaded = false;
+    private volatile long reconciledAtMillis = 0;
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public CustomerStats(@CustomerBackend CustomerService<Customer> customerService,
+                         @ConfigProperty(name = "customers.stats.reconcile_interval_minutes", defaultValue = "60") long reconcileIntervalMinutes,
+                         @ConfigProperty(name = "customers.stats.default_limit", defaultValue = "10") int defaultLimit,
+                         @ConfigProperty(name = "customers.stats.max_limit", defaultValue = "100") int maxLimit) {
+        this.customerService = customerService;
+        this.reconcileIntervalMinutes = reconcileIntervalMinutes;
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Loads the counts in the background once the application has
+     * started, and schedules the periodic reconciliation.
+     */
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "customer-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (CustomerServiceException ex) {
+                LOGGER.info("Exception reconciling customer stats: " + ex.getMessage());
+            }
+        }, 0, reconcileIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if ( Objects.nonNull(scheduler) ) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the number of Customers and the {limit} most common email
+     * domains. A null {limit} uses the configured default, and any limit
+     * is capped at the configured maximum. Domains are lower-cased, and
+     * Customers without a domain are only in the number of Customers.
+     *
+     * If the counts have not been loaded yet, then they are loaded first,
+     * and if the Customers cannot be read the CustomerServiceException is
+     * passed on.
+     *
+     * @param limit
+     * @return
+     * @throws CustomerServiceException
+     */
+    public Stats get(Integer limit) throws CustomerServiceException {
+        ensureLoaded();
+        int effectiveLimit = Objects.isNull(limit) ? defaultLimit : Math.max(0, Math.min(limit, maxLimit));
+        Comparator<DomainCount> order = Comparator.comparingLong(DomainCount::customers).reversed()
+                .thenComparing(DomainCount::domain);
+        PriorityQueue<DomainCount> top = new PriorityQueue<>(order.reversed());
+        long customers;
+        lock.readLock().lock();
+        try {
+            customers = counts.domainsByGuid.size();
+            for ( Map.Entry<String, Long> entry : counts.customersByDomain.entrySet() ) {
+                DomainCount domainCount = new DomainCount(entry.getKey(), entry.getValue());
+                if ( top.size() < effectiveLimit ) {
+                    top.add(domainCount);
+                } else if ( effectiveLimit > 0 && order.compare(domainCount, top.peek()) < 0 ) {
+                    top.poll();
+                    top.add(domainCount);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<DomainCount> topDomains = new ArrayList<>(top);
+        topDomains.sort(order);
+        return new Stats(customers, topDomains, reconciledAtMillis);
+    }
+
+    @Gauge(name = "customerCount",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of customers, as counted in memory, or 0 until the first load")
+    public long getCustomerCount() {
+        if ( !loaded ) {
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            return counts.domainsByGuid.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a write performed by the CustomerService to the counts.
+     */
+    void onCustomerChange(@Observes CustomerChangeEvent event) {
+        lock.writeLock().lock();
+        try {
+            if ( Objects.nonNull(changesDuringLoad) ) {
+                changesDuringLoad.add(event);
+            }
+            counts.apply(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() throws CustomerServiceException {
+        if ( loaded ) {
+            return;
+        }
+        synchronized (this) {
+            if ( !loaded ) {
+                reconcile();
+            }
+        }
+    }
+
+    /**
+     * Counts every Customer with a streaming scan and replaces the current
+     * counts, replaying the changes observed while the scan was running. A
+     * change the scan already saw is harmless to replay, since it only sets
+     * the domain of a guid to its current value.
+     */
+    synchronized void reconcile() throws CustomerServiceException {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            changesDuringLoad = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Counts scanned = new Counts();
+        try {
+            customerService.scanAll(FIELDS, customer -> scanned.put(customer.getGuid(), domain(customer.getEmail())));
+        } catch (CustomerServiceException ex) {
+            lock.writeLock().lock();
+            try {
+                changesDuringLoad = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw ex;
+        }
+        long drift;
+        lock.writeLock().lock();
+        try {
+            for ( CustomerChangeEvent event : changesDuringLoad ) {
+                scanned.apply(event);
+            }
+            changesDuringLoad = null;
+            drift = scanned.domainsByGuid.size() - counts.domainsByGuid.size();
+            counts = scanned;
+            reconciledAtMillis = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if ( loaded ) {
+            LOGGER.info("Reconciled customer stats of " + scanned.domainsByGuid.size() + " customers in "
+                    + (System.currentTimeMillis() - start) + " ms, the count was off by " + drift + ".");
+        } else {
+            loaded = true;
+            LOGGER.info("Loaded customer stats of " + scanned.domainsByGuid.size() + " customers in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        }
+    }
+
+    /**
+     * Returns the lower-cased part of {email} after the last @, or null if
+     * there is none.
+     */
+    static String domain(String email) {
+        if ( Objects.isNull(email) ) {
+            return null;
+        }
+        int at = email.lastIndexOf('@');
+        if ( at < 0 || at == email.length() - 1 ) {
+            return null;
+        }
+        return email.substring(at + 1).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The email domain of every guid, with null for none, and the number
+     * of guids in each domain.
+     */
+    private static final class Counts {
+        private final Map<String, String> domainsByGuid = new HashMap<>();
+        private final Map<String, Long> customersByDomain = new HashMap<>();
+
+        private void apply(CustomerChangeEvent event) {
+            if ( Objects.nonNull(event.getAfter()) ) {
+                put(event.getAfter().getGuid(), domain(event.getAfter().getEmail()));
+            } else {
+                remove(event.getBefore().getGuid());
+            }
+        }
+
+        private void put(String guid, String domain) {
+            remove(guid);
+            if ( Objects.nonNull(domain) ) {
+                customersByDomain.merge(domain, 1L, Long::sum);
+            }
+            domainsByGuid.put(guid, domain);
+        }
+
+        private void remove(String guid) {
+            if ( !domainsByGuid.containsKey(guid) ) {
+                return;
+            }
+            String domain = domainsByGuid.remove(guid);
+            if ( Objects.nonNull(domain) ) {
+                customersByDomain.computeIfPresent(domain, (d, n) -> n == 1 ? null : n - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package jacana.service;
+
+import java.sql.Statement;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Point in time after which nobody waits for the result of a request, e.g.
+ * because its client has timed out. The deadline of the current request is
+ * held per thread, see set(), and CustomerServiceMySQL applies it to every
+ * query it runs (see DeadlineConnection).
+ *
+ * Queries running when the deadline passes, or when the deadline is
+ * cancelled, e.g. because the client went away, are cancelled on the
+ * database.
+ *
+ * Work that the request hands to other threads runs under a child() of
+ * its deadline, which ends with it and is cancelled along with it.
+ */
+public final class Deadline {
+
+    private static final Logger LOGGER = Logger.getLogger(Deadline.class.getName());
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+    private static final ScheduledExecutorService CANCELLER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "deadline-canceller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long expiresAtNanos;
+    private final Deadline parent;
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+    private final Set<Deadline> children = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled = false;
+    private ScheduledFuture<?> timer = null;
+
+    private Deadline(long expiresAtNanos, Deadline parent) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.parent = parent;
+    }
+
+    /**
+     * A deadline {millis} from now.
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis)), null);
+    }
+
+    /**
+     * A deadline that never passes, but can still be cancelled.
+     */
+    public static Deadline none() {
+        return new Deadline(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * The deadline of the request handled by this thread, if it has one.
+     */
+    public static Optional<Deadline> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    /**
+     * Makes {deadline} that of the request handled by this thread, or
+     * removes it if {deadline} is null.
+     */
+    public static void set(Deadline deadline) {
+        if ( Objects.isNull(deadline) ) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    /**
+     * A deadline that passes with this one, and is cancelled when this one
+     * is. Cancelling the child leaves this one running.
+     */
+    public Deadline child() {
+        Deadline child = new Deadline(expiresAtNanos, this);
+        children.add(child);
+        if ( cancelled ) {
+            child.cancel();
+        }
+        return child;
+    }
+
+    public boolean isUnbounded() {
+        return expiresAtNanos == Long.MAX_VALUE;
+    }
+
+    /**
+     * Milliseconds left, 0 once passed or cancelled, Long.MAX_VALUE if
+     * unbounded.
+     */
+    public long remainingMillis() {
+        if ( cancelled ) {
+            return 0;
+        }
+        if ( isUnbounded() ) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return remainingMillis() == 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Cancels the running queries, and any started later, and the
+     * children of this deadline.
+     */
+    public void cancel() {
+        cancelled = true;
+        cancelStatements();
+        synchronized (this) {
+            if ( Objects.nonNull(timer) ) {
+                timer.cancel(false);
+            }
+        }
+        for ( Deadline child : children ) {
+            child.cancel();
+        }
+        if ( Objects.nonNull(parent) ) {
+            parent.children.remove(this);
+        }
+    }
+
+    /**
+     * Cancels {statement} when the deadline passes or is cancelled, until
+     * it is unregistered.
+     */
+    void register(Statement statement) {
+        statements.add(statement);
+        if ( isExpired() ) {
+            cancelStatements();
+            return;
+        }
+        if ( !isUnbounded() ) {
+            synchronized (this) {
+                if ( Objects.isNull(timer) ) {
+                    timer = CANCELLER.schedule(this::cancelStatements,
+                            expiresAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+
+    void unregister(Statement statement) {
+        statements.remove(statement);
+    }
+
+    private void cancelStatements() {
+        for ( Statement statement : statements ) {
+            if ( statements.remove(statement) ) {
+                try {
+                    statement.cancel();
+                } catch (Exception ex) {
+                    LOGGER.info("Exception cancelling statement: " + ex.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package jacana.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.function.LongConsumer;
+
+/**
+ * Wraps a JDBC Connection so that every query of its Statements is bound
+ * by a Deadline: the remaining time is set as the query timeout, rounded up
+ * to whole seconds as JDBC requires, and the query is cancelled as soon as
+ * the deadline passes or is cancelled. A query started after the deadline
+ * fails with a SQLTimeoutException without reaching the database.
+ *
+ * Only queries are bound. Writes are left to complete, so that a write
+ * either happened or not by the time its request fails.
+ *
+ * The time spent by queries that were cancelled, or that completed after
+ * the deadline, is reported to {onWasted} in milliseconds.
+ */
+final class DeadlineConnection {
+
+    private DeadlineConnection() {
+    }
+
+    static Connection wrap(Connection connection, Deadline deadline, LongConsumer onWasted) {
+        return (Connection) Proxy.newProxyInstance(DeadlineConnection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if ( method.getName().equals("prepareStatement") ) {
+                        return wrap((PreparedStatement) result, PreparedStatement.class, deadline, onWasted);
+                    }
+                    if ( method.getName().equals("createStatement") ) {
+                        return wrap((Statement) result, Statement.class, deadline, onWasted);
+                    }
+                    return result;
+                });
+    }
+
+    private static Statement wrap(Statement statement, Class<? extends Statement> type, Deadline deadline,
+                                  LongConsumer onWasted) {
+        return (Statement) Proxy.newProxyInstance(DeadlineConnection.class.getClassLoader(),
+                new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if ( !method.getName().equals("executeQuery") ) {
+                        return invoke(statement, method, args);
+                    }
+                    if ( deadline.isExpired() ) {
+                        throw new SQLTimeoutException("Request deadline exceeded.");
+                    }
+                    if ( !deadline.isUnbounded() ) {
+                        statement.setQueryTimeout(querySeconds(deadline.remainingMillis()));
+                    }
+                    deadline.register(statement);
+                    long start = System.nanoTime();
+                    try {
+                        return invoke(statement, method, args);
+                    } finally {
+                        deadline.unregister(statement);
+                        if ( deadline.isExpired() ) {
+                            onWasted.accept((System.nanoTime() - start) / 1_000_000);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * {millis} as a JDBC query timeout, which is in seconds and where 0
+     * means none.
+     */
+    static int querySeconds(long millis) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (millis + 999) / 1000));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package jacana.service;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hedged requests over several equivalent endpoints, such as read
+ * replicas, to cut the tail latency caused by one endpoint stalling.
+ *
+ * Each request is first sent to the next endpoint in turn. If it has not
+ * answered within the hedge delay, the same request is sent to the
+ * following endpoint as well, and the first to answer wins. The other is
+ * cancelled through its Deadline, which cancels a query it is running.
+ * A request that fails is not hedged, only a slow one is.
+ *
+ * The hedge delay is the {percentile} of the latencies of the last
+ * WINDOW answers, kept between {minDelayMillis} and {maxDelayMillis}, so
+ * only about 1 - {percentile} of requests are hedged. On top of that
+ * hedges are capped at {maxRate} of requests, so a slow spell of all
+ * endpoints cannot double their load.
+ *
+ * Every attempt runs on a virtual thread of its own, under a child of the
+ * caller's Deadline, so it ends with the caller's and is cancelled when
+ * the caller's is, e.g. by the last caller of a SingleFlight giving up.
+ */
+public class Hedge {
+
+    /**
+     * Answers of which the latency percentile is taken.
+     */
+    static final int WINDOW = 1024;
+
+    /**
+     * Answers after which the hedge delay is worked out again.
+     */
+    private static final int RECOMPUTE_EVERY = 64;
+
+    /**
+     * Hedges that may be fired in a row after a quiet spell.
+     */
+    private static final double MAX_BURST = 10;
+
+    public interface Attempt<T> {
+        T call(int endpoint) throws Exception;
+    }
+
+    private record Answer<T>(int attempt, T value, Exception error, long millis) {
+    }
+
+    private final int endpoints;
+    private final double percentile;
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+    private final double maxRate;
+    private final Runnable onFired;
+    private final Runnable onWon;
+
+    private final AtomicInteger nextEndpoint = new AtomicInteger();
+    private final long[] latencies = new long[WINDOW];
+    private int latencyCount = 0;
+    private int latencyNext = 0;
+    private int sinceRecompute = 0;
+    private volatile long delayMillis;
+    private double hedgeBudget = 1;
+
+    /**
+     * @param endpoints number of endpoints, hedging needs at least 2
+     * @param percentile latency percentile used as hedge delay, e.g. 0.95
+     * @param minDelayMillis least hedge delay
+     * @param maxDelayMillis greatest hedge delay, and the delay until
+     *                       enough latencies are known
+     * @param maxRate greatest fraction of requests that are hedged
+     * @param onFired called for every hedge sent
+     * @param onWon called for every hedge that answered first
+     */
+    public Hedge(int endpoints, double percentile, long minDelayMillis, long maxDelayMillis, double maxRate,
+                 Runnable onFired, Runnable onWon) {
+        this.endpoints = Math.max(1, endpoints);
+        this.percentile = Math.min(1, Math.max(0, percentile));
+        this.minDelayMillis = Math.max(0, minDelayMillis);
+        this.maxDelayMillis = Math.max(this.minDelayMillis, maxDelayMillis);
+        this.maxRate = Math.min(1, Math.max(0, maxRate));
+        this.onFired = onFired;
+        this.onWon = onWon;
+        this.delayMillis = this.maxDelayMillis;
+    }
+
+    /**
+     * Runs {attempt} on the next endpoint, and hedges it on the following
+     * endpoint if it is slow. Returns the first answer, or throws the
+     * error of the first attempt if no attempt succeeds.
+     */
+    public <T> T execute(Attempt<T> attempt) throws Exception {
+        int endpoint = Math.floorMod(nextEndpoint.getAndIncrement(), endpoints);
+        if ( endpoints < 2 ) {
+            long start = System.nanoTime();
+            T value = attempt.call(endpoint);
+            record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return value;
+        }
+        addHedgeBudget();
+        BlockingQueue<Answer<T>> answers = new LinkedBlockingQueue<>();
+        Optional<Deadline> parent = Deadline.current();
+        Deadline[] deadlines = new Deadline[2];
+        long[] starts = new long[2];
+        deadlines[0] = start(attempt, endpoint, 0, parent, answers);
+        starts[0] = System.nanoTime();
+        try {
+            Answer<T> answer = answers.poll(delayMillis, TimeUnit.MILLISECONDS);
+            if ( Objects.isNull(answer) && takeHedgeBudget() ) {
+                onFired.run();
+                deadlines[1] = start(attempt, (endpoint + 1) % endpoints, 1, parent, answers);
+                starts[1] = System.nanoTime();
+            }
+            if ( Objects.isNull(answer) ) {
+                answer = answers.take();
+            }
+            boolean bothAnswered = false;
+            if ( Objects.nonNull(answer.error()) && Objects.nonNull(deadlines[1 - answer.attempt()]) ) {
+                Answer<T> other = answers.take();
+                bothAnswered = true;
+                if ( Objects.isNull(other.error()) ) {
+                    answer = other;
+                }
+            }
+            if ( Objects.nonNull(answer.error()) ) {
+                throw answer.error();
+            }
+            record(answer.millis());
+            int loser = 1 - answer.attempt();
+            if ( Objects.nonNull(deadlines[loser]) && !bothAnswered ) {
+                /*
+                 * The loser took at least this long, which keeps the
+                 * latencies of stalls in the window.
+                 */
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - starts[loser]));
+            }
+            if ( answer.attempt() == 1 ) {
+                onWon.run();
+            }
+            return answer.value();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CustomerServiceUnavailableException("Interrupted waiting for the database.");
+        } finally {
+            for ( Deadline deadline : deadlines ) {
+                if ( Objects.nonNull(deadline) ) {
+                    deadline.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Current hedge delay in milliseconds.
+     */
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    private <T> Deadline start(Attempt<T> attempt, int endpoint, int attemptNumber, Optional<Deadline> parent,
+                               BlockingQueue<Answer<T>> answers) {
+        Deadline deadline = parent.map(Deadline::child).orElseGet(Deadline::none);
+        Thread.ofVirtual().name("hedge-" + attemptNumber).start(() -> {
+            Deadline.set(deadline);
+            long start = System.nanoTime();
+            Answer<T> answer = new Answer<>(attemptNumber, null,
+                    new CustomerServiceUnavailableException("Hedged request did not complete."), 0);
+            try {
+                T value = attempt.call(endpoint);
+                answer = new Answer<>(attemptNumber, value, null,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (Exception ex) {
+                answer = new Answer<>(attemptNumber, null, ex, 0);
+            } finally {
+                answers.add(answer);
+                Deadline.set(null);
+            }
+        });
+        return deadline;
+    }
+
+    private synchronized void addHedgeBudget() {
+        hedgeBudget = Math.min(MAX_BURST, hedgeBudget + maxRate);
+    }
+
+    private synchronized boolean takeHedgeBudget() {
+        if ( hedgeBudget < 1 ) {
+            return false;
+        }
+        hedgeBudget -= 1;
+        return true;
+    }
+
+    synchronized void record(long millis) {
+        latencies[latencyNext] = millis;
+        latencyNext = (latencyNext + 1) % WINDOW;
+        latencyCount = Math.min(WINDOW, latencyCount + 1);
+        if ( ++sinceRecompute < RECOMPUTE_EVERY ) {
+            return;
+        }
+        sinceRecompute = 0;
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        long value = sorted[(int) Math.min(sorted.length - 1, Math.floor(percentile * sorted.length))];
+        delayMillis = Math.min(maxDelayMillis, Math.max(minDelayMillis, value));
+    }
+}
@@ -0,0 +1,35 @@
+package jacana.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process CustomerChangeTransport that delivers every notice to every
+ * subscriber straight away, on the publishing thread. With a single
+ * process it only delivers notices back to their publisher. It stands in
+ * for a real transport when several CustomerChangeBuses share one
+ * instance, e.g. in tests.
+ */
+public class LocalCustomerChangeTransport implements CustomerChangeTransport {
+
+    private final List<Consumer<List<CustomerInvalidation>>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String origin, String guid) {
+        List<CustomerInvalidation> invalidations = List.of(new CustomerInvalidation(origin, guid, 0));
+        for ( Consumer<List<CustomerInvalidation>> listener : listeners ) {
+            listener.accept(invalidations);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<List<CustomerInvalidation>> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        listeners.clear();
+    }
+}
@@ -0,0 +1,348 @@
+package jacana.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.LongConsumer;
+
+/**
+ * Hash index from a String key to the offset of an entry in a CustomerLog,
+ * kept in a memory-mapped file so it needs neither heap nor a rebuild on
+ * every start.
+ *
+ * The file is a header followed by a table of slots, each a 64-bit hash of
+ * the key and the offset, found by linear probing. The keys themselves are
+ * only in the log, so a lookup is given a KeyCheck to tell whether the
+ * entry at an offset with the right hash really has the key. A removed
+ * key leaves its hash with offset -1 until the table is next rebuilt.
+ *
+ * The header records the generation of the log the index belongs to and
+ * the Covered state of that log when the index was last closed. While the
+ * index is open it is marked dirty, so an index that was not closed, e.g.
+ * after a crash, is not trusted on the next open.
+ *
+ * Not thread safe, the CustomerServiceEmbedded locks around it.
+ */
+final class MappedIndex implements Closeable {
+
+    /**
+     * Tells whether the log entry at {offset} has the key looked up.
+     */
+    interface KeyCheck {
+        boolean matches(long offset) throws IOException;
+    }
+
+    /**
+     * State of the log an index was last closed with: its size, the bytes
+     * of its current entries, and the micros of its last entry.
+     */
+    record Covered(long logSize, long liveBytes, long lastMicros) {
+    }
+
+    private static final int MAGIC = 0x4a434958;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 16;
+    private static final long INITIAL_CAPACITY = 1024;
+    private static final long MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+
+    private static final int CLEAN = 4;
+    private static final int GENERATION = 8;
+    private static final int CAPACITY = 16;
+    private static final int COUNT = 24;
+    private static final int USED = 32;
+    private static final int LOG_SIZE = 40;
+    private static final int LIVE_BYTES = 48;
+    private static final int LAST_MICROS = 56;
+
+    private final Path path;
+    private final long generation;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long capacity;
+    private long count;
+    private long used;
+    private final Covered covered;
+
+    private MappedIndex(Path path, long generation, Covered covered) {
+        this.path = path;
+        this.generation = generation;
+        this.covered = covered;
+    }
+
+    /**
+     * Opens the index at {path} for the log of {generation}. If the file is
+     * missing, was not closed, or belongs to another log, an empty index
+     * is created instead, and getCovered() is empty so that the whole log
+     * is replayed into it.
+     */
+    static MappedIndex open(Path path, long generation) throws IOException {
+        MappedIndex index = null;
+        if ( Files.exists(path) ) {
+            index = load(path, generation);
+        }
+        if ( Objects.isNull(index) ) {
+            index = new MappedIndex(path, generation, null);
+            index.create(path, INITIAL_CAPACITY);
+        }
+        index.buffer.putInt(CLEAN, 0);
+        index.buffer.force();
+        return index;
+    }
+
+    private static MappedIndex load(Path path, long generation) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if ( fileSize < HEADER_SIZE ) {
+                return null;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            long capacity = header.getLong(CAPACITY);
+            if ( header.getInt(0) != MAGIC
+                    || header.getInt(CLEAN) != 1
+                    || header.getLong(GENERATION) != generation
+                    || capacity < 1 || capacity > MAX_CAPACITY || Long.bitCount(capacity) != 1
+                    || fileSize != HEADER_SIZE + capacity * SLOT_SIZE ) {
+                return null;
+            }
+            Covered covered = new Covered(header.getLong(LOG_SIZE), header.getLong(LIVE_BYTES),
+                    header.getLong(LAST_MICROS));
+            MappedIndex index = new MappedIndex(path, generation, covered);
+            index.map(path);
+            return index;
+        }
+    }
+
+    /**
+     * The state of the log when this index was last closed, or null if the
+     * index is new and the whole log has to be replayed into it.
+     */
+    Covered getCovered() {
+        return covered;
+    }
+
+    long size() {
+        return count;
+    }
+
+    /**
+     * Returns the offset for {key}, or -1 if it has none.
+     */
+    long get(String key, KeyCheck check) throws IOException {
+        long hash = hash(key);
+        long mask = capacity - 1;
+        for ( long slot = hash & mask; ; slot = (slot + 1) & mask ) {
+            int position = position(slot);
+            long slotHash = buffer.getLong(position);
+            if ( slotHash == 0 ) {
+                return -1;
+            }
+            long offset = buffer.getLong(position + 8);
+            if ( slotHash == hash && offset >= 0 && check.matches(offset) ) {
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * Sets the offset for {key}, replacing any it had.
+     */
+    void put(String key, long offset, KeyCheck check) throws IOException {
+        long hash = hash(key);
+        long mask = capacity - 1;
+        long free = -1;
+        long slot = hash & mask;
+        for ( ; ; slot = (slot + 1) & mask ) {
+            int position = position(slot);
+            long slotHash = buffer.getLong(position);
+            if ( slotHash == 0 ) {
+                break;
+            }
+            long slotOffset = buffer.getLong(position + 8);
+            if ( slotOffset < 0 ) {
+                if ( free < 0 ) {
+                    free = slot;
+                }
+            } else if ( slotHash == hash && check.matches(slotOffset) ) {
+                buffer.putLong(position + 8, offset);
+                return;
+            }
+        }
+        if ( free < 0 ) {
+            free = slot;
+            used++;
+        }
+        int position = position(free);
+        buffer.putLong(position, hash);
+        buffer.putLong(position + 8, offset);
+        count++;
+        if ( used * 2 > capacity ) {
+            rebuild(count * 4 > capacity ? capacity * 2 : capacity);
+        }
+    }
+
+    /**
+     * Removes {key}, returning its offset or -1 if it had none.
+     */
+    long remove(String key, KeyCheck check) throws IOException {
+        long hash = hash(key);
+        long mask = capacity - 1;
+        for ( long slot = hash & mask; ; slot = (slot + 1) & mask ) {
+            int position = position(slot);
+            long slotHash = buffer.getLong(position);
+            if ( slotHash == 0 ) {
+                return -1;
+            }
+            long offset = buffer.getLong(position + 8);
+            if ( slotHash == hash && offset >= 0 && check.matches(offset) ) {
+                buffer.putLong(position + 8, -1);
+                count--;
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * Passes the offset of every key to {consumer}, in no particular order.
+     */
+    void forEach(LongConsumer consumer) {
+        for ( long slot = 0; slot < capacity; slot++ ) {
+            int position = position(slot);
+            if ( buffer.getLong(position) != 0 ) {
+                long offset = buffer.getLong(position + 8);
+                if ( offset >= 0 ) {
+                    consumer.accept(offset);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all keys.
+     */
+    void clear() throws IOException {
+        rebuild(INITIAL_CAPACITY, new long[0], new long[0]);
+    }
+
+    /**
+     * Writes the index to disk, marked clean and as covering {covered},
+     * and closes it.
+     */
+    void close(Covered covered) throws IOException {
+        writeCounts();
+        buffer.putLong(LOG_SIZE, covered.logSize());
+        buffer.putLong(LIVE_BYTES, covered.liveBytes());
+        buffer.putLong(LAST_MICROS, covered.lastMicros());
+        buffer.force();
+        buffer.putInt(CLEAN, 1);
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Closes the index without marking it clean, so it is rebuilt on the
+     * next open.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 64-bit FNV-1a of the chars of {key}. 0 marks an empty slot, so it is
+     * never returned.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for ( int i = 0; i < key.length(); i++ ) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static int position(long slot) {
+        return (int) (HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private void rebuild(long newCapacity) throws IOException {
+        long[] hashes = new long[(int) count];
+        long[] offsets = new long[(int) count];
+        int n = 0;
+        for ( long slot = 0; slot < capacity; slot++ ) {
+            int position = position(slot);
+            long hash = buffer.getLong(position);
+            long offset = buffer.getLong(position + 8);
+            if ( hash != 0 && offset >= 0 ) {
+                hashes[n] = hash;
+                offsets[n] = offset;
+                n++;
+            }
+        }
+        rebuild(newCapacity, hashes, offsets);
+    }
+
+    /**
+     * Replaces the file with a new table of {newCapacity} slots holding the
+     * given {hashes} and {offsets}. The table is written to a new file and
+     * moved over the old one, so a crash leaves one or the other.
+     */
+    private void rebuild(long newCapacity, long[] hashes, long[] offsets) throws IOException {
+        if ( newCapacity > MAX_CAPACITY ) {
+            throw new IOException("Index " + path + " cannot grow beyond " + MAX_CAPACITY + " slots.");
+        }
+        Path rebuilt = path.resolveSibling(path.getFileName() + ".rebuild");
+        Files.deleteIfExists(rebuilt);
+        FileChannel oldChannel = channel;
+        create(rebuilt, newCapacity);
+        long mask = capacity - 1;
+        for ( int i = 0; i < hashes.length; i++ ) {
+            long slot = hashes[i] & mask;
+            while ( buffer.getLong(position(slot)) != 0 ) {
+                slot = (slot + 1) & mask;
+            }
+            buffer.putLong(position(slot), hashes[i]);
+            buffer.putLong(position(slot) + 8, offsets[i]);
+        }
+        count = hashes.length;
+        used = hashes.length;
+        writeCounts();
+        channel.close();
+        if ( Objects.nonNull(oldChannel) ) {
+            oldChannel.close();
+        }
+        Files.move(rebuilt, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map(path);
+    }
+
+    private void create(Path file, long newCapacity) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + newCapacity * SLOT_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(GENERATION, generation);
+        buffer.putLong(CAPACITY, newCapacity);
+        capacity = newCapacity;
+        count = 0;
+        used = 0;
+        writeCounts();
+    }
+
+    private void map(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        capacity = buffer.getLong(CAPACITY);
+        count = buffer.getLong(COUNT);
+        used = buffer.getLong(USED);
+    }
+
+    private void writeCounts() {
+        buffer.putLong(COUNT, count);
+        buffer.putLong(USED, used);
+    }
+}
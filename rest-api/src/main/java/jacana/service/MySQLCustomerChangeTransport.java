@@ -0,0 +1,344 @@
+package jacana.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * CustomerChangeTransport over a change-log table in the shared database.
+ *
+ * Published notices are queued and inserted into the CustomerChanges
+ * table in batches by a background thread, so a write never waits on the
+ * change log. The same thread tails the table every {pollIntervalMillis}
+ * for rows with an id above the highest one seen so far. Ids are handed
+ * out when a row is inserted but become visible when it commits, so a
+ * lower id can appear after a higher one was read. Ids skipped over are
+ * therefore asked for again on later polls until {gapTimeoutSeconds} have
+ * passed. Every process deletes rows older than {retentionMinutes} now
+ * and then.
+ *
+ * The lag of a notice is measured on the database clock, from insert to
+ * poll, so the clocks of the processes do not need to agree.
+ */
+public class MySQLCustomerChangeTransport implements CustomerChangeTransport {
+
+    private static final Logger LOGGER = Logger.getLogger(MySQLCustomerChangeTransport.class.getName());
+
+    /**
+     * Notices inserted per round of publishing.
+     */
+    private static final int MAX_BATCH = 1000;
+
+    /**
+     * Skipped ids remembered at most, more are given up on straight away.
+     */
+    private static final int MAX_SKIPPED_IDS = 1000;
+
+    private static final long PURGE_INTERVAL_MILLIS = 60_000;
+
+    private final Callable<Connection> connections;
+    private final String createTableSql;
+    private final String insertSql;
+    private final String selectHighWaterSql;
+    private final String selectChangesSql;
+    private final String purgeSql;
+    private final long pollIntervalMillis;
+    private final long gapTimeoutMillis;
+    private final long retentionMinutes;
+    private final LongSupplier clock;
+
+    private final Queue<CustomerInvalidation> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler;
+    private volatile Consumer<List<CustomerInvalidation>> listener = null;
+
+    /*
+     * Only used on the transport thread.
+     */
+    private boolean createdTable = false;
+    private long highWater = -1;
+    private final Map<Long, Long> skippedIds = new HashMap<>();
+    private long lastPurgeMillis = 0;
+
+    /**
+     * @param connections opens a connection to the shared database
+     * @param createTableSql creates the CustomerChanges table, failures are ignored
+     * @param insertSql inserts one notice, parameters origin and guid
+     * @param selectHighWaterSql selects the highest id in the table, or 0
+     * @param selectChangesSql selects id, origin, guid and lagMillis of the
+     *                         rows above an id, {ids} is replaced by one ?
+     *                         per skipped id, or NULL
+     * @param purgeSql deletes the rows older than a number of minutes
+     */
+    public MySQLCustomerChangeTransport(Callable<Connection> connections,
+                                        String createTableSql,
+                                        String insertSql,
+                                        String selectHighWaterSql,
+                                        String selectChangesSql,
+                                        String purgeSql,
+                                        long pollIntervalMillis,
+                                        long gapTimeoutSeconds,
+                                        long retentionMinutes) {
+        this(connections, createTableSql, insertSql, selectHighWaterSql, selectChangesSql, purgeSql,
+                pollIntervalMillis, gapTimeoutSeconds, retentionMinutes, System::currentTimeMillis,
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "customer-change-transport");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+    /**
+     * For tests, with the source of the current time in milliseconds and
+     * the {scheduler} the transport runs on.
+     */
+    MySQLCustomerChangeTransport(Callable<Connection> connections,
+                                 String createTableSql,
+                                 String insertSql,
+                                 String selectHighWaterSql,
+                                 String selectChangesSql,
+                                 String purgeSql,
+                                 long pollIntervalMillis,
+                                 long gapTimeoutSeconds,
+                                 long retentionMinutes,
+                                 LongSupplier clock,
+                                 ScheduledExecutorService scheduler) {
+        this.connections = connections;
+        this.createTableSql = createTableSql;
+        this.insertSql = insertSql;
+        this.selectHighWaterSql = selectHighWaterSql;
+        this.selectChangesSql = selectChangesSql;
+        this.purgeSql = purgeSql;
+        this.pollIntervalMillis = Math.max(1, pollIntervalMillis);
+        this.gapTimeoutMillis = gapTimeoutSeconds * 1000;
+        this.retentionMinutes = retentionMinutes;
+        this.clock = clock;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void publish(String origin, String guid) {
+        pending.add(new CustomerInvalidation(origin, guid, 0));
+        scheduleFlush();
+    }
+
+    @Override
+    public void subscribe(Consumer<List<CustomerInvalidation>> listener) {
+        this.listener = listener;
+        scheduler.scheduleWithFixedDelay(this::poll, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        listener = null;
+        scheduler.shutdownNow();
+    }
+
+    private void scheduleFlush() {
+        if ( flushScheduled.compareAndSet(false, true) ) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (RejectedExecutionException ex) {
+                LOGGER.info("Customer change transport is closed, dropped " + pending.size() + " notices.");
+            }
+        }
+    }
+
+    /**
+     * Inserts up to MAX_BATCH pending notices. Notices that fail to insert
+     * are queued again and retried by the next poll.
+     */
+    void flush() {
+        flushScheduled.set(false);
+        List<CustomerInvalidation> batch = new ArrayList<>();
+        CustomerInvalidation next;
+        while ( batch.size() < MAX_BATCH && Objects.nonNull(next = pending.poll()) ) {
+            batch.add(next);
+        }
+        if ( batch.isEmpty() ) {
+            return;
+        }
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = connections.call();
+            createTable(connection);
+            preparedStatement = connection.prepareStatement(this.insertSql);
+            for ( CustomerInvalidation invalidation : batch ) {
+                preparedStatement.setString(1, invalidation.origin());
+                preparedStatement.setString(2, invalidation.guid());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        } catch (Exception ex) {
+            LOGGER.info("Exception publishing customer changes: " + ex.getMessage());
+            pending.addAll(batch);
+            return;
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception: " + ex.getMessage());
+            }
+        }
+        if ( !pending.isEmpty() ) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Publishes anything pending, then reads the rows that are new or were
+     * skipped before and passes them to the listener. The first successful
+     * poll only records the current highest id.
+     */
+    void poll() {
+        flush();
+        Consumer<List<CustomerInvalidation>> current = listener;
+        if ( Objects.isNull(current) ) {
+            return;
+        }
+        List<CustomerInvalidation> invalidations = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = connections.call();
+            createTable(connection);
+            long now = clock.getAsLong();
+            if ( highWater < 0 ) {
+                highWater = selectHighWater(connection);
+                return;
+            }
+            skippedIds.values().removeIf(noticedAt -> now - noticedAt > gapTimeoutMillis);
+            List<Long> skipped = new ArrayList<>(skippedIds.keySet());
+            String sql = this.selectChangesSql.replace("{ids}",
+                    skipped.isEmpty() ? "NULL" : String.join(", ", Collections.nCopies(skipped.size(), "?")));
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setLong(1, highWater);
+            for ( int i = 0; i < skipped.size(); i++ ) {
+                preparedStatement.setLong(i + 2, skipped.get(i));
+            }
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                long id = resultSet.getLong("id");
+                if ( id > highWater ) {
+                    for ( long gap = highWater + 1; gap < id && skippedIds.size() < MAX_SKIPPED_IDS; gap++ ) {
+                        skippedIds.put(gap, now);
+                    }
+                    highWater = id;
+                } else {
+                    skippedIds.remove(id);
+                }
+                invalidations.add(new CustomerInvalidation(resultSet.getString("origin"),
+                        resultSet.getString("guid"), Math.max(0, resultSet.getLong("lagMillis"))));
+            }
+            purge(connection, now);
+        } catch (Exception ex) {
+            LOGGER.info("Exception polling customer changes: " + ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception: " + ex.getMessage());
+            }
+        }
+        if ( !invalidations.isEmpty() ) {
+            current.accept(invalidations);
+        }
+    }
+
+    private long selectHighWater(Connection connection) throws Exception {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery(this.selectHighWaterSql);
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } finally {
+            if (Objects.nonNull(statement) ) {
+                statement.close();
+            }
+        }
+    }
+
+    private void purge(Connection connection, long now) {
+        if ( now - lastPurgeMillis < PURGE_INTERVAL_MILLIS ) {
+            return;
+        }
+        lastPurgeMillis = now;
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(this.purgeSql);
+            preparedStatement.setLong(1, retentionMinutes);
+            int purged = preparedStatement.executeUpdate();
+            if ( purged > 0 ) {
+                LOGGER.info("Purged " + purged + " customer changes older than " + retentionMinutes + " minutes.");
+            }
+        } catch (Exception ex) {
+            LOGGER.info("Exception purging customer changes: " + ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the CustomerChanges table once, permitting failure if it
+     * already exists. See CustomerServiceMySQL.initializeDatabase().
+     */
+    private void createTable(Connection connection) {
+        if ( createdTable ) {
+            return;
+        }
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute(this.createTableSql);
+            LOGGER.info("Created CustomerChanges table.");
+        } catch (Exception ex) {
+            LOGGER.info("Exception creating CustomerChanges table: " + ex.getMessage());
+        } finally {
+            try {
+                if (Objects.nonNull(statement) ) {
+                    statement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing statement: " + ex.getMessage());
+            }
+        }
+        createdTable = true;
+    }
+}
@@ -0,0 +1,166 @@
+package jacana.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Gives the Customers written before the phoneKey column existed their
+ * phoneKey, so that they can be found by phone number.
+ *
+ * Runs once in the background after startup, on the scan lane of
+ * connections. The rows without a phoneKey are read in guid order,
+ * {batchSize} at a time, and each batch is updated with one batched
+ * statement in its own transaction, so the table is never locked for
+ * long. A row whose phone changed since it was read is left alone, as the
+ * write that changed it also set its phoneKey. Rows whose phone is not a
+ * phone number keep a null phoneKey, and are looked at again at the next
+ * startup. Only the mysql backend needs a backfill, the embedded one works
+ * out phone keys as it reads.
+ */
+@ApplicationScoped
+public class PhoneKeyBackfill {
+
+    private static final Logger LOGGER = Logger.getLogger(PhoneKeyBackfill.class.getName());
+
+    private final CustomerServiceMySQL customerMySQL;
+    private final boolean mysqlBackend;
+    private final int batchSize;
+    private final String selectSql;
+    private final String updateSql;
+
+    private final AtomicLong backfilled = new AtomicLong();
+    private ExecutorService executor;
+
+    @Inject
+    public PhoneKeyBackfill(CustomerServiceMySQL customerMySQL,
+                            @ConfigProperty(name = "customers.backend", defaultValue = CustomerBackendProducer.MYSQL) String backend,
+                            @ConfigProperty(name = "customers.phone.backfill_batch_size", defaultValue = "1000") int batchSize,
+                            @ConfigProperty(name = "database.select_customers_without_phone_key") String selectSql,
+                            @ConfigProperty(name = "database.update_customer_phone_key") String updateSql) {
+        this.customerMySQL = customerMySQL;
+        this.mysqlBackend = CustomerBackendProducer.MYSQL.equals(backend);
+        this.batchSize = Math.max(1, batchSize);
+        this.selectSql = selectSql;
+        this.updateSql = updateSql;
+    }
+
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if ( !mysqlBackend ) {
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "phone-key-backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::backfill);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if ( Objects.nonNull(executor) ) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Gauge(name = "customerPhoneKeysBackfilled",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of Customers given a phoneKey by the backfill since startup")
+    public long getBackfilled() {
+        return backfilled.get();
+    }
+
+    private void backfill() {
+        long start = System.currentTimeMillis();
+        String after = "";
+        try {
+            while ( Objects.nonNull(after) && !Thread.currentThread().isInterrupted() ) {
+                after = backfillBatch(after);
+            }
+            LOGGER.info("Backfilled the phoneKey of " + backfilled.get() + " customers in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        } catch (Exception ex) {
+            LOGGER.info("Exception backfilling phoneKey after guid '" + after + "': " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Backfills the next batch of rows after guid {after}, and returns the
+     * last guid of the batch, or null once there are no more rows.
+     */
+    private String backfillBatch(String after) throws Exception {
+        List<String[]> rows = new ArrayList<>(batchSize);
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = customerMySQL.getConnection(CustomerServiceMySQL.Lane.SCAN);
+            preparedStatement = connection.prepareStatement(selectSql);
+            preparedStatement.setString(1, after);
+            preparedStatement.setInt(2, batchSize);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                rows.add(new String[] {resultSet.getString("guid"), resultSet.getString("phone")});
+            }
+            preparedStatement.close();
+            if ( rows.isEmpty() ) {
+                return null;
+            }
+            connection.setAutoCommit(false);
+            preparedStatement = connection.prepareStatement(updateSql);
+            int batched = 0;
+            for ( String[] row : rows ) {
+                String phoneKey = PhoneNumbers.normalize(row[1], customerMySQL.getPhoneCountryCode());
+                if ( Objects.nonNull(phoneKey) ) {
+                    preparedStatement.setString(1, phoneKey);
+                    preparedStatement.setString(2, row[0]);
+                    preparedStatement.setString(3, row[1]);
+                    preparedStatement.addBatch();
+                    batched++;
+                }
+            }
+            if ( batched > 0 ) {
+                for ( int updated : preparedStatement.executeBatch() ) {
+                    if ( updated > 0 || updated == Statement.SUCCESS_NO_INFO ) {
+                        backfilled.incrementAndGet();
+                    }
+                }
+            }
+            connection.commit();
+            return rows.size() < batchSize ? null : rows.get(rows.size() - 1)[0];
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing prepared statement: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception closing database connection: " + ex.getMessage());
+            }
+        }
+    }
+}
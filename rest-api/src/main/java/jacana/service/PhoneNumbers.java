@@ -0,0 +1,83 @@
+package jacana.service;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Normalizes the free-form phone numbers of Customers to E.164, e.g.
+ * "(555) 555-1212" to "+15555551212", so that a number matches however
+ * it was formatted. This is the phoneKey column of the Customers table.
+ *
+ * Punctuation and spaces are dropped, and so is an extension introduced
+ * by "x", "ext" or "#". A number starting with + or 00 is taken to have a
+ * country code. Any other number is taken to be national: a trunk prefix 0
+ * is dropped and {defaultCountryCode} put in front. With country code 1,
+ * an 11 digit number starting with 1 is taken to include it already, as
+ * in "1-555-555-1212".
+ *
+ * Country specific numbering plans are not known, so two spellings of a
+ * number only normalize the same if they are both complete.
+ */
+public final class PhoneNumbers {
+
+    private static final int MIN_DIGITS = 7;
+    private static final int MAX_DIGITS = 15;
+
+    /**
+     * Length of a national number in the North American Numbering Plan,
+     * the only plan where the country code is commonly written without +.
+     */
+    private static final int NANP_DIGITS = 10;
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Returns {phone} in E.164, or null if it is null or does not look like
+     * a phone number.
+     */
+    public static String normalize(String phone, String defaultCountryCode) {
+        if ( Objects.isNull(phone) ) {
+            return null;
+        }
+        String number = withoutExtension(phone.strip());
+        boolean international = number.startsWith("+");
+        StringBuilder digits = new StringBuilder(number.length());
+        for ( int i = 0; i < number.length(); i++ ) {
+            char c = number.charAt(i);
+            if ( c >= '0' && c <= '9' ) {
+                digits.append(c);
+            } else if ( Character.isLetter(c) ) {
+                return null;
+            }
+        }
+        if ( !international && digits.indexOf("00") == 0 ) {
+            international = true;
+            digits.delete(0, 2);
+        }
+        if ( !international ) {
+            if ( "1".equals(defaultCountryCode) && digits.length() == NANP_DIGITS + 1 && digits.charAt(0) == '1' ) {
+                digits.deleteCharAt(0);
+            } else if ( digits.length() > 0 && digits.charAt(0) == '0' ) {
+                digits.deleteCharAt(0);
+            }
+            digits.insert(0, defaultCountryCode);
+        }
+        if ( digits.length() < MIN_DIGITS || digits.length() > MAX_DIGITS || digits.charAt(0) == '0' ) {
+            return null;
+        }
+        return "+" + digits;
+    }
+
+    private static String withoutExtension(String phone) {
+        String lower = phone.toLowerCase(Locale.ROOT);
+        int end = lower.length();
+        for ( String marker : new String[] {"ext", "x", "#"} ) {
+            int at = lower.indexOf(marker);
+            if ( at > 0 ) {
+                end = Math.min(end, at);
+            }
+        }
+        return phone.substring(0, end);
+    }
+}
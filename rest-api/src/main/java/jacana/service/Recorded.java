@@ -0,0 +1,25 @@
+package jacana.service;
+
+import jakarta.enterprise.util.Nonbinding;
+import jakarta.interceptor.InterceptorBinding;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Records every call of the annotated method as a CustomerOperationEvent,
+ * see CustomerOperationRecorder.
+ */
+@InterceptorBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Recorded {
+
+    /**
+     * Configuration key of the main statement of the operation.
+     */
+    @Nonbinding
+    String sqlKey() default "";
+}
@@ -0,0 +1,144 @@
+package jacana.service;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent calls for the same key into one. The first caller
+ * for a key starts the call, and callers for that key arriving while it
+ * runs wait for it and share its result or exception instead of running
+ * their own. Nothing is cached: a call arriving after the result was
+ * delivered runs again.
+ *
+ * The call runs on a virtual thread, in the span of the caller that
+ * started it, under a Deadline of its own that never passes, so that one
+ * caller with a short deadline does not cut the call short for the
+ * others. Every caller waits for it only until its own deadline, and the
+ * call is cancelled once every caller has stopped waiting.
+ *
+ * The caller that started the call gets its result as is, every other
+ * caller gets {copy} of it, so that no two callers hold the same mutable
+ * object.
+ */
+public class SingleFlight<K, V> {
+
+    public interface Call<V> {
+        V call() throws CustomerServiceException;
+    }
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final UnaryOperator<V> copy;
+    private final Runnable onCoalesced;
+
+    /**
+     * @param copy copies a result for a caller that shares it
+     * @param onCoalesced called for every caller that shares the call
+     *                    of another rather than running its own
+     */
+    public SingleFlight(UnaryOperator<V> copy, Runnable onCoalesced) {
+        this.copy = copy;
+        this.onCoalesced = onCoalesced;
+    }
+
+    public V execute(K key, Call<V> call) throws CustomerServiceException {
+        Flight<V> started = new Flight<>();
+        Flight<V> flight = inFlight.compute(key,
+                (ignored, existing) -> Objects.nonNull(existing) && existing.join() ? existing : started);
+        if ( flight != started ) {
+            onCoalesced.run();
+            return copy.apply(await(flight));
+        }
+        Span span = Span.current();
+        Thread.ofVirtual().name("single-flight").start(() -> {
+            Deadline.set(flight.deadline);
+            try (Scope ignored = span.makeCurrent()) {
+                flight.result.complete(call.call());
+            } catch (Exception ex) {
+                flight.result.completeExceptionally(ex);
+            } finally {
+                inFlight.remove(key, flight);
+                if ( !flight.result.isDone() ) {
+                    flight.result.completeExceptionally(
+                            new CustomerServiceUnavailableException("Shared call did not complete."));
+                }
+                Deadline.set(null);
+            }
+        });
+        return await(flight);
+    }
+
+    /**
+     * Number of keys with a call running.
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Waits for the result of {flight} until the deadline of this thread.
+     */
+    private V await(Flight<V> flight) throws CustomerServiceException {
+        Optional<Deadline> deadline = Deadline.current();
+        try {
+            if ( deadline.isEmpty() || deadline.get().isUnbounded() ) {
+                return flight.result.get();
+            }
+            return flight.result.get(deadline.get().remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if ( ex.getCause() instanceof CustomerServiceException customerServiceException ) {
+                throw customerServiceException;
+            }
+            if ( ex.getCause() instanceof RuntimeException runtimeException ) {
+                throw runtimeException;
+            }
+            throw new CustomerServiceUnavailableException(ex.getMessage());
+        } catch (TimeoutException ex) {
+            flight.leave();
+            throw new CustomerServiceUnavailableException("Request deadline exceeded.");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            flight.leave();
+            throw new CustomerServiceUnavailableException("Interrupted waiting for the database.");
+        }
+    }
+
+    /**
+     * A running call and the number of callers waiting for it.
+     */
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final Deadline deadline = Deadline.none();
+        private int waiting = 1;
+
+        /**
+         * Adds a waiting caller, unless every caller has stopped waiting
+         * and the call was cancelled.
+         */
+        synchronized boolean join() {
+            if ( waiting == 0 ) {
+                return false;
+            }
+            waiting++;
+            return true;
+        }
+
+        /**
+         * Removes a waiting caller, cancelling the call with the last one.
+         */
+        synchronized void leave() {
+            waiting--;
+            if ( waiting == 0 ) {
+                deadline.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package jacana.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A statement that took at least database.slow_query.threshold_ms, as
+ * recorded by the SlowQueryLog.
+ *
+ * {sql} is the statement as prepared, with ? placeholders, and
+ * {parameters} is the type and size of each bound value, never the value
+ * itself. {sqlKey} is the same for every execution of the same statement.
+ * {rows} is the number of rows read or changed. {plan} holds the rows of
+ * EXPLAIN for a sampled statement, and is null otherwise. {traceId} links
+ * to the trace of the request, if any.
+ */
+public record SlowQuery(String sqlKey,
+                        String sql,
+                        List<String> parameters,
+                        long durationMillis,
+                        long rows,
+                        long recordedAtMillis,
+                        String traceId,
+                        List<Map<String, String>> plan) {
+}
@@ -0,0 +1,425 @@
+package jacana.service;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.Span;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Records every statement executed on a wrapped Connection that takes at
+ * least {thresholdMillis}, so that e.g. a dropped index shows up as the
+ * statements it slows down rather than only as slow requests.
+ *
+ * A slow statement is written as one line of JSON to the jacana.SlowQueries
+ * logger and kept among the last {maxEntries} for GET /admin/slow-queries.
+ * For a {explainSampleRate} fraction of slow statements EXPLAIN is run on a
+ * connection of its own in the background, with the same bound values, and
+ * its rows are attached as the plan. The bound values are only held for
+ * that, they are never logged.
+ *
+ * The time of a statement is that of its execute call. Rows read are
+ * counted as the ResultSet is read, so a query is recorded when its
+ * Statement is closed.
+ */
+@ApplicationScoped
+public class SlowQueryLog {
+
+    private static final Logger LOGGER = Logger.getLogger(SlowQueryLog.class.getName());
+    private static final Logger SLOW_QUERIES = Logger.getLogger("jacana.SlowQueries");
+
+    /**
+     * EXPLAINs waiting or running at most, further samples are skipped.
+     */
+    private static final int MAX_PENDING_EXPLAINS = 10;
+
+    private final long thresholdNanos;
+    private final double explainSampleRate;
+    private final int maxEntries;
+
+    private final Deque<SlowQuery> recent = new ArrayDeque<>();
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicInteger pendingExplains = new AtomicInteger();
+    private final JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(Map.of());
+    private final ExecutorService explainer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "slow-query-explain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Inject
+    public SlowQueryLog(@ConfigProperty(name = "database.slow_query.threshold_ms", defaultValue = "200") long thresholdMillis,
+                        @ConfigProperty(name = "database.slow_query.explain_sample_rate", defaultValue = "0.1") double explainSampleRate,
+                        @ConfigProperty(name = "database.slow_query.max_entries", defaultValue = "100") int maxEntries) {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+        this.explainSampleRate = explainSampleRate;
+        this.maxEntries = maxEntries;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        explainer.shutdownNow();
+    }
+
+    /**
+     * Returns the most recent slow statements, newest first.
+     */
+    public synchronized List<SlowQuery> getRecent() {
+        return new ArrayList<>(recent);
+    }
+
+    @Gauge(name = "slowQueries",
+            unit = MetricUnits.NONE,
+            absolute = true,
+            description = "Number of database statements that took longer than database.slow_query.threshold_ms")
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * Returns {connection} with its statements timed. {connections} opens
+     * another connection to the same database, for EXPLAIN. A negative
+     * threshold disables the log and returns {connection} itself.
+     */
+    public Connection wrap(Connection connection, Callable<Connection> connections) {
+        if ( thresholdNanos < 0 ) {
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(SlowQueryLog.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if ( method.getName().equals("prepareStatement") ) {
+                        return new TimedStatement((Statement) result, (String) args[0], connections)
+                                .proxy(PreparedStatement.class);
+                    }
+                    if ( method.getName().equals("createStatement") ) {
+                        return new TimedStatement((Statement) result, null, connections)
+                                .proxy(Statement.class);
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Times the execute calls of one Statement and remembers the values
+     * bound to it.
+     */
+    private class TimedStatement {
+
+        private final Statement statement;
+        private final String preparedSql;
+        private final Callable<Connection> connections;
+        private final SortedMap<Integer, Object> parameters = new TreeMap<>();
+        private int batchSize = 0;
+
+        /*
+         * A slow query waiting for its ResultSet to be read.
+         */
+        private String pendingSql = null;
+        private List<String> pendingShapes = null;
+        private Map<Integer, Object> pendingValues = null;
+        private long pendingNanos = 0;
+        private String pendingTraceId = null;
+        private long rows = 0;
+
+        TimedStatement(Statement statement, String preparedSql, Callable<Connection> connections) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+            this.connections = connections;
+        }
+
+        Statement proxy(Class<? extends Statement> type) {
+            return (Statement) Proxy.newProxyInstance(SlowQueryLog.class.getClassLoader(),
+                    new Class<?>[] {type},
+                    (proxy, method, args) -> {
+                        String name = method.getName();
+                        if ( name.startsWith("set") && Objects.nonNull(args) && args.length >= 2
+                                && args[0] instanceof Integer index ) {
+                            parameters.put(index, args[1]);
+                        } else if ( name.equals("clearParameters") ) {
+                            parameters.clear();
+                        } else if ( name.equals("addBatch") && Objects.isNull(args) ) {
+                            batchSize++;
+                        } else if ( name.equals("close") ) {
+                            finish();
+                        } else if ( name.startsWith("execute") ) {
+                            return execute(method, args);
+                        }
+                        Object result = invoke(statement, method, args);
+                        if ( name.equals("getResultSet") && Objects.nonNull(pendingSql) && result instanceof ResultSet resultSet ) {
+                            return counted(resultSet);
+                        }
+                        return result;
+                    });
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            finish();
+            String sql = Objects.nonNull(args) && args.length > 0 && args[0] instanceof String s ? s : preparedSql;
+            long start = System.nanoTime();
+            Object result = invoke(statement, method, args);
+            long nanos = System.nanoTime() - start;
+            int batched = batchSize;
+            if ( method.getName().equals("executeBatch") ) {
+                batchSize = 0;
+            }
+            if ( nanos < thresholdNanos || Objects.isNull(sql) || TracedConnection.operation(sql).equals("EXPLAIN") ) {
+                return result;
+            }
+            pendingSql = sql;
+            pendingShapes = batched > 0 ? List.of("BATCH(" + batched + ")") : shapes(parameters);
+            pendingValues = batched > 0 ? null : new TreeMap<>(parameters);
+            pendingNanos = nanos;
+            pendingTraceId = traceId();
+            rows = 0;
+            if ( result instanceof ResultSet resultSet ) {
+                return counted(resultSet);
+            }
+            if ( result instanceof Integer count ) {
+                rows = Math.max(0, count);
+            } else if ( result instanceof Long count ) {
+                rows = Math.max(0, count);
+            } else if ( result instanceof int[] counts ) {
+                rows = Arrays.stream(counts).filter(c -> c > 0).sum();
+            } else if ( result instanceof long[] counts ) {
+                rows = Arrays.stream(counts).filter(c -> c > 0).sum();
+            } else if ( result instanceof Boolean ) {
+                long updated = statement.getLargeUpdateCount();
+                rows = Math.max(0, updated);
+                if ( updated < 0 ) {
+                    return result;
+                }
+            }
+            finish();
+            return result;
+        }
+
+        private ResultSet counted(ResultSet resultSet) {
+            return (ResultSet) Proxy.newProxyInstance(SlowQueryLog.class.getClassLoader(),
+                    new Class<?>[] {ResultSet.class},
+                    (proxy, method, args) -> {
+                        Object result = invoke(resultSet, method, args);
+                        if ( method.getName().equals("next") && Boolean.TRUE.equals(result) ) {
+                            rows++;
+                        }
+                        return result;
+                    });
+        }
+
+        private void finish() {
+            if ( Objects.isNull(pendingSql) ) {
+                return;
+            }
+            record(pendingSql, pendingShapes, pendingValues, pendingNanos, rows, pendingTraceId, connections);
+            pendingSql = null;
+            pendingValues = null;
+        }
+    }
+
+    private void record(String sql, List<String> shapes, Map<Integer, Object> values, long nanos, long rows,
+                        String traceId, Callable<Connection> connections) {
+        recorded.incrementAndGet();
+        SlowQuery slowQuery = new SlowQuery(sqlKey(sql), normalize(sql), shapes, nanos / 1_000_000, rows,
+                System.currentTimeMillis(), traceId, null);
+        if ( Objects.nonNull(values) && isExplainable(sql)
+                && ThreadLocalRandom.current().nextDouble() < explainSampleRate ) {
+            if ( pendingExplains.incrementAndGet() <= MAX_PENDING_EXPLAINS ) {
+                try {
+                    explainer.execute(() -> {
+                        try {
+                            add(new SlowQuery(slowQuery.sqlKey(), slowQuery.sql(), slowQuery.parameters(),
+                                    slowQuery.durationMillis(), slowQuery.rows(), slowQuery.recordedAtMillis(),
+                                    slowQuery.traceId(), explain(sql, values, connections)));
+                        } finally {
+                            pendingExplains.decrementAndGet();
+                        }
+                    });
+                    return;
+                } catch (RejectedExecutionException ex) {
+                    LOGGER.info("Slow query log is closed, not explaining " + slowQuery.sqlKey());
+                }
+            }
+            pendingExplains.decrementAndGet();
+        }
+        add(slowQuery);
+    }
+
+    private void add(SlowQuery slowQuery) {
+        synchronized (this) {
+            recent.addFirst(slowQuery);
+            while ( recent.size() > maxEntries ) {
+                recent.removeLast();
+            }
+        }
+        SLOW_QUERIES.info(toJson(slowQuery));
+    }
+
+    /**
+     * Runs EXPLAIN for {sql} with the same bound {values} and returns its
+     * rows, or a single row with the error if it fails.
+     */
+    private List<Map<String, String>> explain(String sql, Map<Integer, Object> values, Callable<Connection> connections) {
+        List<Map<String, String>> plan = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = connections.call();
+            preparedStatement = connection.prepareStatement("EXPLAIN " + sql);
+            for ( Map.Entry<Integer, Object> value : values.entrySet() ) {
+                preparedStatement.setObject(value.getKey(), value.getValue());
+            }
+            ResultSet resultSet = preparedStatement.executeQuery();
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            while (resultSet.next()) {
+                Map<String, String> row = new LinkedHashMap<>();
+                for ( int column = 1; column <= metaData.getColumnCount(); column++ ) {
+                    row.put(metaData.getColumnLabel(column), resultSet.getString(column));
+                }
+                plan.add(row);
+            }
+        } catch (Exception ex) {
+            LOGGER.info("Exception explaining slow query: " + ex.getMessage());
+            plan.add(Map.of("error", String.valueOf(ex.getMessage())));
+        } finally {
+            try {
+                if (Objects.nonNull(preparedStatement) ) {
+                    preparedStatement.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception: " + ex.getMessage());
+            }
+            try {
+                if (Objects.nonNull(connection) ) {
+                    connection.close();
+                }
+            } catch (Exception ex) {
+                LOGGER.info("Exception: " + ex.getMessage());
+            }
+        }
+        return plan;
+    }
+
+    private String toJson(SlowQuery slowQuery) {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = generatorFactory.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.write("sqlKey", slowQuery.sqlKey());
+            generator.write("sql", slowQuery.sql());
+            generator.writeStartArray("parameters");
+            for ( String shape : slowQuery.parameters() ) {
+                generator.write(shape);
+            }
+            generator.writeEnd();
+            generator.write("durationMillis", slowQuery.durationMillis());
+            generator.write("rows", slowQuery.rows());
+            generator.write("recordedAtMillis", slowQuery.recordedAtMillis());
+            if ( Objects.nonNull(slowQuery.traceId()) ) {
+                generator.write("traceId", slowQuery.traceId());
+            }
+            if ( Objects.nonNull(slowQuery.plan()) ) {
+                generator.writeStartArray("plan");
+                for ( Map<String, String> row : slowQuery.plan() ) {
+                    generator.writeStartObject();
+                    for ( Map.Entry<String, String> column : row.entrySet() ) {
+                        if ( Objects.isNull(column.getValue()) ) {
+                            generator.writeNull(column.getKey());
+                        } else {
+                            generator.write(column.getKey(), column.getValue());
+                        }
+                    }
+                    generator.writeEnd();
+                }
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Collapses whitespace, so the same statement always reads the same.
+     */
+    static String normalize(String sql) {
+        return sql.strip().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Identifies a statement independent of its whitespace and of the
+     * number of values in an IN list: the operation followed by a hash.
+     */
+    static String sqlKey(String sql) {
+        String normalized = normalize(sql).replaceAll("\\?(\\s*,\\s*\\?)+", "?");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return TracedConnection.operation(sql) + "-" + HexFormat.of().formatHex(digest, 0, 6);
+        } catch (Exception ex) {
+            return TracedConnection.operation(sql) + "-" + Integer.toHexString(normalized.hashCode());
+        }
+    }
+
+    /**
+     * The type of each bound value, with the length of a String, in order
+     * of the parameter index.
+     */
+    static List<String> shapes(SortedMap<Integer, Object> parameters) {
+        List<String> shapes = new ArrayList<>(parameters.size());
+        for ( Object value : parameters.values() ) {
+            if ( Objects.isNull(value) ) {
+                shapes.add("NULL");
+            } else if ( value instanceof String s ) {
+                shapes.add("STRING(" + s.length() + ")");
+            } else {
+                shapes.add(value.getClass().getSimpleName().toUpperCase(Locale.ROOT));
+            }
+        }
+        return shapes;
+    }
+
+    private static boolean isExplainable(String sql) {
+        return switch (TracedConnection.operation(sql)) {
+            case "SELECT", "INSERT", "UPDATE", "DELETE", "REPLACE" -> true;
+            default -> false;
+        };
+    }
+
+    private static String traceId() {
+        SpanContext spanContext = Span.current().getSpanContext();
+        return spanContext.isValid() ? spanContext.getTraceId() : null;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
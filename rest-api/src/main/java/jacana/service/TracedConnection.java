@@ -0,0 +1,94 @@
+package jacana.service;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Wraps a JDBC Connection so that every execute of its Statements is
+ * traced as a client span named after the SQL operation, e.g. SELECT,
+ * with the SQL as db.statement. The SQL only holds ? placeholders, so no
+ * Customer data ends up in a trace.
+ *
+ * Statements are only traced within an existing trace, e.g. that of a
+ * request, so background work such as loading the search index or
+ * polling the change log does not start traces of its own.
+ */
+final class TracedConnection {
+
+    private TracedConnection() {
+    }
+
+    static Connection wrap(Connection connection, Tracer tracer) {
+        return (Connection) Proxy.newProxyInstance(TracedConnection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if ( method.getName().equals("prepareStatement") ) {
+                        return wrap((PreparedStatement) result, PreparedStatement.class, (String) args[0], tracer);
+                    }
+                    if ( method.getName().equals("createStatement") ) {
+                        return wrap((Statement) result, Statement.class, null, tracer);
+                    }
+                    return result;
+                });
+    }
+
+    private static Statement wrap(Statement statement, Class<? extends Statement> type, String preparedSql, Tracer tracer) {
+        return (Statement) Proxy.newProxyInstance(TracedConnection.class.getClassLoader(),
+                new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if ( !method.getName().startsWith("execute") || !Span.current().getSpanContext().isValid() ) {
+                        return invoke(statement, method, args);
+                    }
+                    String sql = Objects.nonNull(args) && args.length > 0 && args[0] instanceof String s ? s : preparedSql;
+                    Span span = tracer.spanBuilder(operation(sql))
+                            .setSpanKind(SpanKind.CLIENT)
+                            .setAttribute("db.system", "mysql")
+                            .setAttribute("db.statement", Objects.requireNonNullElse(sql, ""))
+                            .startSpan();
+                    try (Scope ignored = span.makeCurrent()) {
+                        return invoke(statement, method, args);
+                    } catch (Throwable ex) {
+                        span.setStatus(StatusCode.ERROR, ex.getMessage());
+                        throw ex;
+                    } finally {
+                        span.end();
+                    }
+                });
+    }
+
+    /**
+     * The first word of {sql}, e.g. SELECT or INSERT.
+     */
+    static String operation(String sql) {
+        if ( Objects.isNull(sql) ) {
+            return "SQL";
+        }
+        String trimmed = sql.strip();
+        int end = 0;
+        while ( end < trimmed.length() && Character.isLetter(trimmed.charAt(end)) ) {
+            end++;
+        }
+        return end == 0 ? "SQL" : trimmed.substring(0, end).toUpperCase(Locale.ROOT);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package jacana.service;
+
+/**
+ * Result of an upsert. Holds the object as it is stored in the data
+ * source after the upsert and whether the upsert created a new object
+ * or updated an existing one.
+ */
+public class UpsertResult<T> {
+
+    private final T value;
+    private final boolean created;
+
+    public UpsertResult(T value, boolean created) {
+        this.value = value;
+        this.created = created;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * Returns true if the upsert created a new object, or false if it
+     * updated an existing one.
+     */
+    public boolean isCreated() {
+        return created;
+    }
+}
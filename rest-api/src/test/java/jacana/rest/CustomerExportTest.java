@@ -0,0 +1,140 @@
+package jacana.rest;
+
+import jacana.service.Customer;
+import jacana.service.CustomerField;
+import jacana.service.CustomerServiceException;
+import jacana.service.CustomerServiceUnavailableException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class CustomerExportTest {
+
+    @TempDir
+    Path directory;
+
+    private TreeSet<String> database;
+    private String failingFrom;
+    private boolean failingUnexpectedly;
+
+    @BeforeEach
+    void setUp() {
+        database = new TreeSet<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            database.add(UUID.randomUUID().toString());
+        }
+        database.add("");
+        database.add("legacy-1");
+        database.add("zzz");
+        failingFrom = null;
+        failingUnexpectedly = false;
+    }
+
+    private List<Customer> read(String from, String after, String to, int limit,
+                                Set<CustomerField> fields) throws CustomerServiceException {
+        if ( from.equals(failingFrom) && failingUnexpectedly ) {
+            throw new IllegalStateException("Bug in the reader.");
+        }
+        if ( from.equals(failingFrom) ) {
+            throw new CustomerServiceUnavailableException("Database is down.");
+        }
+        List<Customer> customers = new ArrayList<>();
+        for ( String guid : database.tailSet(Objects.isNull(after) ? from : after, Objects.isNull(after)) ) {
+            if ( customers.size() == limit || (Objects.nonNull(to) && guid.compareTo(to) >= 0) ) {
+                break;
+            }
+            Customer customer = new Customer();
+            customer.setGuid(guid);
+            customer.setEmail(guid + "@example.com");
+            customers.add(customer);
+        }
+        return customers;
+    }
+
+    @Test
+    void testBoundsSplitTheKeyspaceInOrder() {
+        assertThat(CustomerExport.bounds(1), is(List.of()));
+        assertThat(CustomerExport.bounds(4), is(List.of("400", "800", "c00")));
+        List<String> bounds = CustomerExport.bounds(4096);
+        assertThat(bounds.size(), is(4095));
+        for ( int i = 1; i < bounds.size(); i++ ) {
+            assertThat(bounds.get(i - 1).compareTo(bounds.get(i)) < 0, is(true));
+        }
+    }
+
+    @Test
+    void testOrderedExportIsInGuidOrder() throws Exception {
+        CustomerExport export = new CustomerExport(this::read, 8, 7, Path.of("unused"), 5);
+        List<String> guids = new ArrayList<>();
+        long count = export.export(CustomerField.ALL, true, customer -> guids.add(customer.getGuid()));
+        assertThat(count, is((long) database.size()));
+        assertThat(guids, is(new ArrayList<>(database)));
+        assertThat(export.getExported(), is(count));
+    }
+
+    @Test
+    void testUnorderedExportIsComplete() throws Exception {
+        CustomerExport export = new CustomerExport(this::read, 16, 10, Path.of("unused"), 5);
+        List<String> guids = new ArrayList<>();
+        export.export(CustomerField.ALL, false, customer -> guids.add(customer.getGuid()));
+        assertThat(guids.size(), is(database.size()));
+        assertThat(new TreeSet<>(guids), is(database));
+    }
+
+    @Test
+    void testGuidIsOnlyWrittenIfRequested() throws Exception {
+        CustomerExport export = new CustomerExport(this::read, 4, 100, Path.of("unused"), 5);
+        List<Customer> customers = new ArrayList<>();
+        export.export(EnumSet.of(CustomerField.EMAIL), true, customers::add);
+        assertThat(customers.size(), is(database.size()));
+        assertThat(customers.get(1).getGuid(), nullValue());
+        assertThat(customers.get(1).getEmail(), is(database.higher("") + "@example.com"));
+    }
+
+    @Test
+    void testFailingRangeFailsTheExport() {
+        failingFrom = "800";
+        CustomerExport export = new CustomerExport(this::read, 4, 5, Path.of("unused"), 5);
+        for ( boolean ordered : List.of(true, false) ) {
+            assertThrows(CustomerServiceUnavailableException.class,
+                    () -> export.export(CustomerField.ALL, ordered, customer -> {}));
+        }
+    }
+
+    @Test
+    void testUnexpectedFailureFailsTheExport() {
+        failingFrom = "800";
+        failingUnexpectedly = true;
+        CustomerExport export = new CustomerExport(this::read, 4, 5, Path.of("unused"), 5);
+        for ( boolean ordered : List.of(true, false) ) {
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IllegalStateException.class,
+                    () -> export.export(CustomerField.ALL, ordered, customer -> {})));
+        }
+    }
+
+    @Test
+    void testOnlyNewestExportFilesAreKept() throws Exception {
+        for ( String name : List.of("customers-1000.json", "customers-2000.json", "customers-3000.json", "other.json") ) {
+            Files.writeString(directory.resolve(name), "[]");
+        }
+        CustomerExport export = new CustomerExport(this::read, 4, 100, directory, 2);
+        CustomerExport.ExportResult result = export.writeToFile(CustomerField.ALL, true);
+        assertThat(result.customers(), is((long) database.size()));
+        assertThat(Files.exists(Path.of(result.file())), is(true));
+        assertThat(Files.exists(directory.resolve("customers-3000.json")), is(true));
+        assertThat(Files.exists(directory.resolve("customers-2000.json")), is(false));
+        assertThat(Files.exists(directory.resolve("customers-1000.json")), is(false));
+        assertThat("Other files should be left alone.", Files.exists(directory.resolve("other.json")), is(true));
+    }
+}
@@ -0,0 +1,146 @@
+package jacana.rest;
+
+import jacana.service.Customer;
+import jacana.service.CustomerServiceException;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.MediaType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * The codec must produce exactly the JSON that JSON-B produces, so every
+ * test compares against JSON-B output for the same object.
+ */
+public class CustomerJsonCodecTest {
+
+    private static final Type CUSTOMER_LIST_TYPE = new GenericType<List<Customer>>() {}.getType();
+
+    private final CustomerJsonCodec codec = new CustomerJsonCodec();
+    private final Jsonb jsonb = JsonbBuilder.create();
+
+    @Test
+    void testWriteCustomer() throws IOException {
+        Customer customer = fullCustomer();
+        assertThat(
+                "Codec output should be identical to JSON-B output.",
+                write(customer, Customer.class), is(jsonb.toJson(customer))
+        );
+    }
+
+    @Test
+    void testWriteCustomerWithNullFields() throws IOException {
+        Customer customer = new Customer();
+        customer.setGuid("abc");
+        customer.setEmail("foo@example.com");
+        assertThat(
+                "Null fields should be omitted just like JSON-B does.",
+                write(customer, Customer.class), is(jsonb.toJson(customer))
+        );
+    }
+
+    @Test
+    void testWriteEscapedStrings() throws IOException {
+        Customer customer = fullCustomer();
+        customer.setNameSurname("Quote\" Backslash\\ Slash/ Tab\t Newline\n Control\u0001 Unicodeé中😀");
+        assertThat(
+                "Escaping should be identical to JSON-B output.",
+                write(customer, Customer.class), is(jsonb.toJson(customer))
+        );
+    }
+
+    @Test
+    void testWriteCustomerList() throws IOException {
+        List<Customer> customers = new ArrayList<>();
+        customers.add(fullCustomer());
+        Customer partial = new Customer();
+        partial.setEmail("bar@example.com");
+        customers.add(partial);
+        assertThat(
+                "List output should be identical to JSON-B output.",
+                write(customers, CUSTOMER_LIST_TYPE), is(jsonb.toJson(customers))
+        );
+        assertThat(
+                "Empty list output should be identical to JSON-B output.",
+                write(List.of(), CUSTOMER_LIST_TYPE), is(jsonb.toJson(List.of()))
+        );
+    }
+
+    @Test
+    void testWriteExceptionMessage() throws IOException {
+        ExceptionMessage message = new ExceptionMessage(new CustomerServiceException("Customer \"x\" not found."));
+        assertThat(
+                "ExceptionMessage output should be identical to JSON-B output.",
+                write(message, ExceptionMessage.class), is(jsonb.toJson(message))
+        );
+    }
+
+    @Test
+    void testReadCustomer() throws IOException {
+        Customer customer = fullCustomer();
+        String json = jsonb.toJson(customer);
+        Customer read = read("{\"unknown\":{\"nested\":[1,2]}," + json.substring(1));
+        assertThat(
+                "Reading JSON-B output should give back an equal Customer.",
+                read.equals(customer), is(true)
+        );
+        assertThat(read.getGuid(), is(customer.getGuid()));
+    }
+
+    @Test
+    void testReadExplicitNulls() throws IOException {
+        Customer read = read("{\"email\":\"foo@example.com\",\"nameSurname\":null}");
+        assertThat(read.getEmail(), is("foo@example.com"));
+        assertThat(read.getNameSurname(), nullValue());
+    }
+
+    @Test
+    void testReadEmptyBody() throws IOException {
+        assertThat(
+                "An empty body should be read as a null Customer.",
+                read(""), nullValue()
+        );
+    }
+
+    private String write(Object entity, Type genericType) throws IOException {
+        Class<?> type = entity.getClass();
+        assertThat(
+                "Codec should accept " + genericType,
+                codec.isWriteable(type, genericType, new Annotation[0], MediaType.APPLICATION_JSON_TYPE), is(true)
+        );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeTo(entity, type, genericType, new Annotation[0], MediaType.APPLICATION_JSON_TYPE, null, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private Customer read(String json) throws IOException {
+        return codec.readFrom(Customer.class, Customer.class, new Annotation[0], MediaType.APPLICATION_JSON_TYPE, null,
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Customer fullCustomer() {
+        Customer customer = new Customer();
+        customer.setGuid("6d1c1b9e-4f0e-4b8a-9a55-2c7d1f0e6a11");
+        customer.setNamePrefix("Dr");
+        customer.setNameSurname("Ada");
+        customer.setNameMiddle("King");
+        customer.setNameFamily("Lovelace");
+        customer.setNameSuffix("Ph.D.");
+        customer.setEmail("ada@example.com");
+        customer.setPhoneNumber("+44 20 7946 0000");
+        return customer;
+    }
+}
@@ -0,0 +1,31 @@
+package jacana.rest;
+
+import io.helidon.microprofile.testing.junit5.AddConfig;
+import io.helidon.microprofile.testing.junit5.HelidonTest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+
+/**
+ * The tests of CustomerResourceTest against the embedded backend, which
+ * must behave as the MySQL one does. Each run starts from an empty store
+ * in a new temporary directory, as the MySQL tests start from an empty
+ * database. MySQL is still started by CustomerResourceTest, as some beans,
+ * e.g. the CustomerChangeBus, are given CustomerServiceMySQL whatever the
+ * backend.
+ */
+@HelidonTest
+@AddConfig(key = "customers.backend", value = "embedded")
+@AddConfig(key = "customers.embedded.compaction_interval_minutes", value = "0")
+public class CustomerResourceEmbeddedTest extends CustomerResourceTest {
+
+    static {
+        try {
+            System.setProperty("customers.embedded.directory",
+                    Files.createTempDirectory("jacana-customers").toString());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package jacana.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.helidon.microprofile.testing.junit5.AddConfig;
+import io.helidon.microprofile.testing.junit5.HelidonTest;
+import jacana.service.Customer;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.WebTarget;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.junit.ClassRule;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MySQLContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * GET /customers answered from the CustomerListSnapshot. Without the
+ * snapshot the listing is read from the database, see
+ * CustomerResourceTest.testGetAllWithoutSnapshot().
+ */
+@HelidonTest
+@AddConfig(key = "customers.snapshot.enabled", value = "true")
+@AddConfig(key = "customers.snapshot.refresh_delay_ms", value = "100")
+public class CustomerResourceSnapshotTest {
+
+    private static final long WAIT_MILLIS = 10_000;
+
+    @Inject
+    private WebTarget target;
+
+    @ClassRule
+    public static MySQLContainer mySQLContainer
+            = new MySQLContainer("mysql:8.0")
+            .withDatabaseName("jacana")
+            .withUsername("user")
+            .withPassword("password");
+
+    @BeforeAll
+    static void startDb() {
+        List<String> portBindings = new ArrayList<>();
+        portBindings.add("3306:3306"); // hostPort:containerPort
+        mySQLContainer.setPortBindings(portBindings);
+        mySQLContainer.start();
+    }
+
+    @AfterAll
+    static void stopDb(){
+        mySQLContainer.stop();
+    }
+
+    @Test
+    void testETagAndNotModified() throws Exception {
+        Customer testCustomer = insert("snapshot-etag-");
+        EntityTag entityTag = awaitListed(testCustomer);
+
+        try (Response r = target
+                .path("customers")
+                .request()
+                .header("If-None-Match", entityTag.toString())
+                .get()) {
+            assertThat(
+                    "Response code should be 304 when the snapshot has not changed.",
+                    r.getStatus(), is(304)
+            );
+            assertThat(r.getEntityTag(), is(entityTag));
+        }
+    }
+
+    @Test
+    void testRefreshedAfterWrite() throws Exception {
+        EntityTag before = awaitListed(insert("snapshot-before-"));
+        Customer testCustomer = insert("snapshot-after-");
+        EntityTag after = awaitListed(testCustomer);
+        assertThat(
+                "A write should publish a snapshot with a new ETag.",
+                after.equals(before), is(false)
+        );
+
+        try (Response r = target
+                .path("customers")
+                .request()
+                .header("If-None-Match", before.toString())
+                .get()) {
+            assertThat(
+                    "A client with the old ETag should get the new listing.",
+                    r.getStatus(), is(200)
+            );
+            assertThat(
+                    r.readEntity(new GenericType<List<Customer>>() {}).contains(testCustomer), is(true)
+            );
+        }
+    }
+
+    @Test
+    void testFilteredListingIsNotFromSnapshot() throws Exception {
+        Customer testCustomer = insert("snapshot-filtered-");
+        awaitListed(testCustomer);
+        try (Response r = target
+                .path("customers")
+                .queryParam("email", testCustomer.getEmail())
+                .request()
+                .header("If-None-Match", "*")
+                .get()) {
+            assertThat(r.getStatus(), is(200));
+            assertThat(
+                    "Lookups should not be answered from the snapshot.",
+                    Objects.isNull(r.getEntityTag()), is(true)
+            );
+        }
+    }
+
+    private Customer insert(String emailPrefix) throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        Customer testCustomer = new Customer();
+        testCustomer.setEmail(emailPrefix + UUID.randomUUID() + "@example.com");
+        try (Response r = target
+                .path("customers")
+                .request()
+                .post(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 200 OK",
+                    r.getStatus(), is(200)
+            );
+        }
+        return testCustomer;
+    }
+
+    /**
+     * Returns the ETag of the first snapshot listing {customer}, which is
+     * published within refresh_delay_ms of the write.
+     */
+    private EntityTag awaitListed(Customer customer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while ( true ) {
+            try (Response r = target
+                    .path("customers")
+                    .request()
+                    .get()) {
+                assertThat(r.getStatus(), is(200));
+                EntityTag entityTag = r.getEntityTag();
+                if ( Objects.nonNull(entityTag)
+                        && r.readEntity(new GenericType<List<Customer>>() {}).contains(customer) ) {
+                    return entityTag;
+                }
+            }
+            assertThat(
+                    "The snapshot should list the customer within " + WAIT_MILLIS + " ms.",
+                    System.currentTimeMillis() < deadline, is(true)
+            );
+            Thread.sleep(50);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package jacana.rest;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.helidon.microprofile.testing.junit5.HelidonTest;
 import jacana.service.Customer;
@@ -18,9 +20,14 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.testcontainers.containers.MySQLContainer;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -29,6 +36,12 @@ import static org.hamcrest.Matchers.is;
 @HelidonTest
 public class CustomerResourceTest {
 
+    /**
+     * Longer than customers.changed_since.settle_seconds, after which a
+     * change is returned by GET /customers?changedSince=.
+     */
+    private static final long CHANGES_WAIT_MILLIS = 30_000;
+
     @Inject
     private MetricRegistry registry;
 
@@ -224,6 +237,69 @@ public class CustomerResourceTest {
 
     }
 
+    @Test
+    void testEmailIsCaseInsensitive() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        String randomString = UUID.randomUUID().toString();
+        Customer testCustomer = new Customer();
+        testCustomer.setEmail("Alice-"+randomString+"@Example.com");
+        try (Response r = target
+                .path("customers")
+                .request()
+                .post(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 200 OK",
+                    r.getStatus(), is(200)
+            );
+        }
+
+        List<Customer> customersByEmail = target
+                .path("customers")
+                .queryParam("email", testCustomer.getEmail().toLowerCase())
+                .request()
+                .get(Response.class)
+                .readEntity(new GenericType<List<Customer>>() {});
+        assertThat(
+                "A customer should be found by its email in another case.",
+                customersByEmail.size(), is(1)
+        );
+        assertThat(
+                "The email should be returned as it was inserted.",
+                customersByEmail.get(0).getEmail(), is(testCustomer.getEmail())
+        );
+
+        Customer duplicate = new Customer();
+        duplicate.setEmail("ALICE-"+randomString+"@example.com");
+        try (Response r = target
+                .path("customers")
+                .request()
+                .post(Entity.entity(mapper.writeValueAsString(duplicate), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 400 when inserting an email that differs only in case.",
+                    r.getStatus(), is(400)
+            );
+        }
+
+        Customer upserted = new Customer();
+        upserted.setEmail(testCustomer.getEmail().toLowerCase());
+        upserted.setNameSurname("Upserted"+randomString);
+        try (Response r = target
+                .path("customers")
+                .queryParam("email", testCustomer.getEmail())
+                .request()
+                .put(Entity.entity(mapper.writeValueAsString(upserted), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 200 when upserting with a body email that differs only in case.",
+                    r.getStatus(), is(200)
+            );
+            Customer updated = mapper.readValue(r.readEntity(String.class), Customer.class);
+            assertThat(
+                    "The upsert should update the customer found ignoring case.",
+                    updated.getGuid(), is(customersByEmail.get(0).getGuid())
+            );
+        }
+    }
+
     @Test
     void testUpdateCustomer() throws JsonProcessingException {
         ObjectMapper mapper = new ObjectMapper();
@@ -609,4 +685,418 @@ public class CustomerResourceTest {
             );
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSearchCustomers() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        Customer testCustomer = new Customer();
+        String randomString = UUID.randomUUID().toString();
+        testCustomer.setEmail("search-"+randomString+"@example.com");
+        testCustomer.setNameSurname("Surname"+randomString);
+        testCustomer.setNameFamily("Family"+randomString);
+
+        try (Response r = target
+                .path("customers")
+                .request()
+                .post(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 200 OK",
+                    r.getStatus(), is(200)
+            );
+        }
+
+        List<Customer> customers = target
+                .path("customers/search")
+                .queryParam("q", randomString.substring(4, 20).toUpperCase())
+                .request()
+                .get(Response.class)
+                .readEntity(new GenericType<List<Customer>>() {});
+        assertThat(
+                "Searching for part of the family name should find the inserted customer.",
+                customers.size(), is(1)
+        );
+        assertThat(
+                "The customer found by search should match the inserted customer.",
+                customers.get(0).equals(testCustomer), is(true)
+        );
+
+        try (Response r = target
+                .path("customers/search")
+                .request()
+                .get()) {
+            assertThat(
+                    "Response code should be 400 when searching without a query.",
+                    r.getStatus(), is(400)
+            );
+        }
+    }
+
+    @Test
+    void testCustomerStats() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        String domain = "stats-" + UUID.randomUUID() + ".example.com";
+        for ( int i = 0; i < 2; i++ ) {
+            Customer testCustomer = new Customer();
+            testCustomer.setEmail("customer" + i + "@" + domain.toUpperCase());
+            try (Response r = target
+                    .path("customers")
+                    .request()
+                    .post(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+                assertThat(
+                        "Response code should be 200 OK",
+                        r.getStatus(), is(200)
+                );
+            }
+        }
+
+        try (Response r = target
+                .path("customers/stats")
+                .queryParam("limit", 100)
+                .request()
+                .get()) {
+            assertThat(
+                    "Response code should be 200 OK",
+                    r.getStatus(), is(200)
+            );
+            Map<String, Object> stats = mapper.readValue(r.readEntity(String.class), new TypeReference<>() {});
+            assertThat(
+                    "Stats should count at least the inserted customers.",
+                    ((Number) stats.get("customers")).longValue() >= 2, is(true)
+            );
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> topDomains = (List<Map<String, Object>>) stats.get("topDomains");
+            long inDomain = topDomains.stream()
+                    .filter(d -> domain.equals(d.get("domain")))
+                    .mapToLong(d -> ((Number) d.get("customers")).longValue())
+                    .sum();
+            assertThat(
+                    "Both inserted customers should be counted in their lower-cased domain.",
+                    inDomain, is(2L)
+            );
+        }
+    }
+
+    @Test
+    void testGetCustomerFields() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        Customer testCustomer = new Customer();
+        String randomString = UUID.randomUUID().toString();
+        testCustomer.setEmail("fields-"+randomString+"@example.com");
+        testCustomer.setNameSurname("Surname"+randomString);
+        testCustomer.setPhoneNumber("Phone"+randomString);
+
+        try (Response r = target
+                .path("customers")
+                .request()
+                .post(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 200 OK",
+                    r.getStatus(), is(200)
+            );
+        }
+
+        String json = target
+                .path("customers")
+                .queryParam("email", testCustomer.getEmail())
+                .queryParam("fields", "guid,email")
+                .request()
+                .get(String.class);
+        assertThat(
+                "Selected email field should be returned.",
+                json.contains(testCustomer.getEmail()), is(true)
+        );
+        assertThat(
+                "Fields that were not selected should not be returned.",
+                json.contains("nameSurname") || json.contains("phoneNumber"), is(false)
+        );
+
+        try (Response r = target
+                .path("customers")
+                .queryParam("fields", "guid,notAField")
+                .request()
+                .get()) {
+            assertThat(
+                    "Response code should be 400 when selecting an unknown field.",
+                    r.getStatus(), is(400)
+            );
+        }
+    }
+
+    @Test
+    void testUpsertCustomer() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        Customer testCustomer = new Customer();
+        String randomString = UUID.randomUUID().toString();
+        String email = "upsert-"+randomString+"@example.com";
+        testCustomer.setNameSurname("Surname"+randomString);
+        String createdCustomerGuid = null;
+
+        Counter counter = registry.counter("upsertCustomer");
+        double before = counter.getCount();
+        try (Response r = target
+                .path("customers")
+                .queryParam("email", email)
+                .request()
+                .put(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 201 because no customer had the email yet.",
+                    r.getStatus(), is(201)
+            );
+            Customer createdCustomer = mapper.readValue(r.readEntity(String.class), Customer.class);
+            assertThat(
+                    "Created customer should have the email of the upsert.",
+                    createdCustomer.getEmail(), is(email)
+            );
+            createdCustomerGuid = createdCustomer.getGuid();
+        }
+
+        testCustomer.setNameSurname("Updated"+randomString);
+        try (Response r = target
+                .path("customers")
+                .queryParam("email", email)
+                .request()
+                .put(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 200 because the customer with the email already exists.",
+                    r.getStatus(), is(200)
+            );
+            Customer updatedCustomer = mapper.readValue(r.readEntity(String.class), Customer.class);
+            assertThat(
+                    "Updated customer should keep its guid.",
+                    updatedCustomer.getGuid(), is(createdCustomerGuid)
+            );
+            assertThat(
+                    "Updated customer should have the new surname.",
+                    updatedCustomer.getNameSurname(), is("Updated"+randomString)
+            );
+            double after = counter.getCount();
+            assertThat(
+                    "Metric count of upsertCustomer should increase by two.",
+                    after - before, is(2d)
+            );
+        }
+
+        testCustomer.setEmail("other-"+randomString+"@example.com");
+        try (Response r = target
+                .path("customers")
+                .queryParam("email", email)
+                .request()
+                .put(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+            assertThat(
+                    "Response code should be 400 when the body email does not match the upsert email.",
+                    r.getStatus(), is(400)
+            );
+        }
+    }
+
+    @Test
+    void testBulkUpdateAndDelete() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        String randomString = UUID.randomUUID().toString();
+        List<String> guids = new ArrayList<>();
+        for ( int i = 0; i < 3; i++ ) {
+            Customer testCustomer = new Customer();
+            testCustomer.setEmail("bulk-"+i+"-"+randomString+"@example.com");
+            testCustomer.setNameSurname("Surname"+randomString);
+            try (Response r = target
+                    .path("customers")
+                    .request()
+                    .post(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+                assertThat(r.getStatus(), is(200));
+                guids.add(mapper.readValue(r.readEntity(String.class), Customer.class).getGuid());
+            }
+        }
+
+        Customer patch = new Customer();
+        patch.setGuid(guids.get(0));
+        patch.setPhoneNumber("Phone"+randomString);
+        Customer unknown = new Customer();
+        unknown.setGuid("unknown-"+randomString);
+        Customer invalid = new Customer();
+        invalid.setGuid(guids.get(1));
+        invalid.setEmail("not an email");
+        try (Response r = target
+                .path("customers/bulk-update")
+                .request()
+                .post(Entity.entity(mapper.writeValueAsString(List.of(patch, unknown, invalid)), MediaType.APPLICATION_JSON))) {
+            assertThat(r.getStatus(), is(200));
+            List<Map<String, Object>> results = mapper.readValue(r.readEntity(String.class), new TypeReference<>() {});
+            assertThat("There should be one result per patch.", results.size(), is(3));
+            assertThat(results.get(0).get("status"), is("UPDATED"));
+            assertThat(results.get(1).get("status"), is("NOT_FOUND"));
+            assertThat(results.get(2).get("status"), is("INVALID"));
+        }
+        try (Response r = target
+                .path("customers")
+                .queryParam("guid", guids.get(0))
+                .request()
+                .get()) {
+            List<Customer> customers = r.readEntity(new GenericType<List<Customer>>() {});
+            assertThat(
+                    "Patched customer should have the new phone number.",
+                    customers.get(0).getPhoneNumber(), is("Phone"+randomString)
+            );
+            assertThat(
+                    "Patched customer should keep the fields missing from the patch.",
+                    customers.get(0).getNameSurname(), is("Surname"+randomString)
+            );
+        }
+
+        List<String> toDelete = new ArrayList<>(guids);
+        toDelete.add("unknown-"+randomString);
+        try (Response r = target
+                .path("customers/bulk-delete")
+                .request()
+                .post(Entity.entity(mapper.writeValueAsString(toDelete), MediaType.APPLICATION_JSON))) {
+            assertThat(r.getStatus(), is(200));
+            List<Map<String, Object>> results = mapper.readValue(r.readEntity(String.class), new TypeReference<>() {});
+            assertThat("There should be one result per guid.", results.size(), is(4));
+            for ( int i = 0; i < 3; i++ ) {
+                assertThat(results.get(i).get("status"), is("DELETED"));
+            }
+            assertThat(results.get(3).get("status"), is("NOT_FOUND"));
+        }
+        for ( String guid : guids ) {
+            try (Response r = target
+                    .path("customers")
+                    .queryParam("guid", guid)
+                    .request()
+                    .get()) {
+                assertThat(
+                        "Deleted customer should no longer be found.",
+                        r.readEntity(new GenericType<List<Customer>>() {}).size(), is(0)
+                );
+            }
+        }
+    }
+
+    @Test
+    void testGetAllWithoutSnapshot() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        Customer testCustomer = new Customer();
+        testCustomer.setEmail("no-snapshot-"+UUID.randomUUID()+"@example.com");
+        try (Response r = target
+                .path("customers")
+                .request()
+                .post(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+            assertThat(r.getStatus(), is(200));
+        }
+
+        try (Response r = target
+                .path("customers")
+                .request()
+                .header("If-None-Match", "*")
+                .get()) {
+            assertThat(
+                    "Without the snapshot the listing should be read from the database, ignoring If-None-Match.",
+                    r.getStatus(), is(200)
+            );
+            assertThat(
+                    "Without the snapshot there should be no ETag.",
+                    r.getEntityTag() == null, is(true)
+            );
+            assertThat(
+                    "The customer just inserted should be listed.",
+                    r.readEntity(new GenericType<List<Customer>>() {}).contains(testCustomer), is(true)
+            );
+        }
+    }
+
+    @Test
+    void testChangedSince() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        String next = "";
+        JsonNode page;
+        do {
+            page = getChangedSince(mapper, next, 1000);
+            next = page.get("next").asText();
+        } while ( page.get("more").asBoolean() );
+
+        List<String> guids = new ArrayList<>();
+        for ( int i = 0; i < 3; i++ ) {
+            Customer testCustomer = new Customer();
+            testCustomer.setEmail("changed-since-"+UUID.randomUUID()+"@example.com");
+            try (Response r = target
+                    .path("customers")
+                    .request()
+                    .post(Entity.entity(mapper.writeValueAsString(testCustomer), MediaType.APPLICATION_JSON))) {
+                assertThat(r.getStatus(), is(200));
+                guids.add(mapper.readValue(r.readEntity(String.class), Customer.class).getGuid());
+            }
+        }
+        try (Response r = target
+                .path("customers/"+guids.get(0))
+                .request()
+                .delete()) {
+            assertThat(r.getStatus(), is(200));
+        }
+
+        Set<String> changed = new HashSet<>();
+        Set<String> deleted = new HashSet<>();
+        int pages = 0;
+        long deadline = System.currentTimeMillis() + CHANGES_WAIT_MILLIS;
+        while ( !changed.containsAll(guids.subList(1, 3)) || !deleted.contains(guids.get(0)) ) {
+            page = getChangedSince(mapper, next, 1);
+            pages++;
+            page.get("changed").forEach(customer -> changed.add(customer.get("guid").asText()));
+            page.get("deleted").forEach(guid -> deleted.add(guid.asText()));
+            assertThat(
+                    "A page should hold at most limit changes.",
+                    page.get("changed").size() + page.get("deleted").size() <= 1, is(true)
+            );
+            next = page.get("next").asText();
+            if ( !page.get("more").asBoolean() ) {
+                assertThat(
+                        "The changes should be returned within " + CHANGES_WAIT_MILLIS + " ms.",
+                        System.currentTimeMillis() < deadline, is(true)
+                );
+                Thread.sleep(200);
+            }
+        }
+        assertThat(
+                "The changes should take more than one page of one.",
+                pages > 1, is(true)
+        );
+        assertThat(
+                "A deleted customer should only be returned as deleted.",
+                changed.contains(guids.get(0)), is(false)
+        );
+    }
+
+    @Test
+    void testChangedSinceExpired() {
+        long micros = (System.currentTimeMillis() - 31L * 24 * 60 * 60 * 1000) * 1000;
+        String token = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(("1:" + micros + ":").getBytes(StandardCharsets.UTF_8));
+        try (Response r = target
+                .path("customers")
+                .queryParam("changedSince", token)
+                .request()
+                .get()) {
+            assertThat(
+                    "A position older than tombstone_retention_days should be 410 Gone.",
+                    r.getStatus(), is(410)
+            );
+        }
+
+        try (Response r = target
+                .path("customers")
+                .queryParam("changedSince", "not-a-token")
+                .request()
+                .get()) {
+            assertThat(r.getStatus(), is(400));
+        }
+    }
+
+    private JsonNode getChangedSince(ObjectMapper mapper, String token, int limit) throws JsonProcessingException {
+        try (Response r = target
+                .path("customers")
+                .queryParam("changedSince", token)
+                .queryParam("limit", limit)
+                .request()
+                .get()) {
+            assertThat(r.getStatus(), is(200));
+            return mapper.readTree(r.readEntity(String.class));
+        }
+    }
+}
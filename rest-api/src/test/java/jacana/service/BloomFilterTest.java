@@ -0,0 +1,58 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for ( int i = 0; i < 10_000; i++ ) {
+            filter.put("email-" + i + "@example.com");
+        }
+        for ( int i = 0; i < 10_000; i++ ) {
+            assertThat(
+                    "A value that was put into the filter must always be reported as possibly present.",
+                    filter.mightContain("email-" + i + "@example.com"), is(true)
+            );
+        }
+    }
+
+    @Test
+    void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for ( int i = 0; i < 10_000; i++ ) {
+            filter.put(UUID.randomUUID().toString());
+        }
+        int falsePositives = 0;
+        for ( int i = 0; i < 100_000; i++ ) {
+            if ( filter.mightContain(UUID.randomUUID().toString()) ) {
+                falsePositives++;
+            }
+        }
+        assertThat(
+                "Observed false positive rate should be close to the configured 1%.",
+                falsePositives / 100_000d, lessThan(0.02)
+        );
+        assertThat(
+                "Estimated false positive rate should be close to the configured 1%.",
+                filter.expectedFalsePositiveRate(), lessThan(0.02)
+        );
+    }
+
+    @Test
+    void testEmptyFilter() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        assertThat(
+                "An empty filter should not contain anything.",
+                filter.mightContain("foo@example.com"), is(false)
+        );
+        assertThat(filter.expectedFalsePositiveRate(), is(0d));
+    }
+}
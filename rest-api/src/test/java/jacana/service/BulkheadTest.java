@@ -0,0 +1,107 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BulkheadTest {
+
+    private static Connection connection() {
+        return (Connection) Proxy.newProxyInstance(BulkheadTest.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> null);
+    }
+
+    @Test
+    void testFullBulkheadRejectsAfterWaiting() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("test", 2, 1);
+        bulkhead.acquire(0);
+        bulkhead.acquire(0);
+        assertThat(bulkhead.getInUse(), is(2));
+        long start = System.currentTimeMillis();
+        CustomerServiceUnavailableException ex = assertThrows(CustomerServiceUnavailableException.class,
+                () -> bulkhead.acquire(100));
+        assertThat(ex.getMessage().contains("test"), is(true));
+        assertThat(System.currentTimeMillis() - start >= 90, is(true));
+        assertThat(bulkhead.getRejected(), is(1L));
+        assertThat(bulkhead.getQueued(), is(0));
+    }
+
+    @Test
+    void testQueueBeyondMaxQueuedIsRejectedStraightAway() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("test", 1, 1);
+        bulkhead.acquire(0);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                bulkhead.acquire(10_000);
+                acquired.countDown();
+            } catch (CustomerServiceUnavailableException ex) {
+                // not expected
+            }
+        });
+        while ( bulkhead.getQueued() == 0 ) {
+            Thread.sleep(1);
+        }
+        long start = System.currentTimeMillis();
+        CustomerServiceUnavailableException ex = assertThrows(CustomerServiceUnavailableException.class,
+                () -> bulkhead.acquire(10_000));
+        assertThat(ex.getMessage().contains("test"), is(true));
+        assertThat(System.currentTimeMillis() - start < 5000, is(true));
+        bulkhead.release();
+        assertThat(acquired.await(5, TimeUnit.SECONDS), is(true));
+        waiter.join();
+        assertThat(bulkhead.getInUse(), is(1));
+    }
+
+    /**
+     * A caller arriving as a permit is released must not take it from the
+     * caller waiting for it. The race is lost only now and then, so it is
+     * run many times.
+     */
+    @Test
+    void testReleasedPermitGoesToWaitingCaller() throws Exception {
+        for ( int round = 0; round < 300; round++ ) {
+            Bulkhead bulkhead = new Bulkhead("test", 1, 2);
+            bulkhead.acquire(0);
+            CountDownLatch acquired = new CountDownLatch(1);
+            Thread waiter = Thread.ofPlatform().start(() -> {
+                try {
+                    bulkhead.acquire(10_000);
+                    acquired.countDown();
+                } catch (CustomerServiceUnavailableException ex) {
+                    // not expected
+                }
+            });
+            while ( waiter.getState() != Thread.State.TIMED_WAITING ) {
+                Thread.onSpinWait();
+            }
+            bulkhead.release();
+            assertThrows(CustomerServiceUnavailableException.class, () -> bulkhead.acquire(0));
+            assertThat(
+                    "The permit released should go to the caller that was waiting for it.",
+                    acquired.await(5, TimeUnit.SECONDS), is(true)
+            );
+            waiter.join();
+        }
+    }
+
+    @Test
+    void testClosingWrappedConnectionReleasesOnce() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("test", 1, 0);
+        bulkhead.acquire(0);
+        Connection connection = bulkhead.wrap(connection());
+        connection.close();
+        connection.close();
+        assertThat(bulkhead.getInUse(), is(0));
+        bulkhead.acquire(0);
+        assertThat(bulkhead.getInUse(), is(1));
+    }
+}
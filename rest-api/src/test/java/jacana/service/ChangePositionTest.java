@@ -0,0 +1,36 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ChangePositionTest {
+
+    @Test
+    void testTokenDecodesToItsPosition() throws Exception {
+        ChangePosition position = new ChangePosition(1760886400123456L, "6761f4ee-bb3e-4a26-83de-90f194866210");
+        assertThat(ChangePosition.decode(position.encode()), is(position));
+        assertThat(ChangePosition.decode(""), is(ChangePosition.START));
+    }
+
+    @Test
+    void testPositionsAreOrderedByTimeThenGuid() {
+        ChangePosition first = new ChangePosition(1000, "b");
+        ChangePosition second = new ChangePosition(1000, "c");
+        ChangePosition third = new ChangePosition(1001, "a");
+        assertThat(ChangePosition.START.compareTo(first) < 0, is(true));
+        assertThat(first.compareTo(second) < 0, is(true));
+        assertThat(second.compareTo(third) < 0, is(true));
+    }
+
+    @Test
+    void testOtherTokensAreRejected() {
+        for ( String token : new String[] {"foobar", "!!", new ChangePosition(1, "a").encode() + "*"} ) {
+            CustomerServiceException ex = assertThrows(CustomerServiceException.class,
+                    () -> ChangePosition.decode(token));
+            assertThat(ex.getMessage().contains(token), is(true));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package jacana.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CircuitBreakerTest {
+
+    private long now;
+    private List<String> transitions;
+    private CircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        now = 1_000;
+        transitions = new ArrayList<>();
+        breaker = new CircuitBreaker(3, 10_000, () -> now,
+                (from, to) -> transitions.add(from + "->" + to));
+    }
+
+    @Test
+    void testOpensAfterConsecutiveFailures() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertThat(
+                "A success must reset the count of consecutive failures.",
+                breaker.getState(), is(CircuitBreaker.State.CLOSED)
+        );
+        breaker.recordFailure();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(
+                "An open breaker must reject requests.",
+                breaker.allowRequest(), is(false)
+        );
+        assertThat(breaker.getRetryAfterMillis(), is(10_000L));
+    }
+
+    @Test
+    void testHalfOpenAllowsSingleProbe() {
+        openBreaker();
+        now += 10_000;
+        assertThat("The first request after the open period is the probe.", breaker.allowRequest(), is(true));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat("Only one probe may be in flight.", breaker.allowRequest(), is(false));
+        breaker.recordSuccess();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.allowRequest(), is(true));
+        assertThat(transitions, is(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED")));
+    }
+
+    @Test
+    void testFailedProbeReopens() {
+        openBreaker();
+        now += 10_000;
+        assertThat(breaker.allowRequest(), is(true));
+        breaker.recordFailure();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat("The open period must restart after a failed probe.", breaker.allowRequest(), is(false));
+        now += 10_000;
+        assertThat(breaker.allowRequest(), is(true));
+        assertThat(transitions, is(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN", "OPEN->HALF_OPEN")));
+    }
+
+    private void openBreaker() {
+        for ( int i = 0; i < 3; i++ ) {
+            breaker.recordFailure();
+        }
+    }
+}
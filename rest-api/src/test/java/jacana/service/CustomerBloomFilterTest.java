@@ -0,0 +1,172 @@
+package jacana.service;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static jacana.service.CustomerBuilder.customer;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CustomerBloomFilterTest {
+
+    private List<Customer> storedCustomers;
+    private Customer insertedDuringScan;
+    private CountingCounter negatives;
+    private CountingCounter falsePositives;
+    private CustomerBloomFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        storedCustomers = new ArrayList<>();
+        storedCustomers.add(customer("guid-1").email("john@example.com").build());
+        storedCustomers.add(customer("guid-2").email("Mary@Example.com").build());
+        insertedDuringScan = null;
+        negatives = new CountingCounter();
+        falsePositives = new CountingCounter();
+        filter = filter(true);
+    }
+
+    @Test
+    void testNotConsultedUntilBuilt() {
+        assertThat(filter.checkGuid("unknown"), is(CustomerBloomFilter.Answer.NOT_CONSULTED));
+        assertThat(filter.checkEmail("unknown@example.com"), is(CustomerBloomFilter.Answer.NOT_CONSULTED));
+        assertThat(negatives.getCount(), is(0L));
+    }
+
+    @Test
+    void testRebuild() {
+        filter.rebuild();
+        assertThat(filter.checkGuid("guid-1"), is(CustomerBloomFilter.Answer.MAYBE));
+        assertThat(
+                "Emails should be checked ignoring case.",
+                filter.checkEmail("mary@example.COM"), is(CustomerBloomFilter.Answer.MAYBE)
+        );
+        assertThat(filter.checkGuid("guid-3"), is(CustomerBloomFilter.Answer.ABSENT));
+        assertThat(filter.checkEmail("peter@example.com"), is(CustomerBloomFilter.Answer.ABSENT));
+        assertThat(negatives.getCount(), is(2L));
+
+        storedCustomers.add(customer("guid-3").email("peter@example.com").build());
+        filter.rebuild();
+        assertThat(filter.checkGuid("guid-3"), is(CustomerBloomFilter.Answer.MAYBE));
+    }
+
+    @Test
+    void testChangesAreAdded() {
+        filter.rebuild();
+        filter.onCustomerChange(CustomerChangeEvent.inserted(customer("guid-3").email("peter@example.com").build()));
+        assertThat(filter.checkGuid("guid-3"), is(CustomerBloomFilter.Answer.MAYBE));
+        assertThat(filter.checkEmail("peter@example.com"), is(CustomerBloomFilter.Answer.MAYBE));
+
+        filter.add("guid-4", "paul@example.com");
+        assertThat(
+                "A write should be added before it is made.",
+                filter.checkGuid("guid-4"), is(CustomerBloomFilter.Answer.MAYBE)
+        );
+        assertThat(filter.checkEmail("paul@example.com"), is(CustomerBloomFilter.Answer.MAYBE));
+    }
+
+    @Test
+    void testChangesDuringRebuildAreKept() {
+        insertedDuringScan = customer("guid-3").email("peter@example.com").build();
+        filter.rebuild();
+        assertThat(
+                "A Customer inserted while the filters are built should be in the new filters.",
+                filter.checkGuid("guid-3"), is(CustomerBloomFilter.Answer.MAYBE)
+        );
+        assertThat(filter.checkEmail("peter@example.com"), is(CustomerBloomFilter.Answer.MAYBE));
+    }
+
+    @Test
+    void testNonAsciiKeysAreNotConsulted() {
+        storedCustomers.add(customer("guid-3").email("jöhn@example.com").build());
+        filter.rebuild();
+        assertThat(filter.checkGuid("guid-4"), is(CustomerBloomFilter.Answer.ABSENT));
+        assertThat(
+                "An email filter that has seen a non-ASCII email should not answer.",
+                filter.checkEmail("unknown@example.com"), is(CustomerBloomFilter.Answer.NOT_CONSULTED)
+        );
+    }
+
+    @Test
+    void testFalsePositivesOnlyCountMaybe() {
+        filter.rebuild();
+        filter.recordFalsePositive(CustomerBloomFilter.Answer.NOT_CONSULTED);
+        filter.recordFalsePositive(CustomerBloomFilter.Answer.ABSENT);
+        assertThat(falsePositives.getCount(), is(0L));
+        filter.recordFalsePositive(filter.checkGuid("guid-1"));
+        assertThat(falsePositives.getCount(), is(1L));
+        filter.checkGuid("guid-3");
+        assertThat(filter.getObservedFalsePositiveRate(), is(0.5));
+    }
+
+    @Test
+    void testDisabled() {
+        filter = filter(false);
+        filter.rebuild();
+        filter.onCustomerChange(CustomerChangeEvent.inserted(customer("guid-3").email("peter@example.com").build()));
+        filter.add("guid-4", "paul@example.com");
+        assertThat(filter.checkGuid("guid-1"), is(CustomerBloomFilter.Answer.MAYBE));
+        assertThat(
+                "A disabled filter should not learn of changes.",
+                filter.checkGuid("guid-3"), is(CustomerBloomFilter.Answer.ABSENT)
+        );
+    }
+
+    @Test
+    void testDisabledWithoutChangeBus() {
+        filter = new CustomerBloomFilter(null, true, 1000, 0.001, 60, "none", negatives, falsePositives);
+        filter.add("guid-1", "john@example.com");
+        assertThat(
+                "Without a change bus the filters would miss inserts made by other replicas.",
+                filter.checkGuid("guid-2"), is(CustomerBloomFilter.Answer.NOT_CONSULTED)
+        );
+    }
+
+    private CustomerBloomFilter filter(boolean enabled) {
+        return new CustomerBloomFilter(new ScanCustomerService(), enabled, 1000, 0.001, 60,
+                negatives, falsePositives, true);
+    }
+
+    /**
+     * Only scanAll() is used, to build the filters. insertedDuringScan is
+     * published as a change after the first Customer is read.
+     */
+    private class ScanCustomerService extends StubCustomerService {
+
+        @Override
+        public void scanAll(Set<CustomerField> fields, Consumer<Customer> consumer) {
+            for ( int i = 0; i < storedCustomers.size(); i++ ) {
+                consumer.accept(storedCustomers.get(i));
+                if ( i == 0 && Objects.nonNull(insertedDuringScan) ) {
+                    filter.onCustomerChange(CustomerChangeEvent.inserted(insertedDuringScan));
+                }
+            }
+        }
+    }
+
+    private static class CountingCounter implements Counter {
+        private long count;
+
+        @Override
+        public void inc() {
+            count++;
+        }
+
+        @Override
+        public void inc(long n) {
+            count += n;
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package jacana.service;
+
+/**
+ * Builds Customers for tests. Only the fields a test sets are set, the
+ * others are left null.
+ */
+class CustomerBuilder {
+
+    private final Customer customer = new Customer();
+
+    private CustomerBuilder() {
+    }
+
+    /**
+     * A Customer without a guid, e.g. one still to be inserted.
+     */
+    static CustomerBuilder customer() {
+        return new CustomerBuilder();
+    }
+
+    static CustomerBuilder customer(String guid) {
+        return new CustomerBuilder().guid(guid);
+    }
+
+    CustomerBuilder guid(String guid) {
+        customer.setGuid(guid);
+        return this;
+    }
+
+    CustomerBuilder namePrefix(String namePrefix) {
+        customer.setNamePrefix(namePrefix);
+        return this;
+    }
+
+    CustomerBuilder nameSurname(String nameSurname) {
+        customer.setNameSurname(nameSurname);
+        return this;
+    }
+
+    CustomerBuilder nameFamily(String nameFamily) {
+        customer.setNameFamily(nameFamily);
+        return this;
+    }
+
+    CustomerBuilder email(String email) {
+        customer.setEmail(email);
+        return this;
+    }
+
+    CustomerBuilder phoneNumber(String phoneNumber) {
+        customer.setPhoneNumber(phoneNumber);
+        return this;
+    }
+
+    Customer build() {
+        return customer;
+    }
+}
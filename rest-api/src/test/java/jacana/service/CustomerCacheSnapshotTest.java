@@ -0,0 +1,134 @@
+package jacana.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static jacana.service.CustomerBuilder.customer;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CustomerCacheSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private CustomerCache cache;
+    private List<ChangeSet<Customer>> changePages;
+    private CustomerServiceException changesException;
+    private CustomerCacheSnapshot snapshot;
+
+    @BeforeEach
+    void setUp() {
+        file = directory.resolve("customer-cache.snapshot");
+        cache = new CustomerCache(10);
+        changePages = new ArrayList<>();
+        changesException = null;
+        snapshot = new CustomerCacheSnapshot(cache, new ChangesCustomerService(), true, file.toString(), 5);
+    }
+
+    @Test
+    void testWrittenEntriesAreReadBack() throws Exception {
+        Customer customer = customer("1").email("john@example.com").build();
+        customer.setNamePrefix("Mr");
+        customer.setNameSurname("Jöhn");
+        CachedValue<CustomerRecord> entry = new CachedValue<>(CustomerRecord.from(customer), 1234);
+        assertThat(CustomerCacheSnapshot.write(file, List.of(entry)), is(1));
+        List<CachedValue<CustomerRecord>> read = CustomerCacheSnapshot.read(file);
+        assertThat(read.size(), is(1));
+        assertThat(read.get(0).getValue(), is(entry.getValue()));
+        assertThat(read.get(0).getCachedAtMillis(), is(1234L));
+    }
+
+    @Test
+    void testIncompleteSnapshotIsIgnored() throws Exception {
+        CustomerCacheSnapshot.write(file,
+                List.of(new CachedValue<>(CustomerRecord.from(customer("1").email("a@example.com").build()), 1)));
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        IOException ex = assertThrows(IOException.class, () -> CustomerCacheSnapshot.read(file));
+        assertThat(ex.getMessage(), is("Not a customer cache snapshot, or incomplete."));
+        assertThat(snapshot.restore(), is(0L));
+        assertThat(cache.size(), is(0));
+        assertThat("The snapshot is removed once read.", Files.exists(file), is(false));
+    }
+
+    @Test
+    void testRestoredEntriesAreVerified() throws Exception {
+        long cachedAtMillis = System.currentTimeMillis() - 60_000;
+        CustomerCacheSnapshot.write(file, List.of(
+                new CachedValue<>(CustomerRecord.from(customer("1").email("one@example.com").build()), cachedAtMillis),
+                new CachedValue<>(CustomerRecord.from(customer("2").email("two@example.com").build()), cachedAtMillis),
+                new CachedValue<>(CustomerRecord.from(customer("3").email("three@example.com").build()),
+                        cachedAtMillis + 1000)));
+        assertThat(snapshot.restore(), is(cachedAtMillis));
+        assertThat(cache.size(), is(3));
+        assertThat(
+                "Restored customers keep the time they were cached at until verified.",
+                cache.getByGuid("1", CustomerField.ALL).get().getCachedAtMillis(), is(cachedAtMillis)
+        );
+
+        changePages.add(new ChangeSet<>(List.of(customer("1").email("first@example.com").build()), List.of("2"),
+                "a", true));
+        changePages.add(new ChangeSet<>(List.of(customer("1").email("one@example.org").build()), List.of(),
+                "b", false));
+        long start = System.currentTimeMillis();
+        snapshot.verify(cachedAtMillis);
+        assertThat(cache.getByEmail("one@example.org", CustomerField.ALL).get().getValue().getGuid(), is("1"));
+        assertThat(cache.getByEmail("first@example.com", CustomerField.ALL).isPresent(), is(false));
+        assertThat(cache.getByGuid("2", CustomerField.ALL).isPresent(), is(false));
+        assertThat(
+                "Unchanged customers are current as of the verification.",
+                cache.getByGuid("3", CustomerField.ALL).get().getCachedAtMillis() >= start - 5000, is(true)
+        );
+    }
+
+    @Test
+    void testRestoredEntriesAreDiscardedWhenChangesAreExpired() throws Exception {
+        CustomerCacheSnapshot.write(file, List.of(
+                new CachedValue<>(CustomerRecord.from(customer("1").email("one@example.com").build()), 1000)));
+        snapshot.restore();
+        cache.put(customer("2").email("two@example.com").build(), cache.generation());
+        changesException = new CustomerChangesExpiredException("Changes are only kept for 30 days.");
+        snapshot.verify(1000);
+        assertThat(cache.getByGuid("1", CustomerField.ALL).isPresent(), is(false));
+        assertThat(
+                "Customers read since the restart are kept.",
+                cache.getByGuid("2", CustomerField.ALL).isPresent(), is(true)
+        );
+    }
+
+    @Test
+    void testCachedCustomersWinOverRestoredOnes() throws Exception {
+        cache.put(customer("1").email("current@example.com").build(), cache.generation());
+        CustomerCacheSnapshot.write(file, List.of(
+                new CachedValue<>(CustomerRecord.from(customer("1").email("old@example.com").build()), 1000)));
+        snapshot.restore();
+        assertThat(cache.getByGuid("1", CustomerField.ALL).get().getValue().getEmail(), is("current@example.com"));
+        assertThat(cache.getByEmail("old@example.com", CustomerField.ALL).isPresent(), is(false));
+    }
+
+    /**
+     * Only getChangedSince() is used, to verify the restored Customers.
+     */
+    private class ChangesCustomerService extends StubCustomerService {
+
+        @Override
+        public ChangeSet<Customer> getChangedSince(String token, int limit) throws CustomerServiceException {
+            if ( Objects.nonNull(changesException) ) {
+                throw changesException;
+            }
+            return changePages.remove(0);
+        }
+    }
+}
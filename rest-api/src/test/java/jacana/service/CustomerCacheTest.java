@@ -0,0 +1,147 @@
+package jacana.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static jacana.service.CustomerBuilder.customer;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class CustomerCacheTest {
+
+    private CustomerCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new CustomerCache(3);
+    }
+
+    @Test
+    void testLookupByGuidAndEmail() {
+        cache.put(customer("1").nameSurname("John").email("John@Example.com").build(), cache.generation());
+        assertThat(cache.getByGuid("1", CustomerField.ALL).get().getValue().getNameSurname(), is("John"));
+        assertThat(
+                "Emails are matched ignoring case, as in the database.",
+                cache.getByEmail("john@example.com", CustomerField.ALL).get().getValue().getGuid(), is("1")
+        );
+        assertThat(cache.getByGuid("2", CustomerField.ALL).isPresent(), is(false));
+    }
+
+    @Test
+    void testProjection() {
+        cache.put(customer("1").nameSurname("John").email("john@example.com").build(), cache.generation());
+        Customer projected = cache.getByGuid("1", EnumSet.of(CustomerField.EMAIL)).get().getValue();
+        assertThat(projected.getEmail(), is("john@example.com"));
+        assertThat(projected.getGuid(), is(nullValue()));
+        assertThat(projected.getNameSurname(), is(nullValue()));
+    }
+
+    @Test
+    void testBounded() {
+        for ( int i = 1; i <= 4; i++ ) {
+            cache.put(customer(String.valueOf(i)).nameSurname("Name" + i).email("email" + i + "@example.com").build(),
+                    cache.generation());
+        }
+        assertThat(cache.size(), is(3));
+        assertThat(
+                "The least recently used customer must be evicted.",
+                cache.getByGuid("1", CustomerField.ALL).isPresent(), is(false)
+        );
+        assertThat(cache.getByEmail("email1@example.com", CustomerField.ALL).isPresent(), is(false));
+
+        cache.putAll(List.of(customer("5").nameSurname("A").email("a@example.com").build()), cache.generation());
+        assertThat(cache.getAll(CustomerField.ALL).get().getValue().size(), is(1));
+        cache.putAll(List.of(
+                customer("6").nameSurname("B").email("b@example.com").build(),
+                customer("7").nameSurname("C").email("c@example.com").build(),
+                customer("8").nameSurname("D").email("d@example.com").build(),
+                customer("9").nameSurname("E").email("e@example.com").build()
+        ), cache.generation());
+        assertThat(
+                "A getAll() result larger than the cache must not be kept.",
+                cache.getAll(CustomerField.ALL).isPresent(), is(false)
+        );
+    }
+
+    @Test
+    void testFollowsChanges() {
+        cache.putAll(List.of(customer("1").nameSurname("John").email("john@example.com").build()), cache.generation());
+        Customer updated = customer("1").nameSurname("Johnny").email("johnny@example.com").build();
+        cache.onCustomerChange(CustomerChangeEvent.updated(
+                customer("1").nameSurname("John").email("john@example.com").build(), updated));
+        assertThat(cache.getByGuid("1", CustomerField.ALL).get().getValue().getNameSurname(), is("Johnny"));
+        assertThat(
+                "The old email must no longer find the customer.",
+                cache.getByEmail("john@example.com", CustomerField.ALL).isPresent(), is(false)
+        );
+        assertThat(cache.getAll(CustomerField.ALL).get().getValue().get(0).getNameSurname(), is("Johnny"));
+
+        cache.onCustomerChange(CustomerChangeEvent.inserted(
+                customer("2").nameSurname("Mary").email("mary@example.com").build()));
+        assertThat(cache.getAll(CustomerField.ALL).get().getValue().size(), is(2));
+
+        cache.onCustomerChange(CustomerChangeEvent.deleted(updated));
+        assertThat(cache.getByGuid("1", CustomerField.ALL).isPresent(), is(false));
+        assertThat(cache.getAll(CustomerField.ALL).get().getValue().size(), is(1));
+    }
+
+    @Test
+    void testReadOlderThanChangeIsNotCached() {
+        Customer old = customer("1").nameSurname("John").email("john@example.com").build();
+        long readGeneration = cache.generation();
+        cache.onCustomerChange(CustomerChangeEvent.updated(old,
+                customer("1").nameSurname("Johnny").email("john@example.com").build()));
+        assertThat(
+                "A read that began before the change must not replace it.",
+                cache.put(old, readGeneration), is(false)
+        );
+        assertThat(cache.getByGuid("1", CustomerField.ALL).get().getValue().getNameSurname(), is("Johnny"));
+        assertThat(cache.put(customer("1").nameSurname("Jack").email("john@example.com").build(), cache.generation()),
+                is(true));
+        assertThat(cache.getByGuid("1", CustomerField.ALL).get().getValue().getNameSurname(), is("Jack"));
+    }
+
+    @Test
+    void testReadOlderThanInvalidationIsNotCached() {
+        long readGeneration = cache.generation();
+        cache.invalidate("1");
+        assertThat(cache.put(customer("1").nameSurname("John").email("john@example.com").build(), readGeneration),
+                is(false));
+        assertThat(cache.getByGuid("1", CustomerField.ALL).isPresent(), is(false));
+    }
+
+    @Test
+    void testChangesToOtherCustomersDoNotMatter() {
+        long readGeneration = cache.generation();
+        cache.onCustomerChange(CustomerChangeEvent.inserted(
+                customer("2").nameSurname("Mary").email("mary@example.com").build()));
+        assertThat(cache.put(customer("1").nameSurname("John").email("john@example.com").build(), readGeneration),
+                is(true));
+
+        cache.putAll(List.of(customer("1").nameSurname("John").email("john@example.com").build()), readGeneration);
+        assertThat(
+                "A getAll() result read before any change must not be kept.",
+                cache.getAll(CustomerField.ALL).isPresent(), is(false)
+        );
+        assertThat(cache.getByGuid("1", CustomerField.ALL).isPresent(), is(true));
+    }
+
+    @Test
+    void testForgottenChangesStillCount() {
+        long readGeneration = cache.generation();
+        for ( int i = 1; i <= 4; i++ ) {
+            cache.invalidate(String.valueOf(i));
+        }
+        assertThat(
+                "A guid whose change is no longer remembered must be treated as changed.",
+                cache.put(customer("1").nameSurname("John").email("john@example.com").build(), readGeneration),
+                is(false)
+        );
+        assertThat(cache.put(customer("1").nameSurname("John").email("john@example.com").build(), cache.generation()),
+                is(true));
+    }
+}
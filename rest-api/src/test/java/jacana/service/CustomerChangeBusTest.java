@@ -0,0 +1,117 @@
+package jacana.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static jacana.service.CustomerBuilder.customer;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Two replicas sharing a database and a LocalCustomerChangeTransport.
+ */
+public class CustomerChangeBusTest {
+
+    private Map<String, Customer> database;
+    private boolean unavailable;
+    private LocalCustomerChangeTransport transport;
+    private List<CustomerChangeEvent> firedOnA;
+    private List<CustomerChangeEvent> firedOnB;
+    private List<String> invalidatedOnB;
+    private CustomerChangeBus busA;
+    private CustomerChangeBus busB;
+
+    @BeforeEach
+    void setUp() {
+        database = new HashMap<>();
+        unavailable = false;
+        transport = new LocalCustomerChangeTransport();
+        firedOnA = new ArrayList<>();
+        firedOnB = new ArrayList<>();
+        invalidatedOnB = new ArrayList<>();
+        busA = new CustomerChangeBus(transport, this::read, firedOnA::add, guid -> {});
+        busB = new CustomerChangeBus(transport, this::read, firedOnB::add, invalidatedOnB::add);
+        busA.start();
+        busB.start();
+    }
+
+    private Map<String, Customer> read(List<String> guids) throws CustomerServiceException {
+        if ( unavailable ) {
+            throw new CustomerServiceUnavailableException("Database is down.");
+        }
+        Map<String, Customer> customers = new HashMap<>();
+        for ( String guid : guids ) {
+            if ( database.containsKey(guid) ) {
+                customers.put(guid, database.get(guid));
+            }
+        }
+        return customers;
+    }
+
+    @Test
+    void testChangeIsReReadByOtherReplica() {
+        Customer john = customer("1").nameSurname("John").email("john@example.com").build();
+        database.put("1", john);
+        busA.onCustomerChange(CustomerChangeEvent.inserted(john));
+
+        assertThat("A replica must not apply its own changes again.", firedOnA.size(), is(0));
+        assertThat(firedOnB.size(), is(1));
+        CustomerChangeEvent event = firedOnB.get(0);
+        assertThat(event.isRemote(), is(true));
+        assertThat(event.getBefore(), is(nullValue()));
+        assertThat(event.getAfter().getNameSurname(), is("John"));
+        assertThat(busA.getPublished(), is(1L));
+        assertThat(busB.getReceived(), is(1L));
+    }
+
+    @Test
+    void testDeleteIsReportedAsRemoteDelete() {
+        busA.onCustomerChange(CustomerChangeEvent.deleted(
+                customer("1").nameSurname("John").email("john@example.com").build()));
+
+        assertThat(firedOnB.size(), is(1));
+        CustomerChangeEvent event = firedOnB.get(0);
+        assertThat(event.getType(), is(CustomerChangeEvent.Type.DELETED));
+        assertThat(event.getGuid(), is("1"));
+        assertThat(event.getAfter(), is(nullValue()));
+    }
+
+    @Test
+    void testRemoteChangesAreNotPublishedAgain() {
+        busB.onCustomerChange(CustomerChangeEvent.remoteUpdated(
+                customer("1").nameSurname("John").email("john@example.com").build()));
+
+        assertThat(busB.getPublished(), is(0L));
+        assertThat(firedOnA.size(), is(0));
+    }
+
+    @Test
+    void testUnreadableChangeIsInvalidated() {
+        unavailable = true;
+        busA.onCustomerChange(CustomerChangeEvent.inserted(
+                customer("1").nameSurname("John").email("john@example.com").build()));
+
+        assertThat(firedOnB.size(), is(0));
+        assertThat(invalidatedOnB, is(List.of("1")));
+        assertThat(busB.getFailures(), is(1L));
+    }
+
+    @Test
+    void testRepeatedNoticesAreReadOnce() {
+        database.put("1", customer("1").nameSurname("John").email("john@example.com").build());
+        busB.onInvalidations(List.of(
+                new CustomerInvalidation(busA.getOrigin(), "1", 40),
+                new CustomerInvalidation(busA.getOrigin(), "1", 20),
+                new CustomerInvalidation(busB.getOrigin(), "2", 90)
+        ));
+
+        assertThat(firedOnB.size(), is(1));
+        assertThat(
+                "The lag must be at least that of the oldest notice from another replica.",
+                busB.getMaxLagMillis() >= 40 && busB.getMaxLagMillis() < 90, is(true)
+        );
+    }
+}
@@ -0,0 +1,112 @@
+package jacana.service;
+
+import jakarta.interceptor.InvocationContext;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CustomerOperationRecorderTest {
+
+    @Recorded(sqlKey = "database.select_customers")
+    List<String> lookup() {
+        return List.of("a", "b");
+    }
+
+    @Test
+    void testRowsAreCountedFromTheResult() {
+        assertThat(CustomerOperationRecorder.rows(null), is(0L));
+        assertThat(CustomerOperationRecorder.rows(Optional.empty()), is(0L));
+        assertThat(CustomerOperationRecorder.rows(Optional.of("a")), is(1L));
+        assertThat(CustomerOperationRecorder.rows(List.of("a", "b", "c")), is(3L));
+        assertThat(CustomerOperationRecorder.rows("a"), is(1L));
+    }
+
+    @Test
+    void testCallsAreRecordedWithTheirOutcome() throws Exception {
+        Method method = CustomerOperationRecorderTest.class.getDeclaredMethod("lookup");
+        CustomerOperationRecorder recorder = new CustomerOperationRecorder();
+        Path file = Files.createTempFile("jacana", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(CustomerOperationEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            recorder.record(context(method, this::lookup));
+            CustomerNotFoundException ex = assertThrows(CustomerNotFoundException.class,
+                    () -> recorder.record(context(method, () -> {
+                        throw new CustomerNotFoundException("No such customer.");
+                    })));
+            assertThat(ex.getMessage(), is("No such customer."));
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("jacana.CustomerOperation"))
+                    .toList();
+            assertThat(events.size(), is(2));
+            assertThat(events.get(0).getString("operation"), is("CustomerOperationRecorderTest.lookup"));
+            assertThat(events.get(0).getString("sqlKey"), is("database.select_customers"));
+            assertThat(events.get(0).getLong("rows"), is(2L));
+            assertThat(events.get(0).getString("outcome"), is("OK"));
+            assertThat(events.get(1).getLong("rows"), is(0L));
+            assertThat(events.get(1).getString("outcome"), is("CustomerNotFoundException"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static InvocationContext context(Method method, Callable<Object> body) {
+        return new InvocationContext() {
+            @Override
+            public Object getTarget() {
+                return null;
+            }
+
+            @Override
+            public Object getTimer() {
+                return null;
+            }
+
+            @Override
+            public Method getMethod() {
+                return method;
+            }
+
+            @Override
+            public Constructor<?> getConstructor() {
+                return null;
+            }
+
+            @Override
+            public Object[] getParameters() {
+                return new Object[0];
+            }
+
+            @Override
+            public void setParameters(Object[] params) {
+            }
+
+            @Override
+            public Map<String, Object> getContextData() {
+                return Map.of();
+            }
+
+            @Override
+            public Object proceed() throws Exception {
+                return body.call();
+            }
+        };
+    }
+}
@@ -0,0 +1,60 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static jacana.service.CustomerBuilder.customer;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CustomerRecordTest {
+
+    @Test
+    void testRoundTrip() {
+        Customer customer = customer("abc").namePrefix("Mr").email("foo@example.com").build();
+        customer.setNameSurname("Foo");
+        customer.setNameMiddle("M");
+        customer.setNameFamily("Bar");
+        customer.setNameSuffix("Jr.");
+        customer.setPhoneNumber("555-1234");
+        assertThat(
+                "Converting a Customer to a CustomerRecord and back should keep every field.",
+                CustomerRecord.from(customer).toCustomer().equals(customer), is(true)
+        );
+        assertThat(
+                "The guid should be kept as well.",
+                CustomerRecord.from(customer).toCustomer().getGuid(), is("abc")
+        );
+    }
+
+    @Test
+    void testEqualityIncludesGuid() {
+        CustomerRecord record1 = CustomerRecord.from(customer("abc").namePrefix("Mr").email("foo@example.com").build());
+        CustomerRecord record2 = CustomerRecord.from(customer().namePrefix("Mr").email("foo@example.com").build());
+        assertThat(
+                "Unlike Customer, a CustomerRecord with a null guid is not equal to one with a guid.",
+                record1.equals(record2), is(false)
+        );
+        Set<CustomerRecord> records = new HashSet<>();
+        records.add(record1);
+        records.add(CustomerRecord.from(customer("abc").namePrefix("Mr").email("foo@example.com").build()));
+        assertThat(
+                "Equal CustomerRecords should collapse into one Set entry.",
+                records.size(), is(1)
+        );
+    }
+
+    @Test
+    void testNameAffixesAreShared() {
+        CustomerRecord record1 = CustomerRecord.from(
+                customer("1").namePrefix(new String("Dr")).email("one@example.com").build());
+        CustomerRecord record2 = CustomerRecord.from(
+                customer("2").namePrefix(new String("Dr")).email("two@example.com").build());
+        assertThat(
+                "Equal name prefixes should be the same String instance.",
+                record1.namePrefix() == record2.namePrefix(), is(true)
+        );
+    }
+}
@@ -0,0 +1,144 @@
+package jacana.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static jacana.service.CustomerBuilder.customer;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CustomerSearchIndexTest {
+
+    private List<Customer> storedCustomers;
+    private boolean unavailable;
+    private CustomerSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        storedCustomers = new ArrayList<>();
+        storedCustomers.add(
+                customer("1").nameSurname("John").nameFamily("Smith").email("john.smith@example.com").build());
+        storedCustomers.add(customer("2").nameSurname("Johanna").nameFamily("Jones").email("jj@example.com").build());
+        storedCustomers.add(customer("3").nameSurname("Mary").nameFamily("Johnson").email("mary@johnson.org").build());
+        storedCustomers.add(
+                customer("4").nameSurname("Peter").nameFamily("Parker").email("spidey@example.com").build());
+        unavailable = false;
+        index = new CustomerSearchIndex(new ListCustomerService(), 20, 100);
+    }
+
+    @Test
+    void testPrefixRankedBeforeSubstring() throws Exception {
+        List<Customer> results = index.search("john", null);
+        assertThat(
+                "Both customers containing 'john' should be found.",
+                results.size(), is(2)
+        );
+        assertThat(
+                "Exact surname match should rank first.",
+                results.get(0).getGuid(), is("1")
+        );
+        assertThat(
+                "Family name prefix match should rank after the exact match.",
+                results.get(1).getGuid(), is("3")
+        );
+    }
+
+    @Test
+    void testSubstringMatch() throws Exception {
+        List<Customer> results = index.search("PIDE", null);
+        assertThat(
+                "Substring matching should ignore case.",
+                results.size(), is(1)
+        );
+        assertThat(results.get(0).getGuid(), is("4"));
+    }
+
+    @Test
+    void testShortQueryMatchesPrefixOnly() throws Exception {
+        List<Customer> results = index.search("jo", null);
+        assertThat(
+                "Short queries should only match field prefixes (John, Johanna, Jones, Johnson).",
+                results.size(), is(3)
+        );
+        assertThat(
+                "Short query should not match in the middle of a value.",
+                index.search("hn", null).size(), is(0)
+        );
+    }
+
+    @Test
+    void testLimit() throws Exception {
+        assertThat(
+                "Results should be limited to the requested size.",
+                index.search("example", 2).size(), is(2)
+        );
+    }
+
+    @Test
+    void testIndexFollowsChanges() throws Exception {
+        assertThat(index.search("parker", null).size(), is(1));
+
+        Customer before = storedCustomers.get(3);
+        Customer after = customer("4").nameSurname("Peter").nameFamily("Quill").email("starlord@example.com").build();
+        index.onCustomerChange(CustomerChangeEvent.updated(before, after));
+        assertThat(
+                "Old family name should no longer match after an update.",
+                index.search("parker", null).size(), is(0)
+        );
+        assertThat(
+                "New family name should match after an update.",
+                index.search("quill", null).size(), is(1)
+        );
+
+        index.onCustomerChange(CustomerChangeEvent.deleted(after));
+        assertThat(
+                "Deleted customer should no longer match.",
+                index.search("quill", null).size(), is(0)
+        );
+
+        index.onCustomerChange(CustomerChangeEvent.inserted(
+                customer("5").nameSurname("Gamora").nameFamily("Zen").email("gamora@example.com").build()));
+        assertThat(
+                "Inserted customer should match.",
+                index.search("gamo", null).size(), is(1)
+        );
+        assertThat(index.size(), is(4));
+    }
+
+    @Test
+    void testFailedLoadIsRetried() throws Exception {
+        unavailable = true;
+        CustomerServiceException thrown = null;
+        try {
+            index.search("john", null);
+        } catch (CustomerServiceException ex) {
+            thrown = ex;
+        }
+        assertThat(
+                "A search must fail while the customers cannot be loaded.",
+                thrown instanceof CustomerServiceUnavailableException, is(true)
+        );
+        unavailable = false;
+        assertThat(
+                "The next search must load the index.",
+                index.search("john", null).size(), is(2)
+        );
+    }
+
+    /**
+     * Only getAll() is used by the index to load itself.
+     */
+    private class ListCustomerService extends StubCustomerService {
+
+        @Override
+        public List<Customer> getAll() throws CustomerServiceException {
+            if ( unavailable ) {
+                throw new CustomerServiceUnavailableException("Customer database is unavailable.");
+            }
+            return storedCustomers;
+        }
+    }
+}
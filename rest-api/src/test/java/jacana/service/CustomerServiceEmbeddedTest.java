@@ -0,0 +1,162 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static jacana.service.CustomerBuilder.customer;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.hamcrest.Matchers.nullValue;
+
+public class CustomerServiceEmbeddedTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<CustomerChangeEvent> events = new ArrayList<>();
+
+    private CustomerServiceEmbedded open() throws CustomerServiceException {
+        return new CustomerServiceEmbedded(directory, true, 0.5, 100, "1", 30, 1000, 10000, events::add);
+    }
+
+    @Test
+    void testWritesAreReadBackByGuidEmailAndPhone() throws Exception {
+        CustomerServiceEmbedded customers = open();
+        Customer alice = customers.insert(
+                customer().email("alice@example.com").nameSurname("Surname").phoneNumber("(555) 555-1212").build());
+        customers.insert(customer().email("bob@example.com").nameSurname("Surname").build());
+        assertThat(customers.getByGuid(alice.getGuid()).get().getEmail(), is("alice@example.com"));
+        assertThat(customers.getByEmail("Alice@Example.com").get().getGuid(), is(alice.getGuid()));
+        assertThat(customers.getByPhone("+1 555 555 1212").size(), is(1));
+        assertThat(customers.getAll().size(), is(2));
+        Customer projected = customers.getByGuid(alice.getGuid(), Set.of(CustomerField.EMAIL)).get();
+        assertThat(projected.getNameSurname(), nullValue());
+        CustomerServiceException duplicate = assertThrows(CustomerServiceException.class,
+                () -> customers.insert(customer().email("ALICE@example.com").nameSurname("Surname").build()));
+        assertThat(duplicate.getMessage().toLowerCase().contains("alice@example.com"), is(true));
+        assertThat(customers.getAll().size(), is(2));
+
+        Customer updated = customers.update(alice.getGuid(),
+                customer().email("alice@example.org").nameSurname("Surname").build());
+        assertThat(updated.getGuid(), is(alice.getGuid()));
+        assertThat(customers.getByEmail("alice@example.com").isPresent(), is(false));
+        assertThat(customers.getByPhone("555-555-1212").isEmpty(), is(true));
+        UpsertResult<Customer> upserted = customers.upsert("alice@example.org",
+                customer().nameSurname("Surname").phoneNumber("555-555-1313").build());
+        assertThat(upserted.isCreated(), is(false));
+        assertThat(upserted.getValue().getGuid(), is(alice.getGuid()));
+        assertThat(customers.upsert("carol@example.com", customer().nameSurname("Surname").build()).isCreated(),
+                is(true));
+
+        assertThat(customers.delete(alice.getGuid()).getEmail(), is("alice@example.org"));
+        assertThat(customers.getByGuid(alice.getGuid()).isPresent(), is(false));
+        CustomerNotFoundException notFound = assertThrows(CustomerNotFoundException.class,
+                () -> customers.delete(alice.getGuid()));
+        assertThat(notFound.getMessage().contains(alice.getGuid()), is(true));
+        assertThat(events.size(), is(6));
+        customers.close();
+    }
+
+    @Test
+    void testBulkItemsAreReportedOneByOne() throws Exception {
+        CustomerServiceEmbedded customers = open();
+        Customer alice = customers.insert(customer().email("alice@example.com").nameSurname("Surname").build());
+        Customer bob = customers.insert(customer().email("bob@example.com").nameSurname("Surname").build());
+        Customer patch = new Customer();
+        patch.setGuid(alice.getGuid());
+        patch.setNameFamily("Family");
+        Customer taken = new Customer();
+        taken.setGuid(bob.getGuid());
+        taken.setEmail("alice@example.com");
+        List<BulkItemResult<Customer>> updated = customers.bulkUpdate(List.of(patch, patch, taken));
+        assertThat(updated.get(0).getStatus(), is(BulkItemResult.Status.UPDATED));
+        assertThat(updated.get(1).getStatus(), is(BulkItemResult.Status.INVALID));
+        assertThat(updated.get(2).getStatus(), is(BulkItemResult.Status.FAILED));
+        assertThat(customers.getByGuid(alice.getGuid()).get().getNameFamily(), is("Family"));
+        assertThat(customers.getByGuid(alice.getGuid()).get().getNameSurname(), is("Surname"));
+
+        List<BulkItemResult<Customer>> deleted = customers.bulkDelete(List.of(alice.getGuid(), "missing", alice.getGuid()));
+        assertThat(deleted.get(0).getStatus(), is(BulkItemResult.Status.DELETED));
+        assertThat(deleted.get(1).getStatus(), is(BulkItemResult.Status.NOT_FOUND));
+        assertThat(deleted.get(2).getStatus(), is(BulkItemResult.Status.NOT_FOUND));
+        assertThat(customers.getAll().size(), is(1));
+        customers.close();
+    }
+
+    @Test
+    void testChangesArePagedWithDeletions() throws Exception {
+        CustomerServiceEmbedded customers = open();
+        Customer alice = customers.insert(customer().email("alice@example.com").nameSurname("Surname").build());
+        customers.insert(customer().email("bob@example.com").nameSurname("Surname").build());
+        customers.insert(customer().email("carol@example.com").nameSurname("Surname").build());
+        ChangeSet<Customer> first = customers.getChangedSince("", 2);
+        assertThat(first.getChanged().size(), is(2));
+        assertThat(first.isMore(), is(true));
+        customers.delete(alice.getGuid());
+        ChangeSet<Customer> second = customers.getChangedSince(first.getNext(), 2);
+        assertThat(second.getChanged().size(), is(1));
+        assertThat(second.getDeleted(), is(List.of(alice.getGuid())));
+        assertThat(second.isMore(), is(false));
+        assertThat(customers.getChangedSince(second.getNext(), 2).getChanged().isEmpty(), is(true));
+        customers.close();
+    }
+
+    @Test
+    void testStoreIsRecoveredAfterCrash() throws Exception {
+        CustomerServiceEmbedded customers = open();
+        Customer alice = customers.insert(customer().email("alice@example.com").nameSurname("Surname").build());
+        Customer bob = customers.insert(customer().email("bob@example.com").nameSurname("Surname").build());
+        customers.delete(bob.getGuid());
+        /*
+         * Not closed, as after a crash, and with half an entry at the end.
+         */
+        Files.write(directory.resolve(CustomerServiceEmbedded.LOG_FILE), new byte[] {0, 0, 0, 40, 1, 2},
+                StandardOpenOption.APPEND);
+        long size = Files.size(directory.resolve(CustomerServiceEmbedded.LOG_FILE));
+
+        CustomerServiceEmbedded recovered = open();
+        assertThat(Files.size(directory.resolve(CustomerServiceEmbedded.LOG_FILE)), is(size - 6));
+        assertThat(recovered.getByGuid(alice.getGuid()).isPresent(), is(true));
+        assertThat(recovered.getByEmail("bob@example.com").isPresent(), is(false));
+        recovered.insert(customer().email("bob@example.com").nameSurname("Surname").build());
+        recovered.close();
+
+        CustomerServiceEmbedded reopened = open();
+        assertThat(reopened.getAll().size(), is(2));
+        reopened.close();
+    }
+
+    @Test
+    void testCompactionKeepsCurrentCustomersAndDeletions() throws Exception {
+        CustomerServiceEmbedded customers = open();
+        Customer alice = customers.insert(customer().email("alice@example.com").nameSurname("Surname").build());
+        Customer bob = customers.insert(customer().email("bob@example.com").nameSurname("Surname").build());
+        for ( int i = 0; i < 100; i++ ) {
+            customers.update(alice.getGuid(),
+                    customer().email("alice" + i + "@example.com").nameSurname("Surname").build());
+        }
+        customers.delete(bob.getGuid());
+        long size = Files.size(directory.resolve(CustomerServiceEmbedded.LOG_FILE));
+        customers.compact();
+        assertThat(Files.size(directory.resolve(CustomerServiceEmbedded.LOG_FILE)) < size / 10, is(true));
+        assertThat(customers.getByEmail("alice99@example.com").get().getGuid(), is(alice.getGuid()));
+        assertThat(customers.getByEmail("alice98@example.com").isPresent(), is(false));
+        ChangeSet<Customer> changes = customers.getChangedSince("", 0);
+        assertThat(changes.getChanged().size(), is(1));
+        assertThat(changes.getDeleted(), is(List.of(bob.getGuid())));
+        customers.insert(customer().email("carol@example.com").nameSurname("Surname").build());
+        customers.close();
+
+        CustomerServiceEmbedded reopened = open();
+        assertThat(reopened.getAll().size(), is(2));
+        reopened.close();
+    }
+}
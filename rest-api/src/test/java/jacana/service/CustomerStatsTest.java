@@ -0,0 +1,109 @@
+package jacana.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static jacana.service.CustomerBuilder.customer;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CustomerStatsTest {
+
+    private List<Customer> storedCustomers;
+    private boolean unavailable;
+    private CustomerStats stats;
+
+    @BeforeEach
+    void setUp() {
+        storedCustomers = new ArrayList<>();
+        storedCustomers.add(customer("1").email("john@example.com").build());
+        storedCustomers.add(customer("2").email("jj@Example.COM").build());
+        storedCustomers.add(customer("3").email("mary@johnson.org").build());
+        storedCustomers.add(customer("4").build());
+        unavailable = false;
+        stats = new CustomerStats(new ListCustomerService(), 60, 10, 100);
+    }
+
+    @Test
+    void testCountsLoadedOnFirstUse() throws Exception {
+        CustomerStats.Stats loaded = stats.get(null);
+        assertThat(loaded.customers(), is(4L));
+        assertThat(
+                "Domains should be counted ignoring case, most customers first.",
+                loaded.topDomains(),
+                is(List.of(new CustomerStats.DomainCount("example.com", 2),
+                        new CustomerStats.DomainCount("johnson.org", 1)))
+        );
+        assertThat(stats.get(1).topDomains().size(), is(1));
+        assertThat(stats.get(0).topDomains().isEmpty(), is(true));
+    }
+
+    @Test
+    void testCountsFollowChanges() throws Exception {
+        stats.get(null);
+        stats.onCustomerChange(CustomerChangeEvent.inserted(customer("5").email("peter@johnson.org").build()));
+        stats.onCustomerChange(CustomerChangeEvent.updated(null, customer("1").email("john@johnson.org").build()));
+        stats.onCustomerChange(CustomerChangeEvent.remoteDeleted("2"));
+        stats.onCustomerChange(CustomerChangeEvent.remoteDeleted("unknown"));
+        CustomerStats.Stats changed = stats.get(null);
+        assertThat(changed.customers(), is(4L));
+        assertThat(
+                "An update without the previous Customer should still move its domain.",
+                changed.topDomains(),
+                is(List.of(new CustomerStats.DomainCount("johnson.org", 3)))
+        );
+        assertThat(stats.getCustomerCount(), is(4L));
+    }
+
+    @Test
+    void testReconcileCorrectsDrift() throws Exception {
+        stats.get(null);
+        storedCustomers.add(customer("5").email("missed@example.com").build());
+        stats.reconcile();
+        assertThat(stats.get(null).customers(), is(5L));
+        assertThat(stats.get(1).topDomains().get(0), is(new CustomerStats.DomainCount("example.com", 3)));
+    }
+
+    @Test
+    void testUnavailableUntilLoaded() throws Exception {
+        unavailable = true;
+        assertThrows(CustomerServiceUnavailableException.class, () -> stats.get(null));
+        assertThat(stats.getCustomerCount(), is(0L));
+        unavailable = false;
+        assertThat(stats.get(null).customers(), is(4L));
+        unavailable = true;
+        stats.onCustomerChange(CustomerChangeEvent.inserted(customer("5").email("new@example.com").build()));
+        CustomerServiceUnavailableException ex = assertThrows(CustomerServiceUnavailableException.class,
+                () -> stats.reconcile());
+        assertThat(ex.getMessage(), is("Customer database is unavailable."));
+        assertThat(
+                "A failed reconcile should keep the current counts.",
+                stats.get(null).customers(), is(5L)
+        );
+    }
+
+    @Test
+    void testDomain() {
+        assertThat(CustomerStats.domain("a@b@Example.com "), is("example.com"));
+        assertThat(CustomerStats.domain("nobody"), is((String) null));
+        assertThat(CustomerStats.domain("trailing@"), is((String) null));
+    }
+
+    /**
+     * Only getAll() is used, through scanAll(), to count the Customers.
+     */
+    private class ListCustomerService extends StubCustomerService {
+
+        @Override
+        public List<Customer> getAll() throws CustomerServiceException {
+            if ( unavailable ) {
+                throw new CustomerServiceUnavailableException("Customer database is unavailable.");
+            }
+            return storedCustomers;
+        }
+    }
+}
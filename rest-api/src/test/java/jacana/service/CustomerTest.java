@@ -90,4 +90,22 @@ public class CustomerTest {
                 customer1.equals(customer2), is(true)
         );
     }
+
+    @Test
+    void testHashCodeConsistentWithEquals() {
+        Customer customer1 = new Customer();
+        Customer customer2 = new Customer();
+        customer1.setGuid("abc");
+        customer1.setEmail("foo@example.com");
+        customer2.setEmail("foo@example.com");
+        assertThat(
+                "Customers that are equal because one has a null guid should have the same hash code.",
+                customer1.hashCode() == customer2.hashCode(), is(true)
+        );
+        customer2.setNamePrefix("Dr");
+        assertThat(
+                "Customers with different name prefixes should not be equal.",
+                customer1.equals(customer2), is(false)
+        );
+    }
 }
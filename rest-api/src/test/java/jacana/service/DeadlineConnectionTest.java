@@ -0,0 +1,106 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DeadlineConnectionTest {
+
+    private final List<Integer> queryTimeouts = new ArrayList<>();
+    private final List<Long> wasted = new ArrayList<>();
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private long queryMillis = 0;
+
+    /**
+     * A Connection whose queries take {queryMillis}, or until cancelled.
+     */
+    private Connection connection() {
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "setQueryTimeout" -> {
+                        queryTimeouts.add((Integer) args[0]);
+                        yield null;
+                    }
+                    case "cancel" -> {
+                        cancelled.countDown();
+                        yield null;
+                    }
+                    case "executeQuery" -> {
+                        if ( cancelled.await(queryMillis, TimeUnit.MILLISECONDS) ) {
+                            throw new SQLTimeoutException("Statement cancelled.");
+                        }
+                        yield null;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> method.getName().equals("prepareStatement") ? statement : null);
+    }
+
+    @Test
+    void testQueryWithinDeadlineRunsWithTimeout() throws Exception {
+        Connection connection = DeadlineConnection.wrap(connection(), Deadline.after(2500), wasted::add);
+        connection.prepareStatement("SELECT 1").executeQuery();
+        assertThat(queryTimeouts, is(List.of(3)));
+        assertThat(wasted.isEmpty(), is(true));
+    }
+
+    @Test
+    void testQueryIsCancelledWhenDeadlinePasses() throws Exception {
+        queryMillis = 10_000;
+        Connection connection = DeadlineConnection.wrap(connection(), Deadline.after(100), wasted::add);
+        long start = System.currentTimeMillis();
+        assertThrows(SQLTimeoutException.class, () -> connection.prepareStatement("SELECT 1").executeQuery());
+        assertThat(System.currentTimeMillis() - start < 5000, is(true));
+        assertThat(wasted.size(), is(1));
+    }
+
+    @Test
+    void testCancelledDeadlineCancelsQuery() throws Exception {
+        queryMillis = 10_000;
+        Deadline deadline = Deadline.none();
+        Connection connection = DeadlineConnection.wrap(connection(), deadline, wasted::add);
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            deadline.cancel();
+        });
+        assertThrows(SQLTimeoutException.class, () -> connection.prepareStatement("SELECT 1").executeQuery());
+        assertThat(queryTimeouts.isEmpty(), is(true));
+        assertThat(wasted.size(), is(1));
+    }
+
+    @Test
+    void testQueryAfterDeadlineIsNotStarted() throws Exception {
+        Connection connection = DeadlineConnection.wrap(connection(), Deadline.after(0), wasted::add);
+        assertThrows(SQLTimeoutException.class, () -> connection.prepareStatement("SELECT 1").executeQuery());
+        assertThat(queryTimeouts.isEmpty(), is(true));
+        assertThat(cancelled.getCount(), is(1L));
+    }
+
+    @Test
+    void testQuerySecondsRoundUp() {
+        assertThat(DeadlineConnection.querySeconds(1), is(1));
+        assertThat(DeadlineConnection.querySeconds(1000), is(1));
+        assertThat(DeadlineConnection.querySeconds(1001), is(2));
+        assertThat(DeadlineConnection.querySeconds(Long.MAX_VALUE / 2), is(Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,117 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HedgeTest {
+
+    private final AtomicInteger fired = new AtomicInteger();
+    private final AtomicInteger won = new AtomicInteger();
+
+    private Hedge hedge(double maxRate) {
+        return new Hedge(2, 0.95, 10, 10, maxRate, fired::incrementAndGet, won::incrementAndGet);
+    }
+
+    /**
+     * Answers {endpoint} after {millis}, or fails once its Deadline is
+     * cancelled.
+     */
+    private static String answer(int endpoint, long millis) throws Exception {
+        long end = System.currentTimeMillis() + millis;
+        while ( System.currentTimeMillis() < end ) {
+            if ( Deadline.current().map(Deadline::isCancelled).orElse(false) ) {
+                throw new CustomerServiceUnavailableException("cancelled");
+            }
+            Thread.sleep(1);
+        }
+        return "endpoint " + endpoint;
+    }
+
+    @Test
+    void testSlowEndpointIsHedgedAndCancelled() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        String answer = hedge(1).execute(endpoint -> {
+            if ( endpoint == 0 ) {
+                try {
+                    return answer(endpoint, 10_000);
+                } catch (CustomerServiceUnavailableException ex) {
+                    cancelled.countDown();
+                    throw ex;
+                }
+            }
+            return answer(endpoint, 0);
+        });
+        assertThat(answer, is("endpoint 1"));
+        assertThat(fired.get(), is(1));
+        assertThat(won.get(), is(1));
+        assertThat("The slow attempt must be cancelled.", cancelled.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    void testCancellingTheCallerCancelsBothAttempts() throws Exception {
+        Hedge hedge = hedge(1);
+        SingleFlight<String, String> flight = new SingleFlight<>(value -> value, () -> {});
+        CountDownLatch cancelled = new CountDownLatch(2);
+        Deadline.set(Deadline.after(200));
+        try {
+            assertThrows(CustomerServiceUnavailableException.class, () -> flight.execute("slow", () -> {
+                try {
+                    return hedge.execute(endpoint -> {
+                        try {
+                            return answer(endpoint, 10_000);
+                        } catch (CustomerServiceUnavailableException ex) {
+                            cancelled.countDown();
+                            throw ex;
+                        }
+                    });
+                } catch (CustomerServiceException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new CustomerServiceException(ex.getMessage());
+                }
+            }));
+        } finally {
+            Deadline.set(null);
+        }
+        assertThat(fired.get(), is(1));
+        assertThat(
+                "Both attempts must be cancelled once nobody waits for the shared call.",
+                cancelled.await(5, TimeUnit.SECONDS), is(true)
+        );
+    }
+
+    @Test
+    void testFastAnswersAreNotHedged() throws Exception {
+        Hedge hedge = hedge(1);
+        for ( int i = 0; i < 4; i++ ) {
+            assertThat(hedge.execute(endpoint -> answer(endpoint, 0)), is("endpoint " + (i % 2)));
+        }
+        assertThat(fired.get(), is(0));
+    }
+
+    @Test
+    void testHedgesAreCappedAtMaxRate() throws Exception {
+        Hedge hedge = hedge(0.25);
+        for ( int i = 0; i < 8; i++ ) {
+            hedge.execute(endpoint -> answer(endpoint, 30));
+        }
+        assertThat("One hedge to start with and one per four requests.", fired.get(), is(3));
+    }
+
+    @Test
+    void testDelayFollowsLatencyPercentile() {
+        Hedge hedge = new Hedge(2, 0.5, 1, 1000, 1, () -> {}, () -> {});
+        assertThat(hedge.getDelayMillis(), is(1000L));
+        for ( int i = 0; i < 64; i++ ) {
+            hedge.record(i < 32 ? 10 : 30);
+        }
+        assertThat(hedge.getDelayMillis(), is(30L));
+    }
+}
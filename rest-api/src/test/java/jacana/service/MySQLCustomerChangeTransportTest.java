@@ -0,0 +1,295 @@
+package jacana.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Drives poll() and flush() directly against an in-memory CustomerChanges
+ * table, in which a row only becomes visible when it is committed, so ids
+ * can be seen out of order as they are in MySQL.
+ */
+public class MySQLCustomerChangeTransportTest {
+
+    private static final String CHANGES_SQL = "changes ({ids})";
+
+    private ChangeTable table;
+    private long now;
+    private List<CustomerInvalidation> received;
+    private MySQLCustomerChangeTransport transport;
+
+    @BeforeEach
+    void setUp() {
+        table = new ChangeTable();
+        now = 1_000_000;
+        received = new ArrayList<>();
+        transport = transport(10);
+    }
+
+    @Test
+    void testFirstPollOnlyReadsHighWater() {
+        table.commit(table.begin("other", "1"));
+        table.commit(table.begin("other", "2"));
+        transport.poll();
+        assertThat("Rows before the first poll should not be passed on.", received.isEmpty(), is(true));
+
+        table.commit(table.begin("other", "3"));
+        transport.poll();
+        assertThat(guids(), is(List.of("3")));
+    }
+
+    @Test
+    void testSkippedIdIsPolledAgain() {
+        transport.poll();
+        long skipped = table.begin("other", "1");
+        table.commit(table.begin("other", "2"));
+        transport.poll();
+        assertThat(guids(), is(List.of("2")));
+        assertThat(table.lastChangesSql, is("changes (NULL)"));
+
+        transport.poll();
+        assertThat(
+                "The skipped id should be asked for while it is not committed.",
+                table.lastChangesSql, is("changes (?)")
+        );
+        assertThat(guids(), is(List.of("2")));
+
+        table.commit(skipped);
+        transport.poll();
+        assertThat(guids(), is(List.of("2", "1")));
+
+        transport.poll();
+        assertThat(
+                "An id that was found should not be asked for again.",
+                table.lastChangesSql, is("changes (NULL)")
+        );
+        assertThat(guids(), is(List.of("2", "1")));
+    }
+
+    @Test
+    void testLateCommitWithinGapTimeout() {
+        transport.poll();
+        long skipped = table.begin("other", "1");
+        table.commit(table.begin("other", "2"));
+        transport.poll();
+        now += 9_000;
+        table.commit(skipped);
+        transport.poll();
+        assertThat(guids(), is(List.of("2", "1")));
+    }
+
+    @Test
+    void testLateCommitAfterGapTimeout() {
+        transport.poll();
+        long skipped = table.begin("other", "1");
+        table.commit(table.begin("other", "2"));
+        transport.poll();
+        now += 10_001;
+        transport.poll();
+        assertThat(
+                "An id skipped for longer than the gap timeout should be given up on.",
+                table.lastChangesSql, is("changes (NULL)")
+        );
+        table.commit(skipped);
+        transport.poll();
+        assertThat(guids(), is(List.of("2")));
+    }
+
+    @Test
+    void testSeveralGapsAreAskedForTogether() {
+        transport.poll();
+        long first = table.begin("other", "1");
+        long second = table.begin("other", "2");
+        table.commit(table.begin("other", "3"));
+        transport.poll();
+        transport.poll();
+        assertThat(table.lastChangesSql, is("changes (?, ?)"));
+        assertThat(table.lastParameters, is(List.of(3L, first, second)));
+        table.commit(second);
+        transport.poll();
+        assertThat(guids(), is(List.of("3", "2")));
+        assertThat(table.lastChangesSql, is("changes (?, ?)"));
+        transport.poll();
+        assertThat(table.lastChangesSql, is("changes (?)"));
+    }
+
+    @Test
+    void testPublishedNoticesAreInsertedInBatches() {
+        for ( int i = 0; i < 2500; i++ ) {
+            transport.publish("self", Integer.toString(i));
+        }
+        transport.flush();
+        transport.flush();
+        transport.flush();
+        transport.flush();
+        assertThat(table.batchSizes, is(List.of(1000, 1000, 500)));
+        assertThat(table.rows.size(), is(2500));
+        assertThat(table.rows.get(1L).guid(), is("0"));
+    }
+
+    @Test
+    void testFailedInsertIsRetried() {
+        transport.publish("self", "1");
+        table.unavailable = true;
+        transport.flush();
+        assertThat(table.rows.isEmpty(), is(true));
+        table.unavailable = false;
+        transport.poll();
+        assertThat(
+                "A notice that failed to insert should be inserted by the next poll.",
+                table.rows.size(), is(1)
+        );
+    }
+
+    private MySQLCustomerChangeTransport transport(long gapTimeoutSeconds) {
+        MySQLCustomerChangeTransport created = new MySQLCustomerChangeTransport(table::connection,
+                "create", "insert", "high water", CHANGES_SQL, "purge", 1000, gapTimeoutSeconds, 60,
+                () -> now, new ManualScheduler());
+        created.subscribe(received::addAll);
+        return created;
+    }
+
+    private List<String> guids() {
+        return received.stream().map(CustomerInvalidation::guid).toList();
+    }
+
+    /**
+     * Never runs anything, the tests call poll() and flush() themselves.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+                                                         TimeUnit unit) {
+            return null;
+        }
+    }
+
+    private record Row(String origin, String guid) {
+    }
+
+    /**
+     * The CustomerChanges table, and the JDBC objects over it that the
+     * transport uses.
+     */
+    private static class ChangeTable {
+        private final TreeMap<Long, Row> rows = new TreeMap<>();
+        private final Map<Long, Row> uncommitted = new HashMap<>();
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private long nextId = 1;
+        private boolean unavailable = false;
+        private String lastChangesSql;
+        private List<Object> lastParameters;
+
+        long begin(String origin, String guid) {
+            long id = nextId++;
+            uncommitted.put(id, new Row(origin, guid));
+            return id;
+        }
+
+        void commit(long id) {
+            rows.put(id, uncommitted.remove(id));
+        }
+
+        Connection connection() throws SQLException {
+            if ( unavailable ) {
+                throw new SQLException("Communications link failure");
+            }
+            return proxy(Connection.class, (method, args) -> switch (method) {
+                case "createStatement" -> statement(null);
+                case "prepareStatement" -> statement((String) args[0]);
+                default -> null;
+            });
+        }
+
+        private PreparedStatement statement(String preparedSql) {
+            List<Object> parameters = new ArrayList<>();
+            List<Row> batch = new ArrayList<>();
+            return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+                case "setLong", "setString" -> {
+                    int index = (Integer) args[0] - 1;
+                    while ( parameters.size() <= index ) {
+                        parameters.add(null);
+                    }
+                    parameters.set(index, args[1]);
+                    yield null;
+                }
+                case "addBatch" -> {
+                    batch.add(new Row((String) parameters.get(0), (String) parameters.get(1)));
+                    yield null;
+                }
+                case "executeBatch" -> {
+                    batch.forEach(row -> commit(begin(row.origin(), row.guid())));
+                    batchSizes.add(batch.size());
+                    yield new int[batch.size()];
+                }
+                case "execute" -> true;
+                case "executeUpdate" -> 0;
+                case "executeQuery" -> query(args == null ? preparedSql : (String) args[0], parameters);
+                default -> null;
+            });
+        }
+
+        private ResultSet query(String sql, List<Object> parameters) {
+            List<Map<String, Object>> results = new ArrayList<>();
+            if ( sql.equals("high water") ) {
+                results.add(Map.of("1", rows.isEmpty() ? 0L : rows.lastKey()));
+            } else {
+                lastChangesSql = sql;
+                lastParameters = List.copyOf(parameters);
+                long above = (Long) parameters.get(0);
+                rows.forEach((id, row) -> {
+                    if ( id > above || parameters.subList(1, parameters.size()).contains(id) ) {
+                        results.add(Map.of("id", id, "origin", row.origin(), "guid", row.guid(), "lagMillis", 0L));
+                    }
+                });
+            }
+            Iterator<Map<String, Object>> iterator = results.iterator();
+            Map<String, Object>[] current = new Map[1];
+            return proxy(ResultSet.class, (method, args) -> switch (method) {
+                case "next" -> {
+                    current[0] = iterator.hasNext() ? iterator.next() : null;
+                    yield Objects.nonNull(current[0]);
+                }
+                case "getLong", "getString" -> current[0].get(args[0].toString());
+                default -> null;
+            });
+        }
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args) throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.invoke(method.getName(), args));
+    }
+}
@@ -0,0 +1,33 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class PhoneNumbersTest {
+
+    @Test
+    void testFormatsOfOneNumberNormalizeTheSame() {
+        for ( String phone : new String[] {"555-555-1212", "(555) 555-1212", "555.555.1212",
+                "1-555-555-1212", "+1 555 555 1212", "001 555 555 1212", "555-555-1212 x42"} ) {
+            assertThat(phone, PhoneNumbers.normalize(phone, "1"), is("+15555551212"));
+        }
+    }
+
+    @Test
+    void testNationalNumbersGetTheDefaultCountryCode() {
+        assertThat(PhoneNumbers.normalize("020 7946 0018", "44"), is("+442079460018"));
+        assertThat(PhoneNumbers.normalize("+44 20 7946 0018", "1"), is("+442079460018"));
+    }
+
+    @Test
+    void testNonNumbersHaveNoKey() {
+        assertThat(PhoneNumbers.normalize(null, "1"), nullValue());
+        assertThat(PhoneNumbers.normalize("", "1"), nullValue());
+        assertThat(PhoneNumbers.normalize("unknown", "1"), nullValue());
+        assertThat(PhoneNumbers.normalize("12", "1"), nullValue());
+        assertThat(PhoneNumbers.normalize("+1234567890123456", "1"), nullValue());
+    }
+}
@@ -0,0 +1,173 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SingleFlightTest {
+
+    private static final int FOLLOWERS = 5;
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch followersArrived = new CountDownLatch(FOLLOWERS);
+    private final SingleFlight<String, StringBuilder> flight =
+            new SingleFlight<>(value -> new StringBuilder(value), followersArrived::countDown);
+
+    @Test
+    void testConcurrentCallsShareOneCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            Future<StringBuilder> leader = executor.submit(() -> flight.execute("hot", () -> {
+                calls.incrementAndGet();
+                await(release);
+                return new StringBuilder("John");
+            }));
+            while ( flight.inFlight() == 0 ) {
+                Thread.onSpinWait();
+            }
+            List<Future<StringBuilder>> followers = new ArrayList<>();
+            for ( int i = 0; i < FOLLOWERS; i++ ) {
+                followers.add(executor.submit(() -> flight.execute("hot", () -> {
+                    calls.incrementAndGet();
+                    return new StringBuilder("other");
+                })));
+            }
+            assertThat(followersArrived.await(10, TimeUnit.SECONDS), is(true));
+            release.countDown();
+
+            StringBuilder led = leader.get();
+            for ( Future<StringBuilder> follower : followers ) {
+                StringBuilder shared = follower.get();
+                assertThat(shared.toString(), is("John"));
+                assertThat("Each caller must get its own copy.", shared == led, is(false));
+            }
+            assertThat(calls.get(), is(1));
+            assertThat(flight.inFlight(), is(0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testExceptionIsSharedAndNextCallRunsAgain() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            Future<StringBuilder> leader = executor.submit(() -> flight.execute("down", () -> {
+                await(release);
+                throw new CustomerServiceUnavailableException("Database is down.");
+            }));
+            while ( flight.inFlight() == 0 ) {
+                Thread.onSpinWait();
+            }
+            Future<StringBuilder> follower = executor.submit(() -> flight.execute("down", () -> new StringBuilder("other")));
+            while ( followersArrived.getCount() == FOLLOWERS ) {
+                Thread.onSpinWait();
+            }
+            release.countDown();
+
+            for ( Future<StringBuilder> future : List.of(leader, follower) ) {
+                ExecutionException ex = assertThrows(ExecutionException.class, future::get);
+                assertThat(
+                        "The exception of the shared call must be thrown.",
+                        ex.getCause() instanceof CustomerServiceUnavailableException, is(true)
+                );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(
+                "A call after the shared one completed must run again.",
+                flight.execute("down", () -> new StringBuilder("up")).toString(), is("up")
+        );
+    }
+
+    @Test
+    void testCallerStopsWaitingAtItsOwnDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Deadline> callDeadline = new AtomicReference<>();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            Future<StringBuilder> impatient = executor.submit(() -> {
+                Deadline.set(Deadline.after(500));
+                try {
+                    return flight.execute("slow", () -> {
+                        callDeadline.set(Deadline.current().orElseThrow());
+                        await(release);
+                        return new StringBuilder("John");
+                    });
+                } finally {
+                    Deadline.set(null);
+                }
+            });
+            while ( flight.inFlight() == 0 ) {
+                Thread.onSpinWait();
+            }
+            Future<StringBuilder> patient = executor.submit(() -> flight.execute("slow", () -> new StringBuilder("other")));
+            while ( followersArrived.getCount() == FOLLOWERS ) {
+                Thread.onSpinWait();
+            }
+
+            ExecutionException ex = assertThrows(ExecutionException.class, impatient::get);
+            assertThat(ex.getCause() instanceof CustomerServiceUnavailableException, is(true));
+            assertThat(
+                    "The call must not run under the deadline of the caller that started it.",
+                    callDeadline.get().isUnbounded() && !callDeadline.get().isCancelled(), is(true)
+            );
+            release.countDown();
+            assertThat(patient.get().toString(), is("John"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testCallIsCancelledWhenNoCallerWaits() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Deadline> callDeadline = new AtomicReference<>();
+        Deadline.set(Deadline.after(50));
+        try {
+            assertThrows(CustomerServiceUnavailableException.class, () -> flight.execute("slow", () -> {
+                callDeadline.set(Deadline.current().orElseThrow());
+                started.countDown();
+                await(release);
+                return new StringBuilder("John");
+            }));
+        } finally {
+            Deadline.set(null);
+        }
+        await(started);
+        assertThat(
+                "The call must be cancelled once nobody waits for it.",
+                callDeadline.get().isCancelled(), is(true)
+        );
+        assertThat(
+                "A call after every caller stopped waiting must run again.",
+                flight.execute("slow", () -> new StringBuilder("up")).toString(), is("up")
+        );
+        release.countDown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
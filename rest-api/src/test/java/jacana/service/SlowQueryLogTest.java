@@ -0,0 +1,122 @@
+package jacana.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class SlowQueryLogTest {
+
+    private static final String SELECT_BY_EMAIL = "SELECT guid, email\n      FROM Customers\n     WHERE email=?";
+
+    @Test
+    void testRecordsShapeAndRowsButNoValues() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(0, 0, 10);
+        Connection connection = log.wrap(fakeConnection(3), () -> null);
+
+        PreparedStatement preparedStatement = connection.prepareStatement(SELECT_BY_EMAIL);
+        preparedStatement.setString(1, "john@example.com");
+        ResultSet resultSet = preparedStatement.executeQuery();
+        while (resultSet.next()) {
+            // read every row
+        }
+        assertThat("A query is only recorded when its statement is closed.", log.getRecent().size(), is(0));
+        preparedStatement.close();
+
+        List<SlowQuery> recent = log.getRecent();
+        assertThat(recent.size(), is(1));
+        SlowQuery slowQuery = recent.get(0);
+        assertThat(slowQuery.sql(), is("SELECT guid, email FROM Customers WHERE email=?"));
+        assertThat(slowQuery.parameters(), is(List.of("STRING(16)")));
+        assertThat(slowQuery.rows(), is(3L));
+        assertThat(slowQuery.plan(), is(nullValue()));
+        assertThat(
+                "Bound values must never be recorded.",
+                slowQuery.toString().contains("john@example.com"), is(false)
+        );
+        assertThat(log.getRecorded(), is(1L));
+    }
+
+    @Test
+    void testFastStatementsAreNotRecorded() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(60_000, 0, 10);
+        Connection connection = log.wrap(fakeConnection(1), () -> null);
+
+        PreparedStatement preparedStatement = connection.prepareStatement(SELECT_BY_EMAIL);
+        preparedStatement.setString(1, "john@example.com");
+        preparedStatement.executeQuery().next();
+        preparedStatement.close();
+
+        assertThat(log.getRecent().size(), is(0));
+    }
+
+    @Test
+    void testKeepsMostRecentFirst() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(0, 0, 2);
+        Connection connection = log.wrap(fakeConnection(0), () -> null);
+        for ( String table : List.of("A", "B", "C") ) {
+            PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM " + table + " WHERE guid=?");
+            preparedStatement.setString(1, "1");
+            preparedStatement.executeUpdate();
+            preparedStatement.close();
+        }
+        List<SlowQuery> recent = log.getRecent();
+        assertThat(recent.size(), is(2));
+        assertThat(recent.get(0).sql(), is("DELETE FROM C WHERE guid=?"));
+        assertThat(recent.get(0).rows(), is(1L));
+    }
+
+    @Test
+    void testSqlKeyIgnoresWhitespaceAndInListLength() {
+        assertThat(
+                SlowQueryLog.sqlKey("SELECT * FROM Customers WHERE guid IN (?, ?, ?)"),
+                is(SlowQueryLog.sqlKey("SELECT *\n  FROM Customers\n WHERE guid IN (?)"))
+        );
+        assertThat(SlowQueryLog.sqlKey("DELETE FROM Customers WHERE guid=?").startsWith("DELETE-"), is(true));
+        TreeMap<Integer, Object> parameters = new TreeMap<>();
+        parameters.put(2, null);
+        parameters.put(1, 42L);
+        assertThat(SlowQueryLog.shapes(parameters), is(List.of("LONG", "NULL")));
+    }
+
+    /**
+     * A Connection whose queries return {rows} rows and whose updates
+     * change one row.
+     */
+    private static Connection fakeConnection(int rows) {
+        return (Connection) Proxy.newProxyInstance(SlowQueryLogTest.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "prepareStatement" -> fakeStatement(rows);
+                    default -> null;
+                });
+    }
+
+    private static PreparedStatement fakeStatement(int rows) {
+        return (PreparedStatement) Proxy.newProxyInstance(SlowQueryLogTest.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "executeQuery" -> fakeResultSet(rows);
+                    case "executeUpdate" -> 1;
+                    default -> null;
+                });
+    }
+
+    private static ResultSet fakeResultSet(int rows) {
+        int[] read = {0};
+        return (ResultSet) Proxy.newProxyInstance(SlowQueryLogTest.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "next" -> read[0]++ < rows;
+                    default -> null;
+                });
+    }
+}
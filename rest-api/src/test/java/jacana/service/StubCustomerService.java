@@ -0,0 +1,74 @@
+package jacana.service;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * CustomerService for tests in which every method throws
+ * UnsupportedOperationException. A test overrides only the methods the
+ * code under test is expected to call.
+ */
+class StubCustomerService implements CustomerService<Customer> {
+
+    @Override
+    public List<Customer> getAll() throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Optional<Customer> getByGuid(String guid) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Optional<Customer> getByEmail(String email) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Customer> getByPhone(String phone) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Customer> getRange(String from, String after, String to, int limit,
+                                   Set<CustomerField> fields) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ChangeSet<Customer> getChangedSince(String token, int limit) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Customer insert(Customer customer) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Customer update(String guid, Customer customer) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UpsertResult<Customer> upsert(String email, Customer customer) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Customer delete(String guid) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<BulkItemResult<Customer>> bulkDelete(List<String> guids) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<BulkItemResult<Customer>> bulkUpdate(List<Customer> patches) throws CustomerServiceException {
+        throw new UnsupportedOperationException();
+    }
+}
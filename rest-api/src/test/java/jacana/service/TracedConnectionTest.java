@@ -0,0 +1,118 @@
+package jacana.service;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TracedConnectionTest {
+
+    private static final String SELECT_BY_EMAIL = "SELECT guid, email FROM Customers WHERE emailKey=LOWER(?)";
+    private static final AttributeKey<String> DB_STATEMENT = AttributeKey.stringKey("db.statement");
+
+    private final InMemorySpanExporter exporter = InMemorySpanExporter.create();
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+            .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+            .build();
+    private final Tracer tracer = tracerProvider.get("jacana");
+
+    @AfterEach
+    void tearDown() {
+        tracerProvider.close();
+    }
+
+    @Test
+    void testStatementSpanIsChildOfOperationSpan() throws Exception {
+        Span operation = tracer.spanBuilder("CustomerServiceMySQL.getByEmail").startSpan();
+        try (Scope ignored = operation.makeCurrent()) {
+            selectByEmail(TracedConnection.wrap(fakeConnection(), tracer));
+        } finally {
+            operation.end();
+        }
+
+        List<SpanData> spans = exporter.getFinishedSpanItems();
+        assertThat(spans.size(), is(2));
+        SpanData statement = spans.get(0);
+        assertThat(statement.getName(), is("SELECT"));
+        assertThat(statement.getKind(), is(SpanKind.CLIENT));
+        assertThat(statement.getTraceId(), is(operation.getSpanContext().getTraceId()));
+        assertThat(
+                "The statement span must be a child of the operation that ran it.",
+                statement.getParentSpanId(), is(operation.getSpanContext().getSpanId())
+        );
+    }
+
+    @Test
+    void testStatementHoldsOnlyPlaceholders() throws Exception {
+        Span operation = tracer.spanBuilder("CustomerServiceMySQL.getByEmail").startSpan();
+        try (Scope ignored = operation.makeCurrent()) {
+            selectByEmail(TracedConnection.wrap(fakeConnection(), tracer));
+        } finally {
+            operation.end();
+        }
+
+        SpanData statement = exporter.getFinishedSpanItems().get(0);
+        assertThat(statement.getAttributes().get(DB_STATEMENT), is(SELECT_BY_EMAIL));
+        assertThat(
+                "Bound values must never end up in a trace.",
+                statement.toString().contains("john@example.com"), is(false)
+        );
+    }
+
+    @Test
+    void testBackgroundThreadStartsNoTrace() throws Exception {
+        Exception[] failure = new Exception[1];
+        Thread background = Thread.ofPlatform().start(() -> {
+            try {
+                selectByEmail(TracedConnection.wrap(fakeConnection(), tracer));
+            } catch (Exception ex) {
+                failure[0] = ex;
+            }
+        });
+        background.join();
+
+        assertThat(failure[0], is(nullValue()));
+        assertThat(
+                "Statements outside a trace must not start one.",
+                exporter.getFinishedSpanItems().size(), is(0)
+        );
+    }
+
+    private static void selectByEmail(Connection connection) throws Exception {
+        PreparedStatement preparedStatement = connection.prepareStatement(SELECT_BY_EMAIL);
+        preparedStatement.setString(1, "john@example.com");
+        preparedStatement.executeQuery();
+        preparedStatement.close();
+    }
+
+    private static Connection fakeConnection() {
+        return (Connection) Proxy.newProxyInstance(TracedConnectionTest.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "prepareStatement" -> fakeStatement();
+                    default -> null;
+                });
+    }
+
+    private static PreparedStatement fakeStatement() {
+        return (PreparedStatement) Proxy.newProxyInstance(TracedConnectionTest.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> null);
+    }
+}